@@ -0,0 +1,16 @@
+import java.util.HashMap;
+import java.util.Map;
+
+import tv.ustream.yolo.module.parser.scriptengine.IScriptParser;
+
+public class ExampleParser implements IScriptParser
+{
+
+    public Map<String, Object> parse(final String line)
+    {
+        Map<String, Object> result = new HashMap<String, Object>();
+        result.put("line", line.toUpperCase());
+        return result;
+    }
+
+}
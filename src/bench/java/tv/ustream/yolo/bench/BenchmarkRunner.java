@@ -0,0 +1,122 @@
+package tv.ustream.yolo.bench;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal benchmark harness for the bench source set, the benchmarks are not part of the test run.
+ *
+ * The cases are run after each other in every round on the calling thread, the first rounds are only for warming
+ * up the JIT. The average time of one operation is printed for every case with the best measured round. The
+ * results of the operations are summed and printed, so the JIT can't remove the measured code.
+ */
+public final class BenchmarkRunner
+{
+
+    private static final int DEFAULT_WARMUP_ROUNDS = 10;
+
+    private static final int DEFAULT_MEASURED_ROUNDS = 10;
+
+    private final String name;
+
+    private final int operations;
+
+    private final int warmupRounds;
+
+    private final int measuredRounds;
+
+    private final Map<String, IOperation> cases = new LinkedHashMap<String, IOperation>();
+
+    private long blackhole = 0;
+
+    /**
+     * One measured operation, it should return a value depending on the work done
+     */
+    public interface IOperation
+    {
+
+        long run(int index);
+
+    }
+
+    public BenchmarkRunner(final String name, final int operations)
+    {
+        this(name, operations, Integer.getInteger("bench.warmupRounds", DEFAULT_WARMUP_ROUNDS),
+                Integer.getInteger("bench.rounds", DEFAULT_MEASURED_ROUNDS));
+    }
+
+    public BenchmarkRunner(final String name, final int operations, final int warmupRounds, final int measuredRounds)
+    {
+        this.name = name;
+        this.operations = operations;
+        this.warmupRounds = warmupRounds;
+        this.measuredRounds = measuredRounds;
+    }
+
+    public BenchmarkRunner add(final String caseName, final IOperation operation)
+    {
+        cases.put(caseName, operation);
+        return this;
+    }
+
+    public void run()
+    {
+        System.out.println(name + ": " + operations + " operations, " + warmupRounds + " warmup and "
+                + measuredRounds + " measured rounds");
+
+        for (int round = 0; round < warmupRounds; round++)
+        {
+            for (IOperation operation : cases.values())
+            {
+                measure(operation);
+            }
+        }
+
+        Map<String, List<Long>> times = new LinkedHashMap<String, List<Long>>();
+        for (String caseName : cases.keySet())
+        {
+            times.put(caseName, new ArrayList<Long>());
+        }
+        for (int round = 0; round < measuredRounds; round++)
+        {
+            for (Map.Entry<String, IOperation> entry : cases.entrySet())
+            {
+                times.get(entry.getKey()).add(measure(entry.getValue()));
+            }
+        }
+
+        for (Map.Entry<String, List<Long>> entry : times.entrySet())
+        {
+            long total = 0;
+            long best = Long.MAX_VALUE;
+            for (long time : entry.getValue())
+            {
+                total += time;
+                best = Math.min(best, time);
+            }
+            System.out.println(String.format(
+                    "  %-40s %10.1f ns/op (best %.1f ns/op)",
+                    entry.getKey(),
+                    (double) total / entry.getValue().size() / operations,
+                    (double) best / operations
+            ));
+        }
+        System.out.println("  (" + blackhole + ")");
+    }
+
+    private long measure(final IOperation operation)
+    {
+        long result = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < operations; i++)
+        {
+            result += operation.run(i);
+        }
+        long time = System.nanoTime() - start;
+        blackhole += result;
+        return time;
+    }
+
+}
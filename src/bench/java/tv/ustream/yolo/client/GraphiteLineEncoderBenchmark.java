@@ -0,0 +1,75 @@
+package tv.ustream.yolo.client;
+
+import tv.ustream.yolo.bench.BenchmarkRunner;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+/**
+ * Compares GraphiteLineEncoder with the String.format based encoding it replaced
+ */
+public final class GraphiteLineEncoderBenchmark
+{
+
+    private static final int OPERATIONS = 200000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String PREFIX = "prefix.";
+
+    private static final String KEY = "some.metric.key";
+
+    private static final long TIMESTAMP = 1400000000L;
+
+    private GraphiteLineEncoderBenchmark()
+    {
+    }
+
+    public static void main(final String[] args)
+    {
+        final double[] values = new double[1024];
+        Random random = new Random(1);
+        for (int i = 0; i < values.length; i++)
+        {
+            // integers, short decimals and values with many fraction digits
+            values[i] = i % 3 == 0 ? random.nextInt(100000) : i % 3 == 1 ? i * 0.25 : random.nextDouble() * 1000;
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        final GraphiteLineEncoder encoder = new GraphiteLineEncoder(PREFIX);
+
+        new BenchmarkRunner("Graphite plaintext line encoding", OPERATIONS)
+                .add("String.format", new BenchmarkRunner.IOperation()
+                {
+                    @Override
+                    public long run(final int index)
+                    {
+                        byte[] line = String.format(
+                                "%s%s %f %d\n", PREFIX, KEY, values[index & 1023], TIMESTAMP + index
+                        ).getBytes(UTF_8);
+                        if (buffer.remaining() < line.length)
+                        {
+                            buffer.clear();
+                        }
+                        buffer.put(line);
+                        return buffer.position();
+                    }
+                })
+                .add("GraphiteLineEncoder", new BenchmarkRunner.IOperation()
+                {
+                    @Override
+                    public long run(final int index)
+                    {
+                        if (!encoder.encode(buffer, KEY, values[index & 1023], TIMESTAMP + index))
+                        {
+                            buffer.clear();
+                            encoder.encode(buffer, KEY, values[index & 1023], TIMESTAMP + index);
+                        }
+                        return buffer.position();
+                    }
+                })
+                .run();
+    }
+
+}
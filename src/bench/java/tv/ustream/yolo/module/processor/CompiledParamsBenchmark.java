@@ -0,0 +1,143 @@
+package tv.ustream.yolo.module.processor;
+
+import tv.ustream.yolo.bench.BenchmarkRunner;
+import tv.ustream.yolo.client.GraphiteClient;
+import tv.ustream.yolo.config.ConfigException;
+import tv.ustream.yolo.config.ConfigPattern;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares processing lines with the process parameters compiled once per transition (processCompiled) and with
+ * the parameter map looked up and converted for every line (process), with a Graphite processor which doesn't send
+ */
+public final class CompiledParamsBenchmark
+{
+
+    private static final int OPERATIONS = 200000;
+
+    private static final int PARSER_OUTPUTS = 1024;
+
+    private static long sent = 0;
+
+    private CompiledParamsBenchmark()
+    {
+    }
+
+    public static void main(final String[] args) throws ConfigException
+    {
+        final GraphiteProcessor processor = new GraphiteProcessor()
+        {
+            @Override
+            protected GraphiteClient createClient(final String host, final int port, final long flushTimeMs,
+                                                  final String prefix, final GraphiteClient.Protocol protocol,
+                                                  final long maxBufferSize, final File spillDirectory,
+                                                  final long maxSpillSize)
+            {
+                return new GraphiteClient(host, port, flushTimeMs, prefix)
+                {
+                    @Override
+                    public void sendMetrics(final String key, final Double value)
+                    {
+                        sent += key.length();
+                    }
+
+                    @Override
+                    public void sendMetrics(final String key, final Double value, final long timestamp)
+                    {
+                        sent += key.length() + timestamp;
+                    }
+                };
+            }
+        };
+
+        Map<String, Object> config = new HashMap<String, Object>();
+        config.put("host", "localhost");
+        config.put("port", 2003);
+        config.put("flushTimeMs", 3600000);
+        processor.setUpModule(config);
+
+        final Map<String, Object> processParams = createProcessParams();
+        processor.getProcessParamsConfig().parse("x", processParams);
+        ConfigPattern.replacePatterns(processParams, null);
+
+        final GraphiteProcessor.CompiledKey[] compiledParams = processor.compileProcessParams(processParams);
+
+        final List<Map<String, Object>> parserOutputs = createParserOutputs();
+
+        try
+        {
+            new BenchmarkRunner("Graphite processor parameters", OPERATIONS)
+                    .add("process (map params)", new BenchmarkRunner.IOperation()
+                    {
+                        @Override
+                        public long run(final int index)
+                        {
+                            processor.process(parserOutputs.get(index % PARSER_OUTPUTS), processParams);
+                            return sent;
+                        }
+                    })
+                    .add("processCompiled (compiled params)", new BenchmarkRunner.IOperation()
+                    {
+                        @Override
+                        public long run(final int index)
+                        {
+                            processor.processCompiled(parserOutputs.get(index % PARSER_OUTPUTS), compiledParams);
+                            return sent;
+                        }
+                    })
+                    .run();
+        }
+        finally
+        {
+            processor.stop();
+        }
+    }
+
+    private static Map<String, Object> createProcessParams()
+    {
+        Map<String, Object> key1 = new HashMap<String, Object>();
+        key1.put("key", "some.#name#.count");
+        key1.put("value", 1);
+
+        Map<String, Object> key2 = new HashMap<String, Object>();
+        key2.put("key", "some.#name#.time");
+        key2.put("value", "#time#");
+        key2.put("multiplier", 1000);
+
+        Map<String, Object> key3 = new HashMap<String, Object>();
+        key3.put("key", "some.#name#.size");
+        key3.put("value", "#size#");
+        key3.put("timestamp", "#date#");
+        key3.put("timestampFormat", "iso8601");
+
+        List<Object> keys = new ArrayList<Object>();
+        keys.add(key1);
+        keys.add(key2);
+        keys.add(key3);
+
+        Map<String, Object> processParams = new HashMap<String, Object>();
+        processParams.put("keys", keys);
+        return processParams;
+    }
+
+    private static List<Map<String, Object>> createParserOutputs()
+    {
+        List<Map<String, Object>> parserOutputs = new ArrayList<Map<String, Object>>();
+        for (int i = 0; i < PARSER_OUTPUTS; i++)
+        {
+            Map<String, Object> parserOutput = new HashMap<String, Object>();
+            parserOutput.put("name", "name" + i % 50);
+            parserOutput.put("time", String.valueOf(i * 0.25));
+            parserOutput.put("size", i % 3 == 0 ? "12k" : String.valueOf(i));
+            parserOutput.put("date", "2014-05-13T16:" + (10 + i % 50) + ":" + (10 + i % 40) + ".500Z");
+            parserOutputs.add(parserOutput);
+        }
+        return parserOutputs;
+    }
+
+}
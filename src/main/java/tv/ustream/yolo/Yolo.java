@@ -250,7 +250,7 @@ public class Yolo
     }
 
     @SuppressWarnings("unchecked")
-    private void readConfig(final boolean update) throws ConfigException
+    private void readConfig() throws ConfigException
     {
         try
         {
@@ -262,7 +262,7 @@ public class Yolo
             return;
         }
 
-        moduleChain.updateConfig(config, !update);
+        moduleChain.updateConfig(config);
     }
 
     private void observeConfigChanges() throws Exception
@@ -280,7 +280,7 @@ public class Yolo
                 LOG.info("Config file changed: {}", configPath);
                 try
                 {
-                    readConfig(true);
+                    readConfig();
                 }
                 catch (ConfigException e)
                 {
@@ -339,7 +339,7 @@ public class Yolo
 
             setGlobalParameters();
 
-            readConfig(false);
+            readConfig();
 
             observeConfigChanges();
 
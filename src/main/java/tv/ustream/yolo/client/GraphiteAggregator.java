@@ -0,0 +1,244 @@
+package tv.ustream.yolo.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tv.ustream.yolo.util.AlignedTimer;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Consolidates the values of every Graphite key within an interval and sends one datapoint per key and interval.
+ *
+ * The flushes are aligned to the interval boundaries and the datapoints are stamped with the boundary which closed
+ * the interval. The values are kept in cells with primitive fields in a concurrent map per consolidation, so
+ * recording a value doesn't allocate and a key added with different consolidations is consolidated separately. A
+ * cell which got no values during a whole interval is removed from the map, a writer finding a removed cell creates
+ * a new one.
+ */
+public class GraphiteAggregator
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger(GraphiteAggregator.class);
+
+    private final GraphiteClient client;
+
+    private final long intervalMs;
+
+    private final Map<Consolidation, ConcurrentMap<String, Cell>> cells =
+            new EnumMap<Consolidation, ConcurrentMap<String, Cell>>(Consolidation.class);
+
+    private final AlignedTimer flushTimer;
+
+    /**
+     * The consolidation functions
+     */
+    public static enum Consolidation
+    {
+        SUM,
+        AVG,
+        MIN,
+        MAX,
+        COUNT,
+        LAST;
+
+        private final String value;
+
+        private Consolidation()
+        {
+            value = name().toLowerCase();
+        }
+
+        public String getValue()
+        {
+            return value;
+        }
+    }
+
+    public GraphiteAggregator(final GraphiteClient client, final long intervalMs)
+    {
+        this.client = client;
+        this.intervalMs = intervalMs;
+
+        for (Consolidation consolidation : Consolidation.values())
+        {
+            cells.put(consolidation, new ConcurrentHashMap<String, Cell>());
+        }
+
+        flushTimer = new AlignedTimer(intervalMs, currentTimeMillis(), new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                flush();
+            }
+        });
+    }
+
+    /**
+     * Adds a value to the key with the given consolidation
+     */
+    public void add(final String key, final Consolidation consolidation, final double value)
+    {
+        ConcurrentMap<String, Cell> consolidationCells = cells.get(consolidation);
+        while (true)
+        {
+            Cell cell = consolidationCells.get(key);
+            if (cell == null)
+            {
+                Cell newCell = new Cell(consolidation);
+                cell = consolidationCells.putIfAbsent(key, newCell);
+                if (cell == null)
+                {
+                    cell = newCell;
+                }
+            }
+
+            if (cell.add(value))
+            {
+                return;
+            }
+            consolidationCells.remove(key, cell);
+        }
+    }
+
+    /**
+     * Sends the consolidated values, stamped with the nearest interval boundary
+     */
+    public synchronized void flush()
+    {
+        long timestamp = TimeUnit.MILLISECONDS.toSeconds(AlignedTimer.getBoundary(currentTimeMillis(), intervalMs));
+
+        int sent = 0;
+        for (ConcurrentMap<String, Cell> consolidationCells : cells.values())
+        {
+            for (Map.Entry<String, Cell> entry : consolidationCells.entrySet())
+            {
+                Cell cell = entry.getValue();
+                double value;
+                synchronized (cell)
+                {
+                    if (cell.count == 0)
+                    {
+                        cell.retired = true;
+                        consolidationCells.remove(entry.getKey(), cell);
+                        continue;
+                    }
+                    value = cell.drain();
+                }
+                client.sendMetrics(entry.getKey(), value, timestamp);
+                sent++;
+            }
+        }
+
+        if (sent > 0)
+        {
+            LOG.debug("Flushed {} aggregated graphite metrics", sent);
+            client.flush();
+        }
+    }
+
+    /**
+     * Stops the flush timer and sends the values of the current interval, the client is not stopped.
+     */
+    public void stop()
+    {
+        flushTimer.cancel();
+
+        flush();
+    }
+
+    protected long currentTimeMillis()
+    {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * The consolidation state of one key in the current interval
+     */
+    private static final class Cell
+    {
+
+        private final Consolidation consolidation;
+
+        private long count = 0;
+
+        private double sum = 0;
+
+        private double min = 0;
+
+        private double max = 0;
+
+        private double last = 0;
+
+        private boolean retired = false;
+
+        private Cell(final Consolidation consolidation)
+        {
+            this.consolidation = consolidation;
+        }
+
+        private synchronized boolean add(final double value)
+        {
+            if (retired)
+            {
+                return false;
+            }
+
+            if (count == 0)
+            {
+                min = value;
+                max = value;
+            }
+            else
+            {
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            sum += value;
+            last = value;
+            count++;
+
+            return true;
+        }
+
+        /**
+         * Returns with the consolidated value and resets the cell, the caller holds the lock of the cell
+         */
+        private double drain()
+        {
+            double value;
+            switch (consolidation)
+            {
+                case SUM:
+                    value = sum;
+                    break;
+                case AVG:
+                    value = sum / count;
+                    break;
+                case MIN:
+                    value = min;
+                    break;
+                case MAX:
+                    value = max;
+                    break;
+                case COUNT:
+                    value = count;
+                    break;
+                default:
+                    value = last;
+                    break;
+            }
+
+            count = 0;
+            sum = 0;
+
+            return value;
+        }
+
+    }
+
+}
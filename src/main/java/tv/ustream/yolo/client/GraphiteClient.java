@@ -3,14 +3,35 @@ package tv.ustream.yolo.client;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.net.Socket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.TimeUnit;
 
 /**
+ * Sends metrics to Graphite through one long-lived connection.
+ *
+ * The metrics are encoded with the plaintext or the pickle protocol into batches (every pickle batch is a complete
+ * message), the batches are queued in memory up to maxBufferBytes and written in every
+ * flushTimeMs milliseconds to a non-blocking socket channel, so a slow or unavailable Graphite host never blocks
+ * the flush timer. If a spill directory is given, the batches which don't fit in memory are stored in memory-mapped
+ * files (up to maxSpillBytes) and sent in order when the connection recovers, otherwise they are dropped. The spill
+ * files are temporary, the spilled data is lost when the client is stopped or the process is restarted. The number
+ * of dropped metrics and the size of the spilled data are sent as metrics too.
+ *
+ * The processing threads only encode the metrics and hand over the full batches under the client's monitor, the
+ * queueing, spilling, DNS resolution and socket writes are done by the flush timer thread under a separate lock.
+ * Failed connections are retried with exponential backoff, the resolved address of the host is cached for DNS_TTL_MS
+ * and the previous address is used if the resolution fails.
+ *
  * @author bandesz
  */
 public class GraphiteClient
@@ -18,28 +39,101 @@ public class GraphiteClient
 
     private static final Logger LOG = LoggerFactory.getLogger(GraphiteClient.class);
 
-    private static final int BUFFER_SIZE = 64000;
+    public static final long DEFAULT_MAX_BUFFER_BYTES = 16 * 1024 * 1024;
+
+    public static final long DEFAULT_MAX_SPILL_BYTES = 1024 * 1024 * 1024;
+
+    private static final int BATCH_SIZE = 64 * 1024;
+
+    private static final int SPILL_SEGMENT_SIZE = 8 * 1024 * 1024;
+
+    private static final String DROPPED_METRICS_KEY = "yolo.graphite.dropped_metrics";
+
+    private static final String SPILL_BYTES_KEY = "yolo.graphite.spill_bytes";
+
+    private static final long INITIAL_BACKOFF_MS = 100;
+
+    private static final long MAX_BACKOFF_MS = 30000;
+
+    private static final long DNS_TTL_MS = 60000;
+
+    private static final long STOP_TIMEOUT_MS = 1000;
+
+    private static final long STOP_RETRY_MS = 10;
 
     private final String host;
 
     private final int port;
 
-    private String prefix = "";
+    private final String prefix;
 
-    private final StringBuffer buffer = new StringBuffer(BUFFER_SIZE);
-
-    private int metricsCount = 0;
+    private final IGraphiteEncoder encoder;
 
     private final Timer flushTimer = new Timer();
 
+    private final long maxBufferBytes;
+
+    private final long maxPendingBytes;
+
+    private final SpillQueue spill;
+
+    private final Object sendLock = new Object();
+
+    private ByteBuffer batch;
+
+    private int batchMetrics = 0;
+
+    private ByteBuffer spareBatch;
+
+    private Deque<MetricBatch> pending = new ArrayDeque<MetricBatch>();
+
+    private long pendingBytes = 0;
+
+    private long droppedMetrics = 0;
+
+    private long reportedDroppedMetrics = 0;
+
+    private boolean spillReported = false;
+
+    private final Deque<MetricBatch> queue = new ArrayDeque<MetricBatch>();
+
+    private volatile long queueBytes = 0;
+
+    private volatile long spillBytes = 0;
+
+    private SocketChannel channel;
+
+    private volatile InetAddress address;
+
+    private volatile long addressExpireTime = 0;
+
+    private long backoffMs = INITIAL_BACKOFF_MS;
+
+    private long nextConnectTime = 0;
+
     public GraphiteClient(final String host, final int port, final long flushTimeMs, final String prefix)
+    {
+        this(host, port, flushTimeMs, prefix, Protocol.PLAINTEXT, DEFAULT_MAX_BUFFER_BYTES, null,
+                DEFAULT_MAX_SPILL_BYTES);
+    }
+
+    public GraphiteClient(final String host, final int port, final long flushTimeMs, final String prefix,
+                          final Protocol protocol, final long maxBufferBytes, final File spillDirectory,
+                          final long maxSpillBytes)
     {
         this.host = host;
         this.port = port;
-        if (prefix != null && !prefix.isEmpty())
-        {
-            this.prefix = prefix + ".";
-        }
+        this.prefix = prefix != null && !prefix.isEmpty() ? prefix + "." : "";
+        encoder = protocol == Protocol.PICKLE
+                ? new GraphitePickleEncoder(this.prefix)
+                : new GraphiteLineEncoder(this.prefix);
+        this.maxBufferBytes = maxBufferBytes;
+        spill = spillDirectory != null ? new SpillQueue(spillDirectory, SPILL_SEGMENT_SIZE, maxSpillBytes) : null;
+        // with spilling the flush thread moves the batches to the files, the limit only bounds the memory used between
+        // two flushes
+        maxPendingBytes = spill != null ? Math.max(maxBufferBytes, SPILL_SEGMENT_SIZE) : maxBufferBytes;
+
+        batch = startBatch(ByteBuffer.allocate(BATCH_SIZE));
 
         flushTimer.schedule(createTimerTask(), flushTimeMs, flushTimeMs);
     }
@@ -53,9 +147,22 @@ public class GraphiteClient
     {
         LOG.debug("graphite: {}{} {} {}", prefix, key, value, timestamp);
 
-        buffer.append(String.format("%s%s %f %d\n", prefix, key, value, timestamp));
+        append(key, value, timestamp);
+    }
 
-        metricsCount++;
+    private synchronized void append(final String key, final double value, final long timestamp)
+    {
+        if (!encoder.encode(batch, key, value, timestamp))
+        {
+            sealBatch();
+            if (!encoder.encode(batch, key, value, timestamp))
+            {
+                droppedMetrics++;
+                return;
+            }
+        }
+
+        batchMetrics++;
     }
 
     private TimerTask createTimerTask()
@@ -65,61 +172,435 @@ public class GraphiteClient
             @Override
             public void run()
             {
-                try
+                flush();
+            }
+        };
+    }
+
+    /**
+     * Queues the current batch and writes as much of the queued data as the socket accepts without blocking
+     */
+    public void flush()
+    {
+        Deque<MetricBatch> batches = takePendingBatches();
+
+        synchronized (sendLock)
+        {
+            for (MetricBatch metricBatch : batches)
+            {
+                enqueue(metricBatch);
+            }
+        }
+
+        refreshAddress();
+
+        synchronized (sendLock)
+        {
+            write();
+        }
+    }
+
+    /**
+     * Stops the flush timer and sends the remaining buffered metrics, waits at most STOP_TIMEOUT_MS for the connection.
+     */
+    public void stop()
+    {
+        flushTimer.cancel();
+
+        flush();
+
+        long deadline = currentTimeMillis() + STOP_TIMEOUT_MS;
+        while (hasQueuedData() && currentTimeMillis() < deadline)
+        {
+            try
+            {
+                Thread.sleep(STOP_RETRY_MS);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                break;
+            }
+
+            refreshAddress();
+            synchronized (sendLock)
+            {
+                write();
+            }
+        }
+
+        synchronized (sendLock)
+        {
+            if (hasQueuedData())
+            {
+                LOG.warn("Failed to send {} bytes of graphite data before stopping", queueBytes + spillBytes);
+            }
+
+            if (spill != null)
+            {
+                spill.close();
+                spillBytes = 0;
+            }
+            closeChannel();
+        }
+
+        long dropped = getDroppedMetrics();
+        if (dropped > 0)
+        {
+            LOG.warn("Dropped {} graphite metrics", dropped);
+        }
+    }
+
+    /**
+     * Returns with the number of metrics dropped because the buffer and the spill files were full
+     */
+    public synchronized long getDroppedMetrics()
+    {
+        return droppedMetrics;
+    }
+
+    /**
+     * Returns with the size of the batches waiting in memory
+     */
+    public synchronized long getBufferedBytes()
+    {
+        return pendingBytes + queueBytes;
+    }
+
+    /**
+     * Returns with the size of the spilled data
+     */
+    public long getSpillBytes()
+    {
+        return spillBytes;
+    }
+
+    protected SocketChannel openChannel() throws IOException
+    {
+        return SocketChannel.open();
+    }
+
+    protected InetAddress resolve(final String host) throws UnknownHostException
+    {
+        return InetAddress.getByName(host);
+    }
+
+    protected long currentTimeMillis()
+    {
+        return System.currentTimeMillis();
+    }
+
+    private void appendStats()
+    {
+        long dropped = droppedMetrics - reportedDroppedMetrics;
+        long spilled = spillBytes;
+        if (dropped == 0 && spilled == 0 && !spillReported)
+        {
+            return;
+        }
+
+        long timestamp = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+        append(DROPPED_METRICS_KEY, dropped, timestamp);
+        append(SPILL_BYTES_KEY, spilled, timestamp);
+
+        reportedDroppedMetrics += dropped;
+        spillReported = spilled > 0;
+    }
+
+    /**
+     * Seals the current batch and returns with the batches sealed since the last flush
+     */
+    private synchronized Deque<MetricBatch> takePendingBatches()
+    {
+        appendStats();
+
+        if (batchMetrics > 0)
+        {
+            LOG.debug("Flushing {} metrics", batchMetrics);
+            sealBatch();
+        }
+
+        Deque<MetricBatch> batches = pending;
+        pending = new ArrayDeque<MetricBatch>();
+        pendingBytes = 0;
+        return batches;
+    }
+
+    private void sealBatch()
+    {
+        if (batchMetrics == 0)
+        {
+            return;
+        }
+
+        batch.limit(batch.capacity());
+        encoder.finishBatch(batch);
+        batch.flip();
+
+        ByteBuffer data;
+        if (batch.remaining() < batch.capacity() / 2)
+        {
+            data = ByteBuffer.allocate(batch.remaining());
+            data.put(batch);
+            data.flip();
+            batch = startBatch(batch);
+        }
+        else
+        {
+            data = batch;
+            batch = startBatch(spareBatch != null ? spareBatch : ByteBuffer.allocate(BATCH_SIZE));
+            spareBatch = null;
+        }
+
+        MetricBatch metricBatch = new MetricBatch(data, batchMetrics);
+        batchMetrics = 0;
+
+        long bufferedBytes = spill != null ? pendingBytes : pendingBytes + queueBytes;
+        if (bufferedBytes + data.capacity() > maxPendingBytes)
+        {
+            drop(metricBatch);
+            return;
+        }
+
+        pending.addLast(metricBatch);
+        pendingBytes += data.capacity();
+    }
+
+    private ByteBuffer startBatch(final ByteBuffer newBatch)
+    {
+        newBatch.clear();
+        encoder.startBatch(newBatch);
+        newBatch.limit(newBatch.capacity() - encoder.getTrailerSize());
+        return newBatch;
+    }
+
+    /**
+     * Moves the batch to the send queue or to the spill files, called with the send lock held
+     */
+    private void enqueue(final MetricBatch metricBatch)
+    {
+        int size = metricBatch.getData().capacity();
+
+        if (spill != null && (!spill.isEmpty() || queueBytes + size > maxBufferBytes))
+        {
+            boolean spilled = spill.offer(metricBatch);
+            spillBytes = spill.getBytes();
+            if (spilled)
+            {
+                recycle(metricBatch.getData());
+            }
+            else
+            {
+                dropQueued(metricBatch);
+            }
+            return;
+        }
+
+        if (queueBytes + size > maxBufferBytes)
+        {
+            dropQueued(metricBatch);
+            return;
+        }
+
+        queue.addLast(metricBatch);
+        queueBytes += size;
+    }
+
+    private void drop(final MetricBatch metricBatch)
+    {
+        droppedMetrics += metricBatch.getMetrics();
+        LOG.warn("Graphite buffer is full, dropping {} metrics", metricBatch.getMetrics());
+    }
+
+    private synchronized void dropQueued(final MetricBatch metricBatch)
+    {
+        drop(metricBatch);
+    }
+
+    private synchronized void recycle(final ByteBuffer data)
+    {
+        if (data.capacity() == BATCH_SIZE)
+        {
+            spareBatch = data;
+        }
+    }
+
+    private boolean hasQueuedData()
+    {
+        synchronized (sendLock)
+        {
+            return !queue.isEmpty() || (spill != null && !spill.isEmpty());
+        }
+    }
+
+    private void write()
+    {
+        if (!hasQueuedData() || !connect())
+        {
+            return;
+        }
+
+        while (true)
+        {
+            MetricBatch head = queue.peekFirst();
+            if (head == null)
+            {
+                head = spill != null ? spill.poll() : null;
+                if (head == null)
                 {
-                    flush();
+                    return;
                 }
-                catch (IOException e)
+                spillBytes = spill.getBytes();
+                queue.addFirst(head);
+                queueBytes += head.getData().capacity();
+            }
+
+            try
+            {
+                channel.write(head.getData());
+            }
+            catch (IOException e)
+            {
+                disconnect("Failed to send graphite data: " + e.getMessage());
+                return;
+            }
+
+            if (head.getData().hasRemaining())
+            {
+                return;
+            }
+
+            queue.removeFirst();
+            queueBytes -= head.getData().capacity();
+            recycle(head.getData());
+        }
+    }
+
+    private boolean connect()
+    {
+        try
+        {
+            if (channel != null)
+            {
+                if (channel.isConnectionPending() && channel.finishConnect())
                 {
-                    LOG.warn("Failed to send graphite data: {}", e.getMessage());
+                    connected();
                 }
+                return channel.isConnected();
             }
-        };
+
+            if (currentTimeMillis() < nextConnectTime)
+            {
+                return false;
+            }
+
+            if (address == null)
+            {
+                throw new UnknownHostException(host);
+            }
+
+            channel = openChannel();
+            channel.configureBlocking(false);
+            if (channel.connect(new InetSocketAddress(address, port)))
+            {
+                connected();
+                return true;
+            }
+            return false;
+        }
+        catch (IOException e)
+        {
+            disconnect("Failed to connect to graphite: " + e.getMessage());
+            return false;
+        }
     }
 
-    public void flush() throws IOException
+    private void connected()
     {
-        if (metricsCount == 0)
+        LOG.debug("Connected to graphite at {}:{}", host, port);
+        backoffMs = INITIAL_BACKOFF_MS;
+    }
+
+    private void disconnect(final String reason)
+    {
+        LOG.warn("{}, retrying in {} ms", reason, backoffMs);
+
+        closeChannel();
+
+        // a partially sent batch is sent again from the start, as carbon drops the broken data
+        MetricBatch head = queue.peekFirst();
+        if (head != null)
+        {
+            head.getData().rewind();
+        }
+
+        nextConnectTime = currentTimeMillis() + backoffMs;
+        backoffMs = Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+    }
+
+    private void closeChannel()
+    {
+        if (channel == null)
         {
             return;
         }
 
-        Socket socket = null;
-        PrintWriter out = null;
         try
         {
-            socket = createSocket(host, port);
-            out = new PrintWriter(socket.getOutputStream(), true);
+            channel.close();
+        }
+        catch (IOException e)
+        {
+            LOG.debug("Failed to close graphite connection: {}", e.getMessage());
+        }
+        channel = null;
+    }
+
+    /**
+     * Resolves the host if the cached address expired and a new connection may be needed, without holding any lock
+     * as the resolution can block
+     */
+    private void refreshAddress()
+    {
+        long now = currentTimeMillis();
+        if (address != null && now < addressExpireTime)
+        {
+            return;
+        }
 
-            synchronized (buffer)
+        synchronized (sendLock)
+        {
+            if (channel != null || now < nextConnectTime || !hasQueuedData())
             {
-                LOG.debug("Flushing {} metrics", metricsCount);
-                out.write(buffer.toString());
-                buffer.delete(0, buffer.length());
-                metricsCount = 0;
+                return;
             }
         }
-        finally
+
+        try
         {
-            if (out != null)
+            address = resolve(host);
+        }
+        catch (UnknownHostException e)
+        {
+            if (address == null)
             {
-                out.close();
+                LOG.warn("Failed to resolve {}: {}", host, e.getMessage());
             }
-            if (socket != null)
+            else
             {
-                socket.close();
+                LOG.warn("Failed to resolve {}, using the previous address: {}", host, e.getMessage());
             }
         }
+        addressExpireTime = now + DNS_TTL_MS;
     }
 
-    public void stop()
-    {
-        flushTimer.cancel();
-    }
-
-    protected Socket createSocket(final String host, final int port) throws IOException
+    /**
+     * The carbon receiver protocols
+     */
+    public static enum Protocol
     {
-        return new Socket(host, port);
+        PLAINTEXT,
+        PICKLE
     }
 
 }
@@ -0,0 +1,198 @@
+package tv.ustream.yolo.client;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Writes Graphite plaintext lines ("prefix.key value timestamp\n") directly into a byte buffer.
+ *
+ * The value is written with the fewest decimal digits which still parse back to the same double, so 1234.5 is
+ * written as "1234.5" and 2.0 as "2". Values which can't be written exactly in this form (very large or small
+ * values, NaN, infinity) are written with Double.toString. Keys are expected to be ASCII, other characters are
+ * encoded as UTF-8.
+ *
+ * Not thread-safe.
+ */
+public class GraphiteLineEncoder implements IGraphiteEncoder
+{
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int MAX_FRACTION_DIGITS = 17;
+
+    private static final long MAX_EXACT_LONG = 1L << 53;
+
+    private static final double[] POWERS_OF_TEN = new double[MAX_FRACTION_DIGITS + 1];
+
+    static
+    {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++)
+        {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final byte[] prefix;
+
+    private final byte[] digits = new byte[20];
+
+    public GraphiteLineEncoder(final String prefix)
+    {
+        this.prefix = prefix != null ? prefix.getBytes(UTF_8) : new byte[0];
+    }
+
+    @Override
+    public void startBatch(final ByteBuffer batch)
+    {
+    }
+
+    @Override
+    public boolean encode(final ByteBuffer target, final String key, final double value, final long timestamp)
+    {
+        int start = target.position();
+        if (writeLine(target, key, value, timestamp))
+        {
+            return true;
+        }
+        target.position(start);
+        return false;
+    }
+
+    @Override
+    public int getTrailerSize()
+    {
+        return 0;
+    }
+
+    @Override
+    public void finishBatch(final ByteBuffer batch)
+    {
+    }
+
+    private boolean writeLine(final ByteBuffer target, final String key, final double value, final long timestamp)
+    {
+        if (target.remaining() < prefix.length)
+        {
+            return false;
+        }
+        target.put(prefix);
+
+        return writeText(target, key)
+                && writeByte(target, ' ')
+                && writeDouble(target, value)
+                && writeByte(target, ' ')
+                && writeLong(target, timestamp)
+                && writeByte(target, '\n');
+    }
+
+    private boolean writeDouble(final ByteBuffer target, final double value)
+    {
+        if (value == 0)
+        {
+            return writeByte(target, '0');
+        }
+
+        double abs = Math.abs(value);
+        for (int fractionDigits = 0; fractionDigits <= MAX_FRACTION_DIGITS; fractionDigits++)
+        {
+            double scaled = abs * POWERS_OF_TEN[fractionDigits];
+            if (scaled >= MAX_EXACT_LONG)
+            {
+                break;
+            }
+            long mantissa = Math.round(scaled);
+            // both operands are exact, so the division is rounded the same way as parsing the decimal
+            if (mantissa / POWERS_OF_TEN[fractionDigits] == abs)
+            {
+                return (value > 0 || writeByte(target, '-')) && writeDecimal(target, mantissa, fractionDigits);
+            }
+        }
+
+        return writeText(target, Double.toString(value));
+    }
+
+    private boolean writeDecimal(final ByteBuffer target, final long mantissa, final int fractionDigits)
+    {
+        long remaining = mantissa;
+        int length = 0;
+        while (remaining > 0 || length <= fractionDigits)
+        {
+            if (length == fractionDigits && fractionDigits > 0)
+            {
+                digits[digits.length - 1 - length] = '.';
+                length++;
+            }
+            digits[digits.length - 1 - length] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+            length++;
+        }
+        return writeDigits(target, length);
+    }
+
+    private boolean writeLong(final ByteBuffer target, final long value)
+    {
+        if (value < 0)
+        {
+            return writeText(target, Long.toString(value));
+        }
+
+        long remaining = value;
+        int length = 0;
+        do
+        {
+            digits[digits.length - 1 - length] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+            length++;
+        }
+        while (remaining > 0);
+
+        return writeDigits(target, length);
+    }
+
+    private boolean writeDigits(final ByteBuffer target, final int length)
+    {
+        if (target.remaining() < length)
+        {
+            return false;
+        }
+        target.put(digits, digits.length - length, length);
+        return true;
+    }
+
+    private boolean writeText(final ByteBuffer target, final String text)
+    {
+        if (target.remaining() < text.length())
+        {
+            return false;
+        }
+
+        for (int i = 0; i < text.length(); i++)
+        {
+            char c = text.charAt(i);
+            if (c >= 0x80)
+            {
+                byte[] bytes = text.substring(i).getBytes(UTF_8);
+                if (target.remaining() < bytes.length)
+                {
+                    return false;
+                }
+                target.put(bytes);
+                return true;
+            }
+            target.put((byte) c);
+        }
+        return true;
+    }
+
+    private boolean writeByte(final ByteBuffer target, final char c)
+    {
+        if (!target.hasRemaining())
+        {
+            return false;
+        }
+        target.put((byte) c);
+        return true;
+    }
+
+}
@@ -0,0 +1,156 @@
+package tv.ustream.yolo.client;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Encodes batches for carbon's pickle receiver.
+ *
+ * Every batch is a 4 byte big-endian length followed by a protocol 2 pickle of a list of (path, (timestamp, value))
+ * tuples. Only the opcodes needed for this structure are written: paths as unicode strings, timestamps as integers
+ * and values as floats.
+ *
+ * Not thread-safe.
+ */
+public class GraphitePickleEncoder implements IGraphiteEncoder
+{
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte PROTO = (byte) 0x80;
+
+    private static final byte PROTOCOL_VERSION = 2;
+
+    private static final byte EMPTY_LIST = ']';
+
+    private static final byte MARK = '(';
+
+    private static final byte BINUNICODE = 'X';
+
+    private static final byte BININT = 'J';
+
+    private static final byte LONG1 = (byte) 0x8a;
+
+    private static final byte BINFLOAT = 'G';
+
+    private static final byte TUPLE2 = (byte) 0x86;
+
+    private static final byte APPENDS = 'e';
+
+    private static final byte STOP = '.';
+
+    private static final int LENGTH_SIZE = 4;
+
+    private static final int MAX_METRIC_OVERHEAD = 1 + 4 + 1 + 1 + 8 + 1 + 8 + 2;
+
+    private final String prefix;
+
+    public GraphitePickleEncoder(final String prefix)
+    {
+        this.prefix = prefix != null ? prefix : "";
+    }
+
+    @Override
+    public void startBatch(final ByteBuffer batch)
+    {
+        batch.putInt(0);
+        batch.put(PROTO);
+        batch.put(PROTOCOL_VERSION);
+        batch.put(EMPTY_LIST);
+        batch.put(MARK);
+    }
+
+    @Override
+    public boolean encode(final ByteBuffer batch, final String key, final double value, final long timestamp)
+    {
+        int pathLength = getAsciiLength(key);
+        byte[] path = null;
+        if (pathLength < 0)
+        {
+            path = (prefix + key).getBytes(UTF_8);
+            pathLength = path.length;
+        }
+
+        if (batch.remaining() < pathLength + MAX_METRIC_OVERHEAD)
+        {
+            return false;
+        }
+
+        batch.put(BINUNICODE);
+        batch.putInt(Integer.reverseBytes(pathLength));
+        if (path != null)
+        {
+            batch.put(path);
+        }
+        else
+        {
+            putAscii(batch, prefix);
+            putAscii(batch, key);
+        }
+
+        if (timestamp >= 0 && timestamp <= Integer.MAX_VALUE)
+        {
+            batch.put(BININT);
+            batch.putInt(Integer.reverseBytes((int) timestamp));
+        }
+        else
+        {
+            batch.put(LONG1);
+            batch.put((byte) 8);
+            batch.putLong(Long.reverseBytes(timestamp));
+        }
+
+        batch.put(BINFLOAT);
+        batch.putDouble(value);
+
+        batch.put(TUPLE2);
+        batch.put(TUPLE2);
+
+        return true;
+    }
+
+    @Override
+    public int getTrailerSize()
+    {
+        return 2;
+    }
+
+    @Override
+    public void finishBatch(final ByteBuffer batch)
+    {
+        batch.put(APPENDS);
+        batch.put(STOP);
+        batch.putInt(0, batch.position() - LENGTH_SIZE);
+    }
+
+    /**
+     * Returns with the length of the path or -1 if it contains non-ASCII characters
+     */
+    private int getAsciiLength(final String key)
+    {
+        for (int i = 0; i < key.length(); i++)
+        {
+            if (key.charAt(i) >= 0x80)
+            {
+                return -1;
+            }
+        }
+        for (int i = 0; i < prefix.length(); i++)
+        {
+            if (prefix.charAt(i) >= 0x80)
+            {
+                return -1;
+            }
+        }
+        return prefix.length() + key.length();
+    }
+
+    private static void putAscii(final ByteBuffer batch, final String text)
+    {
+        for (int i = 0; i < text.length(); i++)
+        {
+            batch.put((byte) text.charAt(i));
+        }
+    }
+
+}
@@ -0,0 +1,32 @@
+package tv.ustream.yolo.client;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes metrics into the batches sent to Graphite, every batch is sent as it is, so it has to be a complete
+ * message of the protocol.
+ */
+public interface IGraphiteEncoder
+{
+
+    /**
+     * Writes the beginning of a new batch into the empty buffer
+     */
+    void startBatch(ByteBuffer batch);
+
+    /**
+     * Writes one metric, returns false and leaves the buffer unchanged if the metric doesn't fit
+     */
+    boolean encode(ByteBuffer batch, String key, double value, long timestamp);
+
+    /**
+     * Returns with the number of bytes which should be kept free for finishBatch
+     */
+    int getTrailerSize();
+
+    /**
+     * Completes the batch, the position is after the last metric
+     */
+    void finishBatch(ByteBuffer batch);
+
+}
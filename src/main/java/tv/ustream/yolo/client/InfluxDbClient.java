@@ -0,0 +1,421 @@
+package tv.ustream.yolo.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes InfluxDB line protocol points in batches through the HTTP write API.
+ *
+ * The lines are appended to the current batch, which is sealed when it has batchSize lines or it is older than
+ * flushTimeMs milliseconds. The sealed batches are queued up to maxBufferBytes (the lines of the batches which don't
+ * fit are dropped) and posted by a sender thread, so a slow or unavailable InfluxDB never blocks the processing. The
+ * batches are gzip compressed once and sent through keep-alive connections. Failed requests (connection errors, 5xx
+ * and 429 responses) are retried with exponential backoff at most maxRetries times, batches rejected with other 4xx
+ * responses (like a field type conflict) are dropped at once.
+ */
+public class InfluxDbClient
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger(InfluxDbClient.class);
+
+    public static final long DEFAULT_MAX_BUFFER_BYTES = 16 * 1024 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+
+    private static final int READ_TIMEOUT_MS = 30000;
+
+    private static final long INITIAL_BACKOFF_MS = 100;
+
+    private static final long MAX_BACKOFF_MS = 30000;
+
+    private static final long STOP_TIMEOUT_MS = 5000;
+
+    private final URL url;
+
+    private final int batchSize;
+
+    private final long flushTimeMs;
+
+    private final long maxBufferBytes;
+
+    private final int maxRetries;
+
+    private final boolean gzip;
+
+    private final Thread sender;
+
+    private final Deque<Batch> queue = new ArrayDeque<Batch>();
+
+    private final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+
+    private StringBuilder batch = new StringBuilder();
+
+    private int batchLines = 0;
+
+    private long batchStartTime = 0;
+
+    private StringBuilder spareBatch;
+
+    private long queueBytes = 0;
+
+    private long droppedLines = 0;
+
+    private long sentLines = 0;
+
+    private boolean running = true;
+
+    public InfluxDbClient(final URL url, final int batchSize, final long flushTimeMs, final long maxBufferBytes,
+                          final int maxRetries, final boolean gzip)
+    {
+        this.url = url;
+        this.batchSize = batchSize;
+        this.flushTimeMs = flushTimeMs;
+        this.maxBufferBytes = maxBufferBytes;
+        this.maxRetries = maxRetries;
+        this.gzip = gzip;
+
+        sender = new Thread(createSender(), "influxdb-sender");
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    /**
+     * Appends a line (without the line feed) to the current batch
+     */
+    public synchronized void write(final CharSequence line)
+    {
+        if (batchLines == 0)
+        {
+            batchStartTime = currentTimeMillis();
+        }
+
+        batch.append(line).append('\n');
+        batchLines++;
+
+        if (batchLines >= batchSize)
+        {
+            sealBatch();
+        }
+    }
+
+    /**
+     * Queues the current batch for sending
+     */
+    public synchronized void flush()
+    {
+        sealBatch();
+    }
+
+    /**
+     * Sends the remaining batches and stops the sender thread, waits at most STOP_TIMEOUT_MS
+     */
+    public void stop()
+    {
+        synchronized (this)
+        {
+            sealBatch();
+            running = false;
+            notifyAll();
+        }
+
+        try
+        {
+            sender.join(STOP_TIMEOUT_MS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        if (sender.isAlive())
+        {
+            sender.interrupt();
+        }
+
+        synchronized (this)
+        {
+            if (!queue.isEmpty())
+            {
+                LOG.warn("Failed to send {} bytes of influxdb data before stopping", queueBytes);
+            }
+            if (droppedLines > 0)
+            {
+                LOG.warn("Dropped {} influxdb lines", droppedLines);
+            }
+        }
+    }
+
+    /**
+     * Returns with the number of lines dropped because the buffer was full or the write failed
+     */
+    public synchronized long getDroppedLines()
+    {
+        return droppedLines;
+    }
+
+    /**
+     * Returns with the number of lines accepted by InfluxDB
+     */
+    public synchronized long getSentLines()
+    {
+        return sentLines;
+    }
+
+    /**
+     * Returns with the size of the batches waiting for sending
+     */
+    public synchronized long getBufferedBytes()
+    {
+        return queueBytes;
+    }
+
+    protected long currentTimeMillis()
+    {
+        return System.currentTimeMillis();
+    }
+
+    private void sealBatch()
+    {
+        if (batchLines == 0)
+        {
+            return;
+        }
+
+        int size = batch.length();
+        if (queueBytes + size > maxBufferBytes)
+        {
+            LOG.warn("InfluxDB buffer is full, dropping {} lines", batchLines);
+            droppedLines += batchLines;
+            batch.setLength(0);
+        }
+        else
+        {
+            queue.addLast(new Batch(batch, batchLines));
+            queueBytes += size;
+            batch = spareBatch != null ? spareBatch : new StringBuilder(size);
+            spareBatch = null;
+            notifyAll();
+        }
+        batchLines = 0;
+    }
+
+    private Runnable createSender()
+    {
+        return new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    Batch head;
+                    while ((head = takeBatch()) != null)
+                    {
+                        send(head);
+                    }
+                }
+                catch (InterruptedException e)
+                {
+                    LOG.debug("InfluxDB sender was interrupted");
+                }
+            }
+        };
+    }
+
+    /**
+     * Waits for a sealed batch, seals the current batch when it is older than flushTimeMs. Returns null when the
+     * client was stopped and everything was sent.
+     */
+    private synchronized Batch takeBatch() throws InterruptedException
+    {
+        while (queue.isEmpty())
+        {
+            if (!running)
+            {
+                return null;
+            }
+
+            long waitMs = flushTimeMs;
+            if (batchLines > 0)
+            {
+                waitMs = batchStartTime + flushTimeMs - currentTimeMillis();
+                if (waitMs <= 0)
+                {
+                    sealBatch();
+                    continue;
+                }
+            }
+            wait(waitMs);
+        }
+        return queue.peekFirst();
+    }
+
+    private void send(final Batch head) throws InterruptedException
+    {
+        byte[] body = encode(head);
+
+        long backoffMs = INITIAL_BACKOFF_MS;
+        for (int attempt = 0; ; attempt++)
+        {
+            String error;
+            try
+            {
+                int status = post(body);
+                if (status / 100 == 2)
+                {
+                    finish(head, true);
+                    return;
+                }
+                error = "InfluxDB responded with HTTP " + status;
+                if (status / 100 == 4 && status != 408 && status != 429)
+                {
+                    LOG.warn("{}, dropping {} lines", error, head.lines);
+                    finish(head, false);
+                    return;
+                }
+            }
+            catch (IOException e)
+            {
+                error = "Failed to send influxdb data: " + e.getMessage();
+            }
+
+            if (attempt >= maxRetries)
+            {
+                LOG.warn("{}, dropping {} lines after {} retries", error, head.lines, maxRetries);
+                finish(head, false);
+                return;
+            }
+
+            LOG.warn("{}, retrying in {} ms", error, backoffMs);
+            Thread.sleep(backoffMs);
+            backoffMs = Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+        }
+    }
+
+    private byte[] encode(final Batch head)
+    {
+        byte[] data = head.text.toString().getBytes(UTF_8);
+        if (!gzip)
+        {
+            return data;
+        }
+
+        compressed.reset();
+        try (GZIPOutputStream output = new GZIPOutputStream(compressed))
+        {
+            output.write(data);
+        }
+        catch (IOException e)
+        {
+            // never happens with a byte array output
+            throw new IllegalStateException(e);
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Posts the body and reads the whole response, so the connection can be reused
+     */
+    private int post(final byte[] body) throws IOException
+    {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(body.length);
+        connection.setRequestProperty("Content-Type", "text/plain; charset=utf-8");
+        if (gzip)
+        {
+            connection.setRequestProperty("Content-Encoding", "gzip");
+        }
+
+        try (OutputStream output = connection.getOutputStream())
+        {
+            output.write(body);
+        }
+
+        int status = connection.getResponseCode();
+        InputStream response = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        if (response != null)
+        {
+            String error = readResponse(response);
+            if (status >= 400 && !error.isEmpty())
+            {
+                LOG.warn("InfluxDB error: {}", error);
+            }
+        }
+        return status;
+    }
+
+    private String readResponse(final InputStream response) throws IOException
+    {
+        try
+        {
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int length;
+            while ((length = response.read(buffer)) != -1)
+            {
+                result.write(buffer, 0, length);
+            }
+            return result.toString("UTF-8").trim();
+        }
+        finally
+        {
+            response.close();
+        }
+    }
+
+    private synchronized void finish(final Batch head, final boolean sent)
+    {
+        queue.removeFirst();
+        queueBytes -= head.text.length();
+        if (sent)
+        {
+            sentLines += head.lines;
+        }
+        else
+        {
+            droppedLines += head.lines;
+        }
+
+        if (spareBatch == null)
+        {
+            head.text.setLength(0);
+            spareBatch = head.text;
+        }
+    }
+
+    /**
+     * A sealed batch of lines
+     */
+    private static final class Batch
+    {
+
+        private final StringBuilder text;
+
+        private final int lines;
+
+        private Batch(final StringBuilder text, final int lines)
+        {
+            this.text = text;
+            this.lines = lines;
+        }
+
+    }
+
+}
@@ -0,0 +1,87 @@
+package tv.ustream.yolo.client;
+
+/**
+ * Escapes the parts of InfluxDB line protocol points.
+ *
+ * Measurements escape commas and spaces, tag keys, tag values and field keys also escape equal signs, string field
+ * values are quoted and escape quotes and backslashes. Line breaks are not allowed in a point, they are replaced with
+ * spaces.
+ */
+public final class InfluxLineEncoder
+{
+
+    private InfluxLineEncoder()
+    {
+    }
+
+    public static void appendMeasurement(final StringBuilder target, final CharSequence value)
+    {
+        append(target, value, false);
+    }
+
+    /**
+     * Appends a tag key, a tag value or a field key
+     */
+    public static void appendKey(final StringBuilder target, final CharSequence value)
+    {
+        append(target, value, true);
+    }
+
+    public static void appendString(final StringBuilder target, final CharSequence value)
+    {
+        target.append('"');
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\')
+            {
+                target.append('\\').append(c);
+            }
+            else if (c == '\n' || c == '\r')
+            {
+                target.append(' ');
+            }
+            else
+            {
+                target.append(c);
+            }
+        }
+        target.append('"');
+    }
+
+    /**
+     * Appends a float field value, integral values are written without fraction
+     */
+    public static void appendNumber(final StringBuilder target, final double value)
+    {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15)
+        {
+            target.append((long) value);
+        }
+        else
+        {
+            target.append(value);
+        }
+    }
+
+    private static void append(final StringBuilder target, final CharSequence value, final boolean escapeEquals)
+    {
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            if (c == ',' || c == ' ' || (c == '=' && escapeEquals))
+            {
+                target.append('\\').append(c);
+            }
+            else if (c == '\n' || c == '\r')
+            {
+                target.append("\\ ");
+            }
+            else
+            {
+                target.append(c);
+            }
+        }
+    }
+
+}
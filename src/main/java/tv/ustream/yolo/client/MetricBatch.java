@@ -0,0 +1,31 @@
+package tv.ustream.yolo.client;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encoded metric lines ready to be sent, the data is in read mode.
+ */
+final class MetricBatch
+{
+
+    private final ByteBuffer data;
+
+    private final int metrics;
+
+    MetricBatch(final ByteBuffer data, final int metrics)
+    {
+        this.data = data;
+        this.metrics = metrics;
+    }
+
+    ByteBuffer getData()
+    {
+        return data;
+    }
+
+    int getMetrics()
+    {
+        return metrics;
+    }
+
+}
@@ -0,0 +1,476 @@
+package tv.ustream.yolo.client;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Pattern;
+
+/**
+ * Lock-free registry of Prometheus counters, gauges and histograms, written in the text exposition format.
+ *
+ * A metric family has a name, a type and fixed label names. Its series are stored in a concurrent map keyed by the
+ * label values: a lookup uses a reusable LabelSet probe, only a new series copies (interns) the label values. The
+ * values are kept in atomic cells updated with compare-and-set (counter and gauge values are stored as the bits of
+ * a double), so updating never blocks and a scrape only reads the cells. The number of series is limited by
+ * maxSeries, the values of new series above the limit are dropped.
+ *
+ * The families registered by a new config are collected in the registry returned by next(): a family registered with
+ * the same type, help and labels is taken over with its values, the families which are not registered again are
+ * dropped when the new registry is activated.
+ */
+public class PrometheusRegistry
+{
+
+    public static final double[] DEFAULT_BUCKETS = {0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    private static final Pattern METRIC_NAME = Pattern.compile("[a-zA-Z_:][a-zA-Z0-9_:]*");
+
+    private static final Pattern LABEL_NAME = Pattern.compile("[a-zA-Z_][a-zA-Z0-9_]*");
+
+    private final ConcurrentMap<String, Family> families = new ConcurrentHashMap<String, Family>();
+
+    private final double[] buckets;
+
+    private final int maxSeries;
+
+    private final AtomicInteger series;
+
+    private final AtomicLong droppedSeries;
+
+    private volatile PrometheusRegistry previous = null;
+
+    /**
+     * The metric types
+     */
+    public static enum Type
+    {
+        COUNTER,
+        GAUGE,
+        HISTOGRAM;
+
+        private final String value;
+
+        private Type()
+        {
+            value = name().toLowerCase();
+        }
+
+        public String getValue()
+        {
+            return value;
+        }
+    }
+
+    public PrometheusRegistry(final double[] buckets, final int maxSeries)
+    {
+        this.buckets = buckets.clone();
+        Arrays.sort(this.buckets);
+        this.maxSeries = maxSeries;
+        this.series = new AtomicInteger();
+        this.droppedSeries = new AtomicLong();
+    }
+
+    private PrometheusRegistry(final PrometheusRegistry previous)
+    {
+        this.buckets = previous.buckets;
+        this.maxSeries = previous.maxSeries;
+        this.series = previous.series;
+        this.droppedSeries = previous.droppedSeries;
+        this.previous = previous;
+    }
+
+    /**
+     * Returns with an empty registry for the families of a new config, it shares the series limit with this one
+     */
+    public PrometheusRegistry next()
+    {
+        return new PrometheusRegistry(this);
+    }
+
+    /**
+     * Drops the families of the previous registry which were not registered again, should be called when this
+     * registry replaced the previous one
+     */
+    public synchronized void retirePrevious()
+    {
+        if (previous == null)
+        {
+            return;
+        }
+
+        for (Family family : previous.families.values())
+        {
+            if (families.get(family.name) != family)
+            {
+                series.addAndGet(-family.cells.size());
+            }
+        }
+        previous = null;
+    }
+
+    /**
+     * Returns with the family of the name, creates it if it doesn't exist. An existing family should have the same
+     * type and label names.
+     */
+    public synchronized Family register(final String name, final Type type, final String help,
+                                        final String[] labelNames)
+    {
+        if (!METRIC_NAME.matcher(name).matches())
+        {
+            throw new IllegalArgumentException("Invalid metric name: " + name);
+        }
+        for (String labelName : labelNames)
+        {
+            if (!LABEL_NAME.matcher(labelName).matches() || labelName.startsWith("__") || "le".equals(labelName))
+            {
+                throw new IllegalArgumentException("Invalid label name: " + labelName);
+            }
+        }
+
+        Family family = families.get(name);
+        if (family == null)
+        {
+            family = previous != null ? previous.families.get(name) : null;
+            if (family == null || !family.matches(type, help, labelNames))
+            {
+                family = new Family(name, type, help, labelNames.clone());
+            }
+            families.put(name, family);
+        }
+        else if (family.type != type || !Arrays.equals(family.labelNames, labelNames))
+        {
+            throw new IllegalArgumentException(
+                    "Metric " + name + " is already registered with different type or labels"
+            );
+        }
+        return family;
+    }
+
+    /**
+     * Returns with the number of values dropped because the series limit was reached
+     */
+    public long getDroppedSeries()
+    {
+        return droppedSeries.get();
+    }
+
+    /**
+     * Appends all metrics in the text exposition format
+     */
+    public void write(final StringBuilder target)
+    {
+        for (Family family : families.values())
+        {
+            family.write(target);
+        }
+    }
+
+    private static void appendDouble(final StringBuilder target, final double value)
+    {
+        if (Double.isNaN(value))
+        {
+            target.append("NaN");
+        }
+        else if (Double.isInfinite(value))
+        {
+            target.append(value > 0 ? "+Inf" : "-Inf");
+        }
+        else if (value == Math.rint(value) && Math.abs(value) < 1e15)
+        {
+            target.append((long) value);
+        }
+        else
+        {
+            target.append(value);
+        }
+    }
+
+    private static void appendEscaped(final StringBuilder target, final String value, final boolean quoted)
+    {
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            if (c == '\\')
+            {
+                target.append("\\\\");
+            }
+            else if (c == '\n')
+            {
+                target.append("\\n");
+            }
+            else if (c == '"' && quoted)
+            {
+                target.append("\\\"");
+            }
+            else
+            {
+                target.append(c);
+            }
+        }
+    }
+
+    /**
+     * A metric family with fixed label names
+     */
+    public final class Family
+    {
+
+        private final String name;
+
+        private final Type type;
+
+        private final String help;
+
+        private final String[] labelNames;
+
+        private final ConcurrentMap<LabelSet, Cell> cells = new ConcurrentHashMap<LabelSet, Cell>();
+
+        private Family(final String name, final Type type, final String help, final String[] labelNames)
+        {
+            this.name = name;
+            this.type = type;
+            this.help = help;
+            this.labelNames = labelNames;
+        }
+
+        public int getLabelCount()
+        {
+            return labelNames.length;
+        }
+
+        private boolean matches(final Type otherType, final String otherHelp, final String[] otherLabelNames)
+        {
+            return type == otherType
+                    && (help != null ? help.equals(otherHelp) : otherHelp == null)
+                    && Arrays.equals(labelNames, otherLabelNames);
+        }
+
+        /**
+         * Returns with the cell of the label values (the probe is not stored) or null if the series limit is reached
+         */
+        public Cell getCell(final LabelSet labels)
+        {
+            Cell cell = cells.get(labels);
+            if (cell != null)
+            {
+                return cell;
+            }
+
+            if (series.incrementAndGet() > maxSeries)
+            {
+                series.decrementAndGet();
+                droppedSeries.incrementAndGet();
+                return null;
+            }
+
+            Cell newCell = new Cell(type == Type.HISTOGRAM ? buckets.length + 1 : 0);
+            cell = cells.putIfAbsent(labels.copy(), newCell);
+            if (cell != null)
+            {
+                series.decrementAndGet();
+                return cell;
+            }
+            return newCell;
+        }
+
+        private void write(final StringBuilder target)
+        {
+            if (cells.isEmpty())
+            {
+                return;
+            }
+
+            if (help != null && !help.isEmpty())
+            {
+                target.append("# HELP ").append(name).append(' ');
+                appendEscaped(target, help, false);
+                target.append('\n');
+            }
+            target.append("# TYPE ").append(name).append(' ').append(type.getValue()).append('\n');
+
+            for (Map.Entry<LabelSet, Cell> entry : cells.entrySet())
+            {
+                String[] values = entry.getKey().values;
+                Cell cell = entry.getValue();
+                if (type == Type.HISTOGRAM)
+                {
+                    long cumulative = 0;
+                    for (int i = 0; i <= buckets.length; i++)
+                    {
+                        cumulative += cell.bucketCounts.get(i);
+                        appendSeries(target, "_bucket", values, i < buckets.length ? buckets[i] : Double.NaN);
+                        target.append(cumulative).append('\n');
+                    }
+                    appendSeries(target, "_sum", values, null);
+                    appendDouble(target, cell.getValue());
+                    target.append('\n');
+                    appendSeries(target, "_count", values, null);
+                    target.append(cumulative).append('\n');
+                }
+                else
+                {
+                    appendSeries(target, "", values, null);
+                    appendDouble(target, cell.getValue());
+                    target.append('\n');
+                }
+            }
+        }
+
+        /**
+         * Appends the series name with the labels and a space, le is added if it is not null (NaN means +Inf)
+         */
+        private void appendSeries(final StringBuilder target, final String suffix, final String[] values,
+                                  final Double le)
+        {
+            target.append(name).append(suffix);
+            if (labelNames.length > 0 || le != null)
+            {
+                target.append('{');
+                for (int i = 0; i < labelNames.length; i++)
+                {
+                    if (i > 0)
+                    {
+                        target.append(',');
+                    }
+                    target.append(labelNames[i]).append("=\"");
+                    appendEscaped(target, values[i], true);
+                    target.append('"');
+                }
+                if (le != null)
+                {
+                    if (labelNames.length > 0)
+                    {
+                        target.append(',');
+                    }
+                    target.append("le=\"");
+                    if (le.isNaN())
+                    {
+                        target.append("+Inf");
+                    }
+                    else
+                    {
+                        appendDouble(target, le);
+                    }
+                    target.append('"');
+                }
+                target.append('}');
+            }
+            target.append(' ');
+        }
+
+    }
+
+    /**
+     * The value of one series: counter or gauge value, or histogram sum with the (not cumulative) bucket counts
+     */
+    public final class Cell
+    {
+
+        private final AtomicLong bits = new AtomicLong(Double.doubleToLongBits(0));
+
+        private final AtomicLongArray bucketCounts;
+
+        private Cell(final int bucketCount)
+        {
+            this.bucketCounts = bucketCount > 0 ? new AtomicLongArray(bucketCount) : null;
+        }
+
+        public void add(final double value)
+        {
+            while (true)
+            {
+                long current = bits.get();
+                long next = Double.doubleToLongBits(Double.longBitsToDouble(current) + value);
+                if (bits.compareAndSet(current, next))
+                {
+                    return;
+                }
+            }
+        }
+
+        public void set(final double value)
+        {
+            bits.set(Double.doubleToLongBits(value));
+        }
+
+        public void observe(final double value)
+        {
+            int index = Arrays.binarySearch(buckets, value);
+            bucketCounts.incrementAndGet(index >= 0 ? index : -index - 1);
+            add(value);
+        }
+
+        public double getValue()
+        {
+            return Double.longBitsToDouble(bits.get());
+        }
+
+    }
+
+    /**
+     * Label values of a series, a mutable instance can be reused as a lookup probe
+     */
+    public static final class LabelSet
+    {
+
+        private final String[] values;
+
+        private int hash;
+
+        public LabelSet(final int size)
+        {
+            values = new String[size];
+        }
+
+        private LabelSet(final String[] values, final int hash)
+        {
+            this.values = values;
+            this.hash = hash;
+        }
+
+        public void set(final int index, final String value)
+        {
+            values[index] = value;
+        }
+
+        /**
+         * Computes the hash, should be called after the values are set
+         */
+        public void update()
+        {
+            hash = Arrays.hashCode(values);
+        }
+
+        private LabelSet copy()
+        {
+            return new LabelSet(values.clone(), hash);
+        }
+
+        @Override
+        public boolean equals(final Object o)
+        {
+            if (this == o)
+            {
+                return true;
+            }
+            if (!(o instanceof LabelSet))
+            {
+                return false;
+            }
+            LabelSet other = (LabelSet) o;
+            return hash == other.hash && Arrays.equals(values, other.values);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+    }
+
+}
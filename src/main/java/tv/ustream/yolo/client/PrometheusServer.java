@@ -0,0 +1,197 @@
+package tv.ustream.yolo.client;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Embedded HTTP server exposing a Prometheus registry in the text exposition format.
+ *
+ * The servers are shared by port: when a processor is recreated on config reload, the new processor takes over the
+ * port of the old one. Every user holds a lease with its own registry, the registry of the newest lease is served, so
+ * if the new processor is released (for example because the reload failed) the previous registry is served again.
+ * The server is stopped when its last lease is released. A scrape only reads the atomic cells of the registry on the
+ * server thread, it never blocks the processing.
+ */
+public final class PrometheusServer
+{
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final Logger LOG = LoggerFactory.getLogger(PrometheusServer.class);
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Map<Integer, PrometheusServer> SERVERS = new HashMap<Integer, PrometheusServer>();
+
+    private final HttpServer server;
+
+    private final List<Lease> leases = new ArrayList<Lease>();
+
+    private volatile PrometheusRegistry registry;
+
+    private PrometheusServer(final HttpServer server)
+    {
+        this.server = server;
+    }
+
+    /**
+     * Starts serving the registry on the port (or takes over the server already running on it until the returned
+     * lease is released), port 0 always starts a new server on a free port
+     */
+    public static Lease acquire(final String host, final int port, final String path,
+                                final PrometheusRegistry registry) throws IOException
+    {
+        synchronized (SERVERS)
+        {
+            PrometheusServer instance = port != 0 ? SERVERS.get(port) : null;
+            if (instance == null)
+            {
+                InetSocketAddress address = host != null
+                        ? new InetSocketAddress(host, port)
+                        : new InetSocketAddress(port);
+                HttpServer server = HttpServer.create(address, 0);
+                instance = new PrometheusServer(server);
+                server.createContext(path, instance.createHandler());
+                server.start();
+                SERVERS.put(instance.getPort(), instance);
+                LOG.info("Serving Prometheus metrics on {}{}", server.getAddress(), path);
+            }
+            else
+            {
+                LOG.info("Prometheus port {} is taken over by a new registry", port);
+            }
+
+            Lease lease = instance.new Lease(registry);
+            instance.leases.add(lease);
+            instance.registry = registry;
+            return lease;
+        }
+    }
+
+    public int getPort()
+    {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Serves the registry of the newest lease, should be called while holding the lock of SERVERS
+     */
+    private void updateRegistry()
+    {
+        registry = leases.get(leases.size() - 1).registry;
+    }
+
+    private HttpHandler createHandler()
+    {
+        return new HttpHandler()
+        {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException
+            {
+                try
+                {
+                    if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod()))
+                    {
+                        exchange.sendResponseHeaders(405, -1);
+                        return;
+                    }
+
+                    StringBuilder body = new StringBuilder(4096);
+                    registry.write(body);
+                    byte[] bytes = body.toString().getBytes(UTF_8);
+
+                    exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+                    if ("HEAD".equals(exchange.getRequestMethod()))
+                    {
+                        exchange.sendResponseHeaders(200, -1);
+                        return;
+                    }
+                    exchange.sendResponseHeaders(200, bytes.length);
+                    try (OutputStream output = exchange.getResponseBody())
+                    {
+                        output.write(bytes);
+                    }
+                }
+                finally
+                {
+                    exchange.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * The use of a server by one processor
+     */
+    public final class Lease
+    {
+
+        private PrometheusRegistry registry;
+
+        private boolean released = false;
+
+        private Lease(final PrometheusRegistry registry)
+        {
+            this.registry = registry;
+        }
+
+        public int getPort()
+        {
+            return PrometheusServer.this.getPort();
+        }
+
+        /**
+         * Replaces the registry of the lease, it is served if this is the newest lease
+         */
+        public void setRegistry(final PrometheusRegistry newRegistry)
+        {
+            synchronized (SERVERS)
+            {
+                registry = newRegistry;
+                if (!released)
+                {
+                    updateRegistry();
+                }
+            }
+        }
+
+        /**
+         * Serves the registry of the previous lease again, or stops the server if this was the last one
+         */
+        public void release()
+        {
+            synchronized (SERVERS)
+            {
+                if (released)
+                {
+                    return;
+                }
+                released = true;
+                leases.remove(this);
+                if (leases.isEmpty())
+                {
+                    SERVERS.remove(getPort());
+                    server.stop(0);
+                }
+                else
+                {
+                    updateRegistry();
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,494 @@
+package tv.ustream.yolo.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes records to rolling files from a dedicated writer thread.
+ *
+ * The records (complete lines) are copied into blocks of blockSize bytes, a record never spans blocks. The full
+ * blocks are queued and the writer thread writes all queued blocks with one gathering write, a partial block is
+ * queued when it is older than flushTimeMs. At most maxPendingBlocks blocks are queued, above that the writing
+ * threads wait for the disk. The written blocks are reused.
+ *
+ * The active segment is named like path-20140513-165320-0.ext.part. A new segment is started when the next block
+ * doesn't fit in maxFileSize or when the time reaches a multiple of rollTimeMs, then the closed segment is renamed
+ * without the .part suffix or, if compression is enabled, compressed to ext.gz by a separate thread.
+ */
+public class RollingFileWriter
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger(RollingFileWriter.class);
+
+    private static final String PART_SUFFIX = ".part";
+
+    private static final String GZIP_SUFFIX = ".gz";
+
+    private static final int MAX_SPARE_BLOCKS = 16;
+
+    private static final long STOP_TIMEOUT_MS = 60000;
+
+    private final String path;
+
+    private final String extension;
+
+    private final byte[] header;
+
+    private final long maxFileSize;
+
+    private final long rollTimeMs;
+
+    private final int blockSize;
+
+    private final int maxPendingBlocks;
+
+    private final long flushTimeMs;
+
+    private final Thread writer;
+
+    private final ExecutorService compressor;
+
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMdd-HHmmss");
+
+    private final Deque<ByteBuffer> queue = new ArrayDeque<ByteBuffer>();
+
+    private final Deque<ByteBuffer> spareBlocks = new ArrayDeque<ByteBuffer>();
+
+    private ByteBuffer block;
+
+    private long blockStartTime = 0;
+
+    private boolean running = true;
+
+    private long writtenRecords = 0;
+
+    private long writtenBytes = 0;
+
+    private long droppedBytes = 0;
+
+    private FileChannel channel;
+
+    private File file;
+
+    private long fileSize = 0;
+
+    private long nextRollTime = Long.MAX_VALUE;
+
+    private int sequence = 0;
+
+    private String lastFileTime;
+
+    public RollingFileWriter(final String path, final String extension, final byte[] header, final long maxFileSize,
+                             final long rollTimeMs, final boolean compress, final int blockSize,
+                             final int maxPendingBlocks, final long flushTimeMs)
+    {
+        this.path = path;
+        this.extension = extension;
+        this.header = header;
+        this.maxFileSize = maxFileSize;
+        this.rollTimeMs = rollTimeMs;
+        this.blockSize = blockSize;
+        this.maxPendingBlocks = maxPendingBlocks;
+        this.flushTimeMs = flushTimeMs;
+
+        File parent = new File(path).getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+        {
+            throw new IllegalArgumentException("Failed to create directory: " + parent);
+        }
+
+        block = ByteBuffer.allocate(blockSize);
+        compressor = compress ? Executors.newSingleThreadExecutor() : null;
+
+        writer = new Thread(createWriter(), "file-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Copies the remaining bytes of the record into the current block, waits if too many blocks are queued
+     */
+    public synchronized void write(final ByteBuffer record) throws InterruptedException
+    {
+        if (!running)
+        {
+            throw new IllegalStateException("Writer is stopped");
+        }
+
+        while (record.remaining() > block.remaining())
+        {
+            if (block.position() > 0)
+            {
+                sealBlock();
+            }
+            else
+            {
+                // the record is larger than a block, it gets its own block
+                block = ByteBuffer.allocate(record.remaining());
+            }
+        }
+
+        if (block.position() == 0)
+        {
+            blockStartTime = currentTimeMillis();
+        }
+        block.put(record);
+        writtenRecords++;
+    }
+
+    /**
+     * Queues the current block for writing
+     */
+    public synchronized void flush() throws InterruptedException
+    {
+        sealBlock();
+    }
+
+    /**
+     * Writes the queued blocks, closes the current segment and waits for the compression of the closed segments
+     */
+    public void stop()
+    {
+        synchronized (this)
+        {
+            running = false;
+            notifyAll();
+        }
+
+        try
+        {
+            writer.join();
+            if (compressor != null)
+            {
+                compressor.shutdown();
+                if (!compressor.awaitTermination(STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+                {
+                    LOG.warn("Failed to compress the closed segments of {} before stopping", path);
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns with the number of records accepted for writing
+     */
+    public synchronized long getWrittenRecords()
+    {
+        return writtenRecords;
+    }
+
+    /**
+     * Returns with the number of bytes written to the files
+     */
+    public synchronized long getWrittenBytes()
+    {
+        return writtenBytes;
+    }
+
+    /**
+     * Returns with the number of bytes dropped because of write errors
+     */
+    public synchronized long getDroppedBytes()
+    {
+        return droppedBytes;
+    }
+
+    protected long currentTimeMillis()
+    {
+        return System.currentTimeMillis();
+    }
+
+    private void sealBlock() throws InterruptedException
+    {
+        while (queue.size() >= maxPendingBlocks && running && block.position() > 0)
+        {
+            wait();
+        }
+
+        // another thread may have sealed the block while this one was waiting
+        if (block.position() == 0)
+        {
+            return;
+        }
+
+        queue.addLast(block);
+        block = spareBlocks.isEmpty() ? ByteBuffer.allocate(blockSize) : spareBlocks.pollFirst();
+        notifyAll();
+    }
+
+    private Runnable createWriter()
+    {
+        return new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                List<ByteBuffer> blocks = new ArrayList<ByteBuffer>();
+                try
+                {
+                    while (takeBlocks(blocks))
+                    {
+                        int written = writeBlocks(blocks);
+                        recycle(blocks, written);
+                        blocks.clear();
+                    }
+                }
+                catch (InterruptedException e)
+                {
+                    LOG.warn("File writer of {} was interrupted", path);
+                }
+                closeFile();
+            }
+        };
+    }
+
+    /**
+     * Waits for queued blocks (or the time of rolling) and moves them to the list. Returns false when the writer was
+     * stopped and everything was written.
+     */
+    private synchronized boolean takeBlocks(final List<ByteBuffer> blocks) throws InterruptedException
+    {
+        while (queue.isEmpty())
+        {
+            if (!running)
+            {
+                if (block.position() == 0)
+                {
+                    return false;
+                }
+                sealBlock();
+                continue;
+            }
+
+            long now = currentTimeMillis();
+            if (now >= nextRollTime)
+            {
+                return true;
+            }
+
+            long waitMs = Math.min(flushTimeMs, nextRollTime - now);
+            if (block.position() > 0)
+            {
+                long flushWaitMs = blockStartTime + flushTimeMs - now;
+                if (flushWaitMs <= 0)
+                {
+                    sealBlock();
+                    continue;
+                }
+                waitMs = Math.min(waitMs, flushWaitMs);
+            }
+            wait(waitMs);
+        }
+
+        while (!queue.isEmpty())
+        {
+            ByteBuffer queued = queue.pollFirst();
+            queued.flip();
+            blocks.add(queued);
+        }
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Counts the written and the dropped blocks and keeps the full size blocks for reuse
+     */
+    private synchronized void recycle(final List<ByteBuffer> blocks, final int written)
+    {
+        for (int i = 0; i < blocks.size(); i++)
+        {
+            ByteBuffer taken = blocks.get(i);
+            if (i < written)
+            {
+                writtenBytes += taken.limit();
+            }
+            else
+            {
+                droppedBytes += taken.limit();
+            }
+            if (taken.capacity() == blockSize && spareBlocks.size() < MAX_SPARE_BLOCKS)
+            {
+                taken.clear();
+                spareBlocks.addLast(taken);
+            }
+        }
+    }
+
+    /**
+     * Writes the blocks with gathering writes, rolls the segment between the blocks if needed. Returns with the number
+     * of written blocks, the rest is dropped after a write error.
+     */
+    private int writeBlocks(final List<ByteBuffer> blocks)
+    {
+        if (channel != null && currentTimeMillis() >= nextRollTime)
+        {
+            closeFile();
+        }
+
+        int start = 0;
+        while (start < blocks.size())
+        {
+            try
+            {
+                if (channel == null)
+                {
+                    openFile();
+                }
+
+                int end = start;
+                long size = fileSize;
+                while (end < blocks.size()
+                        && (size + blocks.get(end).remaining() <= maxFileSize || (end == start && isFileEmpty())))
+                {
+                    size += blocks.get(end).remaining();
+                    end++;
+                }
+
+                if (end > start)
+                {
+                    ByteBuffer[] group = blocks.subList(start, end).toArray(new ByteBuffer[end - start]);
+                    long remaining = size - fileSize;
+                    while (remaining > 0)
+                    {
+                        remaining -= channel.write(group);
+                    }
+                    fileSize = size;
+                    start = end;
+                }
+
+                if (start < blocks.size())
+                {
+                    closeFile();
+                }
+            }
+            catch (IOException e)
+            {
+                LOG.error("Failed to write {}, dropping {} blocks: {}", file, blocks.size() - start, e.getMessage());
+                closeFile();
+                return start;
+            }
+        }
+        return blocks.size();
+    }
+
+    private void openFile() throws IOException
+    {
+        long now = currentTimeMillis();
+        String time = dateFormat.format(new Date(now));
+        sequence = time.equals(lastFileTime) ? sequence + 1 : 0;
+        lastFileTime = time;
+
+        file = new File(path + "-" + time + "-" + sequence + extension + PART_SUFFIX);
+        channel = new FileOutputStream(file).getChannel();
+        fileSize = 0;
+        nextRollTime = rollTimeMs > 0 ? (now / rollTimeMs + 1) * rollTimeMs : Long.MAX_VALUE;
+
+        if (header != null)
+        {
+            ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+            while (headerBuffer.hasRemaining())
+            {
+                fileSize += channel.write(headerBuffer);
+            }
+        }
+
+        LOG.debug("Opened {}", file);
+    }
+
+    /**
+     * Returns true if the current segment contains only the header
+     */
+    private boolean isFileEmpty()
+    {
+        return fileSize == (header != null ? header.length : 0);
+    }
+
+    private void closeFile()
+    {
+        nextRollTime = Long.MAX_VALUE;
+
+        if (channel == null)
+        {
+            return;
+        }
+
+        try
+        {
+            channel.force(false);
+            channel.close();
+        }
+        catch (IOException e)
+        {
+            LOG.error("Failed to close {}: {}", file, e.getMessage());
+        }
+        channel = null;
+
+        final File closed = file;
+        String name = closed.getPath().substring(0, closed.getPath().length() - PART_SUFFIX.length());
+        if (compressor != null)
+        {
+            final File target = new File(name + GZIP_SUFFIX);
+            compressor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    compress(closed, target);
+                }
+            });
+        }
+        else if (!closed.renameTo(new File(name)))
+        {
+            LOG.error("Failed to rename {}", closed);
+        }
+    }
+
+    private static void compress(final File source, final File target)
+    {
+        File temp = new File(target.getPath() + PART_SUFFIX);
+        try (InputStream input = new FileInputStream(source);
+             OutputStream output = new GZIPOutputStream(new FileOutputStream(temp), 64 * 1024))
+        {
+            byte[] buffer = new byte[64 * 1024];
+            int length;
+            while ((length = input.read(buffer)) != -1)
+            {
+                output.write(buffer, 0, length);
+            }
+        }
+        catch (IOException e)
+        {
+            LOG.error("Failed to compress {}: {}", source, e.getMessage());
+            return;
+        }
+
+        if (!temp.renameTo(target) || !source.delete())
+        {
+            LOG.error("Failed to replace {} with {}", source, target);
+        }
+    }
+
+}
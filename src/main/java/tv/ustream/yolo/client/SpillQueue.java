@@ -0,0 +1,212 @@
+package tv.ustream.yolo.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * FIFO queue of metric batches stored in memory-mapped segment files.
+ *
+ * Every batch is stored as a record of its length, its number of metrics and its data. A new segment file is created
+ * when the last one is full and a segment is unmapped and deleted when all of its records were read. The files are
+ * temporary, they are deleted when the queue is closed and they are not read again after a restart, so the spilled
+ * data doesn't survive the process.
+ *
+ * Not thread-safe.
+ */
+class SpillQueue
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger(SpillQueue.class);
+
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private final File directory;
+
+    private final int segmentSize;
+
+    private final long maxBytes;
+
+    private final Deque<Segment> segments = new ArrayDeque<Segment>();
+
+    private long bytes = 0;
+
+    SpillQueue(final File directory, final int segmentSize, final long maxBytes)
+    {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Stores the remaining data of the batch, returns false if the queue is full or the batch can't be stored
+     */
+    boolean offer(final MetricBatch batch)
+    {
+        ByteBuffer data = batch.getData();
+        int recordSize = RECORD_HEADER_SIZE + data.remaining();
+        if (recordSize > segmentSize || bytes + recordSize > maxBytes)
+        {
+            return false;
+        }
+
+        Segment tail = segments.peekLast();
+        if (tail == null || tail.writeBuffer.remaining() < recordSize)
+        {
+            try
+            {
+                tail = createSegment();
+            }
+            catch (IOException e)
+            {
+                LOG.warn("Failed to create spill segment in {}: {}", directory, e.getMessage());
+                return false;
+            }
+            segments.addLast(tail);
+        }
+
+        tail.writeBuffer.putInt(data.remaining());
+        tail.writeBuffer.putInt(batch.getMetrics());
+        tail.writeBuffer.put(data.duplicate());
+
+        bytes += recordSize;
+
+        return true;
+    }
+
+    /**
+     * Returns with the oldest batch or null if the queue is empty
+     */
+    MetricBatch poll()
+    {
+        Segment head = segments.peekFirst();
+        if (head == null || head.readBuffer.position() == head.writeBuffer.position())
+        {
+            return null;
+        }
+
+        int length = head.readBuffer.getInt();
+        int metrics = head.readBuffer.getInt();
+        byte[] data = new byte[length];
+        head.readBuffer.get(data);
+
+        bytes -= RECORD_HEADER_SIZE + length;
+
+        if (head.readBuffer.position() == head.writeBuffer.position())
+        {
+            segments.removeFirst();
+            head.release();
+        }
+
+        return new MetricBatch(ByteBuffer.wrap(data), metrics);
+    }
+
+    boolean isEmpty()
+    {
+        return bytes == 0;
+    }
+
+    /**
+     * Returns with the number of stored bytes, including the record headers
+     */
+    long getBytes()
+    {
+        return bytes;
+    }
+
+    /**
+     * Unmaps and deletes all segments
+     */
+    void close()
+    {
+        for (Segment segment : segments)
+        {
+            segment.release();
+        }
+        segments.clear();
+        bytes = 0;
+    }
+
+    private Segment createSegment() throws IOException
+    {
+        File file = File.createTempFile("graphite-spill-", ".dat", directory);
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw"))
+        {
+            MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            return new Segment(file, buffer);
+        }
+        catch (IOException e)
+        {
+            if (!file.delete())
+            {
+                LOG.debug("Failed to delete {}", file);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Releases the mapping right away instead of waiting for the garbage collector, the buffer must not be used after
+     * this. Falls back to the garbage collector if the JVM doesn't expose the cleaner.
+     */
+    private static void unmap(final MappedByteBuffer buffer)
+    {
+        try
+        {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null)
+            {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        }
+        catch (Exception e)
+        {
+            LOG.debug("Failed to unmap spill segment: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * A segment file, the mapping stays valid after the file is closed
+     */
+    private static final class Segment
+    {
+
+        private final File file;
+
+        private final MappedByteBuffer buffer;
+
+        private final ByteBuffer writeBuffer;
+
+        private final ByteBuffer readBuffer;
+
+        private Segment(final File file, final MappedByteBuffer buffer)
+        {
+            this.file = file;
+            this.buffer = buffer;
+            this.writeBuffer = buffer.duplicate();
+            this.readBuffer = buffer.duplicate();
+        }
+
+        private void release()
+        {
+            unmap(buffer);
+            if (!file.delete())
+            {
+                LOG.warn("Failed to delete spill segment {}", file);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,294 @@
+package tv.ustream.yolo.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Aggregates StatsD metrics in memory and sends them periodically through a StatsD client.
+ *
+ * Counters are summed, for gauges only the last value is kept and timer samples are collected per key (at most
+ * maxTimerSamples in a flush interval, the rest is dropped and the sent samples get a matching sample rate). The
+ * values are stored in concurrent maps of atomic cells, so recording never blocks the flush. A cell which was not
+ * updated during a whole interval is retired and removed from its map, a writer finding a retired cell creates a
+ * new one. The counter and gauge cells hold the bits of a double value, the empty and retired states are NaN
+ * values which can't be produced by Double.doubleToLongBits.
+ */
+public class StatsDAggregator
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger(StatsDAggregator.class);
+
+    private static final long RETIRED = 0x7ff8deadbeef0001L;
+
+    private static final long NO_VALUE = 0x7ff8deadbeef0002L;
+
+    private static final int RETIRED_SAMPLES = Integer.MIN_VALUE;
+
+    private final StatsDClient client;
+
+    private final int maxTimerSamples;
+
+    private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+
+    private final ConcurrentMap<String, AtomicLong> gauges = new ConcurrentHashMap<String, AtomicLong>();
+
+    private final ConcurrentMap<String, TimerCell> timers = new ConcurrentHashMap<String, TimerCell>();
+
+    private final AtomicLong droppedTimerSamples = new AtomicLong();
+
+    private final Timer flushTimer = new Timer();
+
+    public StatsDAggregator(final StatsDClient client, final long flushTimeMs, final int maxTimerSamples)
+    {
+        this.client = client;
+        this.maxTimerSamples = maxTimerSamples;
+
+        flushTimer.schedule(createTimerTask(), flushTimeMs, flushTimeMs);
+    }
+
+    public void count(final String key, final double value)
+    {
+        while (true)
+        {
+            AtomicLong cell = getCell(counters, key, 0);
+            long current = cell.get();
+            while (current != RETIRED)
+            {
+                long sum = Double.doubleToLongBits(Double.longBitsToDouble(current) + value);
+                if (cell.compareAndSet(current, sum))
+                {
+                    return;
+                }
+                current = cell.get();
+            }
+            counters.remove(key, cell);
+        }
+    }
+
+    public void gauge(final String key, final double value)
+    {
+        long bits = Double.doubleToLongBits(value);
+        while (true)
+        {
+            AtomicLong cell = getCell(gauges, key, NO_VALUE);
+            long current = cell.get();
+            while (current != RETIRED)
+            {
+                if (cell.compareAndSet(current, bits))
+                {
+                    return;
+                }
+                current = cell.get();
+            }
+            gauges.remove(key, cell);
+        }
+    }
+
+    public void time(final String key, final double value)
+    {
+        time(key, value, 1);
+    }
+
+    /**
+     * Records a timer sample which was sampled with the given rate at the source
+     */
+    public void time(final String key, final double value, final double sampleRate)
+    {
+        while (true)
+        {
+            TimerCell cell = timers.get(key);
+            if (cell == null)
+            {
+                TimerCell newCell = new TimerCell();
+                cell = timers.putIfAbsent(key, newCell);
+                if (cell == null)
+                {
+                    cell = newCell;
+                }
+            }
+
+            int size = cell.size.get();
+            while (size != RETIRED_SAMPLES)
+            {
+                if (size >= maxTimerSamples)
+                {
+                    cell.dropped.incrementAndGet();
+                    droppedTimerSamples.incrementAndGet();
+                    return;
+                }
+                if (cell.size.compareAndSet(size, size + 1))
+                {
+                    cell.sampleRate = sampleRate;
+                    cell.samples.offer(value);
+                    return;
+                }
+                size = cell.size.get();
+            }
+            timers.remove(key, cell);
+        }
+    }
+
+    /**
+     * Sends the aggregated values of the last interval
+     */
+    public synchronized void flush()
+    {
+        int sent = flushCounters() + flushGauges() + flushTimers();
+
+        long dropped = droppedTimerSamples.getAndSet(0);
+        if (dropped > 0)
+        {
+            LOG.debug("Dropped {} timer samples, maxTimerSamples is {}", dropped, maxTimerSamples);
+        }
+
+        client.flush();
+
+        if (sent > 0)
+        {
+            LOG.debug("Flushed {} aggregated statsd metrics", sent);
+        }
+    }
+
+    /**
+     * Stops the flush timer and sends the remaining aggregated values, the client is not stopped.
+     */
+    public void stop()
+    {
+        flushTimer.cancel();
+
+        flush();
+    }
+
+    private int flushCounters()
+    {
+        int sent = 0;
+        for (Map.Entry<String, AtomicLong> entry : counters.entrySet())
+        {
+            AtomicLong cell = entry.getValue();
+            long value = cell.getAndSet(0);
+            if (value != 0)
+            {
+                client.count(entry.getKey(), Double.longBitsToDouble(value), 1);
+                sent++;
+            }
+            else if (cell.compareAndSet(0, RETIRED))
+            {
+                counters.remove(entry.getKey(), cell);
+            }
+        }
+        return sent;
+    }
+
+    private int flushGauges()
+    {
+        int sent = 0;
+        for (Map.Entry<String, AtomicLong> entry : gauges.entrySet())
+        {
+            AtomicLong cell = entry.getValue();
+            long value = cell.getAndSet(NO_VALUE);
+            if (value != NO_VALUE)
+            {
+                client.gauge(entry.getKey(), Double.longBitsToDouble(value));
+                sent++;
+            }
+            else if (cell.compareAndSet(NO_VALUE, RETIRED))
+            {
+                gauges.remove(entry.getKey(), cell);
+            }
+        }
+        return sent;
+    }
+
+    private int flushTimers()
+    {
+        int sent = 0;
+        for (Map.Entry<String, TimerCell> entry : timers.entrySet())
+        {
+            TimerCell cell = entry.getValue();
+            int size = cell.size.get();
+            long dropped = cell.dropped.getAndSet(0);
+            double sampleRate = size > 0 ? cell.sampleRate * size / (size + dropped) : 1;
+
+            int count = 0;
+            Double value;
+            while (count < size && (value = cell.samples.poll()) != null)
+            {
+                client.time(entry.getKey(), value, sampleRate);
+                count++;
+            }
+
+            if (count > 0)
+            {
+                cell.size.addAndGet(-count);
+                sent += count;
+            }
+            else if (cell.size.compareAndSet(0, RETIRED_SAMPLES))
+            {
+                timers.remove(entry.getKey(), cell);
+            }
+        }
+        return sent;
+    }
+
+    private static AtomicLong getCell(final ConcurrentMap<String, AtomicLong> cells, final String key,
+                                      final long emptyValue)
+    {
+        AtomicLong cell = cells.get(key);
+        if (cell == null)
+        {
+            AtomicLong newCell = new AtomicLong(emptyValue);
+            cell = cells.putIfAbsent(key, newCell);
+            if (cell == null)
+            {
+                cell = newCell;
+            }
+        }
+        return cell;
+    }
+
+    private TimerTask createTimerTask()
+    {
+        return new TimerTask()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    flush();
+                }
+                catch (RuntimeException e)
+                {
+                    LOG.warn("Failed to send statsd data: {}", e.getMessage());
+                }
+            }
+        };
+    }
+
+    /**
+     * Timer samples of one key, the size counts the reserved places and is set to RETIRED_SAMPLES when removed
+     */
+    private static final class TimerCell
+    {
+
+        private final AtomicInteger size = new AtomicInteger();
+
+        private final AtomicLong dropped = new AtomicLong();
+
+        private final Queue<Double> samples = new ConcurrentLinkedQueue<Double>();
+
+        private volatile double sampleRate = 1;
+
+    }
+
+}
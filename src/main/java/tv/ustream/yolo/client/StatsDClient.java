@@ -0,0 +1,384 @@
+package tv.ustream.yolo.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.Charset;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Non-blocking StatsD client which packs multiple metrics into one datagram.
+ *
+ * The metrics are written as "key:value|type" lines into a reusable buffer of maxPacketSize bytes, the buffer is
+ * sent when the next metric would not fit or at latest in every flushTimeMs milliseconds. The default packet size
+ * fits in the usual 1500 byte MTU with the IP and UDP headers. Datagrams which can't be sent immediately are dropped.
+ *
+ * The host is resolved when the client is created and then by the flush timer thread, the address is cached for
+ * DNS_TTL_MS and the previous address is kept if the resolution fails, so sending never waits for DNS. Datagrams are
+ * dropped (and counted) while the host has no known address.
+ */
+public class StatsDClient
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger(StatsDClient.class);
+
+    public static final int DEFAULT_MAX_PACKET_SIZE = 1432;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int FRACTION_DIGITS = 6;
+
+    private static final long FRACTION_SCALE = 1000000L;
+
+    private static final double MAX_FIXED_POINT_VALUE = 1e12;
+
+    private static final long DNS_TTL_MS = 60000;
+
+    private final String host;
+
+    private final int port;
+
+    private final byte[] prefix;
+
+    private final ByteBuffer buffer;
+
+    private final ByteBuffer metric;
+
+    private final byte[] digits = new byte[20];
+
+    private final Timer flushTimer = new Timer();
+
+    private volatile InetSocketAddress address;
+
+    private volatile long addressExpireTime = 0;
+
+    private DatagramChannel channel;
+
+    private long droppedPackets = 0;
+
+    public StatsDClient(final String prefix, final String host, final int port, final int maxPacketSize,
+                        final long flushTimeMs)
+    {
+        this.host = host;
+        this.port = port;
+        this.prefix = prefix != null && !prefix.isEmpty() ? (prefix + ".").getBytes(UTF_8) : new byte[0];
+
+        buffer = ByteBuffer.allocate(maxPacketSize);
+        metric = ByteBuffer.allocate(maxPacketSize);
+
+        refreshAddress();
+
+        flushTimer.schedule(createTimerTask(), flushTimeMs, flushTimeMs);
+    }
+
+    public void count(final String key, final double value, final double sampleRate)
+    {
+        send(key, value, "c", sampleRate);
+    }
+
+    /**
+     * Sends a gauge value, negative values are sent after a zero value, as StatsD would handle them as a decrement
+     */
+    public synchronized void gauge(final String key, final double value)
+    {
+        if (value < 0)
+        {
+            send(key, 0, "g", 1);
+        }
+        send(key, value, "g", 1);
+    }
+
+    public void time(final String key, final double value, final double sampleRate)
+    {
+        send(key, value, "ms", sampleRate);
+    }
+
+    /**
+     * Sends the metrics written since the last datagram
+     */
+    public synchronized void flush()
+    {
+        if (buffer.position() == 0)
+        {
+            return;
+        }
+
+        InetSocketAddress target = address;
+        if (target == null)
+        {
+            droppedPackets++;
+            buffer.clear();
+            return;
+        }
+
+        buffer.flip();
+        try
+        {
+            if (getChannel().send(buffer, target) == 0)
+            {
+                droppedPackets++;
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            droppedPackets++;
+            LOG.warn("Failed to send statsd data: {}", e.getMessage());
+        }
+        finally
+        {
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Stops the flush timer, sends the buffered metrics and closes the channel
+     */
+    public synchronized void stop()
+    {
+        flushTimer.cancel();
+
+        flush();
+
+        if (droppedPackets > 0)
+        {
+            LOG.debug("Dropped {} statsd packets", droppedPackets);
+        }
+
+        if (channel != null)
+        {
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                LOG.warn("Failed to close statsd channel: {}", e.getMessage());
+            }
+            channel = null;
+        }
+    }
+
+    public synchronized long getDroppedPackets()
+    {
+        return droppedPackets;
+    }
+
+    private synchronized void send(final String key, final double value, final String type, final double sampleRate)
+    {
+        metric.clear();
+        if (!writeMetric(key, value, type, sampleRate))
+        {
+            LOG.warn("Statsd metric is too long: {}", key);
+            return;
+        }
+        metric.flip();
+
+        if (buffer.position() > 0 && buffer.remaining() < metric.remaining() + 1)
+        {
+            flush();
+        }
+        if (buffer.position() > 0)
+        {
+            buffer.put((byte) '\n');
+        }
+        buffer.put(metric);
+    }
+
+    private boolean writeMetric(final String key, final double value, final String type, final double sampleRate)
+    {
+        if (metric.remaining() < prefix.length)
+        {
+            return false;
+        }
+        metric.put(prefix);
+
+        if (!writeAscii(key) || !writeByte(':') || !writeDouble(value) || !writeByte('|') || !writeAscii(type))
+        {
+            return false;
+        }
+
+        if (sampleRate < 1)
+        {
+            return writeByte('|') && writeByte('@') && writeDouble(sampleRate);
+        }
+
+        return true;
+    }
+
+    private boolean writeAscii(final String text)
+    {
+        for (int i = 0; i < text.length(); i++)
+        {
+            char c = text.charAt(i);
+            if (c >= 0x80)
+            {
+                byte[] bytes = text.substring(i).getBytes(UTF_8);
+                if (metric.remaining() < bytes.length)
+                {
+                    return false;
+                }
+                metric.put(bytes);
+                return true;
+            }
+            if (!writeByte(c))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean writeByte(final char c)
+    {
+        if (!metric.hasRemaining())
+        {
+            return false;
+        }
+        metric.put((byte) c);
+        return true;
+    }
+
+    private boolean writeDouble(final double value)
+    {
+        if (Double.isNaN(value) || Double.isInfinite(value) || Math.abs(value) >= MAX_FIXED_POINT_VALUE)
+        {
+            return writeAscii(Double.toString(value));
+        }
+
+        long scaled = Math.round(Math.abs(value) * FRACTION_SCALE);
+        if (scaled == 0)
+        {
+            return writeByte('0');
+        }
+
+        if (value < 0 && !writeByte('-'))
+        {
+            return false;
+        }
+
+        if (!writeLong(scaled / FRACTION_SCALE))
+        {
+            return false;
+        }
+
+        long fraction = scaled % FRACTION_SCALE;
+        if (fraction == 0)
+        {
+            return true;
+        }
+
+        int length = FRACTION_DIGITS;
+        while (fraction % 10 == 0)
+        {
+            fraction /= 10;
+            length--;
+        }
+
+        if (!writeByte('.'))
+        {
+            return false;
+        }
+        for (int i = length - 1; i >= 0; i--)
+        {
+            digits[i] = (byte) ('0' + fraction % 10);
+            fraction /= 10;
+        }
+        return writeDigits(length);
+    }
+
+    private boolean writeLong(final long value)
+    {
+        long remaining = value;
+        int length = 0;
+        do
+        {
+            digits[digits.length - 1 - length] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+            length++;
+        }
+        while (remaining > 0);
+
+        if (metric.remaining() < length)
+        {
+            return false;
+        }
+        metric.put(digits, digits.length - length, length);
+        return true;
+    }
+
+    private boolean writeDigits(final int length)
+    {
+        if (metric.remaining() < length)
+        {
+            return false;
+        }
+        metric.put(digits, 0, length);
+        return true;
+    }
+
+    protected InetAddress resolve(final String host) throws UnknownHostException
+    {
+        return InetAddress.getByName(host);
+    }
+
+    /**
+     * Resolves the host if the cached address expired, it is called without holding the monitor as the resolution can
+     * block
+     */
+    private void refreshAddress()
+    {
+        long now = System.currentTimeMillis();
+        if (address != null && now < addressExpireTime)
+        {
+            return;
+        }
+
+        try
+        {
+            address = new InetSocketAddress(resolve(host), port);
+        }
+        catch (UnknownHostException e)
+        {
+            if (address == null)
+            {
+                LOG.warn("Failed to resolve {}: {}", host, e.getMessage());
+            }
+            else
+            {
+                LOG.warn("Failed to resolve {}, using the previous address: {}", host, e.getMessage());
+            }
+        }
+        addressExpireTime = now + DNS_TTL_MS;
+    }
+
+    private DatagramChannel getChannel() throws IOException
+    {
+        if (channel == null)
+        {
+            channel = DatagramChannel.open();
+            channel.configureBlocking(false);
+        }
+        return channel;
+    }
+
+    private TimerTask createTimerTask()
+    {
+        return new TimerTask()
+        {
+            @Override
+            public void run()
+            {
+                refreshAddress();
+                flush();
+            }
+        };
+    }
+
+}
@@ -21,8 +21,15 @@ public class ConfigPattern
 
     private static Map<String, String> globalParameters = new HashMap<String, String>();
 
+    /**
+     * Incremented on every global parameter change, so the compiled patterns know when to substitute them again
+     */
+    private static volatile int globalParametersVersion = 0;
+
     private final boolean simplePattern;
 
+    private volatile CompiledPattern compiled;
+
     public ConfigPattern(final String pattern)
     {
         this.pattern = pattern;
@@ -33,6 +40,68 @@ public class ConfigPattern
         }
 
         simplePattern = parameters.size() == 1 && pattern.startsWith("#") && pattern.endsWith("#");
+
+        compiled = compile();
+    }
+
+    /**
+     * Splits the pattern to literal text (with the global parameters already substituted) and field name segments
+     */
+    private CompiledPattern compile()
+    {
+        int version = globalParametersVersion;
+
+        List<String> newSegments = new ArrayList<String>();
+        List<Boolean> newFieldSegments = new ArrayList<Boolean>();
+        StringBuilder literal = new StringBuilder();
+
+        Matcher matcher = PARAMS_PATTERN.matcher(pattern);
+        int position = 0;
+        while (matcher.find())
+        {
+            literal.append(pattern, position, matcher.start());
+            position = matcher.end();
+
+            String globalValue = globalParameters.get(matcher.group(1));
+            if (globalValue != null)
+            {
+                literal.append(globalValue);
+                continue;
+            }
+
+            if (literal.length() > 0)
+            {
+                newSegments.add(literal.toString());
+                newFieldSegments.add(false);
+                literal.setLength(0);
+            }
+            newSegments.add(matcher.group(1));
+            newFieldSegments.add(true);
+        }
+        literal.append(pattern, position, pattern.length());
+        if (literal.length() > 0)
+        {
+            newSegments.add(literal.toString());
+            newFieldSegments.add(false);
+        }
+
+        boolean[] fields = new boolean[newFieldSegments.size()];
+        List<String> fieldNames = new ArrayList<String>();
+        for (int i = 0; i < fields.length; i++)
+        {
+            fields[i] = newFieldSegments.get(i);
+            if (fields[i])
+            {
+                fieldNames.add(newSegments.get(i));
+            }
+        }
+
+        return new CompiledPattern(
+                newSegments.toArray(new String[newSegments.size()]),
+                fields,
+                fieldNames.toArray(new String[fieldNames.size()]),
+                version
+        );
     }
 
     public static boolean applicable(final Object pattern)
@@ -85,33 +154,77 @@ public class ConfigPattern
         }
     }
 
+    /**
+     * Returns with the pattern filled with the given values or null if a parameter is missing.
+     */
     public String applyValues(final Map<String, Object> values)
     {
-        if (simplePattern)
+        CompiledPattern current = getCompiled();
+        if (current.segments.length == 1 && current.fieldSegments[0])
         {
-            return (String) values.get(parameters.get(0));
+            Object value = values.get(current.segments[0]);
+            return value != null ? value.toString() : null;
         }
-        else
+
+        StringBuilder result = new StringBuilder(pattern.length() + 16);
+        return appendValues(values, result) ? result.toString() : null;
+    }
+
+    /**
+     * Appends the pattern filled with the given values to the builder in one pass. Returns false if a parameter is
+     * missing, in this case the builder may contain a part of the result.
+     */
+    public boolean appendValues(final Map<String, Object> values, final StringBuilder target)
+    {
+        CompiledPattern current = getCompiled();
+        String[] currentSegments = current.segments;
+        boolean[] currentFieldSegments = current.fieldSegments;
+
+        for (int i = 0; i < currentSegments.length; i++)
         {
-            String result = pattern;
-            for (String parameter : parameters)
+            if (!currentFieldSegments[i])
             {
+                target.append(currentSegments[i]);
+                continue;
+            }
 
-                if (globalParameters.containsKey(parameter))
-                {
-                    result = result.replace("#" + parameter + "#", globalParameters.get(parameter));
-                }
-                else if (values.containsKey(parameter))
-                {
-                    result = result.replace("#" + parameter + "#", (String) values.get(parameter));
-                }
-                else
-                {
-                    return null;
-                }
+            Object value = values.get(currentSegments[i]);
+            if (value == null)
+            {
+                return false;
+            }
+            if (value instanceof CharSequence)
+            {
+                target.append((CharSequence) value);
             }
-            return result;
+            else
+            {
+                target.append(value.toString());
+            }
+        }
+
+        return true;
+    }
+
+    private CompiledPattern getCompiled()
+    {
+        CompiledPattern current = compiled;
+        if (current.version != globalParametersVersion)
+        {
+            current = compile();
+            compiled = current;
         }
+        return current;
+    }
+
+    /**
+     * Returns with the names of the parser output fields used by the pattern (global parameters are not included).
+     * The same array instance is returned until the pattern is compiled again, so it can be used to identify the
+     * pattern. The array must not be modified.
+     */
+    public String[] getFieldNames()
+    {
+        return getCompiled().fieldNames;
     }
 
     public List<String> getParameters()
@@ -119,9 +232,18 @@ public class ConfigPattern
         return parameters;
     }
 
+    /**
+     * Returns true if the pattern contains only one parameter, like '#param#'
+     */
+    public boolean isSimplePattern()
+    {
+        return simplePattern;
+    }
+
     public static void addGlobalParameter(final String key, final String value)
     {
         globalParameters.put(key, value);
+        globalParametersVersion++;
     }
 
     @Override
@@ -153,4 +275,26 @@ public class ConfigPattern
     {
         return "ConfigPattern('" + pattern + "')";
     }
+
+    private static final class CompiledPattern
+    {
+
+        private final String[] segments;
+
+        private final boolean[] fieldSegments;
+
+        private final String[] fieldNames;
+
+        private final int version;
+
+        private CompiledPattern(final String[] segments, final boolean[] fieldSegments, final String[] fieldNames,
+                                final int version)
+        {
+            this.segments = segments;
+            this.fieldSegments = fieldSegments;
+            this.fieldNames = fieldNames;
+            this.version = version;
+        }
+    }
+
 }
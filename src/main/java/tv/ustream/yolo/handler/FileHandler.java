@@ -17,6 +17,7 @@ import org.apache.commons.io.monitor.FileAlterationObserver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import tv.ustream.yolo.io.GzipTailer;
+import tv.ustream.yolo.io.ICharSequenceTailerListener;
 import tv.ustream.yolo.io.TailerFile;
 
 /**
@@ -27,6 +28,8 @@ public class FileHandler implements Runnable
 
     private static final Logger LOG = LoggerFactory.getLogger(FileHandler.class);
 
+    private static final int READ_QUEUE_SIZE = 100;
+
     private final String filePath;
 
     private final long delayMs;
@@ -43,7 +46,12 @@ public class FileHandler implements Runnable
 
     private FileAlterationMonitor monitor;
 
-    private final ArrayBlockingQueue<String> readQueue = new ArrayBlockingQueue<>(100);
+    private final ArrayBlockingQueue<CharSequence> readQueue = new ArrayBlockingQueue<>(READ_QUEUE_SIZE);
+
+    /**
+     * Line buffers returned by the line processor, reused by the tailers which can provide the lines in a buffer
+     */
+    private final ArrayBlockingQueue<StringBuilder> freeBuffers = new ArrayBlockingQueue<>(READ_QUEUE_SIZE + 1);
 
     private boolean running = false;
 
@@ -279,17 +287,24 @@ public class FileHandler implements Runnable
 
             try
             {
-                String line = readQueue.poll(1, TimeUnit.SECONDS);
+                CharSequence line = readQueue.poll(1, TimeUnit.SECONDS);
                 if (line != null)
                 {
                     try
                     {
-                        lineProcessor.handle(line);
+                        handleLine(line);
                     }
                     catch (Exception e)
                     {
                         LOG.error("Line processing error", e);
                     }
+                    finally
+                    {
+                        if (line instanceof StringBuilder)
+                        {
+                            freeBuffers.offer((StringBuilder) line);
+                        }
+                    }
                 }
 
             }
@@ -300,7 +315,19 @@ public class FileHandler implements Runnable
         }
     }
 
-    private class TailerListener implements org.apache.commons.io.input.TailerListener
+    private void handleLine(final CharSequence line)
+    {
+        if (lineProcessor instanceof ICharSequenceLineHandler)
+        {
+            ((ICharSequenceLineHandler) lineProcessor).handle(line);
+        }
+        else
+        {
+            lineProcessor.handle(line.toString());
+        }
+    }
+
+    private class TailerListener implements ICharSequenceTailerListener
     {
 
         private final File file;
@@ -362,6 +389,25 @@ public class FileHandler implements Runnable
 
         @Override
         public void handle(final String line)
+        {
+            enqueue(line);
+        }
+
+        @Override
+        public void handle(final CharSequence line)
+        {
+            StringBuilder buffer = freeBuffers.poll();
+            if (buffer == null)
+            {
+                buffer = new StringBuilder(line.length());
+            }
+            buffer.setLength(0);
+            buffer.append(line);
+
+            enqueue(buffer);
+        }
+
+        private void enqueue(final CharSequence line)
         {
             fileNotFound = false;
             fileRotated = false;
@@ -0,0 +1,13 @@
+package tv.ustream.yolo.handler;
+
+/**
+ * Line handler which can handle lines backed by a reusable buffer.
+ *
+ * The line must not be referenced after the handle call returns.
+ */
+public interface ICharSequenceLineHandler extends ILineHandler
+{
+
+    void handle(CharSequence line);
+
+}
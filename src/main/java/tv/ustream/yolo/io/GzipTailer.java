@@ -401,7 +401,14 @@ public class GzipTailer extends Tailer
 
     private void notifyListener()
     {
-        listener.handle(sb.toString());
+        if (listener instanceof ICharSequenceTailerListener)
+        {
+            ((ICharSequenceTailerListener) listener).handle(sb);
+        }
+        else
+        {
+            listener.handle(sb.toString());
+        }
     }
 
 }
@@ -0,0 +1,15 @@
+package tv.ustream.yolo.io;
+
+import org.apache.commons.io.input.TailerListener;
+
+/**
+ * Tailer listener which gets the lines in the tailer's reusable buffer instead of a new String for every line.
+ *
+ * The line must not be referenced after the handle call returns.
+ */
+public interface ICharSequenceTailerListener extends TailerListener
+{
+
+    void handle(CharSequence line);
+
+}
@@ -0,0 +1,180 @@
+package tv.ustream.yolo.module;
+
+import tv.ustream.yolo.module.condition.ICondition;
+import tv.ustream.yolo.module.parser.ICharSequenceParser;
+import tv.ustream.yolo.module.parser.IParser;
+import tv.ustream.yolo.module.processor.ICompiledProcessor;
+import tv.ustream.yolo.module.processor.IProcessor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiled form of a configuration: the parsers with their processors and process parameters already resolved.
+ *
+ * The structure is immutable, so a plan can be built on any thread and published with a single volatile write. The
+ * parser order and the line cache are mutable but they are used only by the line handling thread.
+ *
+ * The modules are stored with the config they were created from, so the next plan can reuse the unchanged ones.
+ */
+class ExecutionPlan
+{
+
+    static final ExecutionPlan EMPTY = new ExecutionPlan(
+            new ParserOrder<ParserNode>(false),
+            new ParserNode[0],
+            Collections.<String, CompiledModule<IProcessor>>emptyMap(),
+            Collections.<String, CompiledModule<IParser>>emptyMap(),
+            null
+    );
+
+    final ParserOrder<ParserNode> parserOrder;
+
+    final ParserNode[] runAlwaysParsers;
+
+    final Map<String, CompiledModule<IProcessor>> processors;
+
+    final Map<String, CompiledModule<IParser>> parsers;
+
+    final LineCache<CachedMatch> lineCache;
+
+    ExecutionPlan(final ParserOrder<ParserNode> parserOrder, final ParserNode[] runAlwaysParsers,
+                  final Map<String, CompiledModule<IProcessor>> processors,
+                  final Map<String, CompiledModule<IParser>> parsers, final LineCache<CachedMatch> lineCache)
+    {
+        this.parserOrder = parserOrder;
+        this.runAlwaysParsers = runAlwaysParsers;
+        this.processors = processors;
+        this.parsers = parsers;
+        this.lineCache = lineCache;
+    }
+
+    List<IProcessor> getProcessors()
+    {
+        List<IProcessor> result = new ArrayList<IProcessor>(processors.size());
+        for (CompiledModule<IProcessor> processor : processors.values())
+        {
+            result.add(processor.module);
+        }
+        return result;
+    }
+
+    static final class CompiledModule<T>
+    {
+
+        /**
+         * Copy of the raw module config, before the defaults were applied
+         */
+        final Map<String, Object> config;
+
+        final T module;
+
+        CompiledModule(final Map<String, Object> config, final T module)
+        {
+            this.config = config;
+            this.module = module;
+        }
+    }
+
+    static final class ParserNode
+    {
+
+        final String name;
+
+        final IParser parser;
+
+        final ICharSequenceParser charSequenceParser;
+
+        final Transition[] transitions;
+
+        ParserNode(final String name, final IParser parser, final List<Transition> transitions)
+        {
+            this.name = name;
+            this.parser = parser;
+            this.charSequenceParser = parser instanceof ICharSequenceParser ? (ICharSequenceParser) parser : null;
+            this.transitions = transitions.toArray(new Transition[transitions.size()]);
+        }
+
+        @Override
+        public String toString()
+        {
+            return name;
+        }
+    }
+
+    static final class Transition
+    {
+
+        final IProcessor processor;
+
+        final Map<String, Object> params;
+
+        /**
+         * The processor runs only if the condition matches the parser output, null if there is no condition
+         */
+        final ICondition condition;
+
+        /**
+         * Set if the processor supports compiled params, in this case it is called with the compiled params
+         */
+        final ICompiledProcessor<Object> compiledProcessor;
+
+        final Object compiledParams;
+
+        @SuppressWarnings("unchecked")
+        Transition(final IProcessor processor, final Map<String, Object> params, final ICondition condition,
+                   final Object compiledParams)
+        {
+            this.processor = processor;
+            this.params = params;
+            this.condition = condition;
+            this.compiledProcessor = processor instanceof ICompiledProcessor
+                    ? (ICompiledProcessor<Object>) processor
+                    : null;
+            this.compiledParams = compiledParams;
+        }
+    }
+
+    static final class CachedMatch
+    {
+
+        static final CachedMatch NONE = new CachedMatch(null, null);
+
+        private static final int MAP_ENTRY_OVERHEAD_BYTES = 48;
+
+        final ParserNode parser;
+
+        /**
+         * The parser output, it is read-only if the match is stored in the line cache
+         */
+        final Map<String, Object> output;
+
+        CachedMatch(final ParserNode parser, final Map<String, Object> output)
+        {
+            this.parser = parser;
+            this.output = output;
+        }
+
+        long getWeight()
+        {
+            if (output == null)
+            {
+                return 0;
+            }
+
+            long weight = 0;
+            for (Map.Entry<String, Object> entry : output.entrySet())
+            {
+                weight += MAP_ENTRY_OVERHEAD_BYTES + 2L * entry.getKey().length();
+                if (entry.getValue() instanceof CharSequence)
+                {
+                    weight += 2L * ((CharSequence) entry.getValue()).length();
+                }
+            }
+            return weight;
+        }
+    }
+
+}
@@ -0,0 +1,227 @@
+package tv.ustream.yolo.module;
+
+/**
+ * Bounded LRU cache keyed by log lines.
+ *
+ * Lines are looked up by their hash and verified by comparing the characters, so any CharSequence can be used for
+ * lookups and the line is copied into a String only when it is stored. Both the number of entries and the estimated
+ * memory usage are limited.
+ *
+ * Not thread-safe, it should be used only from the line handling thread.
+ */
+public class LineCache<V>
+{
+
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    private final int maxEntries;
+
+    private final long maxMemoryBytes;
+
+    private final Node<V>[] table;
+
+    private final Node<V> head = new Node<V>(null, 0, null, 0);
+
+    private int size = 0;
+
+    private long memoryBytes = 0;
+
+    private long hits = 0;
+
+    private long misses = 0;
+
+    public LineCache(final int maxEntries, final long maxMemoryBytes)
+    {
+        this.maxEntries = maxEntries;
+        this.maxMemoryBytes = maxMemoryBytes;
+
+        int capacity = Integer.highestOneBit(Math.max(maxEntries, 1) * 4 / 3 + 1) << 1;
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Node<V>[] newTable = new Node[capacity];
+        table = newTable;
+
+        head.before = head;
+        head.after = head;
+    }
+
+    /**
+     * Returns with the cached value or null if the line is not in the cache.
+     */
+    public V get(final CharSequence line)
+    {
+        int hash = hash(line);
+        for (Node<V> node = table[hash & (table.length - 1)]; node != null; node = node.next)
+        {
+            if (node.hash == hash && contentEquals(node.line, line))
+            {
+                unlink(node);
+                linkFirst(node);
+                hits++;
+                return node.value;
+            }
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Stores the value for the line, the weight is the estimated size of the value in bytes.
+     */
+    public void put(final CharSequence line, final V value, final long weight)
+    {
+        long nodeWeight = ENTRY_OVERHEAD_BYTES + 2L * line.length() + weight;
+        if (nodeWeight > maxMemoryBytes || maxEntries <= 0)
+        {
+            return;
+        }
+
+        remove(line);
+
+        int hash = hash(line);
+        int index = hash & (table.length - 1);
+        Node<V> node = new Node<V>(line.toString(), hash, value, nodeWeight);
+        node.next = table[index];
+        table[index] = node;
+        linkFirst(node);
+
+        size++;
+        memoryBytes += nodeWeight;
+
+        while (size > maxEntries || memoryBytes > maxMemoryBytes)
+        {
+            remove(head.before.line);
+        }
+    }
+
+    public void clear()
+    {
+        for (int i = 0; i < table.length; i++)
+        {
+            table[i] = null;
+        }
+        head.before = head;
+        head.after = head;
+        size = 0;
+        memoryBytes = 0;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public long getMemoryBytes()
+    {
+        return memoryBytes;
+    }
+
+    public long getHits()
+    {
+        return hits;
+    }
+
+    public long getMisses()
+    {
+        return misses;
+    }
+
+    public double getHitRatio()
+    {
+        long total = hits + misses;
+        return total > 0 ? (double) hits / total : 0;
+    }
+
+    private void remove(final CharSequence line)
+    {
+        int hash = hash(line);
+        int index = hash & (table.length - 1);
+        Node<V> previous = null;
+        for (Node<V> node = table[index]; node != null; node = node.next)
+        {
+            if (node.hash == hash && contentEquals(node.line, line))
+            {
+                if (previous == null)
+                {
+                    table[index] = node.next;
+                }
+                else
+                {
+                    previous.next = node.next;
+                }
+                unlink(node);
+                size--;
+                memoryBytes -= node.weight;
+                return;
+            }
+            previous = node;
+        }
+    }
+
+    private void linkFirst(final Node<V> node)
+    {
+        node.after = head.after;
+        node.before = head;
+        head.after.before = node;
+        head.after = node;
+    }
+
+    private void unlink(final Node<V> node)
+    {
+        node.before.after = node.after;
+        node.after.before = node.before;
+    }
+
+    private static int hash(final CharSequence line)
+    {
+        int h;
+        if (line instanceof String)
+        {
+            h = line.hashCode();
+        }
+        else
+        {
+            h = 0;
+            for (int i = 0; i < line.length(); i++)
+            {
+                h = 31 * h + line.charAt(i);
+            }
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean contentEquals(final String cached, final CharSequence line)
+    {
+        if (cached.length() != line.length())
+        {
+            return false;
+        }
+        return line instanceof String ? cached.equals(line) : cached.contentEquals(line);
+    }
+
+    private static class Node<V>
+    {
+
+        private final String line;
+
+        private final int hash;
+
+        private final V value;
+
+        private final long weight;
+
+        private Node<V> next;
+
+        private Node<V> before;
+
+        private Node<V> after;
+
+        private Node(final String line, final int hash, final V value, final long weight)
+        {
+            this.line = line;
+            this.hash = hash;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+}
@@ -5,33 +5,64 @@ import org.slf4j.LoggerFactory;
 import tv.ustream.yolo.config.ConfigException;
 import tv.ustream.yolo.config.ConfigMap;
 import tv.ustream.yolo.config.ConfigPattern;
-import tv.ustream.yolo.handler.ILineHandler;
+import tv.ustream.yolo.handler.ICharSequenceLineHandler;
+import tv.ustream.yolo.module.ExecutionPlan.CachedMatch;
+import tv.ustream.yolo.module.ExecutionPlan.CompiledModule;
+import tv.ustream.yolo.module.ExecutionPlan.ParserNode;
+import tv.ustream.yolo.module.ExecutionPlan.Transition;
+import tv.ustream.yolo.module.condition.ConditionFactory;
+import tv.ustream.yolo.module.condition.ICondition;
 import tv.ustream.yolo.module.parser.IParser;
+import tv.ustream.yolo.module.processor.ICompiledProcessor;
 import tv.ustream.yolo.module.processor.ICompositeProcessor;
+import tv.ustream.yolo.module.processor.IPlanCompiledProcessor;
 import tv.ustream.yolo.module.processor.IProcessor;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * @author bandesz
  */
-public class ModuleChain implements ILineHandler
+public class ModuleChain implements ICharSequenceLineHandler
 {
 
     private static final Logger LOG = LoggerFactory.getLogger(ModuleChain.class);
 
+    private static final long DEFAULT_LINE_CACHE_MAX_MEMORY = 16 * 1024 * 1024;
+
+    private static final int STATS_LOG_INTERVAL = 10000;
+
     private final ModuleFactory moduleFactory;
 
-    private final Map<String, IParser> parsers = new HashMap<String, IParser>();
+    private final Object updateLock = new Object();
 
-    private final Map<String, IProcessor> processors = new HashMap<String, IProcessor>();
+    /**
+     * The currently active plan, replaced as a whole on config update
+     */
+    private volatile ExecutionPlan plan = ExecutionPlan.EMPTY;
 
-    private final Map<String, Map<String, Map<String, Object>>> transitions =
-            new HashMap<String, Map<String, Map<String, Object>>>();
+    /**
+     * Replaced plans whose processors are stopped when the line handling thread does not use them anymore
+     */
+    private final List<ExecutionPlan> retiredPlans = new ArrayList<ExecutionPlan>();
 
-    private Map<String, Object> config = null;
+    /**
+     * The plan used by the line handling thread for the current line, null between lines
+     */
+    private volatile ExecutionPlan handlingPlan = null;
+
+    /**
+     * The String copy of the currently handled line, created only if a parser needs it
+     */
+    private String lineString = null;
 
     public ModuleChain(final ModuleFactory moduleFactory)
     {
@@ -43,68 +74,237 @@ public class ModuleChain implements ILineHandler
         ConfigMap mainConfig = new ConfigMap();
         mainConfig.addConfigValue("processors", Map.class);
         mainConfig.addConfigValue("parsers", Map.class);
+        mainConfig.addConfigValue("adaptiveParserOrder", Boolean.class, false, false);
+        mainConfig.addConfigValue("lineCacheSize", Number.class, false, 0);
+        mainConfig.addConfigValue("lineCacheMaxMemory", Number.class, false, DEFAULT_LINE_CACHE_MAX_MEMORY);
         return mainConfig;
     }
 
-    public void updateConfig(final Map<String, Object> config, final boolean instant) throws ConfigException
+    /**
+     * Compiles the config into a new execution plan on the calling thread and replaces the current plan with it.
+     *
+     * Processors and parsers with an unchanged config are taken over from the current plan, so they keep their
+     * buffers, clients and timers. Processors not used by the new plan are stopped (and flushed) right away if the
+     * line handling thread is between lines, otherwise by the line handling thread when it finished the current line.
+     * If the config is invalid the current plan is kept. Processors implementing IPlanCompiledProcessor are notified
+     * about the outcome, so their plan bound state follows the active plan.
+     */
+    public void updateConfig(final Map<String, Object> config) throws ConfigException
     {
-        this.config = config;
-
         getMainConfig().parse("[root]", config);
 
-        if (instant)
+        synchronized (updateLock)
         {
-            update();
+            ExecutionPlan newPlan = compile(config, plan);
+
+            synchronized (retiredPlans)
+            {
+                retiredPlans.add(plan);
+                plan = newPlan;
+            }
+
+            for (CompiledModule<IProcessor> processor : newPlan.processors.values())
+            {
+                if (processor.module instanceof IPlanCompiledProcessor)
+                {
+                    ((IPlanCompiledProcessor<?>) processor.module).commitPlan();
+                }
+            }
+
+            stopRetiredProcessors(handlingPlan);
         }
     }
 
-    private void update() throws ConfigException
+    @SuppressWarnings("unchecked")
+    private ExecutionPlan compile(final Map<String, Object> config, final ExecutionPlan previous)
+            throws ConfigException
     {
-        if (config == null)
+        List<IProcessor> createdProcessors = new ArrayList<IProcessor>();
+        List<IPlanCompiledProcessor<?>> planProcessors = new ArrayList<IPlanCompiledProcessor<?>>();
+
+        try
         {
-            return;
-        }
+            Map<String, Object> processorsEntry = (Map<String, Object>) config.get("processors");
 
-        stop();
+            Map<String, CompiledModule<IProcessor>> reusable = getReusableProcessors(processorsEntry, previous);
 
-        reset();
+            Map<String, CompiledModule<IProcessor>> processors =
+                    new LinkedHashMap<String, CompiledModule<IProcessor>>();
+            for (Map.Entry<String, Object> processor : processorsEntry.entrySet())
+            {
+                if (reusable.containsKey(processor.getKey()))
+                {
+                    LOG.info("Keeping {} processor", processor.getKey());
+                    processors.put(processor.getKey(), reusable.get(processor.getKey()));
+                    continue;
+                }
 
-        Map<String, Object> processorsEntry = (Map<String, Object>) config.get("processors");
-        for (Map.Entry<String, Object> processor : processorsEntry.entrySet())
+                CompiledModule<IProcessor> compiled = createProcessor(
+                        processor.getKey(),
+                        (Map<String, Object>) processor.getValue()
+                );
+                if (compiled != null)
+                {
+                    processors.put(processor.getKey(), compiled);
+                    createdProcessors.add(compiled.module);
+                }
+            }
+
+            for (Map.Entry<String, Object> processor : processorsEntry.entrySet())
+            {
+                if (!reusable.containsKey(processor.getKey()) && processors.containsKey(processor.getKey()))
+                {
+                    setupCompositeProcessor(
+                            processors,
+                            processors.get(processor.getKey()).module,
+                            (Map<String, Object>) processor.getValue()
+                    );
+                }
+            }
+
+            for (CompiledModule<IProcessor> processor : processors.values())
+            {
+                if (processor.module instanceof IPlanCompiledProcessor)
+                {
+                    IPlanCompiledProcessor<?> planProcessor = (IPlanCompiledProcessor<?>) processor.module;
+                    planProcessor.beginPlan();
+                    planProcessors.add(planProcessor);
+                }
+            }
+
+            ParserOrder<ParserNode> parserOrder = new ParserOrder<ParserNode>(
+                    (Boolean) config.get("adaptiveParserOrder")
+            );
+            List<ParserNode> runAlwaysParsers = new ArrayList<ParserNode>();
+            Map<String, CompiledModule<IParser>> parsers = new LinkedHashMap<String, CompiledModule<IParser>>();
+
+            Map<String, Object> parsersEntry = (Map<String, Object>) config.get("parsers");
+            for (Map.Entry<String, Object> parser : parsersEntry.entrySet())
+            {
+                Map<String, Object> parserConfig = (Map<String, Object>) parser.getValue();
+
+                CompiledModule<IParser> compiled = previous.parsers.get(parser.getKey());
+                if (compiled != null && compiled.config.equals(parserConfig))
+                {
+                    LOG.info("Keeping {} parser", parser.getKey());
+                }
+                else
+                {
+                    compiled = createParser(parser.getKey(), parserConfig);
+                    if (compiled == null)
+                    {
+                        continue;
+                    }
+                }
+
+                parsers.put(parser.getKey(), compiled);
+
+                ParserNode node = createParserNode(processors, parser.getKey(), compiled.module, parserConfig);
+
+                if (node.parser.runAlways())
+                {
+                    runAlwaysParsers.add(node);
+                }
+                else
+                {
+                    Number priority = (Number) parserConfig.get("priority");
+                    parserOrder.add(node, priority != null ? priority.intValue() : 0);
+                }
+            }
+
+            int lineCacheSize = ((Number) config.get("lineCacheSize")).intValue();
+            LineCache<CachedMatch> lineCache = lineCacheSize > 0
+                    ? new LineCache<CachedMatch>(lineCacheSize, ((Number) config.get("lineCacheMaxMemory")).longValue())
+                    : null;
+
+            return new ExecutionPlan(
+                    parserOrder,
+                    runAlwaysParsers.toArray(new ParserNode[runAlwaysParsers.size()]),
+                    Collections.unmodifiableMap(processors),
+                    Collections.unmodifiableMap(parsers),
+                    lineCache
+            );
+        }
+        catch (ConfigException | RuntimeException e)
         {
-            addProcessor(processor.getKey(), (Map<String, Object>) processor.getValue());
+            for (IPlanCompiledProcessor<?> processor : planProcessors)
+            {
+                processor.abortPlan();
+            }
+            for (IProcessor processor : createdProcessors)
+            {
+                processor.stop();
+            }
+            throw e;
         }
+    }
 
+    /**
+     * Returns with the processors of the previous plan which have the same config. A composite processor is reused
+     * only if all of its sub processors are reused.
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, CompiledModule<IProcessor>> getReusableProcessors(final Map<String, Object> processorsEntry,
+                                                                          final ExecutionPlan previous)
+    {
+        Map<String, CompiledModule<IProcessor>> reusable = new HashMap<String, CompiledModule<IProcessor>>();
         for (Map.Entry<String, Object> processor : processorsEntry.entrySet())
         {
-            setupCompositeProcessor(processors.get(processor.getKey()), (Map<String, Object>) processor.getValue());
+            CompiledModule<IProcessor> compiled = previous.processors.get(processor.getKey());
+            if (compiled != null && compiled.config.equals(processor.getValue()))
+            {
+                reusable.put(processor.getKey(), compiled);
+            }
         }
 
-        Map<String, Object> parsersEntry = (Map<String, Object>) config.get("parsers");
-        for (Map.Entry<String, Object> parser : parsersEntry.entrySet())
+        boolean changed = true;
+        while (changed)
         {
-            addParser(parser.getKey(), (Map<String, Object>) parser.getValue());
+            changed = false;
+            Iterator<Map.Entry<String, CompiledModule<IProcessor>>> it = reusable.entrySet().iterator();
+            while (it.hasNext())
+            {
+                CompiledModule<IProcessor> compiled = it.next().getValue();
+                if (!(compiled.module instanceof ICompositeProcessor))
+                {
+                    continue;
+                }
+                for (String subProcessor : (List<String>) compiled.config.get("processors"))
+                {
+                    if (!reusable.containsKey(subProcessor))
+                    {
+                        it.remove();
+                        changed = true;
+                        break;
+                    }
+                }
+            }
         }
 
-        config = null;
+        return reusable;
     }
 
-    @SuppressWarnings("unchecked")
-    private void addProcessor(String name, Map<String, Object> config) throws ConfigException
+    private CompiledModule<IProcessor> createProcessor(final String name, final Map<String, Object> config)
+            throws ConfigException
     {
         LOG.info("Adding {} processor {}", name, config);
 
+        Map<String, Object> configCopy = copyConfig(config);
+
         IProcessor processor = moduleFactory.createProcessor(name, config);
 
         if (processor == null)
         {
-            return;
+            return null;
         }
 
-        processors.put(name, processor);
+        return new CompiledModule<IProcessor>(configCopy, processor);
     }
 
-    private void setupCompositeProcessor(IProcessor processor, Map<String, Object> config) throws ConfigException
+    @SuppressWarnings("unchecked")
+    private void setupCompositeProcessor(final Map<String, CompiledModule<IProcessor>> processors,
+                                         final IProcessor processor, final Map<String, Object> config)
+            throws ConfigException
     {
         if (!(processor instanceof ICompositeProcessor))
         {
@@ -115,7 +315,7 @@ public class ModuleChain implements ILineHandler
         {
             if (processors.containsKey(subProcessor))
             {
-                ((ICompositeProcessor) processor).addProcessor(processors.get(subProcessor));
+                ((ICompositeProcessor) processor).addProcessor(processors.get(subProcessor).module);
             }
             else
             {
@@ -124,93 +324,334 @@ public class ModuleChain implements ILineHandler
         }
     }
 
-    @SuppressWarnings("unchecked")
-    private void addParser(String name, Map<String, Object> config) throws ConfigException
+    private CompiledModule<IParser> createParser(final String name, final Map<String, Object> config)
+            throws ConfigException
     {
         LOG.info("Adding {} parser {}", name, config);
 
+        Map<String, Object> configCopy = copyConfig(config);
+
         IParser parser = moduleFactory.createParser(name, config);
 
         if (parser == null)
         {
-            return;
+            return null;
         }
 
-        parsers.put(name, parser);
+        return new CompiledModule<IParser>(configCopy, parser);
+    }
 
+    @SuppressWarnings("unchecked")
+    private ParserNode createParserNode(final Map<String, CompiledModule<IProcessor>> processors, final String name,
+                                        final IParser parser, final Map<String, Object> config)
+            throws ConfigException
+    {
         Map<String, Object> parserProcessors = (Map<String, Object>) config.get("processors");
+        if (parserProcessors == null)
+        {
+            throw new ConfigException(name + ".processors field is missing");
+        }
 
-        transitions.put(name, new HashMap<String, Map<String, Object>>());
+        List<Transition> transitions = new ArrayList<Transition>();
 
         for (Map.Entry<String, Object> parserProcessor : parserProcessors.entrySet())
         {
-            if (!processors.containsKey(parserProcessor.getKey()))
+            CompiledModule<IProcessor> processor = processors.get(parserProcessor.getKey());
+            if (processor == null)
             {
                 throw new ConfigException(parserProcessor.getKey() + " processor does not exist");
             }
 
-            addTransition(name, parserProcessor.getKey(), parserProcessor.getValue());
+            transitions.add(createTransition(
+                    name,
+                    parser,
+                    parserProcessor.getKey(),
+                    processor.module,
+                    parserProcessor.getValue()
+            ));
         }
+
+        return new ParserNode(name, parser, transitions);
     }
 
     @SuppressWarnings("unchecked")
-    private void addTransition(String parserName, String processorName, Object params) throws ConfigException
+    private Transition createTransition(final String parserName, final IParser parser, final String processorName,
+                                        final IProcessor processor, final Object rawParams) throws ConfigException
     {
-        ConfigMap processParamsConfig = processors.get(processorName).getProcessParamsConfig();
+        String name = parserName + ".processors." + processorName;
+
+        // parsing, compiling the conditions and the patterns modify the params, the caller's config is kept intact
+        Object params = copyConfig(rawParams);
+
+        ICondition condition = null;
+        if (params instanceof Map && ((Map<String, Object>) params).containsKey("conditions"))
+        {
+            condition = ConditionFactory.create(
+                    name + ".conditions",
+                    ((Map<String, Object>) params).remove("conditions"),
+                    parser.getOutputKeys()
+            );
+        }
+
+        ConfigMap processParamsConfig = processor.getProcessParamsConfig();
         if (processParamsConfig != null)
         {
-            processParamsConfig.parse(parserName + ".processors." + processorName, params);
+            processParamsConfig.parse(name, params);
         }
 
-        transitions.get(parserName).put(
-                processorName,
-                (Map<String, Object>) ConfigPattern.replacePatterns(params, parsers.get(parserName).getOutputKeys())
-        );
+        Map<String, Object> processParams =
+                (Map<String, Object>) ConfigPattern.replacePatterns(params, parser.getOutputKeys());
+
+        Object compiledParams = null;
+        if (processor instanceof ICompiledProcessor)
+        {
+            compiledParams = ((ICompiledProcessor<?>) processor).compileProcessParams(processParams);
+        }
+
+        return new Transition(processor, processParams, condition, compiledParams);
     }
 
-    public void handle(String line)
+    public void handle(final String line)
     {
+        handle((CharSequence) line);
+    }
+
+    public void handle(final CharSequence line)
+    {
+        ExecutionPlan current = plan;
+        handlingPlan = current;
+        while (plan != current)
+        {
+            // the plan was replaced meanwhile, the updating thread may have stopped its processors
+            current = plan;
+            handlingPlan = current;
+        }
+
         try
         {
-            update();
+            lineString = line instanceof String ? (String) line : null;
+
+            LineCache<CachedMatch> lineCache = current.lineCache;
+
+            CachedMatch match = lineCache != null ? lineCache.get(line) : null;
+            if (match == null)
+            {
+                match = findMatch(current.parserOrder, line, lineCache != null);
+
+                if (lineCache != null)
+                {
+                    lineCache.put(line, match, match.getWeight());
+                }
+            }
+            else
+            {
+                current.parserOrder.record(0, -1);
+            }
+
+            if (match.parser != null)
+            {
+                runProcessors(match.parser, match.output);
+            }
+
+            ParserNode[] runAlwaysParsers = current.runAlwaysParsers;
+            for (int i = 0; i < runAlwaysParsers.length; i++)
+            {
+                Map<String, Object> parserOutput = parse(runAlwaysParsers[i], line);
+                if (parserOutput != null)
+                {
+                    runProcessors(runAlwaysParsers[i], parserOutput);
+                }
+            }
+
+            if (LOG.isDebugEnabled() && current.parserOrder.getLineCount() % STATS_LOG_INTERVAL == 0)
+            {
+                logStats(current);
+            }
         }
-        catch (ConfigException e)
+        finally
         {
-            throw new RuntimeException("Updating module chain failed: " + e.getMessage());
+            handlingPlan = null;
+            if (plan != current)
+            {
+                stopRetiredProcessors(null);
+            }
         }
+    }
+
+    /**
+     * Returns with the first matching parser and its output, the output is read-only if the match is cached, as the
+     * same map is passed to the processors for every repeated line
+     */
+    private CachedMatch findMatch(final ParserOrder<ParserNode> parserOrder, final CharSequence line,
+                                  final boolean cached)
+    {
+        List<ParserNode> order = parserOrder.getItems();
 
-        Boolean match = false;
-        for (String parserName : parsers.keySet())
+        for (int i = 0; i < order.size(); i++)
         {
-            if (!match || parsers.get(parserName).runAlways())
+            ParserNode node = order.get(i);
+            Map<String, Object> parserOutput = parse(node, line);
+            if (parserOutput != null)
             {
-                Map<String, Object> parserOutput = parsers.get(parserName).parse(line);
-                if (parserOutput != null)
-                {
-                    match = true;
+                parserOrder.record(i + 1, i);
+                return new CachedMatch(node, cached ? Collections.unmodifiableMap(parserOutput) : parserOutput);
+            }
+        }
+
+        parserOrder.record(order.size(), -1);
+        return CachedMatch.NONE;
+    }
+
+    private Map<String, Object> parse(final ParserNode node, final CharSequence line)
+    {
+        if (node.charSequenceParser != null)
+        {
+            return node.charSequenceParser.parse(line);
+        }
+
+        if (lineString == null)
+        {
+            lineString = line.toString();
+        }
+
+        return node.parser.parse(lineString);
+    }
+
+    private void runProcessors(final ParserNode node, final Map<String, Object> parserOutput)
+    {
+        Transition[] transitions = node.transitions;
+        for (int i = 0; i < transitions.length; i++)
+        {
+            Transition transition = transitions[i];
+            if (transition.condition != null && !transition.condition.matches(parserOutput))
+            {
+                continue;
+            }
+            if (transition.compiledProcessor != null)
+            {
+                transition.compiledProcessor.processCompiled(parserOutput, transition.compiledParams);
+            }
+            else
+            {
+                transition.processor.process(parserOutput, transition.params);
+            }
+        }
+    }
+
+    private void logStats(final ExecutionPlan current)
+    {
+        LOG.debug(
+                "Parser order: {}, average attempts per line: {}",
+                current.parserOrder.getItems(),
+                current.parserOrder.getAverageAttemptsPerLine()
+        );
+
+        if (current.lineCache != null)
+        {
+            LOG.debug(
+                    "Line cache: {} entries, {} bytes, {} hits, {} misses",
+                    current.lineCache.size(),
+                    current.lineCache.getMemoryBytes(),
+                    current.lineCache.getHits(),
+                    current.lineCache.getMisses()
+            );
+        }
+    }
+
+    /**
+     * Returns with the average number of parsers tried per line (parsers running always are not counted).
+     */
+    public double getAverageAttemptsPerLine()
+    {
+        return plan.parserOrder.getAverageAttemptsPerLine();
+    }
+
+    /**
+     * Returns with the line cache or null if it is disabled.
+     */
+    public LineCache<?> getLineCache()
+    {
+        return plan.lineCache;
+    }
+
+    /**
+     * Stops the processors of the replaced plans which are not used by the current plan or by the plan which is in use
+     * by the line handling thread.
+     */
+    private void stopRetiredProcessors(final ExecutionPlan inUse)
+    {
+        synchronized (retiredPlans)
+        {
+            Set<IProcessor> used = Collections.newSetFromMap(new IdentityHashMap<IProcessor, Boolean>());
+            used.addAll(plan.getProcessors());
+            if (inUse != null)
+            {
+                used.addAll(inUse.getProcessors());
+            }
 
-                    for (Map.Entry<String, Map<String, Object>> processor : transitions.get(parserName).entrySet())
+            Iterator<ExecutionPlan> it = retiredPlans.iterator();
+            while (it.hasNext())
+            {
+                ExecutionPlan retiredPlan = it.next();
+                if (retiredPlan == inUse)
+                {
+                    continue;
+                }
+                for (IProcessor processor : retiredPlan.getProcessors())
+                {
+                    if (used.add(processor))
                     {
-                        processors.get(processor.getKey()).process(parserOutput, processor.getValue());
+                        processor.stop();
                     }
                 }
+                it.remove();
             }
         }
     }
 
     public void stop()
     {
-        for (IProcessor processor : processors.values())
+        synchronized (retiredPlans)
         {
-            processor.stop();
+            Set<IProcessor> stopped = Collections.newSetFromMap(new IdentityHashMap<IProcessor, Boolean>());
+            for (ExecutionPlan retiredPlan : retiredPlans)
+            {
+                stopped.addAll(retiredPlan.getProcessors());
+            }
+            stopped.addAll(plan.getProcessors());
+            retiredPlans.clear();
+
+            for (IProcessor processor : stopped)
+            {
+                processor.stop();
+            }
         }
     }
 
-    private void reset()
+    @SuppressWarnings("unchecked")
+    private static <T> T copyConfig(final T config)
     {
-        parsers.clear();
-        transitions.clear();
-        processors.clear();
+        if (config instanceof Map)
+        {
+            Map<String, Object> copy = new LinkedHashMap<String, Object>();
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) config).entrySet())
+            {
+                copy.put(entry.getKey(), copyConfig(entry.getValue()));
+            }
+            return (T) copy;
+        }
+
+        if (config instanceof List)
+        {
+            List<Object> copy = new ArrayList<Object>();
+            for (Object item : (List<Object>) config)
+            {
+                copy.add(copyConfig(item));
+            }
+            return (T) copy;
+        }
+
+        return config;
     }
 
 }
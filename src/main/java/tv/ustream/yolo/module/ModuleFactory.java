@@ -3,15 +3,23 @@ package tv.ustream.yolo.module;
 import tv.ustream.yolo.config.ConfigException;
 import tv.ustream.yolo.config.ConfigMap;
 import tv.ustream.yolo.module.parser.IParser;
+import tv.ustream.yolo.module.parser.JavaCompilerParser;
 import tv.ustream.yolo.module.parser.JsonParser;
 import tv.ustream.yolo.module.parser.PassThruParser;
 import tv.ustream.yolo.module.parser.RegexpParser;
 import tv.ustream.yolo.module.parser.ScriptEngineParser;
+import tv.ustream.yolo.module.processor.CardinalityProcessor;
 import tv.ustream.yolo.module.processor.CompositeProcessor;
 import tv.ustream.yolo.module.processor.ConsoleProcessor;
+import tv.ustream.yolo.module.processor.FileOutputProcessor;
 import tv.ustream.yolo.module.processor.GraphiteProcessor;
+import tv.ustream.yolo.module.processor.InfluxDbProcessor;
 import tv.ustream.yolo.module.processor.IProcessor;
+import tv.ustream.yolo.module.processor.PrometheusProcessor;
+import tv.ustream.yolo.module.processor.QuantileProcessor;
 import tv.ustream.yolo.module.processor.StatsDProcessor;
+import tv.ustream.yolo.module.processor.ThresholdProcessor;
+import tv.ustream.yolo.module.processor.TopKProcessor;
 
 import java.util.Arrays;
 import java.util.List;
@@ -24,17 +32,25 @@ public class ModuleFactory
 {
 
     private static final List<String> AVAILABLE_PROCESSORS = Arrays.asList(
+            CardinalityProcessor.class.getCanonicalName(),
             CompositeProcessor.class.getCanonicalName(),
             ConsoleProcessor.class.getCanonicalName(),
+            FileOutputProcessor.class.getCanonicalName(),
             GraphiteProcessor.class.getCanonicalName(),
-            StatsDProcessor.class.getCanonicalName()
+            InfluxDbProcessor.class.getCanonicalName(),
+            PrometheusProcessor.class.getCanonicalName(),
+            QuantileProcessor.class.getCanonicalName(),
+            StatsDProcessor.class.getCanonicalName(),
+            ThresholdProcessor.class.getCanonicalName(),
+            TopKProcessor.class.getCanonicalName()
     );
 
     private static final List<String> AVAILABLE_PARSERS = Arrays.asList(
             PassThruParser.class.getCanonicalName(),
             RegexpParser.class.getCanonicalName(),
             JsonParser.class.getCanonicalName(),
-            ScriptEngineParser.class.getCanonicalName()
+            ScriptEngineParser.class.getCanonicalName(),
+            JavaCompilerParser.class.getCanonicalName()
     );
 
     private static final ConfigMap PROCESSOR_MODULE_CONFIG = getDefaultProcessorModuleConfig();
@@ -53,6 +69,7 @@ public class ModuleFactory
         ConfigMap config = new ConfigMap();
         config.addConfigValue("class", String.class);
         config.addConfigValue("enabled", Boolean.class, false, true);
+        config.addConfigValue("priority", Number.class, false, 0);
         config.addConfigValue("processors", Map.class);
         return config;
     }
@@ -0,0 +1,166 @@
+package tv.ustream.yolo.module;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Keeps the order in which parsers are tried for a line.
+ *
+ * Parsers with higher priority are always tried first, parsers with the same priority are tried in the order of
+ * declaration. In adaptive mode the parsers are periodically reordered within their priority band by their recent
+ * hit counts, so the most frequently matching parser is tried first.
+ *
+ * Not thread-safe, it should be used only from the line handling thread.
+ */
+public class ParserOrder<T>
+{
+
+    public static final int DEFAULT_REORDER_INTERVAL = 10000;
+
+    private final boolean adaptive;
+
+    private final int reorderInterval;
+
+    private final List<Entry<T>> entries = new ArrayList<Entry<T>>();
+
+    private Entry<T>[] order;
+
+    private List<T> items = new ArrayList<T>();
+
+    private long lines = 0;
+
+    private long attempts = 0;
+
+    private int linesSinceReorder = 0;
+
+    public ParserOrder(final boolean adaptive)
+    {
+        this(adaptive, DEFAULT_REORDER_INTERVAL);
+    }
+
+    public ParserOrder(final boolean adaptive, final int reorderInterval)
+    {
+        this.adaptive = adaptive;
+        this.reorderInterval = reorderInterval;
+        this.order = createArray(0);
+    }
+
+    public void add(final T item, final int priority)
+    {
+        entries.add(new Entry<T>(item, priority, entries.size()));
+        sort();
+    }
+
+    /**
+     * Returns with the items in the current order, the returned list must not be modified.
+     */
+    public List<T> getItems()
+    {
+        return items;
+    }
+
+    /**
+     * Records the result of a line: how many parsers were tried and the position of the matching parser in the
+     * current order, or -1 if none of them matched.
+     */
+    public void record(final int lineAttempts, final int matchPosition)
+    {
+        lines++;
+        attempts += lineAttempts;
+
+        if (!adaptive)
+        {
+            return;
+        }
+
+        if (matchPosition >= 0)
+        {
+            order[matchPosition].hits++;
+        }
+
+        if (++linesSinceReorder >= reorderInterval)
+        {
+            linesSinceReorder = 0;
+            sort();
+            for (Entry<T> entry : entries)
+            {
+                entry.hits >>= 1;
+            }
+        }
+    }
+
+    public double getAverageAttemptsPerLine()
+    {
+        return lines > 0 ? (double) attempts / lines : 0;
+    }
+
+    public long getLineCount()
+    {
+        return lines;
+    }
+
+    public boolean isAdaptive()
+    {
+        return adaptive;
+    }
+
+    private void sort()
+    {
+        Entry<T>[] sorted = entries.toArray(createArray(entries.size()));
+
+        Arrays.sort(sorted, new Comparator<Entry<T>>()
+        {
+            @Override
+            public int compare(final Entry<T> e1, final Entry<T> e2)
+            {
+                if (e1.priority != e2.priority)
+                {
+                    return e1.priority > e2.priority ? -1 : 1;
+                }
+                if (adaptive && e1.hits != e2.hits)
+                {
+                    return e1.hits > e2.hits ? -1 : 1;
+                }
+                return e1.index - e2.index;
+            }
+        });
+
+        List<T> sortedItems = new ArrayList<T>(sorted.length);
+        for (Entry<T> entry : sorted)
+        {
+            sortedItems.add(entry.item);
+        }
+
+        order = sorted;
+        items = sortedItems;
+    }
+
+    private Entry<T>[] createArray(final int size)
+    {
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Entry<T>[] array = new Entry[size];
+        return array;
+    }
+
+    private static class Entry<T>
+    {
+
+        private final T item;
+
+        private final int priority;
+
+        private final int index;
+
+        private long hits = 0;
+
+        private Entry(final T item, final int priority, final int index)
+        {
+            this.item = item;
+            this.priority = priority;
+            this.index = index;
+        }
+    }
+
+}
@@ -0,0 +1,32 @@
+package tv.ustream.yolo.module.condition;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Matches if all of the conditions match
+ */
+public class AllCondition implements ICondition
+{
+
+    private final ICondition[] conditions;
+
+    public AllCondition(final List<ICondition> conditions)
+    {
+        this.conditions = conditions.toArray(new ICondition[conditions.size()]);
+    }
+
+    @Override
+    public boolean matches(final Map<String, Object> values)
+    {
+        for (int i = 0; i < conditions.length; i++)
+        {
+            if (!conditions[i].matches(values))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,114 @@
+package tv.ustream.yolo.module.condition;
+
+import tv.ustream.yolo.config.ConfigException;
+import tv.ustream.yolo.config.ConfigList;
+import tv.ustream.yolo.config.ConfigMap;
+import tv.ustream.yolo.config.ConfigValue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Compiles the conditions config into a condition object.
+ *
+ * The config is a list of maps, each of them has a "field" and exactly one of the following checks: "equals" (String
+ * or Number), "min" and/or "max" (Number), "regex" (String) or "in" (List). All of the conditions have to match.
+ */
+public final class ConditionFactory
+{
+
+    private static final ConfigList CONDITIONS_CONFIG = new ConfigList(getConditionConfig());
+
+    private ConditionFactory()
+    {
+    }
+
+    private static ConfigMap getConditionConfig()
+    {
+        ConfigMap config = new ConfigMap();
+        config.addConfigValue("field", String.class);
+        config.addConfigValue("equals", Object.class, false, null);
+        config.addConfigValue("min", Number.class, false, null);
+        config.addConfigValue("max", Number.class, false, null);
+        config.addConfigValue("regex", String.class, false, null);
+        config.addConfigEntry("in", new ConfigList(new ConfigValue<Object>(Object.class), false, null));
+        return config;
+    }
+
+    public static ConfigList getConfig()
+    {
+        return CONDITIONS_CONFIG;
+    }
+
+    /**
+     * Returns with the compiled condition or null if there are no conditions. If validKeys is not null, the fields
+     * have to be in it.
+     */
+    @SuppressWarnings("unchecked")
+    public static ICondition create(final String name, final Object rawConditions, final List<String> validKeys)
+            throws ConfigException
+    {
+        List<Object> conditionsConfig = CONDITIONS_CONFIG.parse(name, rawConditions);
+
+        List<ICondition> conditions = new ArrayList<ICondition>();
+        for (int i = 0; i < conditionsConfig.size(); i++)
+        {
+            Map<String, Object> conditionConfig = (Map<String, Object>) conditionsConfig.get(i);
+            if (validKeys != null && !validKeys.contains((String) conditionConfig.get("field")))
+            {
+                throw new ConfigException(conditionConfig.get("field") + " field is missing from parser output!");
+            }
+            conditions.add(createCondition(name + "[" + i + "]", conditionConfig));
+        }
+
+        if (conditions.isEmpty())
+        {
+            return null;
+        }
+
+        return conditions.size() == 1 ? conditions.get(0) : new AllCondition(conditions);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ICondition createCondition(final String name, final Map<String, Object> config)
+            throws ConfigException
+    {
+        String field = (String) config.get("field");
+
+        List<ICondition> result = new ArrayList<ICondition>();
+
+        if (config.get("equals") != null)
+        {
+            result.add(new EqualsCondition(field, config.get("equals")));
+        }
+        if (config.get("min") != null || config.get("max") != null)
+        {
+            result.add(new RangeCondition(field, (Number) config.get("min"), (Number) config.get("max")));
+        }
+        if (config.get("regex") != null)
+        {
+            try
+            {
+                result.add(new RegexpCondition(field, (String) config.get("regex")));
+            }
+            catch (PatternSyntaxException e)
+            {
+                throw new ConfigException(name + ".regex is invalid: " + e.getDescription());
+            }
+        }
+        if (config.get("in") != null)
+        {
+            result.add(new InCondition(field, (List<Object>) config.get("in")));
+        }
+
+        if (result.size() != 1)
+        {
+            throw new ConfigException(name + " should have exactly one of equals, min/max, regex or in");
+        }
+
+        return result.get(0);
+    }
+
+}
@@ -0,0 +1,112 @@
+package tv.ustream.yolo.module.condition;
+
+/**
+ * Value conversions shared by the conditions
+ */
+final class ConditionValues
+{
+
+    private ConditionValues()
+    {
+    }
+
+    /**
+     * Returns with the text form of the value, integral numbers are written without fraction.
+     */
+    static String toText(final Object value)
+    {
+        if (value instanceof Double || value instanceof Float)
+        {
+            double number = ((Number) value).doubleValue();
+            if (number == Math.rint(number) && !Double.isInfinite(number) && Math.abs(number) < Long.MAX_VALUE)
+            {
+                return String.valueOf((long) number);
+            }
+        }
+        return value.toString();
+    }
+
+    /**
+     * Returns with the numeric value or NaN if the value is not a number. Plain decimal numbers are parsed without
+     * creating a String.
+     */
+    static double toDouble(final Object value)
+    {
+        if (value instanceof Number)
+        {
+            return ((Number) value).doubleValue();
+        }
+        if (!(value instanceof CharSequence))
+        {
+            return Double.NaN;
+        }
+
+        CharSequence chars = (CharSequence) value;
+        int length = chars.length();
+        int i = 0;
+        boolean negative = length > 0 && chars.charAt(0) == '-';
+        if (negative)
+        {
+            i++;
+        }
+
+        long integral = 0;
+        long fraction = 0;
+        long divisor = 1;
+        boolean inFraction = false;
+        int digits = 0;
+        for (; i < length; i++)
+        {
+            char c = chars.charAt(i);
+            if (c == '.' && !inFraction)
+            {
+                inFraction = true;
+                continue;
+            }
+            if (c < '0' || c > '9' || digits >= 18)
+            {
+                return parseDouble(chars);
+            }
+            digits++;
+            if (inFraction)
+            {
+                fraction = fraction * 10 + (c - '0');
+                divisor *= 10;
+            }
+            else
+            {
+                integral = integral * 10 + (c - '0');
+            }
+        }
+
+        if (digits == 0)
+        {
+            return Double.NaN;
+        }
+
+        double result = integral + (double) fraction / divisor;
+        return negative ? -result : result;
+    }
+
+    static boolean contentEquals(final String expected, final CharSequence value)
+    {
+        if (expected.length() != value.length())
+        {
+            return false;
+        }
+        return value instanceof String ? expected.equals(value) : expected.contentEquals(value);
+    }
+
+    private static double parseDouble(final CharSequence chars)
+    {
+        try
+        {
+            return Double.parseDouble(chars.toString());
+        }
+        catch (NumberFormatException e)
+        {
+            return Double.NaN;
+        }
+    }
+
+}
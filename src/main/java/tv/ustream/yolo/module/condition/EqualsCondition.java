@@ -0,0 +1,37 @@
+package tv.ustream.yolo.module.condition;
+
+import java.util.Map;
+
+/**
+ * Matches if the field's value equals the given value. Numbers are compared by their text form, integral numbers
+ * without fraction (so 500 in the config matches the "500" parser output).
+ */
+public class EqualsCondition implements ICondition
+{
+
+    private final String field;
+
+    private final String value;
+
+    public EqualsCondition(final String field, final Object value)
+    {
+        this.field = field;
+        this.value = ConditionValues.toText(value);
+    }
+
+    @Override
+    public boolean matches(final Map<String, Object> values)
+    {
+        Object fieldValue = values.get(field);
+        if (fieldValue == null)
+        {
+            return false;
+        }
+        if (fieldValue instanceof CharSequence)
+        {
+            return ConditionValues.contentEquals(value, (CharSequence) fieldValue);
+        }
+        return value.equals(ConditionValues.toText(fieldValue));
+    }
+
+}
@@ -0,0 +1,13 @@
+package tv.ustream.yolo.module.condition;
+
+import java.util.Map;
+
+/**
+ * Predicate on the parser output, compiled from the config when it is loaded
+ */
+public interface ICondition
+{
+
+    boolean matches(Map<String, Object> values);
+
+}
@@ -0,0 +1,34 @@
+package tv.ustream.yolo.module.condition;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Matches if the field's value is one of the given values, numbers are compared as in EqualsCondition
+ */
+public class InCondition implements ICondition
+{
+
+    private final String field;
+
+    private final Set<String> values = new HashSet<String>();
+
+    public InCondition(final String field, final List<Object> values)
+    {
+        this.field = field;
+        for (Object value : values)
+        {
+            this.values.add(ConditionValues.toText(value));
+        }
+    }
+
+    @Override
+    public boolean matches(final Map<String, Object> values)
+    {
+        Object fieldValue = values.get(field);
+        return fieldValue != null && this.values.contains(ConditionValues.toText(fieldValue));
+    }
+
+}
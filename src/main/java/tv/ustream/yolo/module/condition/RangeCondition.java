@@ -0,0 +1,31 @@
+package tv.ustream.yolo.module.condition;
+
+import java.util.Map;
+
+/**
+ * Matches if the field's value is a number between min and max (both inclusive, either of them can be omitted)
+ */
+public class RangeCondition implements ICondition
+{
+
+    private final String field;
+
+    private final double min;
+
+    private final double max;
+
+    public RangeCondition(final String field, final Number min, final Number max)
+    {
+        this.field = field;
+        this.min = min != null ? min.doubleValue() : Double.NEGATIVE_INFINITY;
+        this.max = max != null ? max.doubleValue() : Double.POSITIVE_INFINITY;
+    }
+
+    @Override
+    public boolean matches(final Map<String, Object> values)
+    {
+        double value = ConditionValues.toDouble(values.get(field));
+        return value >= min && value <= max;
+    }
+
+}
@@ -0,0 +1,38 @@
+package tv.ustream.yolo.module.condition;
+
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Matches if the regular expression can be found in the field's value (use ^ and $ to match the whole value).
+ *
+ * The matcher is reused, so it is not thread-safe.
+ */
+public class RegexpCondition implements ICondition
+{
+
+    private final String field;
+
+    private final Matcher matcher;
+
+    public RegexpCondition(final String field, final String regex)
+    {
+        this.field = field;
+        this.matcher = Pattern.compile(regex).matcher("");
+    }
+
+    @Override
+    public boolean matches(final Map<String, Object> values)
+    {
+        Object fieldValue = values.get(field);
+        if (fieldValue == null)
+        {
+            return false;
+        }
+
+        matcher.reset(fieldValue instanceof CharSequence ? (CharSequence) fieldValue : fieldValue.toString());
+        return matcher.find();
+    }
+
+}
@@ -0,0 +1,16 @@
+package tv.ustream.yolo.module.parser;
+
+import java.util.Map;
+
+/**
+ * Parser which can parse a line without converting it to a String.
+ *
+ * The line can be backed by a reusable buffer, so it must not be referenced after the parse call returns, any
+ * value which is part of the output has to be copied (e.g. with toString()).
+ */
+public interface ICharSequenceParser extends IParser
+{
+
+    Map<String, Object> parse(CharSequence line);
+
+}
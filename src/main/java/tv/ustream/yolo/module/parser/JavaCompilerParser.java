@@ -0,0 +1,209 @@
+package tv.ustream.yolo.module.parser;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tv.ustream.yolo.config.ConfigMap;
+import tv.ustream.yolo.module.parser.javacompiler.JavaSourceCompiler;
+import tv.ustream.yolo.module.parser.scriptengine.IScriptParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Parses lines with a Java class compiled at config load, see {@link JavaSourceCompiler}.
+ */
+public class JavaCompilerParser implements IParser
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger(JavaCompilerParser.class);
+
+    private static final String ANNOTATIONS = "(?:@[\\w.$]+\\s*(?:\\([^)]*\\))?\\s*)*";
+
+    private static final String MODIFIERS = "(?:(?:final|abstract|strictfp)\\s+)*";
+
+    /**
+     * A full source starts with a package or import declaration or a public top level type (a local class in a
+     * method body can't be public)
+     */
+    private static final Pattern FULL_SOURCE = Pattern.compile(
+            "\\A\\s*" + ANNOTATIONS + "(?:(?:package|import)\\s|" + MODIFIERS + "public\\s+" + MODIFIERS
+                    + "(?:class|interface|enum)\\s)"
+    );
+
+    private IScriptParser parserImpl;
+
+    @Override
+    public Map<String, Object> parse(final String line)
+    {
+        try
+        {
+            return parserImpl.parse(line);
+        }
+        catch (Exception e)
+        {
+            LOG.debug("Java parser error: {} - {}", e.getClass().getName(), e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public boolean runAlways()
+    {
+        return false;
+    }
+
+    @Override
+    public List<String> getOutputKeys()
+    {
+        return null;
+    }
+
+    @Override
+    public void setUpModule(final Map<String, Object> parameters)
+    {
+        String source = readSource((String) parameters.get("file"), (String) parameters.get("source"));
+
+        if (!isFullSource(source))
+        {
+            source = wrapSnippet(source);
+        }
+
+        Class<?> clazz;
+        try
+        {
+            clazz = JavaSourceCompiler.compile(source, IScriptParser.class.getClassLoader());
+        }
+        catch (IllegalArgumentException | IllegalStateException e)
+        {
+            throw new RuntimeException(e.getMessage());
+        }
+
+        if (!IScriptParser.class.isAssignableFrom(clazz))
+        {
+            throw new RuntimeException(clazz.getName() + " does not implement the IScriptParser interface!");
+        }
+
+        try
+        {
+            parserImpl = (IScriptParser) clazz.newInstance();
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new RuntimeException("Failed to instantiate " + clazz.getName() + ": " + e.getMessage());
+        }
+    }
+
+    private String readSource(final String file, final String source)
+    {
+        if ((file == null) == (source == null))
+        {
+            throw new RuntimeException("Exactly one of file or source has to be set!");
+        }
+
+        if (source != null)
+        {
+            return source;
+        }
+
+        try
+        {
+            return FileUtils.readFileToString(new File(file), "UTF-8");
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException("Java source file not found: " + file);
+        }
+    }
+
+    static boolean isFullSource(final String source)
+    {
+        return FULL_SOURCE.matcher(stripCommentsAndLiterals(source)).find();
+    }
+
+    /**
+     * Replaces the comments and the contents of string and character literals with spaces
+     */
+    private static String stripCommentsAndLiterals(final String source)
+    {
+        StringBuilder result = new StringBuilder(source.length());
+        int i = 0;
+        while (i < source.length())
+        {
+            char c = source.charAt(i);
+            char next = i + 1 < source.length() ? source.charAt(i + 1) : 0;
+            if (c == '/' && next == '/')
+            {
+                while (i < source.length() && source.charAt(i) != '\n')
+                {
+                    result.append(' ');
+                    i++;
+                }
+            }
+            else if (c == '/' && next == '*')
+            {
+                int end = source.indexOf("*/", i + 2);
+                end = end < 0 ? source.length() : end + 2;
+                for (; i < end; i++)
+                {
+                    result.append(source.charAt(i) == '\n' ? '\n' : ' ');
+                }
+            }
+            else if (c == '"' || c == '\'')
+            {
+                result.append(c);
+                i++;
+                while (i < source.length() && source.charAt(i) != c && source.charAt(i) != '\n')
+                {
+                    if (source.charAt(i) == '\\' && i + 1 < source.length())
+                    {
+                        result.append(' ');
+                        i++;
+                    }
+                    result.append(' ');
+                    i++;
+                }
+                if (i < source.length())
+                {
+                    result.append(source.charAt(i));
+                    i++;
+                }
+            }
+            else
+            {
+                result.append(c);
+                i++;
+            }
+        }
+        return result.toString();
+    }
+
+    private String wrapSnippet(final String snippet)
+    {
+        return "import java.util.*;\n"
+                + "import java.util.regex.*;\n"
+                + "public class YoloJavaParser_" + JavaSourceCompiler.hash(snippet)
+                + " implements " + IScriptParser.class.getCanonicalName() + " {\n"
+                + "public Map<String, Object> parse(final String line) {\n"
+                + snippet
+                + "\n}\n}\n";
+    }
+
+    @Override
+    public ConfigMap getModuleConfig()
+    {
+        ConfigMap config = new ConfigMap();
+        config.addConfigValue("file", String.class, false, null);
+        config.addConfigValue("source", String.class, false, null);
+        return config;
+    }
+
+    @Override
+    public String getModuleDescription()
+    {
+        return "parses data with a Java class or parse method body compiled at runtime";
+    }
+}
@@ -12,7 +12,7 @@ import java.util.regex.Pattern;
 /**
  * @author bandesz
  */
-public class RegexpParser implements IParser
+public class RegexpParser implements ICharSequenceParser
 {
 
     private Matcher matcher;
@@ -43,6 +43,12 @@ public class RegexpParser implements IParser
 
     @Override
     public Map<String, Object> parse(final String line)
+    {
+        return parse((CharSequence) line);
+    }
+
+    @Override
+    public Map<String, Object> parse(final CharSequence line)
     {
         matcher.reset(line);
 
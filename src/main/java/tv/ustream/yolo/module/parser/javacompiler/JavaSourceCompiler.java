@@ -0,0 +1,329 @@
+package tv.ustream.yolo.module.parser.javacompiler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compiles Java sources in memory and loads every compiled source in its own class loader.
+ * Compiled classes are cached by the hash of the source, so reloading an unchanged configuration
+ * does not invoke the compiler again. The cache holds the classes weakly: a class stays cached while a parser
+ * uses it, the classes of removed parsers can be unloaded with their class loaders.
+ */
+public final class JavaSourceCompiler
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger(JavaSourceCompiler.class);
+
+    private static final Pattern PACKAGE_PATTERN = Pattern.compile("^\\s*package\\s+([\\w.]+)\\s*;", Pattern.MULTILINE);
+
+    private static final Pattern CLASS_PATTERN = Pattern.compile(
+            "public\\s+(?:final\\s+|abstract\\s+)*class\\s+([A-Za-z_$][\\w$]*)"
+    );
+
+    private static final ConcurrentMap<String, WeakReference<Class<?>>> CLASS_CACHE =
+            new ConcurrentHashMap<String, WeakReference<Class<?>>>();
+
+    private JavaSourceCompiler()
+    {
+    }
+
+    /**
+     * Returns the public top level class defined in the source, compiling it on the first call.
+     */
+    public static Class<?> compile(final String source, final ClassLoader parent)
+    {
+        String hash = hash(source);
+
+        Class<?> clazz = getCached(hash);
+        if (clazz != null)
+        {
+            LOG.debug("Using cached class {} for source hash {}", clazz.getName(), hash);
+            return clazz;
+        }
+
+        removeUnloadedClasses();
+
+        clazz = doCompile(getClassName(source), source, parent);
+
+        WeakReference<Class<?>> reference = new WeakReference<Class<?>>(clazz);
+        while (true)
+        {
+            WeakReference<Class<?>> previous = CLASS_CACHE.putIfAbsent(hash, reference);
+            if (previous == null)
+            {
+                return clazz;
+            }
+            Class<?> previousClass = previous.get();
+            if (previousClass != null)
+            {
+                return previousClass;
+            }
+            if (CLASS_CACHE.replace(hash, previous, reference))
+            {
+                return clazz;
+            }
+        }
+    }
+
+    private static Class<?> getCached(final String hash)
+    {
+        WeakReference<Class<?>> reference = CLASS_CACHE.get(hash);
+        return reference != null ? reference.get() : null;
+    }
+
+    private static void removeUnloadedClasses()
+    {
+        Iterator<WeakReference<Class<?>>> references = CLASS_CACHE.values().iterator();
+        while (references.hasNext())
+        {
+            if (references.next().get() == null)
+            {
+                references.remove();
+            }
+        }
+    }
+
+    public static String getClassName(final String source)
+    {
+        Matcher classMatcher = CLASS_PATTERN.matcher(source);
+        if (!classMatcher.find())
+        {
+            throw new IllegalArgumentException("Java source does not contain a public class");
+        }
+
+        Matcher packageMatcher = PACKAGE_PATTERN.matcher(source);
+        if (packageMatcher.find())
+        {
+            return packageMatcher.group(1) + "." + classMatcher.group(1);
+        }
+
+        return classMatcher.group(1);
+    }
+
+    public static String hash(final String source)
+    {
+        try
+        {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(source.getBytes(Charset.forName("UTF-8")));
+            StringBuilder result = new StringBuilder(digest.length * 2);
+            for (byte b : digest)
+            {
+                result.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return result.toString();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Class<?> doCompile(final String className, final String source, final ClassLoader parent)
+    {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null)
+        {
+            throw new IllegalStateException("Java compiler is not available, please run yolo with a JDK");
+        }
+
+        long start = System.currentTimeMillis();
+
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+        StandardJavaFileManager standardFileManager = compiler.getStandardFileManager(diagnostics, null, null);
+        MemoryFileManager fileManager = new MemoryFileManager(standardFileManager);
+
+        List<String> options = Arrays.asList("-classpath", getClassPath());
+
+        boolean compiled;
+        try
+        {
+            compiled = compiler.getTask(
+                    null,
+                    fileManager,
+                    diagnostics,
+                    options,
+                    null,
+                    Collections.singletonList(new SourceFile(className, source))
+            ).call();
+        }
+        finally
+        {
+            try
+            {
+                fileManager.close();
+            }
+            catch (IOException e)
+            {
+                LOG.warn("Failed to close the Java file manager: {}", e.getMessage());
+            }
+        }
+
+        if (!compiled)
+        {
+            StringBuilder message = new StringBuilder();
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics())
+            {
+                if (diagnostic.getKind() == Diagnostic.Kind.ERROR)
+                {
+                    message.append(String.format(
+                            "%n  line %d: %s", diagnostic.getLineNumber(), diagnostic.getMessage(null)
+                    ));
+                }
+            }
+            throw new IllegalArgumentException("Java source compilation failed:" + message);
+        }
+
+        try
+        {
+            Class<?> clazz = new MemoryClassLoader(parent, fileManager.getClassFiles()).loadClass(className);
+
+            LOG.info("Compiled {} in {} ms", className, System.currentTimeMillis() - start);
+
+            return clazz;
+        }
+        catch (ClassNotFoundException e)
+        {
+            throw new IllegalArgumentException("Compiled class not found: " + className);
+        }
+    }
+
+    private static String getClassPath()
+    {
+        String classPath = System.getProperty("java.class.path");
+
+        CodeSource codeSource = JavaSourceCompiler.class.getProtectionDomain().getCodeSource();
+        if (codeSource != null && codeSource.getLocation() != null
+                && "file".equals(codeSource.getLocation().getProtocol()))
+        {
+            classPath = new File(URI.create(codeSource.getLocation().toString())).getPath()
+                    + File.pathSeparator + classPath;
+        }
+
+        return classPath;
+    }
+
+    private static class SourceFile extends SimpleJavaFileObject
+    {
+
+        private final String source;
+
+        SourceFile(final String className, final String source)
+        {
+            super(URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+            this.source = source;
+        }
+
+        @Override
+        public CharSequence getCharContent(final boolean ignoreEncodingErrors)
+        {
+            return source;
+        }
+    }
+
+    private static class ClassFile extends SimpleJavaFileObject
+    {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        ClassFile(final String className)
+        {
+            super(URI.create("bytes:///" + className.replace('.', '/') + Kind.CLASS.extension), Kind.CLASS);
+        }
+
+        @Override
+        public OutputStream openOutputStream()
+        {
+            return bytes;
+        }
+
+        byte[] getBytes()
+        {
+            return bytes.toByteArray();
+        }
+    }
+
+    private static class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager>
+    {
+
+        private final Map<String, ClassFile> classFiles = new HashMap<String, ClassFile>();
+
+        MemoryFileManager(final StandardJavaFileManager fileManager)
+        {
+            super(fileManager);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(final Location location, final String className,
+                                                   final JavaFileObject.Kind kind, final FileObject sibling)
+            throws IOException
+        {
+            ClassFile classFile = new ClassFile(className);
+            classFiles.put(className, classFile);
+            return classFile;
+        }
+
+        Map<String, byte[]> getClassFiles()
+        {
+            Map<String, byte[]> result = new HashMap<String, byte[]>();
+            for (Map.Entry<String, ClassFile> classFile : classFiles.entrySet())
+            {
+                result.put(classFile.getKey(), classFile.getValue().getBytes());
+            }
+            return result;
+        }
+    }
+
+    private static class MemoryClassLoader extends ClassLoader
+    {
+
+        private final Map<String, byte[]> classFiles;
+
+        MemoryClassLoader(final ClassLoader parent, final Map<String, byte[]> classFiles)
+        {
+            super(parent);
+            this.classFiles = classFiles;
+        }
+
+        @Override
+        protected Class<?> findClass(final String name) throws ClassNotFoundException
+        {
+            byte[] bytes = classFiles.get(name);
+            if (bytes == null)
+            {
+                throw new ClassNotFoundException(name);
+            }
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+}
@@ -0,0 +1,31 @@
+package tv.ustream.yolo.module.processor;
+
+import tv.ustream.yolo.config.ConfigException;
+
+import java.util.Map;
+
+/**
+ * Base of the compiled processors, process() compiles the parameters for the single line and processes it.
+ *
+ * The module chain calls processCompiled() with the parameters compiled once per transition, process() is only the
+ * fallback for callers without compiled parameters.
+ *
+ * @param <P> the type of the compiled parameters, it should be immutable
+ */
+public abstract class AbstractCompiledProcessor<P> implements ICompiledProcessor<P>
+{
+
+    @Override
+    public void process(final Map<String, Object> parserOutput, final Map<String, Object> processParams)
+    {
+        try
+        {
+            processCompiled(parserOutput, compileProcessParams(processParams));
+        }
+        catch (ConfigException e)
+        {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+}
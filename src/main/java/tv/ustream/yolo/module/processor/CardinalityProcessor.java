@@ -0,0 +1,314 @@
+package tv.ustream.yolo.module.processor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tv.ustream.yolo.config.ConfigException;
+import tv.ustream.yolo.config.ConfigMap;
+import tv.ustream.yolo.config.ConfigValue;
+import tv.ustream.yolo.util.AlignedTimer;
+import tv.ustream.yolo.util.HyperLogLog;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Estimates the number of distinct values per key and sends the estimate in every interval.
+ *
+ * The values of every rendered key are added to a HyperLogLog sketch, so a key uses a fixed amount of memory
+ * (2^precision bytes) however many distinct values arrive. If rollupTimeMs is set, the interval sketches are merged
+ * into a rollup sketch per key and its estimate is sent as key.rollup at the end of every rollup interval. The
+ * sketches are kept in a striped sketch store, the estimates are computed outside of the locks. Keys without values
+ * and without an unfinished rollup are removed.
+ */
+public class CardinalityProcessor extends AbstractCompiledProcessor<CardinalityProcessor.CompiledKey[]>
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger(CardinalityProcessor.class);
+
+    private static final long DEFAULT_FLUSH_TIME_MS = 60000;
+
+    private static final int DEFAULT_PRECISION = 12;
+
+    private static final String ROLLUP_SUFFIX = ".rollup";
+
+    private final StripedSketchStore<HyperLogLog, CharSequence> sketches =
+            new StripedSketchStore<HyperLogLog, CharSequence>()
+            {
+                @Override
+                protected HyperLogLog createSketch()
+                {
+                    return new HyperLogLog(precision);
+                }
+
+                @Override
+                protected void addValue(final HyperLogLog sketch, final CharSequence value)
+                {
+                    sketch.add(value);
+                }
+
+                @Override
+                protected boolean isEmpty(final HyperLogLog sketch)
+                {
+                    return sketch.isEmpty();
+                }
+
+                @Override
+                protected void clear(final HyperLogLog sketch)
+                {
+                    sketch.clear();
+                }
+
+                @Override
+                protected boolean keepEmpty(final String key)
+                {
+                    HyperLogLog rollup = rollups.get(key);
+                    if (rollup != null && !rollup.isEmpty())
+                    {
+                        return true;
+                    }
+                    rollups.remove(key);
+                    return false;
+                }
+            };
+
+    /**
+     * The rollup sketches by key, used only by the flush
+     */
+    private final Map<String, HyperLogLog> rollups = new HashMap<String, HyperLogLog>();
+
+    private MetricOutput output;
+
+    private long flushTimeMs;
+
+    private long rollupTimeMs;
+
+    private int precision;
+
+    private AlignedTimer flushTimer;
+
+    private MetricKeyCache keyCache = new MetricKeyCache(MetricKeyCache.DEFAULT_SIZE);
+
+    protected MetricOutput createOutput(final Map<String, Object> parameters, final long flushTimeMs)
+    {
+        return MetricOutput.create(parameters, flushTimeMs);
+    }
+
+    protected long currentTimeMillis()
+    {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public ConfigMap getProcessParamsConfig()
+    {
+        ConfigMap map = new ConfigMap();
+
+        ConfigMap keyConfig = new ConfigMap();
+        keyConfig.addConfigEntry("key", ConfigValue.createString().allowConfigPattern());
+        keyConfig.addConfigEntry("value", ConfigValue.createString().allowConfigPattern());
+
+        map.addConfigList("keys", keyConfig);
+
+        return map;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public CompiledKey[] compileProcessParams(final Map<String, Object> processParams) throws ConfigException
+    {
+        List<Map<String, Object>> keys = (List<Map<String, Object>>) processParams.get("keys");
+
+        CompiledKey[] result = new CompiledKey[keys.size()];
+        for (int i = 0; i < result.length; i++)
+        {
+            result[i] = compileKey(keys.get(i));
+        }
+        return result;
+    }
+
+    private CompiledKey compileKey(final Map<String, Object> keyParams) throws ConfigException
+    {
+        CompiledText key = CompiledText.compile("key", keyParams.get("key"));
+
+        CompiledText value = CompiledText.compile("value", keyParams.get("value"));
+
+        return new CompiledKey(key, value);
+    }
+
+    @Override
+    public void processCompiled(final Map<String, Object> parserOutput, final CompiledKey[] compiledParams)
+    {
+        for (int i = 0; i < compiledParams.length; i++)
+        {
+            addKey(parserOutput, compiledParams[i]);
+        }
+    }
+
+    private void addKey(final Map<String, Object> parserOutput, final CompiledKey compiledKey)
+    {
+        String key = compiledKey.key.render(parserOutput, keyCache);
+        if (key == null)
+        {
+            return;
+        }
+
+        String value = compiledKey.value.render(parserOutput);
+        if (value == null)
+        {
+            return;
+        }
+
+        add(key, value);
+    }
+
+    /**
+     * Adds a value to the sketch of the key
+     */
+    public void add(final String key, final CharSequence value)
+    {
+        sketches.add(key, value);
+    }
+
+    /**
+     * Sends the estimates of the current interval, and of the rollup interval if it ends at this boundary
+     */
+    public synchronized void flush()
+    {
+        flush(false);
+    }
+
+    private void flush(final boolean stopping)
+    {
+        long boundaryMs = AlignedTimer.getBoundary(currentTimeMillis(), flushTimeMs);
+        final long timestamp = TimeUnit.MILLISECONDS.toSeconds(boundaryMs);
+        final boolean rollupEnds = rollupTimeMs > 0 && (stopping || boundaryMs % rollupTimeMs == 0);
+
+        int flushed = sketches.flush(new StripedSketchStore.Handler<HyperLogLog>()
+        {
+            @Override
+            public void handle(final String key, final HyperLogLog sketch)
+            {
+                HyperLogLog rollup = rollups.get(key);
+                if (!sketch.isEmpty())
+                {
+                    output.send(key, sketch.estimate(), timestamp);
+
+                    if (rollupTimeMs > 0)
+                    {
+                        if (rollup == null)
+                        {
+                            rollup = new HyperLogLog(precision);
+                            rollups.put(key, rollup);
+                        }
+                        rollup.merge(sketch);
+                    }
+                }
+
+                if (rollupEnds && rollup != null && !rollup.isEmpty())
+                {
+                    output.send(key + ROLLUP_SUFFIX, rollup.estimate(), timestamp);
+                    rollup.clear();
+                }
+            }
+        });
+
+        if (flushed > 0)
+        {
+            LOG.debug("Sent cardinality estimates of {} keys", flushed);
+            output.flush();
+        }
+    }
+
+    @Override
+    public void setUpModule(final Map<String, Object> parameters)
+    {
+        flushTimeMs = ((Number) parameters.get("flushTimeMs")).longValue();
+
+        Number rollup = (Number) parameters.get("rollupTimeMs");
+        rollupTimeMs = rollup != null ? rollup.longValue() : 0;
+        if (rollupTimeMs < 0 || rollupTimeMs % flushTimeMs != 0)
+        {
+            throw new IllegalArgumentException("rollupTimeMs should be a multiple of flushTimeMs: " + rollupTimeMs);
+        }
+
+        Number precisionValue = (Number) parameters.get("precision");
+        precision = precisionValue != null ? precisionValue.intValue() : DEFAULT_PRECISION;
+        if (precision < HyperLogLog.MIN_PRECISION || precision > HyperLogLog.MAX_PRECISION)
+        {
+            throw new IllegalArgumentException(
+                    "precision should be between " + HyperLogLog.MIN_PRECISION + " and " + HyperLogLog.MAX_PRECISION
+            );
+        }
+
+        Number keyCacheSize = (Number) parameters.get("keyCacheSize");
+        keyCache = new MetricKeyCache(keyCacheSize != null ? keyCacheSize.intValue() : MetricKeyCache.DEFAULT_SIZE);
+
+        output = createOutput(parameters, flushTimeMs);
+
+        flushTimer = new AlignedTimer(flushTimeMs, currentTimeMillis(), new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                flush();
+            }
+        });
+    }
+
+    @Override
+    public ConfigMap getModuleConfig()
+    {
+        ConfigMap config = new ConfigMap();
+        MetricOutput.addModuleConfig(config);
+        config.addConfigValue("flushTimeMs", Number.class, false, DEFAULT_FLUSH_TIME_MS);
+        config.addConfigValue("rollupTimeMs", Number.class, false, 0);
+        config.addConfigValue("precision", Number.class, false, DEFAULT_PRECISION);
+        config.addConfigValue("keyCacheSize", Number.class, false, MetricKeyCache.DEFAULT_SIZE);
+        return config;
+    }
+
+    @Override
+    public String getModuleDescription()
+    {
+        return "estimates the number of distinct values and sends it periodically";
+    }
+
+    /**
+     * Stops the timer and sends the current interval and the unfinished rollups
+     */
+    @Override
+    public void stop()
+    {
+        if (flushTimer != null)
+        {
+            flushTimer.cancel();
+        }
+
+        synchronized (this)
+        {
+            flush(true);
+        }
+
+        output.stop();
+    }
+
+    /**
+     * The parameters of one key
+     */
+    public static final class CompiledKey
+    {
+
+        private final CompiledText key;
+
+        private final CompiledText value;
+
+        private CompiledKey(final CompiledText key, final CompiledText value)
+        {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+}
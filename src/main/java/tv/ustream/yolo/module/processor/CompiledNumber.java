@@ -0,0 +1,67 @@
+package tv.ustream.yolo.module.processor;
+
+import tv.ustream.yolo.config.ConfigException;
+import tv.ustream.yolo.config.ConfigPattern;
+import tv.ustream.yolo.util.NumberConverter;
+
+import java.util.Map;
+
+/**
+ * A compiled numeric parameter, either a constant or a pattern rendered from the parser output and converted like a
+ * byte value (10K, 2M)
+ */
+final class CompiledNumber
+{
+
+    private final Double number;
+
+    private final ConfigPattern pattern;
+
+    private CompiledNumber(final Double number, final ConfigPattern pattern)
+    {
+        this.number = number;
+        this.pattern = pattern;
+    }
+
+    /**
+     * Compiles a Number, String or ConfigPattern parameter, the name is used in the error message
+     */
+    static CompiledNumber compile(final String name, final Object value) throws ConfigException
+    {
+        Object converted = value instanceof String ? NumberConverter.convertByteValue((String) value) : value;
+        if (converted instanceof Number)
+        {
+            return new CompiledNumber(((Number) converted).doubleValue(), null);
+        }
+        if (converted instanceof ConfigPattern)
+        {
+            return new CompiledNumber(null, (ConfigPattern) converted);
+        }
+        throw new ConfigException("Invalid " + name + ": " + value);
+    }
+
+    /**
+     * Returns with the number or null if the rendered pattern is missing or not a number, a numeric field of a simple
+     * pattern is used without rendering it
+     */
+    Double getValue(final Map<String, Object> parserOutput)
+    {
+        if (number != null)
+        {
+            return number;
+        }
+
+        if (pattern.isSimplePattern())
+        {
+            Object rawValue = parserOutput.get(pattern.getParameters().get(0));
+            if (rawValue instanceof Number)
+            {
+                return ((Number) rawValue).doubleValue();
+            }
+        }
+
+        String value = pattern.applyValues(parserOutput);
+        return value != null && !value.isEmpty() ? NumberConverter.convertByteValue(value) : null;
+    }
+
+}
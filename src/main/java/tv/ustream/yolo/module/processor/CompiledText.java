@@ -0,0 +1,56 @@
+package tv.ustream.yolo.module.processor;
+
+import tv.ustream.yolo.config.ConfigException;
+import tv.ustream.yolo.config.ConfigPattern;
+
+import java.util.Map;
+
+/**
+ * A compiled text parameter (like a metric key), either a constant or a pattern rendered from the parser output
+ */
+final class CompiledText
+{
+
+    private final String text;
+
+    private final ConfigPattern pattern;
+
+    private CompiledText(final String text, final ConfigPattern pattern)
+    {
+        this.text = text;
+        this.pattern = pattern;
+    }
+
+    /**
+     * Compiles a String or ConfigPattern parameter, the name is used in the error message
+     */
+    static CompiledText compile(final String name, final Object value) throws ConfigException
+    {
+        if (value instanceof String)
+        {
+            return new CompiledText((String) value, null);
+        }
+        if (value instanceof ConfigPattern)
+        {
+            return new CompiledText(null, (ConfigPattern) value);
+        }
+        throw new ConfigException("Invalid " + name + ": " + value);
+    }
+
+    /**
+     * Returns with the text or null if a field of the pattern is missing
+     */
+    String render(final Map<String, Object> parserOutput)
+    {
+        return text != null ? text : pattern.applyValues(parserOutput);
+    }
+
+    /**
+     * Returns with the text rendered through the key cache or null if a field of the pattern is missing
+     */
+    String render(final Map<String, Object> parserOutput, final MetricKeyCache keyCache)
+    {
+        return text != null ? text : keyCache.get(pattern, parserOutput);
+    }
+
+}
@@ -1,5 +1,6 @@
 package tv.ustream.yolo.module.processor;
 
+import tv.ustream.yolo.config.ConfigException;
 import tv.ustream.yolo.config.ConfigMap;
 
 import java.util.ArrayList;
@@ -9,7 +10,7 @@ import java.util.Map;
 /**
  * @author bandesz
  */
-public class CompositeProcessor implements ICompositeProcessor
+public class CompositeProcessor implements ICompositeProcessor, ICompiledProcessor<CompositeProcessor.CompiledParams>
 {
 
     private final List<IProcessor> processors = new ArrayList<IProcessor>();
@@ -23,6 +24,50 @@ public class CompositeProcessor implements ICompositeProcessor
         }
     }
 
+    @SuppressWarnings("unchecked")
+    @Override
+    public CompiledParams compileProcessParams(final Map<String, Object> processParams) throws ConfigException
+    {
+        IProcessor[] subProcessors = processors.toArray(new IProcessor[processors.size()]);
+        Object[] params = new Object[subProcessors.length];
+        boolean[] compiled = new boolean[subProcessors.length];
+
+        for (int i = 0; i < subProcessors.length; i++)
+        {
+            if (subProcessors[i] instanceof ICompiledProcessor)
+            {
+                params[i] = ((ICompiledProcessor<Object>) subProcessors[i]).compileProcessParams(processParams);
+                compiled[i] = true;
+            }
+            else
+            {
+                params[i] = processParams;
+            }
+        }
+
+        return new CompiledParams(subProcessors, params, compiled);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void processCompiled(final Map<String, Object> parserOutput, final CompiledParams compiledParams)
+    {
+        for (int i = 0; i < compiledParams.processors.length; i++)
+        {
+            if (compiledParams.compiled[i])
+            {
+                ((ICompiledProcessor<Object>) compiledParams.processors[i]).processCompiled(
+                        parserOutput,
+                        compiledParams.params[i]
+                );
+            }
+            else
+            {
+                compiledParams.processors[i].process(parserOutput, (Map<String, Object>) compiledParams.params[i]);
+            }
+        }
+    }
+
     @Override
     public ConfigMap getProcessParamsConfig()
     {
@@ -64,4 +109,21 @@ public class CompositeProcessor implements ICompositeProcessor
     {
     }
 
+    public static final class CompiledParams
+    {
+
+        private final IProcessor[] processors;
+
+        private final Object[] params;
+
+        private final boolean[] compiled;
+
+        private CompiledParams(final IProcessor[] processors, final Object[] params, final boolean[] compiled)
+        {
+            this.processors = processors;
+            this.params = params;
+            this.compiled = compiled;
+        }
+    }
+
 }
@@ -0,0 +1,408 @@
+package tv.ustream.yolo.module.processor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tv.ustream.yolo.client.RollingFileWriter;
+import tv.ustream.yolo.config.ConfigMap;
+import tv.ustream.yolo.config.ConfigValue;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes the parser output to rolling local files as NDJSON or TSV records.
+ *
+ * A record is serialized into a thread local buffer on the processing thread and copied into the blocks of a
+ * rolling file writer, the files are written by the writer thread. NDJSON records contain the given fields (or all
+ * fields of the parser output), TSV records contain the given fields in order and every segment starts with a header
+ * line of the field names. Tabs, line breaks and backslashes are escaped in TSV values.
+ */
+public class FileOutputProcessor implements IProcessor
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileOutputProcessor.class);
+
+    private static final String NDJSON = "ndjson";
+
+    private static final String TSV = "tsv";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final long DEFAULT_MAX_FILE_SIZE = 128 * 1024 * 1024;
+
+    private static final long DEFAULT_ROLL_TIME_MS = 3600000;
+
+    private static final long DEFAULT_FLUSH_TIME_MS = 1000;
+
+    private static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    private static final int DEFAULT_MAX_PENDING_BLOCKS = 64;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final ThreadLocal<RecordBuffer> recordBuffer = new ThreadLocal<RecordBuffer>()
+    {
+        @Override
+        protected RecordBuffer initialValue()
+        {
+            return new RecordBuffer();
+        }
+    };
+
+    private final AtomicLong droppedRecords = new AtomicLong();
+
+    private RollingFileWriter writer;
+
+    private boolean tsv;
+
+    private String[] fields;
+
+    private String[] jsonNames;
+
+    protected RollingFileWriter createWriter(final String path, final String extension, final byte[] header,
+                                             final long maxFileSize, final long rollTimeMs, final boolean compress,
+                                             final int blockSize, final int maxPendingBlocks, final long flushTimeMs)
+    {
+        return new RollingFileWriter(
+                path,
+                extension,
+                header,
+                maxFileSize,
+                rollTimeMs,
+                compress,
+                blockSize,
+                maxPendingBlocks,
+                flushTimeMs
+        );
+    }
+
+    @Override
+    public void process(final Map<String, Object> parserOutput, final Map<String, Object> processParams)
+    {
+        RecordBuffer buffer = recordBuffer.get();
+        StringBuilder record = buffer.text;
+        record.setLength(0);
+
+        if (tsv)
+        {
+            appendTsv(record, parserOutput);
+        }
+        else
+        {
+            appendJson(record, parserOutput);
+        }
+        record.append('\n');
+
+        try
+        {
+            writer.write(buffer.encode());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            long dropped = droppedRecords.incrementAndGet();
+            LOG.warn("Interrupted while waiting for the file writer, dropped {} records so far", dropped);
+        }
+    }
+
+    /**
+     * Returns with the number of records dropped because the processing thread was interrupted while waiting for the
+     * writer
+     */
+    public long getDroppedRecords()
+    {
+        return droppedRecords.get();
+    }
+
+    private void appendTsv(final StringBuilder record, final Map<String, Object> parserOutput)
+    {
+        for (int i = 0; i < fields.length; i++)
+        {
+            if (i > 0)
+            {
+                record.append('\t');
+            }
+            Object value = parserOutput.get(fields[i]);
+            if (value != null)
+            {
+                appendTsvValue(record, value.toString());
+            }
+        }
+    }
+
+    private void appendJson(final StringBuilder record, final Map<String, Object> parserOutput)
+    {
+        record.append('{');
+        if (fields != null)
+        {
+            for (int i = 0; i < fields.length; i++)
+            {
+                if (i > 0)
+                {
+                    record.append(',');
+                }
+                record.append(jsonNames[i]);
+                appendJsonValue(record, parserOutput.get(fields[i]));
+            }
+        }
+        else
+        {
+            boolean first = true;
+            for (Map.Entry<String, Object> entry : parserOutput.entrySet())
+            {
+                if (!first)
+                {
+                    record.append(',');
+                }
+                first = false;
+                appendJsonString(record, entry.getKey());
+                record.append(':');
+                appendJsonValue(record, entry.getValue());
+            }
+        }
+        record.append('}');
+    }
+
+    private static void appendJsonValue(final StringBuilder record, final Object value)
+    {
+        if (value == null)
+        {
+            record.append("null");
+        }
+        else if (value instanceof Boolean)
+        {
+            record.append(((Boolean) value).booleanValue());
+        }
+        else if (value instanceof Number)
+        {
+            double doubleValue = ((Number) value).doubleValue();
+            if (Double.isNaN(doubleValue) || Double.isInfinite(doubleValue))
+            {
+                record.append("null");
+            }
+            else
+            {
+                record.append(value);
+            }
+        }
+        else
+        {
+            appendJsonString(record, value.toString());
+        }
+    }
+
+    static void appendJsonString(final StringBuilder record, final String value)
+    {
+        record.append('"');
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            switch (c)
+            {
+                case '"':
+                    record.append("\\\"");
+                    break;
+                case '\\':
+                    record.append("\\\\");
+                    break;
+                case '\n':
+                    record.append("\\n");
+                    break;
+                case '\r':
+                    record.append("\\r");
+                    break;
+                case '\t':
+                    record.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20)
+                    {
+                        record.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xf]);
+                    }
+                    else
+                    {
+                        record.append(c);
+                    }
+                    break;
+            }
+        }
+        record.append('"');
+    }
+
+    static void appendTsvValue(final StringBuilder record, final String value)
+    {
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            switch (c)
+            {
+                case '\\':
+                    record.append("\\\\");
+                    break;
+                case '\t':
+                    record.append("\\t");
+                    break;
+                case '\n':
+                    record.append("\\n");
+                    break;
+                case '\r':
+                    record.append("\\r");
+                    break;
+                default:
+                    record.append(c);
+                    break;
+            }
+        }
+    }
+
+    @Override
+    public ConfigMap getProcessParamsConfig()
+    {
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void setUpModule(final Map<String, Object> parameters)
+    {
+        String format = (String) parameters.get("format");
+        tsv = TSV.equals(format);
+
+        List<Object> fieldList = (List<Object>) parameters.get("fields");
+        if (fieldList != null)
+        {
+            fields = new String[fieldList.size()];
+            jsonNames = new String[fields.length];
+            for (int i = 0; i < fields.length; i++)
+            {
+                fields[i] = String.valueOf(fieldList.get(i));
+                StringBuilder name = new StringBuilder();
+                appendJsonString(name, fields[i]);
+                jsonNames[i] = name.append(':').toString();
+            }
+        }
+        else if (tsv)
+        {
+            throw new IllegalArgumentException("fields should be set for the tsv format");
+        }
+
+        byte[] header = null;
+        if (tsv)
+        {
+            StringBuilder headerLine = new StringBuilder();
+            for (int i = 0; i < fields.length; i++)
+            {
+                if (i > 0)
+                {
+                    headerLine.append('\t');
+                }
+                appendTsvValue(headerLine, fields[i]);
+            }
+            header = headerLine.append('\n').toString().getBytes(UTF_8);
+        }
+
+        Number maxFileSize = (Number) parameters.get("maxFileSize");
+        Number rollTimeMs = (Number) parameters.get("rollTimeMs");
+        Boolean compress = (Boolean) parameters.get("compress");
+        Number blockSize = (Number) parameters.get("blockSize");
+        Number maxPendingBlocks = (Number) parameters.get("maxPendingBlocks");
+        Number flushTimeMs = (Number) parameters.get("flushTimeMs");
+
+        writer = createWriter(
+                (String) parameters.get("path"),
+                tsv ? ".tsv" : ".ndjson",
+                header,
+                maxFileSize != null ? maxFileSize.longValue() : DEFAULT_MAX_FILE_SIZE,
+                rollTimeMs != null ? rollTimeMs.longValue() : DEFAULT_ROLL_TIME_MS,
+                compress != null && compress,
+                blockSize != null ? blockSize.intValue() : DEFAULT_BLOCK_SIZE,
+                maxPendingBlocks != null ? maxPendingBlocks.intValue() : DEFAULT_MAX_PENDING_BLOCKS,
+                flushTimeMs != null ? flushTimeMs.longValue() : DEFAULT_FLUSH_TIME_MS
+        );
+    }
+
+    @Override
+    public ConfigMap getModuleConfig()
+    {
+        ConfigMap config = new ConfigMap();
+        config.addConfigValue("path", String.class);
+        ConfigValue<String> formatConfig = new ConfigValue<String>(String.class, false, NDJSON);
+        formatConfig.setAllowedValues(Arrays.asList(NDJSON, TSV));
+        config.addConfigEntry("format", formatConfig);
+        config.addConfigValue("fields", List.class, false, null);
+        config.addConfigValue("maxFileSize", Number.class, false, DEFAULT_MAX_FILE_SIZE);
+        config.addConfigValue("rollTimeMs", Number.class, false, DEFAULT_ROLL_TIME_MS);
+        config.addConfigValue("compress", Boolean.class, false, false);
+        config.addConfigValue("flushTimeMs", Number.class, false, DEFAULT_FLUSH_TIME_MS);
+        config.addConfigValue("blockSize", Number.class, false, DEFAULT_BLOCK_SIZE);
+        config.addConfigValue("maxPendingBlocks", Number.class, false, DEFAULT_MAX_PENDING_BLOCKS);
+        return config;
+    }
+
+    @Override
+    public String getModuleDescription()
+    {
+        return "writes records to rolling NDJSON or TSV files";
+    }
+
+    @Override
+    public void stop()
+    {
+        writer.stop();
+
+        long dropped = writer.getDroppedBytes();
+        if (dropped > 0)
+        {
+            LOG.warn("Dropped {} bytes because of write errors", dropped);
+        }
+    }
+
+    /**
+     * The reusable text and byte buffers of one processing thread
+     */
+    private static final class RecordBuffer
+    {
+
+        private final StringBuilder text = new StringBuilder(256);
+
+        private final CharsetEncoder encoder = UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        private ByteBuffer bytes = ByteBuffer.allocate(1024);
+
+        /**
+         * Returns with the text encoded to UTF-8, the buffer is valid until the next call
+         */
+        private ByteBuffer encode()
+        {
+            while (true)
+            {
+                bytes.clear();
+                encoder.reset();
+                CharBuffer chars = CharBuffer.wrap(text);
+                CoderResult result = encoder.encode(chars, bytes, true);
+                if (!result.isOverflow())
+                {
+                    result = encoder.flush(bytes);
+                }
+                if (!result.isOverflow())
+                {
+                    bytes.flip();
+                    return bytes;
+                }
+                bytes = ByteBuffer.allocate(bytes.capacity() * 2);
+            }
+        }
+
+    }
+
+}
@@ -1,31 +1,68 @@
 package tv.ustream.yolo.module.processor;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tv.ustream.yolo.client.GraphiteAggregator;
 import tv.ustream.yolo.client.GraphiteClient;
+import tv.ustream.yolo.config.ConfigException;
 import tv.ustream.yolo.config.ConfigMap;
 import tv.ustream.yolo.config.ConfigPattern;
 import tv.ustream.yolo.config.ConfigValue;
-import tv.ustream.yolo.util.NumberConverter;
+import tv.ustream.yolo.util.TimestampParser;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
  * @author bandesz
  */
-public class GraphiteProcessor implements IProcessor
+public class GraphiteProcessor extends AbstractCompiledProcessor<GraphiteProcessor.CompiledKey[]>
 {
 
+    private static final Logger LOG = LoggerFactory.getLogger(GraphiteProcessor.class);
+
     private static final int DEFAULT_PORT = 2003;
 
     private static final long DEFAULT_FLUSH_TIME_MS = 1000;
 
+    private static final String PLAINTEXT = "plaintext";
+
+    private static final String PICKLE = "pickle";
+
     private GraphiteClient client;
 
+    private long flushTimeMs = DEFAULT_FLUSH_TIME_MS;
+
+    private GraphiteAggregator aggregator;
+
+    private final Map<String, TimestampParser> timestampParsers = new HashMap<String, TimestampParser>();
+
+    private MetricKeyCache keyCache = new MetricKeyCache(MetricKeyCache.DEFAULT_SIZE);
+
     protected GraphiteClient createClient(final String host, final int port, final long flushTimeMs,
-                                          final String prefix)
+                                          final String prefix, final GraphiteClient.Protocol protocol,
+                                          final long maxBufferSize, final File spillDirectory,
+                                          final long maxSpillSize)
+    {
+        return new GraphiteClient(
+                host,
+                port,
+                flushTimeMs,
+                prefix,
+                protocol,
+                maxBufferSize,
+                spillDirectory,
+                maxSpillSize
+        );
+    }
+
+    protected GraphiteAggregator createAggregator(final GraphiteClient client, final long intervalMs)
     {
-        return new GraphiteClient(host, port, flushTimeMs, prefix);
+        return new GraphiteAggregator(client, intervalMs);
     }
 
     @Override
@@ -48,76 +85,148 @@ public class GraphiteProcessor implements IProcessor
         timestampConfig.allowConfigPattern();
         keyConfig.addConfigEntry("timestamp", timestampConfig);
 
+        keyConfig.addConfigValue("timestampFormat", String.class, false, TimestampParser.EPOCH);
+
+        ConfigValue<String> aggregateConfig = new ConfigValue<String>(String.class, false, null);
+        List<String> consolidations = new ArrayList<String>();
+        for (GraphiteAggregator.Consolidation consolidation : GraphiteAggregator.Consolidation.values())
+        {
+            consolidations.add(consolidation.getValue());
+        }
+        aggregateConfig.setAllowedValues(consolidations);
+        keyConfig.addConfigEntry("aggregate", aggregateConfig);
+
         map.addConfigList("keys", keyConfig);
 
         return map;
     }
 
+    @SuppressWarnings("unchecked")
     @Override
-    public void process(final Map<String, Object> parserOutput, final Map<String, Object> processParams)
+    public CompiledKey[] compileProcessParams(final Map<String, Object> processParams) throws ConfigException
     {
         List<Map<String, Object>> keys = (List<Map<String, Object>>) processParams.get("keys");
 
-        for (Map<String, Object> keyParams : keys)
+        CompiledKey[] result = new CompiledKey[keys.size()];
+        for (int i = 0; i < result.length; i++)
         {
-            sendKey(parserOutput, keyParams);
+            result[i] = compileKey(keys.get(i));
         }
+        return result;
     }
 
-    private void sendKey(final Map<String, Object> parserOutput, final Map<String, Object> keyParams)
+    private CompiledKey compileKey(final Map<String, Object> keyParams) throws ConfigException
     {
-        Object keyObject = keyParams.get("key");
-        String key;
-        if (keyObject instanceof String)
-        {
-            key = (String) keyObject;
-        }
-        else if (keyObject instanceof ConfigPattern)
+        CompiledText key = CompiledText.compile("key", keyParams.get("key"));
+
+        CompiledNumber value = CompiledNumber.compile("value", keyParams.get("value"));
+
+        Number multiplier = (Number) keyParams.get("multiplier");
+
+        ConfigPattern timestamp = (ConfigPattern) (keyParams.get("timestamp") instanceof ConfigPattern
+                ? keyParams.get("timestamp")
+                : null);
+        String timestampFormat = (String) keyParams.get("timestampFormat");
+
+        String aggregate = (String) keyParams.get("aggregate");
+        GraphiteAggregator.Consolidation consolidation = null;
+        if (aggregate != null)
         {
-            key = ((ConfigPattern) keyObject).applyValues(parserOutput);
-            if (key == null)
+            if (timestamp != null)
             {
-                return;
+                throw new ConfigException("aggregate can not be used together with timestamp");
             }
+            consolidation = GraphiteAggregator.Consolidation.valueOf(aggregate.toUpperCase());
         }
-        else
+
+        return new CompiledKey(
+                key,
+                value,
+                multiplier != null ? multiplier.doubleValue() : 1,
+                timestamp,
+                timestamp != null ? getTimestampParser(timestampFormat) : null,
+                consolidation,
+                consolidation != null ? getAggregator() : null
+        );
+    }
+
+    @Override
+    public void processCompiled(final Map<String, Object> parserOutput, final CompiledKey[] compiledParams)
+    {
+        for (int i = 0; i < compiledParams.length; i++)
+        {
+            sendKey(parserOutput, compiledParams[i]);
+        }
+    }
+
+    private void sendKey(final Map<String, Object> parserOutput, final CompiledKey compiledKey)
+    {
+        String key = compiledKey.key.render(parserOutput, keyCache);
+        if (key == null)
         {
-            throw new IllegalArgumentException("Invalid key: " + keyObject.toString());
+            return;
         }
 
-        Object valueObject = keyParams.get("value");
-        Double value;
-        if (valueObject instanceof Number)
+        Double rawValue = compiledKey.value.getValue(parserOutput);
+        if (rawValue == null)
         {
-            value = ((Number) valueObject).doubleValue();
+            return;
+        }
+        double value = rawValue * compiledKey.multiplier;
 
+        if (compiledKey.aggregator != null)
+        {
+            compiledKey.aggregator.add(key, compiledKey.consolidation, value);
         }
-        else if (valueObject instanceof ConfigPattern)
+        else if (compiledKey.timestampPattern != null)
         {
-            value = NumberConverter.convertByteValue(((ConfigPattern) valueObject).applyValues(parserOutput));
-            if (value == null)
+            long timestamp = getTimestamp(compiledKey, parserOutput);
+            if (timestamp == TimestampParser.INVALID)
             {
                 return;
             }
+            client.sendMetrics(key, value, timestamp);
         }
         else
         {
-            throw new IllegalArgumentException("Invalid value: " + valueObject.toString());
+            client.sendMetrics(key, value);
         }
+    }
 
-        value *= ((Number) keyParams.get("multiplier")).doubleValue();
+    private long getTimestamp(final CompiledKey compiledKey, final Map<String, Object> parserOutput)
+    {
+        ConfigPattern pattern = compiledKey.timestampPattern;
+        if (pattern.isSimplePattern())
+        {
+            Object rawValue = parserOutput.get(pattern.getParameters().get(0));
+            if (rawValue instanceof Number)
+            {
+                return compiledKey.timestampParser.parseNumber((Number) rawValue);
+            }
+        }
 
-        Object timestampObject = keyParams.get("timestamp");
+        return compiledKey.timestampParser.parse(pattern.applyValues(parserOutput));
+    }
 
-        if (timestampObject instanceof ConfigPattern)
+    private synchronized TimestampParser getTimestampParser(final String format)
+    {
+        String timestampFormat = format != null ? format : TimestampParser.EPOCH;
+        TimestampParser timestampParser = timestampParsers.get(timestampFormat);
+        if (timestampParser == null)
         {
-            long timestamp = Long.parseLong(((ConfigPattern) timestampObject).applyValues(parserOutput));
-            client.sendMetrics(key, value, timestamp);
+            timestampParser = new TimestampParser(timestampFormat);
+            timestampParsers.put(timestampFormat, timestampParser);
         }
-        else
+        return timestampParser;
+    }
+
+    private synchronized GraphiteAggregator getAggregator()
+    {
+        if (aggregator == null)
         {
-            client.sendMetrics(key, value);
+            aggregator = createAggregator(client, flushTimeMs);
         }
+        return aggregator;
     }
 
     @Override
@@ -125,10 +234,34 @@ public class GraphiteProcessor implements IProcessor
     {
         String host = (String) parameters.get("host");
         Integer port = ((Number) parameters.get("port")).intValue();
-        Long flushTimeMs = ((Number) parameters.get("flushTimeMs")).longValue();
+        flushTimeMs = ((Number) parameters.get("flushTimeMs")).longValue();
         String prefix = (String) parameters.get("prefix");
 
-        client = createClient(host, port, flushTimeMs, prefix);
+        String protocolName = (String) parameters.get("protocol");
+        GraphiteClient.Protocol protocol = protocolName != null
+                ? GraphiteClient.Protocol.valueOf(protocolName.toUpperCase())
+                : GraphiteClient.Protocol.PLAINTEXT;
+        Number maxBufferSize = (Number) parameters.get("maxBufferSize");
+        String spillDirectory = (String) parameters.get("spillDirectory");
+        Number maxSpillSize = (Number) parameters.get("maxSpillSize");
+
+        client = createClient(
+                host,
+                port,
+                flushTimeMs,
+                prefix,
+                protocol,
+                maxBufferSize != null ? maxBufferSize.longValue() : GraphiteClient.DEFAULT_MAX_BUFFER_BYTES,
+                spillDirectory != null ? new File(spillDirectory) : null,
+                maxSpillSize != null ? maxSpillSize.longValue() : GraphiteClient.DEFAULT_MAX_SPILL_BYTES
+        );
+
+        Number keyCacheSize = (Number) parameters.get("keyCacheSize");
+        Boolean sanitizeKeys = (Boolean) parameters.get("sanitizeKeys");
+        keyCache = new MetricKeyCache(
+                keyCacheSize != null ? keyCacheSize.intValue() : MetricKeyCache.DEFAULT_SIZE,
+                sanitizeKeys != null && sanitizeKeys
+        );
     }
 
     @Override
@@ -139,9 +272,25 @@ public class GraphiteProcessor implements IProcessor
         config.addConfigValue("port", Number.class, false, DEFAULT_PORT);
         config.addConfigValue("flushTimeMs", Number.class, false, DEFAULT_FLUSH_TIME_MS);
         config.addConfigValue("prefix", String.class, false, "");
+        config.addConfigValue("keyCacheSize", Number.class, false, MetricKeyCache.DEFAULT_SIZE);
+        config.addConfigValue("sanitizeKeys", Boolean.class, false, false);
+        ConfigValue<String> protocolConfig = new ConfigValue<String>(String.class, false, PLAINTEXT);
+        protocolConfig.setAllowedValues(Arrays.asList(PLAINTEXT, PICKLE));
+        config.addConfigEntry("protocol", protocolConfig);
+        config.addConfigValue("maxBufferSize", Number.class, false, GraphiteClient.DEFAULT_MAX_BUFFER_BYTES);
+        config.addConfigValue("spillDirectory", String.class, false, null);
+        config.addConfigValue("maxSpillSize", Number.class, false, GraphiteClient.DEFAULT_MAX_SPILL_BYTES);
         return config;
     }
 
+    /**
+     * Returns with the cache of the keys rendered from patterns
+     */
+    public MetricKeyCache getKeyCache()
+    {
+        return keyCache;
+    }
+
     @Override
     public String getModuleDescription()
     {
@@ -151,7 +300,57 @@ public class GraphiteProcessor implements IProcessor
     @Override
     public void stop()
     {
+        LOG.debug(
+                "Key cache: {} entries, hit ratio: {}, evictions: {}",
+                keyCache.size(),
+                keyCache.getHitRatio(),
+                keyCache.getEvictions()
+        );
+
+        synchronized (this)
+        {
+            if (aggregator != null)
+            {
+                aggregator.stop();
+            }
+        }
+
         client.stop();
     }
 
+    /**
+     * The parameters of one key, the aggregator is only set if the key has a consolidation
+     */
+    public static final class CompiledKey
+    {
+
+        private final CompiledText key;
+
+        private final CompiledNumber value;
+
+        private final double multiplier;
+
+        private final ConfigPattern timestampPattern;
+
+        private final TimestampParser timestampParser;
+
+        private final GraphiteAggregator.Consolidation consolidation;
+
+        private final GraphiteAggregator aggregator;
+
+        private CompiledKey(final CompiledText key, final CompiledNumber value, final double multiplier,
+                            final ConfigPattern timestampPattern, final TimestampParser timestampParser,
+                            final GraphiteAggregator.Consolidation consolidation,
+                            final GraphiteAggregator aggregator)
+        {
+            this.key = key;
+            this.value = value;
+            this.multiplier = multiplier;
+            this.timestampPattern = timestampPattern;
+            this.timestampParser = timestampParser;
+            this.consolidation = consolidation;
+            this.aggregator = aggregator;
+        }
+    }
+
 }
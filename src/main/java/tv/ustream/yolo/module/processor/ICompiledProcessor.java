@@ -0,0 +1,23 @@
+package tv.ustream.yolo.module.processor;
+
+import tv.ustream.yolo.config.ConfigException;
+
+import java.util.Map;
+
+/**
+ * Processor which compiles its process parameters once per parser, so it doesn't have to look up and convert the
+ * parameters for every line.
+ *
+ * @param <P> the type of the compiled parameters, it should be immutable
+ */
+public interface ICompiledProcessor<P> extends IProcessor
+{
+
+    /**
+     * Compiles the parameters which are already validated by the process params config and contain the patterns.
+     */
+    P compileProcessParams(Map<String, Object> processParams) throws ConfigException;
+
+    void processCompiled(Map<String, Object> parserOutput, P compiledParams);
+
+}
@@ -0,0 +1,19 @@
+package tv.ustream.yolo.module.processor;
+
+/**
+ * Compiled processor whose compiled parameters share state which should match the current plan (like registered
+ * metric families). The module chain calls beginPlan before the process parameters of a new plan are compiled,
+ * commitPlan when the new plan replaced the current one and abortPlan if the new plan failed to compile.
+ *
+ * @param <P> the type of the compiled parameters, it should be immutable
+ */
+public interface IPlanCompiledProcessor<P> extends ICompiledProcessor<P>
+{
+
+    void beginPlan();
+
+    void commitPlan();
+
+    void abortPlan();
+
+}
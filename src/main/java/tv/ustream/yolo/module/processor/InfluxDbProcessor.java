@@ -0,0 +1,413 @@
+package tv.ustream.yolo.module.processor;
+
+import tv.ustream.yolo.client.InfluxDbClient;
+import tv.ustream.yolo.client.InfluxLineEncoder;
+import tv.ustream.yolo.config.ConfigException;
+import tv.ustream.yolo.config.ConfigMap;
+import tv.ustream.yolo.config.ConfigPattern;
+import tv.ustream.yolo.config.ConfigValue;
+import tv.ustream.yolo.util.TimestampParser;
+
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes the parser output to InfluxDB as line protocol points.
+ *
+ * Every point has a measurement, tags, numeric fields and string fields with pattern values, and the timestamp of
+ * the event (or the current time) in milliseconds. The tags are sorted by key as InfluxDB prefers. A missing tag value
+ * leaves out the tag, a missing or invalid field value leaves out the field, a point without fields is skipped. The
+ * lines are rendered into a thread local buffer and batched by the InfluxDB client.
+ */
+public class InfluxDbProcessor extends AbstractCompiledProcessor<InfluxDbProcessor.CompiledPoint[]>
+{
+
+    private static final String DEFAULT_URL = "http://localhost:8086";
+
+    private static final int DEFAULT_BATCH_SIZE = 5000;
+
+    private static final long DEFAULT_FLUSH_TIME_MS = 1000;
+
+    private static final int DEFAULT_MAX_RETRIES = 3;
+
+    private final Map<String, TimestampParser> timestampParsers = new HashMap<String, TimestampParser>();
+
+    private final ThreadLocal<StringBuilder> lineBuffer = new ThreadLocal<StringBuilder>()
+    {
+        @Override
+        protected StringBuilder initialValue()
+        {
+            return new StringBuilder(256);
+        }
+    };
+
+    private InfluxDbClient client;
+
+    protected InfluxDbClient createClient(final URL url, final int batchSize, final long flushTimeMs,
+                                          final long maxBufferSize, final int maxRetries, final boolean gzip)
+    {
+        return new InfluxDbClient(url, batchSize, flushTimeMs, maxBufferSize, maxRetries, gzip);
+    }
+
+    protected long currentTimeMillis()
+    {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public ConfigMap getProcessParamsConfig()
+    {
+        ConfigMap map = new ConfigMap();
+
+        ConfigMap pointConfig = new ConfigMap();
+
+        pointConfig.addConfigEntry("measurement", ConfigValue.createString().allowConfigPattern());
+        pointConfig.addConfigValue("tags", Map.class, false, null);
+        pointConfig.addConfigValue("fields", Map.class, false, null);
+        pointConfig.addConfigValue("stringFields", Map.class, false, null);
+
+        ConfigValue timestampConfig = new ConfigValue<String>(String.class, false, null);
+        timestampConfig.allowConfigPattern();
+        pointConfig.addConfigEntry("timestamp", timestampConfig);
+
+        pointConfig.addConfigValue("timestampFormat", String.class, false, TimestampParser.EPOCH);
+
+        map.addConfigList("points", pointConfig);
+
+        return map;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public CompiledPoint[] compileProcessParams(final Map<String, Object> processParams) throws ConfigException
+    {
+        List<Map<String, Object>> points = (List<Map<String, Object>>) processParams.get("points");
+
+        CompiledPoint[] result = new CompiledPoint[points.size()];
+        for (int i = 0; i < result.length; i++)
+        {
+            result[i] = compilePoint(points.get(i));
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private CompiledPoint compilePoint(final Map<String, Object> pointParams) throws ConfigException
+    {
+        CompiledText measurement = CompiledText.compile("measurement", pointParams.get("measurement"));
+
+        Map<String, Object> tags = (Map<String, Object>) pointParams.get("tags");
+        Map<String, Object> fields = (Map<String, Object>) pointParams.get("fields");
+        Map<String, Object> stringFields = (Map<String, Object>) pointParams.get("stringFields");
+        if ((fields == null || fields.isEmpty()) && (stringFields == null || stringFields.isEmpty()))
+        {
+            throw new ConfigException("At least one field or string field should be set");
+        }
+
+        CompiledText[] tagValues = compileValues(tags, "tag");
+        CompiledText[] stringFieldValues = compileValues(stringFields, "string field");
+
+        CompiledNumber[] fieldValues = new CompiledNumber[fields != null ? fields.size() : 0];
+        if (fields != null)
+        {
+            int i = 0;
+            for (Map.Entry<String, Object> field : new TreeMap<String, Object>(fields).entrySet())
+            {
+                fieldValues[i++] = CompiledNumber.compile("value of field " + field.getKey(), field.getValue());
+            }
+        }
+
+        ConfigPattern timestamp = (ConfigPattern) (pointParams.get("timestamp") instanceof ConfigPattern
+                ? pointParams.get("timestamp")
+                : null);
+
+        return new CompiledPoint(
+                measurement,
+                getEscapedKeys(tags),
+                tagValues,
+                getEscapedKeys(fields),
+                fieldValues,
+                getEscapedKeys(stringFields),
+                stringFieldValues,
+                timestamp,
+                timestamp != null ? getTimestampParser((String) pointParams.get("timestampFormat")) : null
+        );
+    }
+
+    /**
+     * Returns with the values sorted by key, the values should be strings or patterns
+     */
+    private CompiledText[] compileValues(final Map<String, Object> values, final String name) throws ConfigException
+    {
+        if (values == null)
+        {
+            return new CompiledText[0];
+        }
+
+        CompiledText[] result = new CompiledText[values.size()];
+        int i = 0;
+        for (Map.Entry<String, Object> entry : new TreeMap<String, Object>(values).entrySet())
+        {
+            Object value = entry.getValue();
+            if (value instanceof Number || value instanceof Boolean)
+            {
+                value = value.toString();
+            }
+            result[i++] = CompiledText.compile("value of " + name + " " + entry.getKey(), value);
+        }
+        return result;
+    }
+
+    private String[] getEscapedKeys(final Map<String, Object> values)
+    {
+        if (values == null)
+        {
+            return new String[0];
+        }
+
+        String[] result = new String[values.size()];
+        int i = 0;
+        for (String key : new TreeMap<String, Object>(values).keySet())
+        {
+            StringBuilder escaped = new StringBuilder(key.length());
+            InfluxLineEncoder.appendKey(escaped, key);
+            result[i++] = escaped.toString();
+        }
+        return result;
+    }
+
+    @Override
+    public void processCompiled(final Map<String, Object> parserOutput, final CompiledPoint[] compiledParams)
+    {
+        for (int i = 0; i < compiledParams.length; i++)
+        {
+            writePoint(parserOutput, compiledParams[i]);
+        }
+    }
+
+    private void writePoint(final Map<String, Object> parserOutput, final CompiledPoint point)
+    {
+        String measurement = point.measurement.render(parserOutput);
+        if (measurement == null || measurement.isEmpty())
+        {
+            return;
+        }
+
+        long timestamp;
+        if (point.timestampPattern != null)
+        {
+            timestamp = getTimestamp(point, parserOutput);
+            if (timestamp == TimestampParser.INVALID)
+            {
+                return;
+            }
+        }
+        else
+        {
+            timestamp = currentTimeMillis();
+        }
+
+        StringBuilder line = lineBuffer.get();
+        line.setLength(0);
+
+        InfluxLineEncoder.appendMeasurement(line, measurement);
+
+        for (int i = 0; i < point.tagKeys.length; i++)
+        {
+            String value = point.tagValues[i].render(parserOutput);
+            if (value == null || value.isEmpty())
+            {
+                continue;
+            }
+            line.append(',').append(point.tagKeys[i]).append('=');
+            InfluxLineEncoder.appendKey(line, value);
+        }
+
+        int fieldCount = 0;
+        for (int i = 0; i < point.fieldKeys.length; i++)
+        {
+            Double value = point.fieldValues[i].getValue(parserOutput);
+            if (value == null || value.isNaN() || value.isInfinite())
+            {
+                continue;
+            }
+            line.append(fieldCount++ == 0 ? ' ' : ',').append(point.fieldKeys[i]).append('=');
+            InfluxLineEncoder.appendNumber(line, value);
+        }
+
+        for (int i = 0; i < point.stringFieldKeys.length; i++)
+        {
+            String value = point.stringFieldValues[i].render(parserOutput);
+            if (value == null)
+            {
+                continue;
+            }
+            line.append(fieldCount++ == 0 ? ' ' : ',').append(point.stringFieldKeys[i]).append('=');
+            InfluxLineEncoder.appendString(line, value);
+        }
+
+        if (fieldCount == 0)
+        {
+            return;
+        }
+
+        line.append(' ').append(timestamp);
+
+        client.write(line);
+    }
+
+    private long getTimestamp(final CompiledPoint point, final Map<String, Object> parserOutput)
+    {
+        ConfigPattern pattern = point.timestampPattern;
+        if (pattern.isSimplePattern())
+        {
+            Object rawValue = parserOutput.get(pattern.getParameters().get(0));
+            if (rawValue instanceof Number)
+            {
+                return point.timestampParser.parseNumberMillis((Number) rawValue);
+            }
+        }
+
+        String value = pattern.applyValues(parserOutput);
+        synchronized (point.timestampParser)
+        {
+            return point.timestampParser.parseMillis(value);
+        }
+    }
+
+    private synchronized TimestampParser getTimestampParser(final String format)
+    {
+        String timestampFormat = format != null ? format : TimestampParser.EPOCH;
+        TimestampParser timestampParser = timestampParsers.get(timestampFormat);
+        if (timestampParser == null)
+        {
+            timestampParser = new TimestampParser(timestampFormat);
+            timestampParsers.put(timestampFormat, timestampParser);
+        }
+        return timestampParser;
+    }
+
+    @Override
+    public void setUpModule(final Map<String, Object> parameters)
+    {
+        String url = (String) parameters.get("url");
+        String database = (String) parameters.get("database");
+        String retentionPolicy = (String) parameters.get("retentionPolicy");
+
+        Number batchSize = (Number) parameters.get("batchSize");
+        Number flushTimeMs = (Number) parameters.get("flushTimeMs");
+        Number maxBufferSize = (Number) parameters.get("maxBufferSize");
+        Number maxRetries = (Number) parameters.get("maxRetries");
+        Boolean gzip = (Boolean) parameters.get("gzip");
+
+        client = createClient(
+                getWriteUrl(url != null ? url : DEFAULT_URL, database, retentionPolicy),
+                batchSize != null ? batchSize.intValue() : DEFAULT_BATCH_SIZE,
+                flushTimeMs != null ? flushTimeMs.longValue() : DEFAULT_FLUSH_TIME_MS,
+                maxBufferSize != null ? maxBufferSize.longValue() : InfluxDbClient.DEFAULT_MAX_BUFFER_BYTES,
+                maxRetries != null ? maxRetries.intValue() : DEFAULT_MAX_RETRIES,
+                gzip == null || gzip
+        );
+    }
+
+    /**
+     * Returns with the URL of the write API, the timestamps are sent in milliseconds
+     */
+    static URL getWriteUrl(final String url, final String database, final String retentionPolicy)
+    {
+        try
+        {
+            String base = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+            String query = "db=" + URLEncoder.encode(database, "UTF-8") + "&precision=ms";
+            if (retentionPolicy != null && !retentionPolicy.isEmpty())
+            {
+                query += "&rp=" + URLEncoder.encode(retentionPolicy, "UTF-8");
+            }
+            return new URL(base + "/write?" + query);
+        }
+        catch (MalformedURLException e)
+        {
+            throw new IllegalArgumentException("Invalid url: " + url);
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public ConfigMap getModuleConfig()
+    {
+        ConfigMap config = new ConfigMap();
+        config.addConfigValue("url", String.class, false, DEFAULT_URL);
+        config.addConfigValue("database", String.class);
+        config.addConfigValue("retentionPolicy", String.class, false, null);
+        config.addConfigValue("batchSize", Number.class, false, DEFAULT_BATCH_SIZE);
+        config.addConfigValue("flushTimeMs", Number.class, false, DEFAULT_FLUSH_TIME_MS);
+        config.addConfigValue("maxBufferSize", Number.class, false, InfluxDbClient.DEFAULT_MAX_BUFFER_BYTES);
+        config.addConfigValue("maxRetries", Number.class, false, DEFAULT_MAX_RETRIES);
+        config.addConfigValue("gzip", Boolean.class, false, true);
+        return config;
+    }
+
+    @Override
+    public String getModuleDescription()
+    {
+        return "writes points to InfluxDB in batches";
+    }
+
+    @Override
+    public void stop()
+    {
+        client.stop();
+    }
+
+    /**
+     * The parameters of one point, the keys are escaped and sorted
+     */
+    public static final class CompiledPoint
+    {
+
+        private final CompiledText measurement;
+
+        private final String[] tagKeys;
+
+        private final CompiledText[] tagValues;
+
+        private final String[] fieldKeys;
+
+        private final CompiledNumber[] fieldValues;
+
+        private final String[] stringFieldKeys;
+
+        private final CompiledText[] stringFieldValues;
+
+        private final ConfigPattern timestampPattern;
+
+        private final TimestampParser timestampParser;
+
+        private CompiledPoint(final CompiledText measurement, final String[] tagKeys, final CompiledText[] tagValues,
+                              final String[] fieldKeys, final CompiledNumber[] fieldValues,
+                              final String[] stringFieldKeys, final CompiledText[] stringFieldValues,
+                              final ConfigPattern timestampPattern,
+                              final TimestampParser timestampParser)
+        {
+            this.measurement = measurement;
+            this.tagKeys = tagKeys;
+            this.tagValues = tagValues;
+            this.fieldKeys = fieldKeys;
+            this.fieldValues = fieldValues;
+            this.stringFieldKeys = stringFieldKeys;
+            this.stringFieldValues = stringFieldValues;
+            this.timestampPattern = timestampPattern;
+            this.timestampParser = timestampParser;
+        }
+    }
+
+}
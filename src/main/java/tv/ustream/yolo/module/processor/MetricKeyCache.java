@@ -0,0 +1,268 @@
+package tv.ustream.yolo.module.processor;
+
+import tv.ustream.yolo.config.ConfigPattern;
+
+import java.util.Map;
+
+/**
+ * Bounded cache for metric keys rendered from config patterns.
+ *
+ * The keys are looked up by the pattern and the values of the fields it uses, so a cache hit needs only hashing and
+ * comparing the field values, without building any string. The entries are stored in an open addressing table with a
+ * limited probe length. Entries are never removed one by one: if the cache is full or there is no free slot within
+ * the probe length, an entry near the home slot is overwritten.
+ *
+ * If sanitizing is enabled, whitespace characters in the rendered keys are replaced with '_', as they would break the
+ * line based metric protocols. The keys are cached as strings: the clients encode them straight into their batch
+ * buffers, so a cached byte form would not save a copy.
+ *
+ * Not thread-safe, it should be used only from the line handling thread.
+ */
+public class MetricKeyCache
+{
+
+    public static final int DEFAULT_SIZE = 1024;
+
+    private static final int MAX_PROBES = 8;
+
+    private final int maxEntries;
+
+    private final boolean sanitize;
+
+    private final int mask;
+
+    private final String[][] slotFields;
+
+    private final Object[][] slotValues;
+
+    private final String[] slotKeys;
+
+    private final int[] slotHashes;
+
+    private final StringBuilder builder = new StringBuilder();
+
+    private int size = 0;
+
+    private long hits = 0;
+
+    private long misses = 0;
+
+    private long evictions = 0;
+
+    public MetricKeyCache(final int maxEntries)
+    {
+        this(maxEntries, false);
+    }
+
+    public MetricKeyCache(final int maxEntries, final boolean sanitize)
+    {
+        this.maxEntries = maxEntries;
+        this.sanitize = sanitize;
+
+        int capacity = Integer.highestOneBit(Math.max(maxEntries, 1) * 2 - 1) << 1;
+        mask = capacity - 1;
+        slotFields = new String[capacity][];
+        slotValues = new Object[capacity][];
+        slotKeys = new String[capacity];
+        slotHashes = new int[capacity];
+    }
+
+    /**
+     * Returns with the rendered key or null if a field used by the pattern is missing from the values.
+     */
+    public String get(final ConfigPattern pattern, final Map<String, Object> values)
+    {
+        String[] fields = pattern.getFieldNames();
+
+        int hash = System.identityHashCode(fields);
+        for (String field : fields)
+        {
+            Object value = values.get(field);
+            if (value == null)
+            {
+                return null;
+            }
+            hash = 31 * hash + hashValue(value);
+        }
+        hash ^= hash >>> 16;
+
+        int home = hash & mask;
+        int free = -1;
+        for (int i = 0; i < MAX_PROBES; i++)
+        {
+            int slot = (home + i) & mask;
+            if (slotKeys[slot] == null)
+            {
+                free = slot;
+                break;
+            }
+            if (slotHashes[slot] == hash && slotFields[slot] == fields && valuesEqual(slotValues[slot], fields, values))
+            {
+                hits++;
+                return slotKeys[slot];
+            }
+        }
+
+        misses++;
+
+        String key = render(pattern, values);
+        if (key == null || maxEntries <= 0)
+        {
+            return key;
+        }
+
+        int slot = size < maxEntries && free >= 0 ? free : findOccupiedSlot(home);
+        if (slot < 0)
+        {
+            return key;
+        }
+
+        if (slotKeys[slot] == null)
+        {
+            size++;
+        }
+        else
+        {
+            evictions++;
+        }
+
+        slotFields[slot] = fields;
+        slotValues[slot] = copyValues(fields, values);
+        slotKeys[slot] = key;
+        slotHashes[slot] = hash;
+
+        return key;
+    }
+
+    public void clear()
+    {
+        for (int i = 0; i < slotKeys.length; i++)
+        {
+            slotFields[i] = null;
+            slotValues[i] = null;
+            slotKeys[i] = null;
+        }
+        size = 0;
+    }
+
+    /**
+     * Returns with the number of cached keys
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    public long getHits()
+    {
+        return hits;
+    }
+
+    public long getMisses()
+    {
+        return misses;
+    }
+
+    public long getEvictions()
+    {
+        return evictions;
+    }
+
+    public double getHitRatio()
+    {
+        long total = hits + misses;
+        return total > 0 ? (double) hits / total : 0;
+    }
+
+    private int findOccupiedSlot(final int home)
+    {
+        for (int i = 0; i < MAX_PROBES; i++)
+        {
+            int slot = (home + i) & mask;
+            if (slotKeys[slot] != null)
+            {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private String render(final ConfigPattern pattern, final Map<String, Object> values)
+    {
+        builder.setLength(0);
+        if (!pattern.appendValues(values, builder))
+        {
+            return null;
+        }
+
+        if (sanitize)
+        {
+            for (int i = 0; i < builder.length(); i++)
+            {
+                if (Character.isWhitespace(builder.charAt(i)))
+                {
+                    builder.setCharAt(i, '_');
+                }
+            }
+        }
+
+        return builder.toString();
+    }
+
+    private static Object[] copyValues(final String[] fields, final Map<String, Object> values)
+    {
+        Object[] copy = new Object[fields.length];
+        for (int i = 0; i < fields.length; i++)
+        {
+            Object value = values.get(fields[i]);
+            copy[i] = value instanceof CharSequence ? value.toString() : value;
+        }
+        return copy;
+    }
+
+    private static boolean valuesEqual(final Object[] cached, final String[] fields, final Map<String, Object> values)
+    {
+        for (int i = 0; i < fields.length; i++)
+        {
+            Object value = values.get(fields[i]);
+            if (value instanceof CharSequence)
+            {
+                if (!(cached[i] instanceof String) || !contentEquals((String) cached[i], (CharSequence) value))
+                {
+                    return false;
+                }
+            }
+            else if (!cached[i].equals(value))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hashValue(final Object value)
+    {
+        if (value instanceof String || !(value instanceof CharSequence))
+        {
+            return value.hashCode();
+        }
+
+        CharSequence chars = (CharSequence) value;
+        int h = 0;
+        for (int i = 0; i < chars.length(); i++)
+        {
+            h = 31 * h + chars.charAt(i);
+        }
+        return h;
+    }
+
+    private static boolean contentEquals(final String cached, final CharSequence value)
+    {
+        if (cached.length() != value.length())
+        {
+            return false;
+        }
+        return value instanceof String ? cached.equals(value) : cached.contentEquals(value);
+    }
+
+}
@@ -0,0 +1,153 @@
+package tv.ustream.yolo.module.processor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tv.ustream.yolo.client.GraphiteClient;
+import tv.ustream.yolo.client.StatsDClient;
+import tv.ustream.yolo.config.ConfigMap;
+import tv.ustream.yolo.config.ConfigValue;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Target of the metrics computed by the interval based processors: Graphite, StatsD (as gauges) or the log.
+ *
+ * The processors send all metrics of an interval and call flush at the end of the interval.
+ */
+public class MetricOutput
+{
+
+    public static final String GRAPHITE = "graphite";
+
+    public static final String STATSD = "statsd";
+
+    public static final String LOG_OUTPUT = "log";
+
+    private static final Logger LOG = LoggerFactory.getLogger(MetricOutput.class);
+
+    private static final int DEFAULT_GRAPHITE_PORT = 2003;
+
+    private static final int DEFAULT_STATSD_PORT = 8125;
+
+    private static final long STATSD_PACKET_FLUSH_TIME_MS = 100;
+
+    private final GraphiteClient graphiteClient;
+
+    private final StatsDClient statsDClient;
+
+    private final String prefix;
+
+    public MetricOutput(final GraphiteClient graphiteClient, final StatsDClient statsDClient, final String prefix)
+    {
+        this.graphiteClient = graphiteClient;
+        this.statsDClient = statsDClient;
+        this.prefix = prefix != null ? prefix : "";
+    }
+
+    /**
+     * Adds the output, host, port and prefix parameters to the module config
+     */
+    public static void addModuleConfig(final ConfigMap config)
+    {
+        ConfigValue<String> outputConfig = new ConfigValue<String>(String.class, false, GRAPHITE);
+        outputConfig.setAllowedValues(Arrays.asList(GRAPHITE, STATSD, LOG_OUTPUT));
+        config.addConfigEntry("output", outputConfig);
+        config.addConfigValue("host", String.class, false, null);
+        config.addConfigValue("port", Number.class, false, null);
+        config.addConfigValue("prefix", String.class, false, "");
+    }
+
+    /**
+     * Creates the output from the module parameters, the host is required for the Graphite and StatsD outputs
+     */
+    public static MetricOutput create(final Map<String, Object> parameters, final long flushTimeMs)
+    {
+        String output = (String) parameters.get("output");
+        String host = (String) parameters.get("host");
+        Number port = (Number) parameters.get("port");
+        String prefix = (String) parameters.get("prefix");
+
+        if (output == null || GRAPHITE.equals(output))
+        {
+            return new MetricOutput(
+                    new GraphiteClient(
+                            getHost(host, output),
+                            port != null ? port.intValue() : DEFAULT_GRAPHITE_PORT,
+                            flushTimeMs,
+                            prefix
+                    ),
+                    null,
+                    prefix
+            );
+        }
+        else if (STATSD.equals(output))
+        {
+            return new MetricOutput(
+                    null,
+                    new StatsDClient(
+                            prefix,
+                            getHost(host, output),
+                            port != null ? port.intValue() : DEFAULT_STATSD_PORT,
+                            StatsDClient.DEFAULT_MAX_PACKET_SIZE,
+                            STATSD_PACKET_FLUSH_TIME_MS
+                    ),
+                    prefix
+            );
+        }
+        else
+        {
+            return new MetricOutput(null, null, prefix);
+        }
+    }
+
+    private static String getHost(final String host, final String output)
+    {
+        if (host == null || host.isEmpty())
+        {
+            throw new IllegalArgumentException("host is required for the " + output + " output");
+        }
+        return host;
+    }
+
+    public void send(final String key, final double value, final long timestamp)
+    {
+        if (graphiteClient != null)
+        {
+            graphiteClient.sendMetrics(key, value, timestamp);
+        }
+        else if (statsDClient != null)
+        {
+            statsDClient.gauge(key, value);
+        }
+        else
+        {
+            LOG.info("{}{} {} {}", prefix, key, value, timestamp);
+        }
+    }
+
+    public void flush()
+    {
+        if (graphiteClient != null)
+        {
+            graphiteClient.flush();
+        }
+        else if (statsDClient != null)
+        {
+            statsDClient.flush();
+        }
+    }
+
+    public void stop()
+    {
+        if (graphiteClient != null)
+        {
+            graphiteClient.stop();
+        }
+        else if (statsDClient != null)
+        {
+            statsDClient.stop();
+        }
+    }
+
+}
@@ -0,0 +1,333 @@
+package tv.ustream.yolo.module.processor;
+
+import tv.ustream.yolo.client.PrometheusRegistry;
+import tv.ustream.yolo.client.PrometheusServer;
+import tv.ustream.yolo.config.ConfigException;
+import tv.ustream.yolo.config.ConfigMap;
+import tv.ustream.yolo.config.ConfigValue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps Prometheus counters, gauges and histograms and serves them on an embedded HTTP server.
+ *
+ * Every metric has a name, a type and optional labels with pattern values. The values are stored in a lock-free
+ * registry, the label values are looked up with a thread local probe, so a processed line doesn't allocate unless it
+ * creates a new series. The scrapes are served from the HTTP server threads and only read the registry.
+ *
+ * The metric families are registered per plan: a new plan is compiled into a new registry, which takes over the
+ * unchanged families and is served when the plan is activated, so changed or removed metrics don't stay registered.
+ */
+public class PrometheusProcessor extends AbstractCompiledProcessor<PrometheusProcessor.CompiledMetric[]>
+        implements IPlanCompiledProcessor<PrometheusProcessor.CompiledMetric[]>
+{
+
+    private static final int DEFAULT_PORT = 9400;
+
+    private static final String DEFAULT_PATH = "/metrics";
+
+    private static final int DEFAULT_MAX_SERIES = 10000;
+
+    private static final List<String> TYPES = Arrays.asList("counter", "gauge", "histogram");
+
+    private volatile PrometheusRegistry registry;
+
+    private volatile PrometheusRegistry nextRegistry;
+
+    private PrometheusServer.Lease lease;
+
+    @Override
+    public ConfigMap getProcessParamsConfig()
+    {
+        ConfigMap map = new ConfigMap();
+
+        ConfigMap metricConfig = new ConfigMap();
+
+        metricConfig.addConfigValue("name", String.class);
+
+        ConfigValue<String> typeConfig = new ConfigValue<String>(String.class, false, "counter");
+        typeConfig.setAllowedValues(TYPES);
+        metricConfig.addConfigEntry("type", typeConfig);
+
+        metricConfig.addConfigValue("help", String.class, false, null);
+
+        ConfigValue<Object> valueConfig = new ConfigValue<Object>(Object.class, false, 1);
+        valueConfig.setAllowedTypes(Arrays.<Class>asList(String.class, Number.class));
+        valueConfig.allowConfigPattern();
+        metricConfig.addConfigEntry("value", valueConfig);
+
+        metricConfig.addConfigValue("labels", Map.class, false, null);
+
+        map.addConfigList("metrics", metricConfig);
+
+        return map;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public CompiledMetric[] compileProcessParams(final Map<String, Object> processParams) throws ConfigException
+    {
+        List<Map<String, Object>> metrics = (List<Map<String, Object>>) processParams.get("metrics");
+
+        CompiledMetric[] result = new CompiledMetric[metrics.size()];
+        for (int i = 0; i < result.length; i++)
+        {
+            result[i] = compileMetric(metrics.get(i));
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private CompiledMetric compileMetric(final Map<String, Object> metricParams) throws ConfigException
+    {
+        String name = (String) metricParams.get("name");
+        String typeName = (String) metricParams.get("type");
+        PrometheusRegistry.Type type = PrometheusRegistry.Type.valueOf(
+                (typeName != null ? typeName : "counter").toUpperCase()
+        );
+
+        Object valueObject = metricParams.get("value");
+        CompiledNumber value = CompiledNumber.compile("value", valueObject != null ? valueObject : 1);
+
+        // the label names are sorted, so the same metric can be defined in more places in any order
+        Map<String, Object> labels = new TreeMap<String, Object>();
+        if (metricParams.get("labels") != null)
+        {
+            labels.putAll((Map<String, Object>) metricParams.get("labels"));
+        }
+
+        String[] labelNames = new String[labels.size()];
+        CompiledText[] labelValues = new CompiledText[labels.size()];
+        int i = 0;
+        for (Map.Entry<String, Object> label : labels.entrySet())
+        {
+            Object labelValue = label.getValue();
+            if (labelValue instanceof Number || labelValue instanceof Boolean)
+            {
+                labelValue = labelValue.toString();
+            }
+            labelNames[i] = label.getKey();
+            labelValues[i] = CompiledText.compile("value of label " + label.getKey(), labelValue);
+            i++;
+        }
+
+        PrometheusRegistry.Family family;
+        try
+        {
+            PrometheusRegistry target = nextRegistry != null ? nextRegistry : registry;
+            family = target.register(name, type, (String) metricParams.get("help"), labelNames);
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new ConfigException(e.getMessage());
+        }
+
+        return new CompiledMetric(
+                family,
+                type,
+                labelValues,
+                value
+        );
+    }
+
+    @Override
+    public void processCompiled(final Map<String, Object> parserOutput, final CompiledMetric[] compiledParams)
+    {
+        for (int i = 0; i < compiledParams.length; i++)
+        {
+            addMetric(parserOutput, compiledParams[i]);
+        }
+    }
+
+    private void addMetric(final Map<String, Object> parserOutput, final CompiledMetric metric)
+    {
+        Double value = metric.value.getValue(parserOutput);
+        if (value == null)
+        {
+            return;
+        }
+
+        PrometheusRegistry.LabelSet probe = metric.probe.get();
+        for (int i = 0; i < metric.labelValues.length; i++)
+        {
+            String stringValue = metric.labelValues[i].render(parserOutput);
+            if (stringValue == null)
+            {
+                return;
+            }
+            probe.set(i, stringValue);
+        }
+        probe.update();
+
+        PrometheusRegistry.Cell cell = metric.family.getCell(probe);
+        if (cell == null)
+        {
+            return;
+        }
+
+        switch (metric.type)
+        {
+            case COUNTER:
+                if (value >= 0)
+                {
+                    cell.add(value);
+                }
+                break;
+            case GAUGE:
+                cell.set(value);
+                break;
+            default:
+                cell.observe(value);
+                break;
+        }
+    }
+
+    @Override
+    public void beginPlan()
+    {
+        nextRegistry = registry.next();
+    }
+
+    @Override
+    public void commitPlan()
+    {
+        if (nextRegistry == null)
+        {
+            return;
+        }
+
+        nextRegistry.retirePrevious();
+        registry = nextRegistry;
+        nextRegistry = null;
+        lease.setRegistry(registry);
+    }
+
+    @Override
+    public void abortPlan()
+    {
+        nextRegistry = null;
+    }
+
+    /**
+     * Returns with the current metrics in the text exposition format
+     */
+    public String getMetrics()
+    {
+        StringBuilder result = new StringBuilder();
+        registry.write(result);
+        return result.toString();
+    }
+
+    /**
+     * Returns with the port of the HTTP server
+     */
+    public int getPort()
+    {
+        return lease.getPort();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void setUpModule(final Map<String, Object> parameters)
+    {
+        List<Object> bucketList = (List<Object>) parameters.get("buckets");
+        double[] buckets = PrometheusRegistry.DEFAULT_BUCKETS;
+        if (bucketList != null)
+        {
+            buckets = new double[bucketList.size()];
+            for (int i = 0; i < buckets.length; i++)
+            {
+                if (!(bucketList.get(i) instanceof Number))
+                {
+                    throw new IllegalArgumentException("Invalid bucket: " + bucketList.get(i));
+                }
+                buckets[i] = ((Number) bucketList.get(i)).doubleValue();
+            }
+        }
+
+        Number maxSeries = (Number) parameters.get("maxSeries");
+        registry = new PrometheusRegistry(buckets, maxSeries != null ? maxSeries.intValue() : DEFAULT_MAX_SERIES);
+
+        Number port = (Number) parameters.get("port");
+        String path = (String) parameters.get("path");
+        try
+        {
+            lease = PrometheusServer.acquire(
+                    (String) parameters.get("host"),
+                    port != null ? port.intValue() : DEFAULT_PORT,
+                    path != null ? path : DEFAULT_PATH,
+                    registry
+            );
+        }
+        catch (IOException e)
+        {
+            throw new IllegalArgumentException("Failed to start the HTTP server: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public ConfigMap getModuleConfig()
+    {
+        ConfigMap config = new ConfigMap();
+        config.addConfigValue("host", String.class, false, null);
+        config.addConfigValue("port", Number.class, false, DEFAULT_PORT);
+        config.addConfigValue("path", String.class, false, DEFAULT_PATH);
+        config.addConfigValue("buckets", List.class, false, null);
+        config.addConfigValue("maxSeries", Number.class, false, DEFAULT_MAX_SERIES);
+        return config;
+    }
+
+    @Override
+    public String getModuleDescription()
+    {
+        return "serves counters, gauges and histograms on a Prometheus HTTP endpoint";
+    }
+
+    @Override
+    public void stop()
+    {
+        if (lease != null)
+        {
+            lease.release();
+        }
+    }
+
+    /**
+     * The parameters of one metric
+     */
+    public static final class CompiledMetric
+    {
+
+        private final PrometheusRegistry.Family family;
+
+        private final PrometheusRegistry.Type type;
+
+        private final CompiledText[] labelValues;
+
+        private final CompiledNumber value;
+
+        private final ThreadLocal<PrometheusRegistry.LabelSet> probe;
+
+        private CompiledMetric(final PrometheusRegistry.Family family, final PrometheusRegistry.Type type,
+                               final CompiledText[] labelValues, final CompiledNumber value)
+        {
+            this.family = family;
+            this.type = type;
+            this.labelValues = labelValues;
+            this.value = value;
+            this.probe = new ThreadLocal<PrometheusRegistry.LabelSet>()
+            {
+                @Override
+                protected PrometheusRegistry.LabelSet initialValue()
+                {
+                    return new PrometheusRegistry.LabelSet(labelValues.length);
+                }
+            };
+        }
+    }
+
+}
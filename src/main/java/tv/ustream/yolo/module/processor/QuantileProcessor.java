@@ -0,0 +1,316 @@
+package tv.ustream.yolo.module.processor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tv.ustream.yolo.config.ConfigException;
+import tv.ustream.yolo.config.ConfigMap;
+import tv.ustream.yolo.config.ConfigValue;
+import tv.ustream.yolo.util.AlignedTimer;
+import tv.ustream.yolo.util.QuantileSketch;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Computes quantiles of values per key locally and sends them with the count, min and max in every interval.
+ *
+ * The values of every rendered key are added to a quantile sketch, so the memory used by a key is bounded by
+ * maxBuckets regardless of the number of values. The sketches are kept in a striped sketch store, the quantiles are
+ * computed outside of the locks. Keys which got no values during a whole interval are removed.
+ */
+public class QuantileProcessor extends AbstractCompiledProcessor<QuantileProcessor.CompiledKey[]>
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger(QuantileProcessor.class);
+
+    private static final long DEFAULT_FLUSH_TIME_MS = 10000;
+
+    private static final List<Number> DEFAULT_QUANTILES = Arrays.<Number>asList(0.5, 0.95, 0.99);
+
+    private static final double DEFAULT_RELATIVE_ACCURACY = 0.01;
+
+    private static final int DEFAULT_MAX_BUCKETS = 2048;
+
+    private final StripedSketchStore<QuantileSketch, Double> sketches = new StripedSketchStore<QuantileSketch, Double>()
+    {
+        @Override
+        protected QuantileSketch createSketch()
+        {
+            return new QuantileSketch(relativeAccuracy, maxBuckets);
+        }
+
+        @Override
+        protected void addValue(final QuantileSketch sketch, final Double value)
+        {
+            sketch.add(value);
+        }
+
+        @Override
+        protected boolean isEmpty(final QuantileSketch sketch)
+        {
+            return sketch.isEmpty();
+        }
+
+        @Override
+        protected void clear(final QuantileSketch sketch)
+        {
+            sketch.clear();
+        }
+    };
+
+    private MetricOutput output;
+
+    private long flushTimeMs;
+
+    private double[] quantiles;
+
+    private String[] quantileNames;
+
+    private double relativeAccuracy;
+
+    private int maxBuckets;
+
+    private AlignedTimer flushTimer;
+
+    private MetricKeyCache keyCache = new MetricKeyCache(MetricKeyCache.DEFAULT_SIZE);
+
+    protected MetricOutput createOutput(final Map<String, Object> parameters, final long flushTimeMs)
+    {
+        return MetricOutput.create(parameters, flushTimeMs);
+    }
+
+    protected long currentTimeMillis()
+    {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public ConfigMap getProcessParamsConfig()
+    {
+        ConfigMap map = new ConfigMap();
+
+        ConfigMap keyConfig = new ConfigMap();
+
+        keyConfig.addConfigEntry("key", ConfigValue.createString().allowConfigPattern());
+
+        ConfigValue<Object> valueConfig = new ConfigValue<Object>(Object.class);
+        valueConfig.setAllowedTypes(Arrays.<Class>asList(String.class, Number.class));
+        valueConfig.allowConfigPattern();
+        keyConfig.addConfigEntry("value", valueConfig);
+
+        keyConfig.addConfigValue("multiplier", Number.class, false, 1);
+
+        map.addConfigList("keys", keyConfig);
+
+        return map;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public CompiledKey[] compileProcessParams(final Map<String, Object> processParams) throws ConfigException
+    {
+        List<Map<String, Object>> keys = (List<Map<String, Object>>) processParams.get("keys");
+
+        CompiledKey[] result = new CompiledKey[keys.size()];
+        for (int i = 0; i < result.length; i++)
+        {
+            result[i] = compileKey(keys.get(i));
+        }
+        return result;
+    }
+
+    private CompiledKey compileKey(final Map<String, Object> keyParams) throws ConfigException
+    {
+        CompiledText key = CompiledText.compile("key", keyParams.get("key"));
+
+        CompiledNumber value = CompiledNumber.compile("value", keyParams.get("value"));
+
+        Number multiplier = (Number) keyParams.get("multiplier");
+
+        return new CompiledKey(
+                key,
+                value,
+                multiplier != null ? multiplier.doubleValue() : 1
+        );
+    }
+
+    @Override
+    public void processCompiled(final Map<String, Object> parserOutput, final CompiledKey[] compiledParams)
+    {
+        for (int i = 0; i < compiledParams.length; i++)
+        {
+            addKey(parserOutput, compiledParams[i]);
+        }
+    }
+
+    private void addKey(final Map<String, Object> parserOutput, final CompiledKey compiledKey)
+    {
+        String key = compiledKey.key.render(parserOutput, keyCache);
+        if (key == null)
+        {
+            return;
+        }
+
+        Double value = compiledKey.value.getValue(parserOutput);
+        if (value == null)
+        {
+            return;
+        }
+
+        add(key, value * compiledKey.multiplier);
+    }
+
+    /**
+     * Adds a value to the sketch of the key
+     */
+    public void add(final String key, final double value)
+    {
+        sketches.add(key, value);
+    }
+
+    /**
+     * Sends the statistics of the current interval, stamped with the nearest interval boundary
+     */
+    public synchronized void flush()
+    {
+        final long timestamp = TimeUnit.MILLISECONDS.toSeconds(
+                AlignedTimer.getBoundary(currentTimeMillis(), flushTimeMs)
+        );
+
+        int sent = sketches.flush(new StripedSketchStore.Handler<QuantileSketch>()
+        {
+            @Override
+            public void handle(final String key, final QuantileSketch sketch)
+            {
+                output.send(key + ".count", sketch.getCount(), timestamp);
+                output.send(key + ".min", sketch.getMin(), timestamp);
+                output.send(key + ".max", sketch.getMax(), timestamp);
+                for (int i = 0; i < quantiles.length; i++)
+                {
+                    output.send(key + "." + quantileNames[i], sketch.getQuantile(quantiles[i]), timestamp);
+                }
+            }
+        });
+
+        if (sent > 0)
+        {
+            LOG.debug("Sent quantiles of {} keys", sent);
+            output.flush();
+        }
+    }
+
+    /**
+     * Returns with the metric name of the quantile, like p50 for 0.5 or p99_9 for 0.999
+     */
+    static String getQuantileName(final double quantile)
+    {
+        String percent = BigDecimal.valueOf(quantile).movePointRight(2).stripTrailingZeros().toPlainString();
+        return "p" + percent.replace('.', '_');
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void setUpModule(final Map<String, Object> parameters)
+    {
+        flushTimeMs = ((Number) parameters.get("flushTimeMs")).longValue();
+
+        List<Object> quantileList = (List<Object>) parameters.get("quantiles");
+        if (quantileList == null)
+        {
+            quantileList = (List) DEFAULT_QUANTILES;
+        }
+        quantiles = new double[quantileList.size()];
+        quantileNames = new String[quantiles.length];
+        for (int i = 0; i < quantiles.length; i++)
+        {
+            Object quantile = quantileList.get(i);
+            if (!(quantile instanceof Number)
+                    || ((Number) quantile).doubleValue() < 0
+                    || ((Number) quantile).doubleValue() > 1)
+            {
+                throw new IllegalArgumentException("Quantiles should be numbers between 0 and 1: " + quantile);
+            }
+            quantiles[i] = ((Number) quantile).doubleValue();
+            quantileNames[i] = getQuantileName(quantiles[i]);
+        }
+
+        Number accuracy = (Number) parameters.get("relativeAccuracy");
+        relativeAccuracy = accuracy != null ? accuracy.doubleValue() : DEFAULT_RELATIVE_ACCURACY;
+        Number buckets = (Number) parameters.get("maxBuckets");
+        maxBuckets = buckets != null ? buckets.intValue() : DEFAULT_MAX_BUCKETS;
+        if (relativeAccuracy <= 0 || relativeAccuracy >= 1 || maxBuckets < 1)
+        {
+            throw new IllegalArgumentException("relativeAccuracy should be between 0 and 1 and maxBuckets positive");
+        }
+
+        Number keyCacheSize = (Number) parameters.get("keyCacheSize");
+        keyCache = new MetricKeyCache(keyCacheSize != null ? keyCacheSize.intValue() : MetricKeyCache.DEFAULT_SIZE);
+
+        output = createOutput(parameters, flushTimeMs);
+
+        flushTimer = new AlignedTimer(flushTimeMs, currentTimeMillis(), new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                flush();
+            }
+        });
+    }
+
+    @Override
+    public ConfigMap getModuleConfig()
+    {
+        ConfigMap config = new ConfigMap();
+        MetricOutput.addModuleConfig(config);
+        config.addConfigValue("flushTimeMs", Number.class, false, DEFAULT_FLUSH_TIME_MS);
+        config.addConfigValue("quantiles", List.class, false, DEFAULT_QUANTILES);
+        config.addConfigValue("relativeAccuracy", Number.class, false, DEFAULT_RELATIVE_ACCURACY);
+        config.addConfigValue("maxBuckets", Number.class, false, DEFAULT_MAX_BUCKETS);
+        config.addConfigValue("keyCacheSize", Number.class, false, MetricKeyCache.DEFAULT_SIZE);
+        return config;
+    }
+
+    @Override
+    public String getModuleDescription()
+    {
+        return "computes quantiles, count, min and max of values and sends them periodically";
+    }
+
+    @Override
+    public void stop()
+    {
+        if (flushTimer != null)
+        {
+            flushTimer.cancel();
+        }
+
+        flush();
+
+        output.stop();
+    }
+
+    /**
+     * The parameters of one key
+     */
+    public static final class CompiledKey
+    {
+
+        private final CompiledText key;
+
+        private final CompiledNumber value;
+
+        private final double multiplier;
+
+        private CompiledKey(final CompiledText key, final CompiledNumber value, final double multiplier)
+        {
+            this.key = key;
+            this.value = value;
+            this.multiplier = multiplier;
+        }
+    }
+
+}
@@ -1,29 +1,33 @@
 package tv.ustream.yolo.module.processor;
 
-import com.timgroup.statsd.NonBlockingStatsDClient;
-import com.timgroup.statsd.StatsDClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import tv.ustream.yolo.client.StatsDAggregator;
+import tv.ustream.yolo.client.StatsDClient;
+import tv.ustream.yolo.config.ConfigException;
 import tv.ustream.yolo.config.ConfigMap;
-import tv.ustream.yolo.config.ConfigPattern;
 import tv.ustream.yolo.config.ConfigValue;
-import tv.ustream.yolo.util.NumberConverter;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * @author bandesz
  */
-public class StatsDProcessor implements IProcessor
+public class StatsDProcessor extends AbstractCompiledProcessor<StatsDProcessor.CompiledKey[]>
 {
 
     private static final Logger LOG = LoggerFactory.getLogger(StatsDProcessor.class);
 
     private static final int DEFAULT_PORT = 8125;
 
+    private static final int DEFAULT_MAX_TIMER_SAMPLES = 1000;
+
+    private static final long PACKET_FLUSH_TIME_MS = 100;
+
     private String prefix;
 
     public static enum Types
@@ -57,9 +61,20 @@ public class StatsDProcessor implements IProcessor
 
     private StatsDClient statsDClient;
 
-    protected StatsDClient createClient(final String prefix, final String host, final int port)
+    private StatsDAggregator aggregator;
+
+    private MetricKeyCache keyCache = new MetricKeyCache(MetricKeyCache.DEFAULT_SIZE);
+
+    protected StatsDClient createClient(final String prefix, final String host, final int port,
+                                        final int maxPacketSize)
+    {
+        return new StatsDClient(prefix, host, port, maxPacketSize, PACKET_FLUSH_TIME_MS);
+    }
+
+    protected StatsDAggregator createAggregator(final StatsDClient client, final long flushTimeMs,
+                                                final int maxTimerSamples)
     {
-        return new NonBlockingStatsDClient(prefix, host, port);
+        return new StatsDAggregator(client, flushTimeMs, maxTimerSamples);
     }
 
     @Override
@@ -70,7 +85,31 @@ public class StatsDProcessor implements IProcessor
         String host = (String) parameters.get("host");
         Integer port = ((Number) parameters.get("port")).intValue();
 
-        statsDClient = createClient(prefix, host, port);
+        Number maxPacketSize = (Number) parameters.get("maxPacketSize");
+        statsDClient = createClient(
+                prefix,
+                host,
+                port,
+                maxPacketSize != null ? maxPacketSize.intValue() : StatsDClient.DEFAULT_MAX_PACKET_SIZE
+        );
+
+        Number flushTimeMs = (Number) parameters.get("flushTimeMs");
+        if (flushTimeMs != null && flushTimeMs.longValue() > 0)
+        {
+            Number maxTimerSamples = (Number) parameters.get("maxTimerSamples");
+            aggregator = createAggregator(
+                    statsDClient,
+                    flushTimeMs.longValue(),
+                    maxTimerSamples != null ? maxTimerSamples.intValue() : DEFAULT_MAX_TIMER_SAMPLES
+            );
+        }
+
+        Number keyCacheSize = (Number) parameters.get("keyCacheSize");
+        Boolean sanitizeKeys = (Boolean) parameters.get("sanitizeKeys");
+        keyCache = new MetricKeyCache(
+                keyCacheSize != null ? keyCacheSize.intValue() : MetricKeyCache.DEFAULT_SIZE,
+                sanitizeKeys != null && sanitizeKeys
+        );
     }
 
     @Override
@@ -80,6 +119,11 @@ public class StatsDProcessor implements IProcessor
         config.addConfigValue("prefix", String.class);
         config.addConfigValue("host", String.class);
         config.addConfigValue("port", Number.class, false, DEFAULT_PORT);
+        config.addConfigValue("keyCacheSize", Number.class, false, MetricKeyCache.DEFAULT_SIZE);
+        config.addConfigValue("sanitizeKeys", Boolean.class, false, false);
+        config.addConfigValue("flushTimeMs", Number.class, false, 0);
+        config.addConfigValue("maxTimerSamples", Number.class, false, DEFAULT_MAX_TIMER_SAMPLES);
+        config.addConfigValue("maxPacketSize", Number.class, false, StatsDClient.DEFAULT_MAX_PACKET_SIZE);
         return config;
     }
 
@@ -99,12 +143,21 @@ public class StatsDProcessor implements IProcessor
         keyConfig.addConfigEntry("value", valueConfig);
 
         keyConfig.addConfigValue("multiplier", Number.class, false, 1);
+        keyConfig.addConfigValue("sampleRate", Number.class, false, 1);
 
         map.addConfigList("keys", keyConfig);
 
         return map;
     }
 
+    /**
+     * Returns with the cache of the keys rendered from patterns
+     */
+    public MetricKeyCache getKeyCache()
+    {
+        return keyCache;
+    }
+
     @Override
     public String getModuleDescription()
     {
@@ -113,85 +166,167 @@ public class StatsDProcessor implements IProcessor
 
     @SuppressWarnings("unchecked")
     @Override
-    public void process(final Map<String, Object> parserOutput, final Map<String, Object> processParams)
+    public CompiledKey[] compileProcessParams(final Map<String, Object> processParams) throws ConfigException
     {
         List<Map<String, Object>> keys = (List<Map<String, Object>>) processParams.get("keys");
 
-        for (Map<String, Object> keyParams : keys)
+        CompiledKey[] result = new CompiledKey[keys.size()];
+        for (int i = 0; i < result.length; i++)
         {
-            sendKey(parserOutput, keyParams);
+            result[i] = compileKey(keys.get(i));
         }
+        return result;
     }
 
-    private void sendKey(final Map<String, Object> parserOutput, final Map<String, Object> keyParams)
+    private CompiledKey compileKey(final Map<String, Object> keyParams) throws ConfigException
     {
-        String type = (String) keyParams.get("type");
+        Types type = Types.valueOf(((String) keyParams.get("type")).toUpperCase());
 
-        Object keyObject = keyParams.get("key");
-        String key;
-        if (keyObject instanceof String)
-        {
-            key = (String) keyObject;
-        }
-        else if (keyObject instanceof ConfigPattern)
+        CompiledText key = CompiledText.compile("key", keyParams.get("key"));
+
+        CompiledNumber value = CompiledNumber.compile("value", keyParams.get("value"));
+
+        Number multiplier = (Number) keyParams.get("multiplier");
+
+        Number sampleRate = (Number) keyParams.get("sampleRate");
+        if (sampleRate != null && (sampleRate.doubleValue() <= 0 || sampleRate.doubleValue() > 1))
         {
-            key = ((ConfigPattern) keyObject).applyValues(parserOutput);
-            if (key == null)
-            {
-                return;
-            }
+            throw new ConfigException("Sample rate should be greater than 0 and at most 1: " + sampleRate);
         }
-        else
+
+        return new CompiledKey(
+                type,
+                key,
+                value,
+                multiplier != null ? multiplier.doubleValue() : 1,
+                sampleRate != null ? sampleRate.doubleValue() : 1
+        );
+    }
+
+    @Override
+    public void processCompiled(final Map<String, Object> parserOutput, final CompiledKey[] compiledParams)
+    {
+        for (int i = 0; i < compiledParams.length; i++)
         {
-            throw new IllegalArgumentException("Invalid key: " + keyObject.toString());
+            sendKey(parserOutput, compiledParams[i]);
         }
+    }
 
-        Object valueObject = keyParams.get("value");
-        Double value;
-        if (valueObject instanceof Number)
+    private void sendKey(final Map<String, Object> parserOutput, final CompiledKey compiledKey)
+    {
+        if (compiledKey.sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= compiledKey.sampleRate)
         {
-            value = ((Number) valueObject).doubleValue();
-
+            return;
         }
-        else if (valueObject instanceof ConfigPattern)
+
+        String key = compiledKey.key.render(parserOutput, keyCache);
+        if (key == null)
         {
-            value = NumberConverter.convertByteValue(((ConfigPattern) valueObject).applyValues(parserOutput));
-            if (value == null)
-            {
-                return;
-            }
+            return;
         }
-        else
+
+        Double value = compiledKey.value.getValue(parserOutput);
+        if (value == null)
         {
-            throw new IllegalArgumentException("Invalid value: " + valueObject.toString());
+            return;
         }
 
-        value *= ((Number) keyParams.get("multiplier")).doubleValue();
-
-        send(type, key, value.intValue());
+        send(compiledKey.type, key, value * compiledKey.multiplier, compiledKey.sampleRate);
     }
 
-    private void send(final String type, final String key, final int value)
+    private void send(final Types type, final String key, final double value, final double sampleRate)
     {
-        LOG.debug("statsd: {} {}.{} {}", type, prefix, key, String.valueOf(value));
+        if (LOG.isDebugEnabled())
+        {
+            LOG.debug("statsd: {} {}.{} {}", type.getValue(), prefix, key, String.valueOf(value));
+        }
 
-        if (Types.COUNTER.getValue().equals(type))
+        if (aggregator != null)
         {
-            statsDClient.count(key, value);
+            aggregate(type, key, value, sampleRate);
+            return;
         }
-        else if (Types.GAUGE.getValue().equals(type))
+
+        switch (type)
         {
-            statsDClient.gauge(key, value);
+            case COUNTER:
+                statsDClient.count(key, value, sampleRate);
+                break;
+            case GAUGE:
+                statsDClient.gauge(key, value);
+                break;
+            case TIMER:
+                statsDClient.time(key, value, sampleRate);
+                break;
+            default:
+                break;
         }
-        else if (Types.TIMER.getValue().equals(type))
+    }
+
+    /**
+     * Sampled counters are scaled up before summing, timer samples keep their sample rate
+     */
+    private void aggregate(final Types type, final String key, final double value, final double sampleRate)
+    {
+        switch (type)
         {
-            statsDClient.time(key, value);
+            case COUNTER:
+                aggregator.count(key, value / sampleRate);
+                break;
+            case GAUGE:
+                aggregator.gauge(key, value);
+                break;
+            case TIMER:
+                aggregator.time(key, value, sampleRate);
+                break;
+            default:
+                break;
         }
     }
 
     @Override
     public void stop()
     {
+        LOG.debug(
+                "Key cache: {} entries, hit ratio: {}, evictions: {}",
+                keyCache.size(),
+                keyCache.getHitRatio(),
+                keyCache.getEvictions()
+        );
+
+        if (aggregator != null)
+        {
+            aggregator.stop();
+        }
+
+        statsDClient.stop();
+    }
+
+    /**
+     * The parameters of one key
+     */
+    public static final class CompiledKey
+    {
+
+        private final Types type;
+
+        private final CompiledText key;
+
+        private final CompiledNumber value;
+
+        private final double multiplier;
+
+        private final double sampleRate;
+
+        private CompiledKey(final Types type, final CompiledText key, final CompiledNumber value,
+                            final double multiplier, final double sampleRate)
+        {
+            this.type = type;
+            this.key = key;
+            this.value = value;
+            this.multiplier = multiplier;
+            this.sampleRate = sampleRate;
+        }
     }
 
 }
@@ -0,0 +1,151 @@
+package tv.ustream.yolo.module.processor;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Sketches per key for the processors which aggregate the values of a key and send the result periodically.
+ *
+ * The sketches are guarded by striped locks, adding a value locks only the stripe of the key for the update of the
+ * sketch. At flush the sketch of a key is swapped with an empty spare one under the lock and it is handed to the
+ * handler outside of it, so sending the metrics doesn't block the adding threads. Keys which got no values during a
+ * whole interval are removed.
+ *
+ * @param <S> the type of the sketch
+ * @param <V> the type of the added values
+ */
+abstract class StripedSketchStore<S, V>
+{
+
+    private static final int LOCK_STRIPES = 64;
+
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    private final ConcurrentMap<String, KeyState<S>> states = new ConcurrentHashMap<String, KeyState<S>>();
+
+    StripedSketchStore()
+    {
+        for (int i = 0; i < locks.length; i++)
+        {
+            locks[i] = new Object();
+        }
+    }
+
+    protected abstract S createSketch();
+
+    protected abstract void addValue(S sketch, V value);
+
+    protected abstract boolean isEmpty(S sketch);
+
+    protected abstract void clear(S sketch);
+
+    /**
+     * Called under the lock of the key if its sketch is empty at flush, the key is removed unless it returns true
+     */
+    protected boolean keepEmpty(final String key)
+    {
+        return false;
+    }
+
+    /**
+     * Adds a value to the sketch of the key
+     */
+    void add(final String key, final V value)
+    {
+        Object lock = getLock(key);
+        while (true)
+        {
+            KeyState<S> state = states.get(key);
+            if (state == null)
+            {
+                KeyState<S> newState = new KeyState<S>(createSketch(), createSketch());
+                state = states.putIfAbsent(key, newState);
+                if (state == null)
+                {
+                    state = newState;
+                }
+            }
+
+            synchronized (lock)
+            {
+                if (!state.retired)
+                {
+                    addValue(state.sketch, value);
+                    return;
+                }
+            }
+            // the key was removed by a flush, the value goes to a new state
+            states.remove(key, state);
+        }
+    }
+
+    /**
+     * Passes the sketch of every key to the handler and clears it after, returns with the number of handled keys.
+     * It should be called from one thread at a time.
+     */
+    int flush(final Handler<S> handler)
+    {
+        int handled = 0;
+        for (Map.Entry<String, KeyState<S>> entry : states.entrySet())
+        {
+            String key = entry.getKey();
+            KeyState<S> state = entry.getValue();
+            S sketch;
+            synchronized (getLock(key))
+            {
+                if (isEmpty(state.sketch) && !keepEmpty(key))
+                {
+                    state.retired = true;
+                    states.remove(key, state);
+                    continue;
+                }
+                sketch = state.sketch;
+                state.sketch = state.spare;
+                state.spare = sketch;
+            }
+
+            handler.handle(key, sketch);
+            clear(sketch);
+            handled++;
+        }
+        return handled;
+    }
+
+    private Object getLock(final String key)
+    {
+        int hash = key.hashCode();
+        return locks[(hash ^ (hash >>> 16)) & (LOCK_STRIPES - 1)];
+    }
+
+    /**
+     * Receives the sketches of the flushed keys
+     */
+    interface Handler<S>
+    {
+
+        void handle(String key, S sketch);
+
+    }
+
+    /**
+     * The sketches of one key, guarded by the lock stripe of the key
+     */
+    private static final class KeyState<S>
+    {
+
+        private S sketch;
+
+        private S spare;
+
+        private boolean retired = false;
+
+        private KeyState(final S sketch, final S spare)
+        {
+            this.sketch = sketch;
+            this.spare = spare;
+        }
+
+    }
+
+}
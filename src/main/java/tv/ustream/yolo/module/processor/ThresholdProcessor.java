@@ -0,0 +1,428 @@
+package tv.ustream.yolo.module.processor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tv.ustream.yolo.config.ConfigException;
+import tv.ustream.yolo.config.ConfigMap;
+import tv.ustream.yolo.config.ConfigValue;
+import tv.ustream.yolo.util.SlidingWindowCounter;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps sliding window sums per key and sends an event when a sum crosses its threshold.
+ *
+ * The values of every rendered key are added to a sliding window counter (a ring of time buckets). A key starts
+ * firing as soon as its window sum gets above the threshold, this is checked when a value is added. It stops firing
+ * when the sum falls to clearThreshold or below, this is checked in every checkTimeMs milliseconds, as the sum also
+ * decreases without new values. On both transitions an event is written to the log and key.alert (1 or 0) and
+ * key.window (the window sum) are sent. The output is flushed by the check timer thread, so a rising edge never
+ * waits for the network on the processing thread and reaches the output within checkTimeMs. The counters are
+ * guarded by striped locks, the events are sent outside of them. Keys with an empty window which are not firing are
+ * removed.
+ */
+public class ThresholdProcessor extends AbstractCompiledProcessor<ThresholdProcessor.CompiledKey[]>
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger(ThresholdProcessor.class);
+
+    private static final long DEFAULT_WINDOW_MS = 60000;
+
+    private static final int DEFAULT_BUCKETS = 60;
+
+    private static final long DEFAULT_CHECK_TIME_MS = 1000;
+
+    private static final String ALERT_SUFFIX = ".alert";
+
+    private static final String WINDOW_SUFFIX = ".window";
+
+    private static final int LOCK_STRIPES = 64;
+
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    private final ConcurrentMap<String, KeyState> states = new ConcurrentHashMap<String, KeyState>();
+
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    private MetricOutput output;
+
+    private long windowMs;
+
+    private int buckets;
+
+    private Timer checkTimer;
+
+    private MetricKeyCache keyCache = new MetricKeyCache(MetricKeyCache.DEFAULT_SIZE);
+
+    public ThresholdProcessor()
+    {
+        for (int i = 0; i < locks.length; i++)
+        {
+            locks[i] = new Object();
+        }
+    }
+
+    protected MetricOutput createOutput(final Map<String, Object> parameters, final long flushTimeMs)
+    {
+        return MetricOutput.create(parameters, flushTimeMs);
+    }
+
+    protected long currentTimeMillis()
+    {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public ConfigMap getProcessParamsConfig()
+    {
+        ConfigMap map = new ConfigMap();
+
+        ConfigMap keyConfig = new ConfigMap();
+
+        keyConfig.addConfigEntry("key", ConfigValue.createString().allowConfigPattern());
+
+        ConfigValue<Object> valueConfig = new ConfigValue<Object>(Object.class, false, 1);
+        valueConfig.setAllowedTypes(Arrays.<Class>asList(String.class, Number.class));
+        valueConfig.allowConfigPattern();
+        keyConfig.addConfigEntry("value", valueConfig);
+
+        keyConfig.addConfigValue("threshold", Number.class);
+        keyConfig.addConfigValue("clearThreshold", Number.class, false, null);
+
+        map.addConfigList("keys", keyConfig);
+
+        return map;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public CompiledKey[] compileProcessParams(final Map<String, Object> processParams) throws ConfigException
+    {
+        List<Map<String, Object>> keys = (List<Map<String, Object>>) processParams.get("keys");
+
+        CompiledKey[] result = new CompiledKey[keys.size()];
+        for (int i = 0; i < result.length; i++)
+        {
+            result[i] = compileKey(keys.get(i));
+        }
+        return result;
+    }
+
+    private CompiledKey compileKey(final Map<String, Object> keyParams) throws ConfigException
+    {
+        CompiledText key = CompiledText.compile("key", keyParams.get("key"));
+
+        Object valueObject = keyParams.get("value");
+        CompiledNumber value = CompiledNumber.compile("value", valueObject != null ? valueObject : 1);
+
+        Object thresholdObject = keyParams.get("threshold");
+        if (!(thresholdObject instanceof Number))
+        {
+            throw new ConfigException("Invalid threshold: " + thresholdObject);
+        }
+        double threshold = ((Number) thresholdObject).doubleValue();
+
+        Number clearThresholdObject = (Number) keyParams.get("clearThreshold");
+        double clearThreshold = clearThresholdObject != null ? clearThresholdObject.doubleValue() : threshold;
+        if (clearThreshold > threshold)
+        {
+            throw new ConfigException("clearThreshold should not be greater than threshold: " + clearThreshold);
+        }
+
+        return new CompiledKey(
+                key,
+                value,
+                threshold,
+                clearThreshold
+        );
+    }
+
+    @Override
+    public void processCompiled(final Map<String, Object> parserOutput, final CompiledKey[] compiledParams)
+    {
+        for (int i = 0; i < compiledParams.length; i++)
+        {
+            addKey(parserOutput, compiledParams[i]);
+        }
+    }
+
+    private void addKey(final Map<String, Object> parserOutput, final CompiledKey compiledKey)
+    {
+        String key = compiledKey.key.render(parserOutput, keyCache);
+        if (key == null)
+        {
+            return;
+        }
+
+        Double value = compiledKey.value.getValue(parserOutput);
+        if (value == null)
+        {
+            return;
+        }
+
+        add(key, value, compiledKey.threshold, compiledKey.clearThreshold);
+    }
+
+    /**
+     * Adds a value to the window of the key, the thresholds are set when the key is first seen
+     */
+    public void add(final String key, final double value, final double threshold, final double clearThreshold)
+    {
+        Object lock = getLock(key);
+        long now = currentTimeMillis();
+        while (true)
+        {
+            KeyState state = states.get(key);
+            if (state == null)
+            {
+                KeyState newState = new KeyState(
+                        new SlidingWindowCounter(windowMs, buckets),
+                        threshold,
+                        clearThreshold
+                );
+                state = states.putIfAbsent(key, newState);
+                if (state == null)
+                {
+                    state = newState;
+                }
+            }
+
+            double sum;
+            synchronized (lock)
+            {
+                if (state.retired)
+                {
+                    states.remove(key, state);
+                    continue;
+                }
+
+                state.counter.add(now, value);
+                sum = state.counter.getSum(now);
+                if (state.firing || sum <= state.threshold)
+                {
+                    return;
+                }
+                state.firing = true;
+            }
+
+            sendEvent(key, true, sum, state.threshold, now);
+            flushRequested.set(true);
+            return;
+        }
+    }
+
+    /**
+     * Checks whether the firing keys fell below their clear threshold, removes the idle keys and flushes the events
+     */
+    public void check()
+    {
+        boolean flush = flushRequested.getAndSet(false);
+
+        long now = currentTimeMillis();
+        for (Map.Entry<String, KeyState> entry : states.entrySet())
+        {
+            String key = entry.getKey();
+            KeyState state = entry.getValue();
+            double sum;
+            synchronized (getLock(key))
+            {
+                sum = state.counter.getSum(now);
+                if (!state.firing)
+                {
+                    if (state.counter.getCount(now) == 0)
+                    {
+                        state.retired = true;
+                        states.remove(key, state);
+                    }
+                    continue;
+                }
+                if (sum > state.clearThreshold)
+                {
+                    continue;
+                }
+                state.firing = false;
+            }
+
+            sendEvent(key, false, sum, state.clearThreshold, now);
+            flush = true;
+        }
+
+        if (flush)
+        {
+            synchronized (output)
+            {
+                output.flush();
+            }
+        }
+    }
+
+    private void sendEvent(final String key, final boolean firing, final double sum, final double threshold,
+                           final long now)
+    {
+        if (firing)
+        {
+            LOG.warn("Threshold crossed: {} is {} in the last {} ms, threshold: {}", key, sum, windowMs, threshold);
+        }
+        else
+        {
+            LOG.warn(
+                    "Threshold cleared: {} is {} in the last {} ms, clear threshold: {}",
+                    key,
+                    sum,
+                    windowMs,
+                    threshold
+            );
+        }
+
+        long timestamp = TimeUnit.MILLISECONDS.toSeconds(now);
+        synchronized (output)
+        {
+            output.send(key + ALERT_SUFFIX, firing ? 1 : 0, timestamp);
+            output.send(key + WINDOW_SUFFIX, sum, timestamp);
+        }
+    }
+
+    /**
+     * Returns true if the key is firing
+     */
+    public boolean isFiring(final String key)
+    {
+        KeyState state = states.get(key);
+        if (state == null)
+        {
+            return false;
+        }
+        synchronized (getLock(key))
+        {
+            return state.firing;
+        }
+    }
+
+    private Object getLock(final String key)
+    {
+        int hash = key.hashCode();
+        return locks[(hash ^ (hash >>> 16)) & (LOCK_STRIPES - 1)];
+    }
+
+    @Override
+    public void setUpModule(final Map<String, Object> parameters)
+    {
+        windowMs = ((Number) parameters.get("windowMs")).longValue();
+        Number bucketsValue = (Number) parameters.get("buckets");
+        buckets = bucketsValue != null ? bucketsValue.intValue() : DEFAULT_BUCKETS;
+        if (buckets < 1 || windowMs < buckets)
+        {
+            throw new IllegalArgumentException("windowMs should be at least buckets milliseconds: " + windowMs);
+        }
+
+        Number checkTimeValue = (Number) parameters.get("checkTimeMs");
+        long checkTimeMs = checkTimeValue != null ? checkTimeValue.longValue() : DEFAULT_CHECK_TIME_MS;
+
+        Number keyCacheSize = (Number) parameters.get("keyCacheSize");
+        keyCache = new MetricKeyCache(keyCacheSize != null ? keyCacheSize.intValue() : MetricKeyCache.DEFAULT_SIZE);
+
+        output = createOutput(parameters, checkTimeMs);
+
+        checkTimer = new Timer();
+        checkTimer.schedule(createTimerTask(), checkTimeMs, checkTimeMs);
+    }
+
+    private TimerTask createTimerTask()
+    {
+        return new TimerTask()
+        {
+            @Override
+            public void run()
+            {
+                check();
+            }
+        };
+    }
+
+    @Override
+    public ConfigMap getModuleConfig()
+    {
+        ConfigMap config = new ConfigMap();
+        MetricOutput.addModuleConfig(config);
+        config.addConfigValue("windowMs", Number.class, false, DEFAULT_WINDOW_MS);
+        config.addConfigValue("buckets", Number.class, false, DEFAULT_BUCKETS);
+        config.addConfigValue("checkTimeMs", Number.class, false, DEFAULT_CHECK_TIME_MS);
+        config.addConfigValue("keyCacheSize", Number.class, false, MetricKeyCache.DEFAULT_SIZE);
+        return config;
+    }
+
+    @Override
+    public String getModuleDescription()
+    {
+        return "sends events when sliding window sums cross thresholds";
+    }
+
+    @Override
+    public void stop()
+    {
+        if (checkTimer != null)
+        {
+            checkTimer.cancel();
+        }
+
+        output.stop();
+    }
+
+    /**
+     * The parameters of one key
+     */
+    public static final class CompiledKey
+    {
+
+        private final CompiledText key;
+
+        private final CompiledNumber value;
+
+        private final double threshold;
+
+        private final double clearThreshold;
+
+        private CompiledKey(final CompiledText key, final CompiledNumber value, final double threshold,
+                            final double clearThreshold)
+        {
+            this.key = key;
+            this.value = value;
+            this.threshold = threshold;
+            this.clearThreshold = clearThreshold;
+        }
+    }
+
+    /**
+     * The window and the alert state of one key, guarded by the lock stripe of the key
+     */
+    private static final class KeyState
+    {
+
+        private final SlidingWindowCounter counter;
+
+        private final double threshold;
+
+        private final double clearThreshold;
+
+        private boolean firing = false;
+
+        private boolean retired = false;
+
+        private KeyState(final SlidingWindowCounter counter, final double threshold, final double clearThreshold)
+        {
+            this.counter = counter;
+            this.threshold = threshold;
+            this.clearThreshold = clearThreshold;
+        }
+
+    }
+
+}
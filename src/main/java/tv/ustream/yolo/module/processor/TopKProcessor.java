@@ -0,0 +1,323 @@
+package tv.ustream.yolo.module.processor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tv.ustream.yolo.config.ConfigException;
+import tv.ustream.yolo.config.ConfigMap;
+import tv.ustream.yolo.config.ConfigValue;
+import tv.ustream.yolo.util.AlignedTimer;
+import tv.ustream.yolo.util.TopKSketch;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the most frequent values per key and sends only the top K of them in every interval.
+ *
+ * The values of every rendered key are added to a Space-Saving sketch backed by a count-min sketch, so a key uses
+ * bounded memory however many distinct values arrive. At the end of an interval the top K values are sent as
+ * key.value metrics (characters which are not letters, digits, '-' or '_' are replaced with '_' in the value, the
+ * counts of values with the same metric name are summed). The sketches are kept in a striped sketch store, the top
+ * list is computed outside of the locks. Keys without values are removed.
+ */
+public class TopKProcessor extends AbstractCompiledProcessor<TopKProcessor.CompiledKey[]>
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger(TopKProcessor.class);
+
+    private static final long DEFAULT_FLUSH_TIME_MS = 60000;
+
+    private static final int DEFAULT_TOP_K = 10;
+
+    private static final int DEFAULT_CAPACITY_PER_VALUE = 10;
+
+    private static final int DEFAULT_SKETCH_DEPTH = 4;
+
+    private static final int DEFAULT_SKETCH_WIDTH = 1024;
+
+    private final StripedSketchStore<TopKSketch, String> sketches = new StripedSketchStore<TopKSketch, String>()
+    {
+        @Override
+        protected TopKSketch createSketch()
+        {
+            return new TopKSketch(capacity, sketchDepth, sketchWidth);
+        }
+
+        @Override
+        protected void addValue(final TopKSketch sketch, final String value)
+        {
+            sketch.add(value);
+        }
+
+        @Override
+        protected boolean isEmpty(final TopKSketch sketch)
+        {
+            return sketch.isEmpty();
+        }
+
+        @Override
+        protected void clear(final TopKSketch sketch)
+        {
+            sketch.clear();
+        }
+    };
+
+    private MetricOutput output;
+
+    private long flushTimeMs;
+
+    private int topK;
+
+    private int capacity;
+
+    private int sketchDepth;
+
+    private int sketchWidth;
+
+    private AlignedTimer flushTimer;
+
+    private MetricKeyCache keyCache = new MetricKeyCache(MetricKeyCache.DEFAULT_SIZE);
+
+    protected MetricOutput createOutput(final Map<String, Object> parameters, final long flushTimeMs)
+    {
+        return MetricOutput.create(parameters, flushTimeMs);
+    }
+
+    protected long currentTimeMillis()
+    {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public ConfigMap getProcessParamsConfig()
+    {
+        ConfigMap map = new ConfigMap();
+
+        ConfigMap keyConfig = new ConfigMap();
+        keyConfig.addConfigEntry("key", ConfigValue.createString().allowConfigPattern());
+        keyConfig.addConfigEntry("value", ConfigValue.createString().allowConfigPattern());
+
+        map.addConfigList("keys", keyConfig);
+
+        return map;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public CompiledKey[] compileProcessParams(final Map<String, Object> processParams) throws ConfigException
+    {
+        List<Map<String, Object>> keys = (List<Map<String, Object>>) processParams.get("keys");
+
+        CompiledKey[] result = new CompiledKey[keys.size()];
+        for (int i = 0; i < result.length; i++)
+        {
+            result[i] = compileKey(keys.get(i));
+        }
+        return result;
+    }
+
+    private CompiledKey compileKey(final Map<String, Object> keyParams) throws ConfigException
+    {
+        CompiledText key = CompiledText.compile("key", keyParams.get("key"));
+
+        CompiledText value = CompiledText.compile("value", keyParams.get("value"));
+
+        return new CompiledKey(key, value);
+    }
+
+    @Override
+    public void processCompiled(final Map<String, Object> parserOutput, final CompiledKey[] compiledParams)
+    {
+        for (int i = 0; i < compiledParams.length; i++)
+        {
+            addKey(parserOutput, compiledParams[i]);
+        }
+    }
+
+    private void addKey(final Map<String, Object> parserOutput, final CompiledKey compiledKey)
+    {
+        String key = compiledKey.key.render(parserOutput, keyCache);
+        if (key == null)
+        {
+            return;
+        }
+
+        String value = compiledKey.value.render(parserOutput);
+        if (value == null)
+        {
+            return;
+        }
+
+        add(key, value);
+    }
+
+    /**
+     * Adds a value to the sketch of the key
+     */
+    public void add(final String key, final String value)
+    {
+        sketches.add(key, value);
+    }
+
+    /**
+     * Sends the top values of the current interval, stamped with the nearest interval boundary
+     */
+    public synchronized void flush()
+    {
+        final long timestamp = TimeUnit.MILLISECONDS.toSeconds(
+                AlignedTimer.getBoundary(currentTimeMillis(), flushTimeMs)
+        );
+
+        int sent = sketches.flush(new StripedSketchStore.Handler<TopKSketch>()
+        {
+            @Override
+            public void handle(final String key, final TopKSketch sketch)
+            {
+                for (Map.Entry<String, Long> metric : getMetrics(sketch.getTop(topK)).entrySet())
+                {
+                    output.send(key + "." + metric.getKey(), metric.getValue(), timestamp);
+                }
+            }
+        });
+
+        if (sent > 0)
+        {
+            LOG.debug("Sent top values of {} keys", sent);
+            output.flush();
+        }
+    }
+
+    /**
+     * Returns with the counts of the top values by metric name, the counts of values which have the same metric name
+     * (like /a.b and /a/b) are summed
+     */
+    static Map<String, Long> getMetrics(final List<TopKSketch.Entry> top)
+    {
+        Map<String, Long> metrics = new LinkedHashMap<String, Long>();
+        for (TopKSketch.Entry entry : top)
+        {
+            String name = getMetricName(entry.getValue());
+            Long count = metrics.get(name);
+            metrics.put(name, count != null ? count + entry.getCount() : entry.getCount());
+        }
+        return metrics;
+    }
+
+    /**
+     * Replaces the characters which are not letters, digits, '-' or '_' with '_'
+     */
+    static String getMetricName(final String value)
+    {
+        if (value.isEmpty())
+        {
+            return "_";
+        }
+
+        char[] chars = value.toCharArray();
+        for (int i = 0; i < chars.length; i++)
+        {
+            char c = chars[i];
+            if (!(c >= 'a' && c <= 'z') && !(c >= 'A' && c <= 'Z') && !(c >= '0' && c <= '9') && c != '-')
+            {
+                chars[i] = '_';
+            }
+        }
+        return new String(chars);
+    }
+
+    @Override
+    public void setUpModule(final Map<String, Object> parameters)
+    {
+        flushTimeMs = ((Number) parameters.get("flushTimeMs")).longValue();
+
+        topK = getPositive(parameters, "topK", DEFAULT_TOP_K);
+        capacity = getPositive(parameters, "capacity", topK * DEFAULT_CAPACITY_PER_VALUE);
+        if (capacity < topK)
+        {
+            throw new IllegalArgumentException("capacity should be at least topK: " + capacity);
+        }
+        sketchDepth = getPositive(parameters, "sketchDepth", DEFAULT_SKETCH_DEPTH);
+        sketchWidth = getPositive(parameters, "sketchWidth", DEFAULT_SKETCH_WIDTH);
+
+        Number keyCacheSize = (Number) parameters.get("keyCacheSize");
+        keyCache = new MetricKeyCache(keyCacheSize != null ? keyCacheSize.intValue() : MetricKeyCache.DEFAULT_SIZE);
+
+        output = createOutput(parameters, flushTimeMs);
+
+        flushTimer = new AlignedTimer(flushTimeMs, currentTimeMillis(), new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                flush();
+            }
+        });
+    }
+
+    private static int getPositive(final Map<String, Object> parameters, final String name, final int defaultValue)
+    {
+        Number value = (Number) parameters.get(name);
+        if (value == null || value.intValue() == 0)
+        {
+            return defaultValue;
+        }
+        if (value.intValue() < 0)
+        {
+            throw new IllegalArgumentException(name + " should be positive: " + value);
+        }
+        return value.intValue();
+    }
+
+    @Override
+    public ConfigMap getModuleConfig()
+    {
+        ConfigMap config = new ConfigMap();
+        MetricOutput.addModuleConfig(config);
+        config.addConfigValue("flushTimeMs", Number.class, false, DEFAULT_FLUSH_TIME_MS);
+        config.addConfigValue("topK", Number.class, false, DEFAULT_TOP_K);
+        config.addConfigValue("capacity", Number.class, false, 0);
+        config.addConfigValue("sketchDepth", Number.class, false, DEFAULT_SKETCH_DEPTH);
+        config.addConfigValue("sketchWidth", Number.class, false, DEFAULT_SKETCH_WIDTH);
+        config.addConfigValue("keyCacheSize", Number.class, false, MetricKeyCache.DEFAULT_SIZE);
+        return config;
+    }
+
+    @Override
+    public String getModuleDescription()
+    {
+        return "tracks the most frequent values and sends the top K of them periodically";
+    }
+
+    @Override
+    public void stop()
+    {
+        if (flushTimer != null)
+        {
+            flushTimer.cancel();
+        }
+
+        flush();
+
+        output.stop();
+    }
+
+    /**
+     * The parameters of one key
+     */
+    public static final class CompiledKey
+    {
+
+        private final CompiledText key;
+
+        private final CompiledText value;
+
+        private CompiledKey(final CompiledText key, final CompiledText value)
+        {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+}
@@ -0,0 +1,43 @@
+package tv.ustream.yolo.util;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Runs a task at every multiple of the interval, so the intervals of the processors, clients and hosts are aligned
+ */
+public final class AlignedTimer
+{
+
+    private final Timer timer = new Timer();
+
+    public AlignedTimer(final long intervalMs, final long now, final Runnable task)
+    {
+        timer.scheduleAtFixedRate(
+                new TimerTask()
+                {
+                    @Override
+                    public void run()
+                    {
+                        task.run();
+                    }
+                },
+                intervalMs - now % intervalMs,
+                intervalMs
+        );
+    }
+
+    /**
+     * Returns with the interval boundary nearest to the time, the metrics of a run are stamped with it
+     */
+    public static long getBoundary(final long timeMs, final long intervalMs)
+    {
+        return Math.round((double) timeMs / intervalMs) * intervalMs;
+    }
+
+    public void cancel()
+    {
+        timer.cancel();
+    }
+
+}
@@ -0,0 +1,180 @@
+package tv.ustream.yolo.util;
+
+import java.util.Arrays;
+
+/**
+ * HyperLogLog sketch estimating the number of distinct values.
+ *
+ * The sketch has 2^precision one byte registers, so its size is fixed (4 KB with the default precision of 12) and
+ * the standard error of the estimate is about 1.04 / sqrt(2^precision). Small cardinalities are estimated with
+ * linear counting. Sketches with the same precision can be merged, the result is the sketch of the union.
+ *
+ * Not thread-safe.
+ */
+public class HyperLogLog
+{
+
+    public static final int MIN_PRECISION = 4;
+
+    public static final int MAX_PRECISION = 16;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int precision;
+
+    private final byte[] registers;
+
+    private final double alphaMM;
+
+    private boolean empty = true;
+
+    public HyperLogLog(final int precision)
+    {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION)
+        {
+            throw new IllegalArgumentException(
+                    "Precision should be between " + MIN_PRECISION + " and " + MAX_PRECISION + ": " + precision
+            );
+        }
+
+        this.precision = precision;
+
+        int m = 1 << precision;
+        registers = new byte[m];
+
+        double alpha;
+        switch (m)
+        {
+            case 16:
+                alpha = 0.673;
+                break;
+            case 32:
+                alpha = 0.697;
+                break;
+            case 64:
+                alpha = 0.709;
+                break;
+            default:
+                alpha = 0.7213 / (1 + 1.079 / m);
+                break;
+        }
+        alphaMM = alpha * m * m;
+    }
+
+    public void add(final CharSequence value)
+    {
+        addHash(hash(value));
+    }
+
+    /**
+     * Adds a value by its 64 bit hash, the hash bits should be uniformly distributed
+     */
+    public void addHash(final long hash)
+    {
+        int index = (int) (hash >>> (64 - precision));
+        long remaining = (hash << precision) | (1L << (precision - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(remaining) + 1);
+        if (rank > registers[index])
+        {
+            registers[index] = rank;
+        }
+        empty = false;
+    }
+
+    /**
+     * Adds the values of the other sketch, which should have the same precision
+     */
+    public void merge(final HyperLogLog other)
+    {
+        if (other.precision != precision)
+        {
+            throw new IllegalArgumentException("Sketches with different precision can't be merged");
+        }
+        if (other.empty)
+        {
+            return;
+        }
+
+        for (int i = 0; i < registers.length; i++)
+        {
+            if (other.registers[i] > registers[i])
+            {
+                registers[i] = other.registers[i];
+            }
+        }
+        empty = false;
+    }
+
+    /**
+     * Returns with the estimated number of distinct values
+     */
+    public long estimate()
+    {
+        if (empty)
+        {
+            return 0;
+        }
+
+        double sum = 0;
+        int zeros = 0;
+        for (int i = 0; i < registers.length; i++)
+        {
+            sum += 1.0 / (1L << registers[i]);
+            if (registers[i] == 0)
+            {
+                zeros++;
+            }
+        }
+
+        double estimate = alphaMM / sum;
+        if (estimate <= 2.5 * registers.length && zeros > 0)
+        {
+            estimate = registers.length * Math.log((double) registers.length / zeros);
+        }
+
+        return Math.round(estimate);
+    }
+
+    public boolean isEmpty()
+    {
+        return empty;
+    }
+
+    public int getPrecision()
+    {
+        return precision;
+    }
+
+    public void clear()
+    {
+        if (!empty)
+        {
+            Arrays.fill(registers, (byte) 0);
+            empty = true;
+        }
+    }
+
+    /**
+     * 64 bit FNV-1a hash of the characters, mixed with the MurmurHash3 finalizer to spread the bits
+     */
+    static long hash(final CharSequence value)
+    {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+}
@@ -0,0 +1,318 @@
+package tv.ustream.yolo.util;
+
+import java.util.Arrays;
+
+/**
+ * Mergeable quantile sketch with relative accuracy guarantee (DDSketch).
+ *
+ * The values are counted in logarithmic buckets, a quantile is estimated within relativeAccuracy of the real value
+ * (the exact minimum and maximum are tracked separately). Positive and negative values have separate bucket
+ * stores, values close to zero are counted in a zero bucket. Each store has at most maxBuckets buckets, if the
+ * values span a wider range, the lowest buckets are collapsed into one, so the accuracy of the upper quantiles is
+ * kept. Two sketches with the same parameters can be merged without losing accuracy.
+ *
+ * Not thread-safe.
+ */
+public class QuantileSketch
+{
+
+    private static final int INITIAL_BUCKETS = 64;
+
+    private final double relativeAccuracy;
+
+    private final double gamma;
+
+    private final double multiplier;
+
+    private final double minIndexableValue;
+
+    private final Store positive;
+
+    private final Store negative;
+
+    private long zeroCount = 0;
+
+    private long count = 0;
+
+    private double min = Double.POSITIVE_INFINITY;
+
+    private double max = Double.NEGATIVE_INFINITY;
+
+    private double sum = 0;
+
+    public QuantileSketch(final double relativeAccuracy, final int maxBuckets)
+    {
+        if (relativeAccuracy <= 0 || relativeAccuracy >= 1)
+        {
+            throw new IllegalArgumentException("Relative accuracy should be between 0 and 1: " + relativeAccuracy);
+        }
+        if (maxBuckets < 1)
+        {
+            throw new IllegalArgumentException("Max buckets should be positive: " + maxBuckets);
+        }
+
+        this.relativeAccuracy = relativeAccuracy;
+        gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        multiplier = 1 / Math.log(gamma);
+        minIndexableValue = Double.MIN_NORMAL * gamma;
+
+        positive = new Store(maxBuckets);
+        negative = new Store(maxBuckets);
+    }
+
+    public void add(final double value)
+    {
+        if (Double.isNaN(value))
+        {
+            return;
+        }
+
+        if (value >= minIndexableValue)
+        {
+            positive.add(index(value), 1);
+        }
+        else if (value <= -minIndexableValue)
+        {
+            negative.add(index(-value), 1);
+        }
+        else
+        {
+            zeroCount++;
+        }
+
+        count++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Adds the values of the other sketch, which should have the same relative accuracy
+     */
+    public void merge(final QuantileSketch other)
+    {
+        if (other.relativeAccuracy != relativeAccuracy)
+        {
+            throw new IllegalArgumentException("Sketches with different relative accuracy can't be merged");
+        }
+        if (other.count == 0)
+        {
+            return;
+        }
+
+        positive.merge(other.positive);
+        negative.merge(other.negative);
+        zeroCount += other.zeroCount;
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Returns with the estimated value at the quantile (between 0 and 1) or NaN if the sketch is empty, the quantiles
+     * 0 and 1 are the exact minimum and maximum
+     */
+    public double getQuantile(final double quantile)
+    {
+        if (count == 0 || quantile < 0 || quantile > 1)
+        {
+            return Double.NaN;
+        }
+
+        long rank = (long) (quantile * (count - 1));
+        if (rank == 0)
+        {
+            return min;
+        }
+        if (rank == count - 1)
+        {
+            return max;
+        }
+
+        double value;
+        if (rank < negative.total)
+        {
+            value = -value(negative.getIndexAtRank(negative.total - 1 - rank));
+        }
+        else if (rank < negative.total + zeroCount)
+        {
+            value = 0;
+        }
+        else
+        {
+            value = value(positive.getIndexAtRank(rank - negative.total - zeroCount));
+        }
+
+        return Math.max(min, Math.min(max, value));
+    }
+
+    public long getCount()
+    {
+        return count;
+    }
+
+    public double getMin()
+    {
+        return count > 0 ? min : Double.NaN;
+    }
+
+    public double getMax()
+    {
+        return count > 0 ? max : Double.NaN;
+    }
+
+    public double getSum()
+    {
+        return sum;
+    }
+
+    public boolean isEmpty()
+    {
+        return count == 0;
+    }
+
+    /**
+     * Removes all values, the allocated buckets are kept
+     */
+    public void clear()
+    {
+        positive.clear();
+        negative.clear();
+        zeroCount = 0;
+        count = 0;
+        sum = 0;
+        min = Double.POSITIVE_INFINITY;
+        max = Double.NEGATIVE_INFINITY;
+    }
+
+    private int index(final double value)
+    {
+        return (int) Math.ceil(Math.log(value) * multiplier);
+    }
+
+    private double value(final int index)
+    {
+        return Math.pow(gamma, index) * 2 / (gamma + 1);
+    }
+
+    /**
+     * Bucket counts in a contiguous range of indexes, the array grows until maxBuckets
+     */
+    private static final class Store
+    {
+
+        private final int maxBuckets;
+
+        private long[] counts = new long[0];
+
+        private int offset = 0;
+
+        private int minIndex = 0;
+
+        private int maxIndex = 0;
+
+        private long total = 0;
+
+        private Store(final int maxBuckets)
+        {
+            this.maxBuckets = maxBuckets;
+        }
+
+        private void add(final int index, final long value)
+        {
+            int target = index;
+            if (total == 0)
+            {
+                if (counts.length == 0 || index < offset || index >= offset + counts.length)
+                {
+                    relocate(index, index);
+                }
+                minIndex = index;
+                maxIndex = index;
+            }
+            else if (index < minIndex || index > maxIndex)
+            {
+                int newMin = Math.min(index, minIndex);
+                int newMax = Math.max(index, maxIndex);
+                if (newMax - newMin >= maxBuckets)
+                {
+                    newMin = newMax - maxBuckets + 1;
+                }
+                if (newMin < offset || newMax >= offset + counts.length)
+                {
+                    relocate(newMin, newMax);
+                }
+                minIndex = newMin;
+                maxIndex = newMax;
+                target = Math.max(index, newMin);
+            }
+
+            counts[target - offset] += value;
+            total += value;
+        }
+
+        /**
+         * Moves the counts to an array covering the new range, the counts below newMin are added to newMin
+         */
+        private void relocate(final int newMin, final int newMax)
+        {
+            int needed = newMax - newMin + 1;
+            int length = Math.min(maxBuckets, Math.max(needed, Math.max(counts.length * 2, INITIAL_BUCKETS)));
+            int newOffset = newMin - (length - needed) / 2;
+
+            long[] newCounts = new long[length];
+            if (total > 0)
+            {
+                for (int i = minIndex; i <= maxIndex; i++)
+                {
+                    newCounts[Math.max(i, newMin) - newOffset] += counts[i - offset];
+                }
+            }
+
+            counts = newCounts;
+            offset = newOffset;
+        }
+
+        private void merge(final Store other)
+        {
+            if (other.total == 0)
+            {
+                return;
+            }
+            for (int i = other.minIndex; i <= other.maxIndex; i++)
+            {
+                long value = other.counts[i - other.offset];
+                if (value > 0)
+                {
+                    add(i, value);
+                }
+            }
+        }
+
+        private int getIndexAtRank(final long rank)
+        {
+            long cumulative = 0;
+            for (int i = minIndex; i <= maxIndex; i++)
+            {
+                cumulative += counts[i - offset];
+                if (cumulative > rank)
+                {
+                    return i;
+                }
+            }
+            return maxIndex;
+        }
+
+        private void clear()
+        {
+            if (total > 0)
+            {
+                Arrays.fill(counts, minIndex - offset, maxIndex - offset + 1, 0);
+                total = 0;
+            }
+        }
+
+    }
+
+}
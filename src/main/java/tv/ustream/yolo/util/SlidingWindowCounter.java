@@ -0,0 +1,107 @@
+package tv.ustream.yolo.util;
+
+import java.util.Arrays;
+
+/**
+ * Sum of the values added in the last windowMs milliseconds, kept in a ring of time buckets.
+ *
+ * The window is divided into buckets of windowMs / buckets milliseconds, the values are added to the bucket of the
+ * current time and a running sum is kept. When the time moves to a new bucket, the expired buckets are subtracted
+ * from the sum, so both adding and reading the sum are O(1) amortized. The window moves in bucket steps, so the sum
+ * may contain values up to one bucket older than windowMs.
+ *
+ * Not thread-safe.
+ */
+public class SlidingWindowCounter
+{
+
+    private final long bucketMs;
+
+    private final double[] values;
+
+    private final long[] counts;
+
+    private long currentBucket = Long.MIN_VALUE;
+
+    private double sum = 0;
+
+    private long count = 0;
+
+    public SlidingWindowCounter(final long windowMs, final int buckets)
+    {
+        if (buckets < 1 || windowMs < buckets)
+        {
+            throw new IllegalArgumentException("Window should be at least 1 ms per bucket: " + windowMs);
+        }
+
+        bucketMs = windowMs / buckets;
+        values = new double[buckets];
+        counts = new long[buckets];
+    }
+
+    public void add(final long timeMs, final double value)
+    {
+        advance(timeMs);
+
+        int index = (int) (currentBucket % values.length);
+        values[index] += value;
+        counts[index]++;
+        sum += value;
+        count++;
+    }
+
+    /**
+     * Returns with the number of values in the window ending at the given time
+     */
+    public long getCount(final long timeMs)
+    {
+        advance(timeMs);
+
+        return count;
+    }
+
+    /**
+     * Returns with the sum of the values in the window ending at the given time
+     */
+    public double getSum(final long timeMs)
+    {
+        advance(timeMs);
+
+        return sum;
+    }
+
+    private void advance(final long timeMs)
+    {
+        long bucket = timeMs / bucketMs;
+        if (bucket <= currentBucket)
+        {
+            return;
+        }
+
+        if (currentBucket == Long.MIN_VALUE || bucket - currentBucket >= values.length)
+        {
+            Arrays.fill(values, 0);
+            Arrays.fill(counts, 0);
+            sum = 0;
+            count = 0;
+        }
+        else
+        {
+            for (long expired = currentBucket + 1; expired <= bucket; expired++)
+            {
+                int index = (int) (expired % values.length);
+                sum -= values[index];
+                count -= counts[index];
+                values[index] = 0;
+                counts[index] = 0;
+            }
+            if (count == 0)
+            {
+                // avoid accumulating rounding errors
+                sum = 0;
+            }
+        }
+        currentBucket = bucket;
+    }
+
+}
@@ -0,0 +1,431 @@
+package tv.ustream.yolo.util;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converts log timestamps to epoch seconds or milliseconds.
+ *
+ * The format can be "epoch" (seconds), "epoch_ms" (milliseconds), one of the presets (iso8601, apache, syslog,
+ * log4j) or a SimpleDateFormat pattern. The date format is created only once, and if a timestamp is in the same
+ * second as the previous one (only the digits of the fraction of the second differ, the rest matches the previous
+ * value) the previous second is reused and only the fraction is parsed.
+ *
+ * Not thread-safe.
+ */
+public class TimestampParser
+{
+
+    public static final String EPOCH = "epoch";
+
+    public static final String EPOCH_MS = "epoch_ms";
+
+    public static final long INVALID = -1;
+
+    private static final Map<String, String> PRESETS = new HashMap<String, String>();
+
+    static
+    {
+        PRESETS.put("iso8601", "yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
+        PRESETS.put("apache", "dd/MMM/yyyy:HH:mm:ss Z");
+        PRESETS.put("syslog", "MMM d HH:mm:ss");
+        PRESETS.put("log4j", "yyyy-MM-dd HH:mm:ss,SSS");
+    }
+
+    private final String format;
+
+    private final boolean epoch;
+
+    private final boolean epochMillis;
+
+    private final SimpleDateFormat dateFormat;
+
+    private final boolean yearMissing;
+
+    private final boolean lenientFraction;
+
+    private final int secondPrefixLength;
+
+    private final ParsePosition parsePosition = new ParsePosition(0);
+
+    private SimpleDateFormat isoWithoutFraction = null;
+
+    private String lastValue = null;
+
+    private long lastMillis = INVALID;
+
+    private long lastSecondMillis = INVALID;
+
+    public TimestampParser(final String format)
+    {
+        this.format = format;
+
+        if (EPOCH.equals(format) || EPOCH_MS.equals(format))
+        {
+            epoch = true;
+            epochMillis = EPOCH_MS.equals(format);
+            dateFormat = null;
+            yearMissing = false;
+            lenientFraction = false;
+            secondPrefixLength = -1;
+            return;
+        }
+
+        String pattern = PRESETS.containsKey(format) ? PRESETS.get(format) : format;
+
+        epoch = false;
+        epochMillis = false;
+        dateFormat = new SimpleDateFormat(pattern, Locale.ENGLISH);
+        dateFormat.setLenient(false);
+        yearMissing = pattern.indexOf('y') < 0;
+        lenientFraction = "iso8601".equals(format);
+        secondPrefixLength = getSecondPrefixLength(pattern);
+    }
+
+    /**
+     * Returns with the timestamp in epoch seconds or INVALID if the value can not be parsed.
+     */
+    public long parse(final CharSequence value)
+    {
+        return toSeconds(parseMillis(value));
+    }
+
+    /**
+     * Returns with the timestamp in epoch milliseconds or INVALID if the value can not be parsed.
+     */
+    public long parseMillis(final CharSequence value)
+    {
+        if (value == null || value.length() == 0)
+        {
+            return INVALID;
+        }
+
+        if (epoch)
+        {
+            return parseEpoch(value);
+        }
+
+        if (lastValue != null && isSameSecond(value))
+        {
+            return secondPrefixLength < 0 ? lastMillis : lastSecondMillis + parseFraction(value, secondPrefixLength);
+        }
+
+        String stringValue = value.toString();
+        long millis = parseDate(stringValue);
+        if (millis == INVALID)
+        {
+            return INVALID;
+        }
+
+        lastValue = stringValue;
+        lastMillis = millis;
+        lastSecondMillis = millis - ((millis % 1000) + 1000) % 1000;
+
+        return secondPrefixLength < 0 ? millis : lastSecondMillis + parseFraction(value, secondPrefixLength);
+    }
+
+    /**
+     * Returns with the numeric timestamp (like a JSON number) in epoch seconds or INVALID if the format is a date
+     * format
+     */
+    public long parseNumber(final Number value)
+    {
+        return toSeconds(parseNumberMillis(value));
+    }
+
+    /**
+     * Returns with the numeric timestamp (like a JSON number) in epoch milliseconds or INVALID if the format is a
+     * date format
+     */
+    public long parseNumberMillis(final Number value)
+    {
+        if (!epoch)
+        {
+            return INVALID;
+        }
+
+        return epochMillis ? value.longValue() : (long) (value.doubleValue() * 1000);
+    }
+
+    public String getFormat()
+    {
+        return format;
+    }
+
+    private long parseEpoch(final CharSequence value)
+    {
+        long result = 0;
+        int i = 0;
+        boolean negative = value.charAt(0) == '-';
+        if (negative)
+        {
+            i++;
+        }
+        if (i == value.length())
+        {
+            return INVALID;
+        }
+        for (; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            if (c == '.' && i > 0)
+            {
+                break;
+            }
+            if (c < '0' || c > '9')
+            {
+                return INVALID;
+            }
+            result = result * 10 + (c - '0');
+        }
+        if (!epochMillis)
+        {
+            result = result * 1000 + parseFraction(value, i);
+        }
+        return negative ? -result : result;
+    }
+
+    private long parseDate(final String value)
+    {
+        parsePosition.setIndex(0);
+        parsePosition.setErrorIndex(-1);
+
+        Date date = dateFormat.parse(value, parsePosition);
+        if (date != null && parsePosition.getIndex() != value.length())
+        {
+            // trailing characters after the date
+            date = null;
+        }
+        if (date == null && lenientFraction)
+        {
+            return parseIsoWithoutFraction(value);
+        }
+        if (date == null)
+        {
+            return INVALID;
+        }
+
+        long millis = date.getTime();
+        if (yearMissing)
+        {
+            millis = setCurrentYear(millis);
+        }
+
+        return millis;
+    }
+
+    /**
+     * Parses an ISO 8601 value without the fraction of the second, so a missing fraction or a fraction with any
+     * number of digits is accepted (the fraction is added by the caller)
+     */
+    private long parseIsoWithoutFraction(final String fullValue)
+    {
+        String value = fullValue;
+        int fractionEnd = skipFraction(fullValue, secondPrefixLength);
+        if (fractionEnd > secondPrefixLength)
+        {
+            value = fullValue.substring(0, secondPrefixLength) + fullValue.substring(fractionEnd);
+        }
+
+        if (isoWithoutFraction == null)
+        {
+            isoWithoutFraction = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssXXX", Locale.ENGLISH);
+            isoWithoutFraction.setLenient(false);
+        }
+
+        parsePosition.setIndex(0);
+        parsePosition.setErrorIndex(-1);
+
+        Date date = isoWithoutFraction.parse(value, parsePosition);
+
+        if (date == null || parsePosition.getIndex() != value.length())
+        {
+            return INVALID;
+        }
+        return date.getTime();
+    }
+
+    private long setCurrentYear(final long millis)
+    {
+        Calendar now = Calendar.getInstance(dateFormat.getTimeZone());
+
+        Calendar calendar = Calendar.getInstance(dateFormat.getTimeZone());
+        calendar.setTimeInMillis(millis);
+        calendar.set(Calendar.YEAR, now.get(Calendar.YEAR));
+
+        if (calendar.getTimeInMillis() - now.getTimeInMillis() > TimeUnit.DAYS.toMillis(1))
+        {
+            calendar.add(Calendar.YEAR, -1);
+        }
+
+        return calendar.getTimeInMillis();
+    }
+
+    private boolean isSameSecond(final CharSequence value)
+    {
+        if (secondPrefixLength < 0)
+        {
+            return contentEquals(value, 0, value.length(), lastValue, 0, lastValue.length());
+        }
+
+        if (value.length() < secondPrefixLength
+                || !contentEquals(value, 0, secondPrefixLength, lastValue, 0, secondPrefixLength))
+        {
+            return false;
+        }
+
+        // the fraction should have the same separator and number of digits as the fully parsed previous value, and
+        // the rest (like the zone) should be the same, otherwise a malformed value could get the previous result
+        int suffixStart = skipFraction(value, secondPrefixLength);
+        int lastSuffixStart = skipFraction(lastValue, secondPrefixLength);
+        if (suffixStart != lastSuffixStart
+                || (suffixStart > secondPrefixLength
+                && value.charAt(secondPrefixLength) != lastValue.charAt(secondPrefixLength)))
+        {
+            return false;
+        }
+
+        return contentEquals(value, suffixStart, value.length(), lastValue, lastSuffixStart, lastValue.length());
+    }
+
+    /**
+     * Returns with the milliseconds of the fraction of the second starting at the given index (like .5 or ,123)
+     */
+    private static long parseFraction(final CharSequence value, final int start)
+    {
+        if (start >= value.length() || (value.charAt(start) != '.' && value.charAt(start) != ','))
+        {
+            return 0;
+        }
+
+        long result = 0;
+        int digits = 0;
+        for (int i = start + 1; i < value.length() && digits < 3; i++, digits++)
+        {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9')
+            {
+                break;
+            }
+            result = result * 10 + (c - '0');
+        }
+        for (; digits < 3; digits++)
+        {
+            result *= 10;
+        }
+        return result;
+    }
+
+    private static long toSeconds(final long millis)
+    {
+        return millis == INVALID ? INVALID : TimeUnit.MILLISECONDS.toSeconds(millis);
+    }
+
+    private static int skipFraction(final CharSequence value, final int start)
+    {
+        int i = start;
+        if (i < value.length() && (value.charAt(i) == '.' || value.charAt(i) == ','))
+        {
+            i++;
+            while (i < value.length() && value.charAt(i) >= '0' && value.charAt(i) <= '9')
+            {
+                i++;
+            }
+        }
+        return i;
+    }
+
+    private static boolean contentEquals(final CharSequence s1, final int start1, final int end1,
+                                         final CharSequence s2, final int start2, final int end2)
+    {
+        if (end1 - start1 != end2 - start2)
+        {
+            return false;
+        }
+        for (int i = 0; i < end1 - start1; i++)
+        {
+            if (s1.charAt(start1 + i) != s2.charAt(start2 + i))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns with the length of the formatted text up to the end of the seconds field, or -1 if any field before
+     * that has a variable width.
+     */
+    private static int getSecondPrefixLength(final String pattern)
+    {
+        int length = 0;
+        int i = 0;
+        while (i < pattern.length())
+        {
+            char c = pattern.charAt(i);
+            if (c == '\'')
+            {
+                int end = pattern.indexOf('\'', i + 1);
+                if (end < 0 || end == i + 1)
+                {
+                    return -1;
+                }
+                length += end - i - 1;
+                i = end + 1;
+                continue;
+            }
+
+            int runEnd = i;
+            while (runEnd < pattern.length() && pattern.charAt(runEnd) == c)
+            {
+                runEnd++;
+            }
+            int count = runEnd - i;
+
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z'))
+            {
+                int width = getFieldWidth(c, count);
+                if (width < 0)
+                {
+                    return -1;
+                }
+                length += width;
+                if (c == 's')
+                {
+                    return length;
+                }
+            }
+            else
+            {
+                length += count;
+            }
+            i = runEnd;
+        }
+        return -1;
+    }
+
+    private static int getFieldWidth(final char field, final int count)
+    {
+        switch (field)
+        {
+            case 'y':
+                return count == 2 || count == 4 ? count : -1;
+            case 'M':
+                return count == 2 || count == 3 ? count : -1;
+            case 'd':
+            case 'H':
+            case 'm':
+            case 's':
+                return count == 2 ? count : -1;
+            default:
+                return -1;
+        }
+    }
+
+}
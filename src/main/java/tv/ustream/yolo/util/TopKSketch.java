@@ -0,0 +1,265 @@
+package tv.ustream.yolo.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tracks the most frequent values in bounded memory with the Space-Saving algorithm backed by a count-min sketch.
+ *
+ * At most capacity values are monitored with their counts in an indexed min-heap. Every value is also counted in a
+ * count-min sketch of depth x width counters. An unmonitored value replaces the monitored value with the smallest
+ * count only if its count-min estimate exceeds that count, and it starts from the estimate. So a burst of rare values
+ * can't push out the frequent ones, and the counts are overestimated by at most the count-min error.
+ *
+ * Not thread-safe.
+ */
+public class TopKSketch
+{
+
+    private final int capacity;
+
+    private final int depth;
+
+    private final int width;
+
+    private final long[] sketch;
+
+    private final Map<String, Counter> counters;
+
+    private final Counter[] heap;
+
+    private int size = 0;
+
+    private long total = 0;
+
+    public TopKSketch(final int capacity, final int depth, final int width)
+    {
+        if (capacity < 1 || depth < 1 || width < 1)
+        {
+            throw new IllegalArgumentException("Capacity, depth and width should be positive");
+        }
+
+        this.capacity = capacity;
+        this.depth = depth;
+        this.width = width;
+
+        sketch = new long[depth * width];
+        counters = new HashMap<String, Counter>(capacity * 2);
+        heap = new Counter[capacity];
+    }
+
+    public void add(final String value)
+    {
+        total++;
+
+        long estimate = addToSketch(HyperLogLog.hash(value));
+
+        Counter counter = counters.get(value);
+        if (counter != null)
+        {
+            counter.count++;
+            siftDown(counter.heapIndex);
+        }
+        else if (size < capacity)
+        {
+            // nothing was evicted yet, so this is the first occurrence of the value
+            counter = new Counter(value, 1, 0);
+            counters.put(value, counter);
+            heap[size] = counter;
+            counter.heapIndex = size;
+            size++;
+            siftUp(counter.heapIndex);
+        }
+        else if (estimate > heap[0].count)
+        {
+            counter = heap[0];
+            counters.remove(counter.value);
+            counter.value = value;
+            counter.error = estimate - 1;
+            counter.count = estimate;
+            counters.put(value, counter);
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Returns with at most k of the most frequent values in descending order of their counts
+     */
+    public List<Entry> getTop(final int k)
+    {
+        List<Counter> sorted = new ArrayList<Counter>(size);
+        sorted.addAll(Arrays.asList(heap).subList(0, size));
+        Collections.sort(sorted, new Comparator<Counter>()
+        {
+            @Override
+            public int compare(final Counter o1, final Counter o2)
+            {
+                return Long.compare(o2.count, o1.count);
+            }
+        });
+
+        List<Entry> result = new ArrayList<Entry>(Math.min(k, sorted.size()));
+        for (int i = 0; i < k && i < sorted.size(); i++)
+        {
+            Counter counter = sorted.get(i);
+            result.add(new Entry(counter.value, counter.count, counter.error));
+        }
+        return result;
+    }
+
+    /**
+     * Returns with the number of values added since the last clear
+     */
+    public long getTotal()
+    {
+        return total;
+    }
+
+    public boolean isEmpty()
+    {
+        return total == 0;
+    }
+
+    /**
+     * Removes all values, the allocated memory is kept
+     */
+    public void clear()
+    {
+        if (total > 0)
+        {
+            Arrays.fill(sketch, 0);
+            Arrays.fill(heap, 0, size, null);
+            counters.clear();
+            size = 0;
+            total = 0;
+        }
+    }
+
+    /**
+     * Increments the counters of the hash in every row and returns with the minimum of them
+     */
+    private long addToSketch(final long hash)
+    {
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++)
+        {
+            int column = ((hash1 + row * hash2) & Integer.MAX_VALUE) % width;
+            long value = ++sketch[row * width + column];
+            min = Math.min(min, value);
+        }
+        return min;
+    }
+
+    private void siftUp(final int index)
+    {
+        int i = index;
+        Counter counter = heap[i];
+        while (i > 0)
+        {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent].count <= counter.count)
+            {
+                break;
+            }
+            place(heap[parent], i);
+            i = parent;
+        }
+        place(counter, i);
+    }
+
+    private void siftDown(final int index)
+    {
+        int i = index;
+        Counter counter = heap[i];
+        while (true)
+        {
+            int child = 2 * i + 1;
+            if (child >= size)
+            {
+                break;
+            }
+            if (child + 1 < size && heap[child + 1].count < heap[child].count)
+            {
+                child++;
+            }
+            if (counter.count <= heap[child].count)
+            {
+                break;
+            }
+            place(heap[child], i);
+            i = child;
+        }
+        place(counter, i);
+    }
+
+    private void place(final Counter counter, final int index)
+    {
+        heap[index] = counter;
+        counter.heapIndex = index;
+    }
+
+    /**
+     * A frequent value with its estimated count, the real count is between count - error and count
+     */
+    public static final class Entry
+    {
+
+        private final String value;
+
+        private final long count;
+
+        private final long error;
+
+        private Entry(final String value, final long count, final long error)
+        {
+            this.value = value;
+            this.count = count;
+            this.error = error;
+        }
+
+        public String getValue()
+        {
+            return value;
+        }
+
+        public long getCount()
+        {
+            return count;
+        }
+
+        public long getError()
+        {
+            return error;
+        }
+
+    }
+
+    private static final class Counter
+    {
+
+        private String value;
+
+        private long count;
+
+        private long error;
+
+        private int heapIndex;
+
+        private Counter(final String value, final long count, final long error)
+        {
+            this.value = value;
+            this.count = count;
+            this.error = error;
+        }
+
+    }
+
+}
@@ -0,0 +1,142 @@
+package tv.ustream.yolo.client;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+public class GraphiteAggregatorTest
+{
+
+    private static final long INTERVAL_MS = TimeUnit.HOURS.toMillis(1);
+
+    private GraphiteClient client;
+
+    private GraphiteAggregator aggregator;
+
+    private static final long BOUNDARY_MS = 1400000400000L;
+
+    private long now = BOUNDARY_MS + 1000;
+
+    @Before
+    public void setUp()
+    {
+        client = mock(GraphiteClient.class);
+        aggregator = new GraphiteAggregator(client, INTERVAL_MS)
+        {
+            @Override
+            protected long currentTimeMillis()
+            {
+                return now;
+            }
+        };
+    }
+
+    @After
+    public void tearDown()
+    {
+        aggregator.stop();
+    }
+
+    @Test
+    public void consolidationsShouldBeApplied()
+    {
+        for (GraphiteAggregator.Consolidation consolidation : GraphiteAggregator.Consolidation.values())
+        {
+            aggregator.add(consolidation.getValue(), consolidation, 3);
+            aggregator.add(consolidation.getValue(), consolidation, 1);
+            aggregator.add(consolidation.getValue(), consolidation, 5);
+        }
+
+        aggregator.flush();
+
+        long timestamp = getBoundary();
+        verify(client).sendMetrics("sum", 9D, timestamp);
+        verify(client).sendMetrics("avg", 3D, timestamp);
+        verify(client).sendMetrics("min", 1D, timestamp);
+        verify(client).sendMetrics("max", 5D, timestamp);
+        verify(client).sendMetrics("count", 3D, timestamp);
+        verify(client).sendMetrics("last", 5D, timestamp);
+        verify(client).flush();
+        verifyNoMoreInteractions(client);
+    }
+
+    @Test
+    public void keyWithDifferentConsolidationsShouldBeConsolidatedSeparately()
+    {
+        aggregator.add("key", GraphiteAggregator.Consolidation.SUM, 3);
+        aggregator.add("key", GraphiteAggregator.Consolidation.MAX, 2);
+        aggregator.add("key", GraphiteAggregator.Consolidation.SUM, 4);
+        aggregator.add("key", GraphiteAggregator.Consolidation.MAX, 1);
+
+        aggregator.flush();
+
+        long timestamp = getBoundary();
+        verify(client).sendMetrics("key", 7D, timestamp);
+        verify(client).sendMetrics("key", 2D, timestamp);
+        verify(client).flush();
+        verifyNoMoreInteractions(client);
+    }
+
+    @Test
+    public void timestampShouldBeTheNearestBoundary()
+    {
+        now = BOUNDARY_MS - 1000;
+        aggregator.add("key", GraphiteAggregator.Consolidation.SUM, 1);
+
+        aggregator.flush();
+
+        verify(client).sendMetrics("key", 1D, TimeUnit.MILLISECONDS.toSeconds(BOUNDARY_MS));
+    }
+
+    @Test
+    public void intervalsShouldBeSentSeparately()
+    {
+        aggregator.add("key", GraphiteAggregator.Consolidation.SUM, 1);
+        aggregator.flush();
+
+        now += INTERVAL_MS;
+        aggregator.add("key", GraphiteAggregator.Consolidation.SUM, 2);
+        aggregator.flush();
+
+        verify(client).sendMetrics("key", 1D, getBoundary() - TimeUnit.MILLISECONDS.toSeconds(INTERVAL_MS));
+        verify(client).sendMetrics("key", 2D, getBoundary());
+    }
+
+    @Test
+    public void idleKeysShouldNotBeSent()
+    {
+        aggregator.add("key", GraphiteAggregator.Consolidation.SUM, 1);
+        aggregator.flush();
+        aggregator.flush();
+        aggregator.flush();
+
+        aggregator.add("key", GraphiteAggregator.Consolidation.SUM, 4);
+        aggregator.flush();
+
+        verify(client).sendMetrics("key", 1D, getBoundary());
+        verify(client).sendMetrics("key", 4D, getBoundary());
+    }
+
+    @Test
+    public void stopShouldFlush()
+    {
+        aggregator.add("key", GraphiteAggregator.Consolidation.LAST, 7);
+
+        aggregator.stop();
+
+        verify(client).sendMetrics("key", 7D, getBoundary());
+        verify(client).flush();
+    }
+
+    private long getBoundary()
+    {
+        return TimeUnit.MILLISECONDS.toSeconds(Math.round((double) now / INTERVAL_MS) * INTERVAL_MS);
+    }
+
+}
@@ -1,17 +1,29 @@
 package tv.ustream.yolo.client;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import static com.jayway.awaitility.Awaitility.await;
-import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.when;
 
 /**
  * @author bandesz
@@ -19,20 +31,44 @@ import static org.mockito.Mockito.when;
 public class GraphiteClientTest
 {
 
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
     private GraphiteClient client;
 
-    private Socket socket;
+    private ServerSocket serverSocket;
+
+    private final StringBuffer received = new StringBuffer();
+
+    private final ByteArrayOutputStream receivedBytes = new ByteArrayOutputStream();
+
+    private final AtomicInteger connections = new AtomicInteger();
 
-    private ByteArrayOutputStream outputStream;
+    private final AtomicInteger resolves = new AtomicInteger();
+
+    private volatile Socket acceptedSocket;
+
+    private Thread serverThread;
 
     @Before
     public void setUp() throws Exception
     {
-        socket = mock(Socket.class);
-        outputStream = new ByteArrayOutputStream();
-        when(socket.getOutputStream()).thenReturn(outputStream);
+        serverSocket = new ServerSocket(0, 10, InetAddress.getByName("127.0.0.1"));
+        startServer();
 
-        client = createClient("host", 1234, 10, "");
+        client = createClient(serverSocket.getLocalPort(), 10, "");
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        client.stop();
+        serverSocket.close();
+        if (acceptedSocket != null)
+        {
+            acceptedSocket.close();
+        }
+        serverThread.join(1000);
     }
 
     @Test
@@ -40,7 +76,7 @@ public class GraphiteClientTest
     {
         client.sendMetrics("key1", 1234.5);
 
-        await().atMost(500, TimeUnit.MILLISECONDS).until(outputStreamHasData("key1 1234.500000"));
+        await().atMost(500, TimeUnit.MILLISECONDS).until(receivedData("key1 1234.5"));
     }
 
     @Test
@@ -48,17 +84,18 @@ public class GraphiteClientTest
     {
         client.sendMetrics("key1", 1234.5, 1234567890);
 
-        await().atMost(500, TimeUnit.MILLISECONDS).until(outputStreamHasData("key1 1234.500000 1234567890\n"));
+        await().atMost(500, TimeUnit.MILLISECONDS).until(receivedData("key1 1234.5 1234567890\n"));
     }
 
     @Test
     public void shouldUsePrefix() throws Exception
     {
-        client = createClient("host", 1234, 10, "prefix");
+        client.stop();
+        client = createClient(serverSocket.getLocalPort(), 10, "prefix");
 
         client.sendMetrics("key1", 1234.5);
 
-        await().atMost(500, TimeUnit.MILLISECONDS).until(outputStreamHasData("prefix.key1 1234.500000"));
+        await().atMost(500, TimeUnit.MILLISECONDS).until(receivedData("prefix.key1 1234.5"));
     }
 
     @Test
@@ -68,7 +105,7 @@ public class GraphiteClientTest
         client.sendMetrics("key2", 1234.6, 1234567891);
 
         await().atMost(500, TimeUnit.MILLISECONDS).until(
-                outputStreamHasData("key1 1234.500000 1234567890\nkey2 1234.600000 1234567891\n")
+                receivedData("key1 1234.5 1234567890\nkey2 1234.6 1234567891\n")
         );
     }
 
@@ -83,31 +120,298 @@ public class GraphiteClientTest
 
         Thread.sleep(20);
 
-        Assert.assertFalse(outputStream.toString().contains("key1 1234.500000 1234567890\n"));
+        Assert.assertFalse(received.toString().contains("key1 1234.5 1234567890\n"));
+
+    }
+
+    @Test
+    public void stopShouldFlushBufferedData() throws Exception
+    {
+        client.stop();
+        client = createClient(serverSocket.getLocalPort(), 100000, "");
+
+        client.sendMetrics("key1", 1234.5, 1234567890);
+
+        client.stop();
+
+        await().atMost(500, TimeUnit.MILLISECONDS).until(receivedData("key1 1234.5 1234567890\n"));
+    }
+
+    @Test
+    public void connectionShouldBeReused() throws Exception
+    {
+        client.sendMetrics("key1", 1D, 1234567890);
+        await().atMost(500, TimeUnit.MILLISECONDS).until(receivedData("key1 1 1234567890\n"));
+
+        client.sendMetrics("key2", 2D, 1234567890);
+        await().atMost(500, TimeUnit.MILLISECONDS).until(receivedData("key2 2 1234567890\n"));
+
+        Assert.assertEquals(1, connections.get());
+        Assert.assertEquals(1, resolves.get());
+    }
+
+    @Test
+    public void clientShouldReconnectWhenTheConnectionIsClosed() throws Exception
+    {
+        client.sendMetrics("key1", 1D, 1234567890);
+        await().atMost(500, TimeUnit.MILLISECONDS).until(receivedData("key1 1 1234567890\n"));
+
+        acceptedSocket.close();
+
+        for (int i = 0; i < 50 && connections.get() < 2; i++)
+        {
+            client.sendMetrics("key2", 2D, 1234567890);
+            Thread.sleep(50);
+        }
+
+        Assert.assertEquals(2, connections.get());
+        await().atMost(1000, TimeUnit.MILLISECONDS).until(receivedData("key2 2 1234567890\n"));
+    }
+
+    @Test
+    public void unavailableHostShouldNotBlockFlush() throws Exception
+    {
+        int port = closeServer();
+
+        client = createClient(port, 100000, "");
+        client.sendMetrics("key1", 1D, 1234567890);
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 10; i++)
+        {
+            client.flush();
+        }
+
+        Assert.assertTrue(System.currentTimeMillis() - start < 500);
+    }
+
+    @Test
+    public void slowDnsResolutionShouldNotBlockSendMetrics() throws Exception
+    {
+        client.stop();
+
+        final CountDownLatch resolving = new CountDownLatch(1);
+        final CountDownLatch resolved = new CountDownLatch(1);
+        final int port = serverSocket.getLocalPort();
+        client = new GraphiteClient("127.0.0.1", port, 100000, "")
+        {
+            @Override
+            protected InetAddress resolve(final String host) throws UnknownHostException
+            {
+                resolving.countDown();
+                try
+                {
+                    resolved.await();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                return super.resolve(host);
+            }
+        };
+
+        client.sendMetrics("key1", 1D, 1234567890);
+        Thread flusher = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                client.flush();
+            }
+        };
+        flusher.start();
+        Assert.assertTrue(resolving.await(1000, TimeUnit.MILLISECONDS));
+
+        long start = System.currentTimeMillis();
+        client.sendMetrics("key2", 2D, 1234567890);
+        Assert.assertEquals(0, client.getDroppedMetrics());
+        Assert.assertTrue(System.currentTimeMillis() - start < 500);
 
+        resolved.countDown();
+        flusher.join(1000);
+        client.flush();
+
+        await().atMost(1000, TimeUnit.MILLISECONDS).until(receivedData("key1 1 1234567890\nkey2 2 1234567890\n"));
+    }
+
+    @Test
+    public void bufferShouldBeBoundedWhenGraphiteIsDown() throws Exception
+    {
+        int port = closeServer();
+
+        client = createClient(port, 100000, "", 100000, null);
+        for (int i = 0; i < 10000; i++)
+        {
+            client.sendMetrics("some.key" + i, 1D, 1234567890);
+        }
+        client.flush();
+
+        Assert.assertTrue(client.getBufferedBytes() <= 100000);
+        Assert.assertTrue(client.getDroppedMetrics() > 0);
+    }
+
+    @Test
+    public void spilledDataShouldBeSentInOrderWhenGraphiteRecovers() throws Exception
+    {
+        int port = closeServer();
+
+        client = createClient(port, 100000, "", 0, tmpFolder.newFolder());
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 10000; i++)
+        {
+            client.sendMetrics("some.key" + i, 1D, 1234567890);
+            expected.append("some.key").append(i).append(" 1 1234567890\n");
+        }
+        client.flush();
+
+        Assert.assertTrue(client.getSpillBytes() > 0);
+        Assert.assertEquals(0, client.getDroppedMetrics());
+
+        serverSocket = new ServerSocket(port, 10, InetAddress.getByName("127.0.0.1"));
+        startServer();
+
+        for (int i = 0; i < 100 && client.getSpillBytes() > 0; i++)
+        {
+            Thread.sleep(50);
+            client.flush();
+        }
+
+        await().atMost(1000, TimeUnit.MILLISECONDS).until(receivedData(expected.toString()));
+        await().atMost(1000, TimeUnit.MILLISECONDS).until(receivedData("yolo.graphite.spill_bytes "));
+        Assert.assertTrue(received.toString().startsWith(expected.toString()));
+    }
+
+    @Test
+    public void pickleProtocolShouldSendPickledBatches() throws Exception
+    {
+        client.stop();
+        client = createClient(
+                serverSocket.getLocalPort(),
+                100000,
+                "prefix",
+                GraphiteClient.Protocol.PICKLE,
+                GraphiteClient.DEFAULT_MAX_BUFFER_BYTES,
+                null
+        );
+
+        for (int i = 0; i < 5000; i++)
+        {
+            client.sendMetrics("key" + i, i * 0.5, 1234567890);
+        }
+        client.stop();
+
+        final List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 5000; i++)
+        {
+            expected.add("prefix.key" + i + " " + i * 0.5 + " 1234567890");
+        }
+
+        await().atMost(1000, TimeUnit.MILLISECONDS).until(
+                new Callable<Boolean>()
+                {
+                    @Override
+                    public Boolean call() throws Exception
+                    {
+                        ByteBuffer data = ByteBuffer.wrap(receivedBytes.toByteArray());
+                        return expected.equals(GraphitePickleEncoderTest.decode(data));
+                    }
+                }
+        );
+    }
+
+    private int closeServer() throws Exception
+    {
+        int port = serverSocket.getLocalPort();
+        client.stop();
+        serverSocket.close();
+        serverThread.join(1000);
+        return port;
+    }
+
+    private void startServer()
+    {
+        serverThread = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                byte[] data = new byte[1024];
+                while (!serverSocket.isClosed())
+                {
+                    try
+                    {
+                        acceptedSocket = serverSocket.accept();
+                        connections.incrementAndGet();
+                        InputStream in = acceptedSocket.getInputStream();
+                        int length;
+                        while ((length = in.read(data)) >= 0)
+                        {
+                            received.append(new String(data, 0, length, Charset.forName("UTF-8")));
+                            receivedBytes.write(data, 0, length);
+                        }
+                        acceptedSocket.close();
+                    }
+                    catch (IOException e)
+                    {
+                        // the server or the current connection is closed
+                    }
+                }
+            }
+        };
+        serverThread.start();
+    }
+
+    private GraphiteClient createClient(final int port, final long flushTimeMs, final String prefix)
+    {
+        return createClient(port, flushTimeMs, prefix, GraphiteClient.DEFAULT_MAX_BUFFER_BYTES, null);
+    }
+
+    private GraphiteClient createClient(final int port, final long flushTimeMs, final String prefix,
+                                        final long maxBufferBytes, final File spillDirectory)
+    {
+        return createClient(
+                port,
+                flushTimeMs,
+                prefix,
+                GraphiteClient.Protocol.PLAINTEXT,
+                maxBufferBytes,
+                spillDirectory
+        );
     }
 
-    private GraphiteClient createClient(final String host, final int port, final long flushTimeMs, final String prefix)
+    private GraphiteClient createClient(final int port, final long flushTimeMs, final String prefix,
+                                        final GraphiteClient.Protocol protocol, final long maxBufferBytes,
+                                        final File spillDirectory)
     {
-        GraphiteClient newClient = new GraphiteClient(host, port, flushTimeMs, prefix)
+        return new GraphiteClient(
+                "127.0.0.1",
+                port,
+                flushTimeMs,
+                prefix,
+                protocol,
+                maxBufferBytes,
+                spillDirectory,
+                GraphiteClient.DEFAULT_MAX_SPILL_BYTES
+        )
         {
             @Override
-            protected Socket createSocket(final String host, final int port) throws IOException
+            protected InetAddress resolve(final String host) throws UnknownHostException
             {
-                return socket;
+                resolves.incrementAndGet();
+                return super.resolve(host);
             }
         };
-        return newClient;
     }
 
-    public Callable<Boolean> outputStreamHasData(final String data)
+    public Callable<Boolean> receivedData(final String data)
     {
         return new Callable<Boolean>()
         {
             @Override
             public Boolean call() throws Exception
             {
-                return outputStream.toString().contains(data);
+                return received.toString().contains(data);
             }
         };
     }
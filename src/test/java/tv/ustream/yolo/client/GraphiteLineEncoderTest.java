@@ -0,0 +1,97 @@
+package tv.ustream.yolo.client;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.Random;
+
+public class GraphiteLineEncoderTest
+{
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void lineShouldContainPrefixKeyValueAndTimestamp()
+    {
+        Assert.assertEquals("prefix.key1 1234.5 1234567890\n", encode("prefix.", "key1", 1234.5, 1234567890));
+    }
+
+    @Test
+    public void valuesShouldBeWrittenWithTheFewestDigits()
+    {
+        Assert.assertEquals("k 0 1\n", encode("", "k", 0, 1));
+        Assert.assertEquals("k 2 1\n", encode("", "k", 2, 1));
+        Assert.assertEquals("k -2 1\n", encode("", "k", -2, 1));
+        Assert.assertEquals("k 0.1 1\n", encode("", "k", 0.1, 1));
+        Assert.assertEquals("k 0.05 1\n", encode("", "k", 0.05, 1));
+        Assert.assertEquals("k -1234.125 1\n", encode("", "k", -1234.125, 1));
+        Assert.assertEquals("k 0.30000000000000004 1\n", encode("", "k", 0.1 + 0.2, 1));
+        Assert.assertEquals("k 1000000000000000 1\n", encode("", "k", 1e15, 1));
+    }
+
+    @Test
+    public void largeAndSpecialValuesShouldFallBackToDoubleToString()
+    {
+        Assert.assertEquals("k 1.0E20 1\n", encode("", "k", 1e20, 1));
+        Assert.assertEquals("k NaN 1\n", encode("", "k", Double.NaN, 1));
+        Assert.assertEquals("k Infinity 1\n", encode("", "k", Double.POSITIVE_INFINITY, 1));
+    }
+
+    @Test
+    public void valuesShouldRoundTrip()
+    {
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++)
+        {
+            double value = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(20) - 8);
+            String line = encode("", "k", value, 1);
+            String encodedValue = line.substring(2, line.length() - 3);
+
+            Assert.assertEquals(line, value, Double.parseDouble(encodedValue), 0);
+        }
+    }
+
+    @Test
+    public void outputShouldBeIdenticalToStringFormatForSixFractionDigits()
+    {
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++)
+        {
+            double value = (random.nextInt(100000000) * 10 + 1 + random.nextInt(9)) / 1e6;
+            long timestamp = 1400000000 + random.nextInt(100000000);
+
+            Assert.assertEquals(
+                    String.format(Locale.ROOT, "%s%s %f %d\n", "prefix.", "some.key", value, timestamp),
+                    encode("prefix.", "some.key", value, timestamp)
+            );
+        }
+    }
+
+    @Test
+    public void nonAsciiKeyShouldBeEncodedAsUtf8()
+    {
+        Assert.assertEquals("kéy 1 1\n", encode("", "kéy", 1, 1));
+    }
+
+    @Test
+    public void tooLongLineShouldNotChangeTheBuffer()
+    {
+        GraphiteLineEncoder encoder = new GraphiteLineEncoder("prefix.");
+        ByteBuffer buffer = ByteBuffer.allocate(20);
+        buffer.put((byte) 'x');
+
+        Assert.assertFalse(encoder.encode(buffer, "some.long.key", 1234.5, 1234567890));
+        Assert.assertEquals(1, buffer.position());
+    }
+
+    private String encode(final String prefix, final String key, final double value, final long timestamp)
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        Assert.assertTrue(new GraphiteLineEncoder(prefix).encode(buffer, key, value, timestamp));
+        return new String(buffer.array(), 0, buffer.position(), UTF_8);
+    }
+
+}
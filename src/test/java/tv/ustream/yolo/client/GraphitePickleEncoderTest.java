@@ -0,0 +1,145 @@
+package tv.ustream.yolo.client;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+public class GraphitePickleEncoderTest
+{
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void batchShouldBeALengthPrefixedPickle()
+    {
+        GraphitePickleEncoder encoder = new GraphitePickleEncoder("prefix.");
+        ByteBuffer batch = ByteBuffer.allocate(1024);
+
+        encoder.startBatch(batch);
+        Assert.assertTrue(encoder.encode(batch, "key1", 1234.5, 1234567890));
+        Assert.assertTrue(encoder.encode(batch, "kéy2", -2, 1234567891));
+        encoder.finishBatch(batch);
+        batch.flip();
+
+        Assert.assertEquals(batch.remaining() - 4, batch.getInt(0));
+        Assert.assertEquals(
+                "[prefix.key1 1234.5 1234567890, prefix.kéy2 -2.0 1234567891]",
+                decode(batch).toString()
+        );
+    }
+
+    @Test
+    public void largeTimestampShouldBeEncodedAsLong()
+    {
+        GraphitePickleEncoder encoder = new GraphitePickleEncoder("");
+        ByteBuffer batch = ByteBuffer.allocate(1024);
+
+        encoder.startBatch(batch);
+        encoder.encode(batch, "key1", 1, 4000000000L);
+        encoder.finishBatch(batch);
+        batch.flip();
+
+        Assert.assertEquals("[key1 1.0 4000000000]", decode(batch).toString());
+    }
+
+    @Test
+    public void tooLongMetricShouldNotChangeTheBuffer()
+    {
+        GraphitePickleEncoder encoder = new GraphitePickleEncoder("");
+        ByteBuffer batch = ByteBuffer.allocate(30);
+        encoder.startBatch(batch);
+        int position = batch.position();
+
+        Assert.assertFalse(encoder.encode(batch, "some.long.key", 1, 1));
+        Assert.assertEquals(position, batch.position());
+    }
+
+    /**
+     * Decodes the complete length-prefixed pickles of (path, (timestamp, value)) lists into "path value timestamp"
+     * items
+     */
+    static List<String> decode(final ByteBuffer data)
+    {
+        List<String> metrics = new ArrayList<String>();
+        while (data.remaining() >= 4 && data.getInt(data.position()) <= data.remaining() - 4)
+        {
+            int length = data.getInt();
+            ByteBuffer pickle = data.slice();
+            pickle.limit(length);
+            data.position(data.position() + length);
+            decodePickle(pickle, metrics);
+        }
+        return metrics;
+    }
+
+    private static void decodePickle(final ByteBuffer pickle, final List<String> metrics)
+    {
+        List<Object> stack = new ArrayList<Object>();
+        while (true)
+        {
+            int opcode = pickle.get() & 0xff;
+            switch (opcode)
+            {
+                case 0x80:
+                    Assert.assertEquals(2, pickle.get());
+                    break;
+                case ']':
+                    stack.add(new ArrayList<Object>());
+                    break;
+                case '(':
+                    stack.add(Mark.MARK);
+                    break;
+                case 'X':
+                    byte[] text = new byte[pickle.order(ByteOrder.LITTLE_ENDIAN).getInt()];
+                    pickle.order(ByteOrder.BIG_ENDIAN).get(text);
+                    stack.add(new String(text, UTF_8));
+                    break;
+                case 'J':
+                    stack.add((long) pickle.order(ByteOrder.LITTLE_ENDIAN).getInt());
+                    pickle.order(ByteOrder.BIG_ENDIAN);
+                    break;
+                case 0x8a:
+                    Assert.assertEquals(8, pickle.get());
+                    stack.add(pickle.order(ByteOrder.LITTLE_ENDIAN).getLong());
+                    pickle.order(ByteOrder.BIG_ENDIAN);
+                    break;
+                case 'G':
+                    stack.add(pickle.getDouble());
+                    break;
+                case 0x86:
+                    Object second = stack.remove(stack.size() - 1);
+                    Object first = stack.remove(stack.size() - 1);
+                    stack.add(new Object[] {first, second});
+                    break;
+                case 'e':
+                    int mark = stack.lastIndexOf(Mark.MARK);
+                    List<Object> items = new ArrayList<Object>(stack.subList(mark + 1, stack.size()));
+                    stack.subList(mark, stack.size()).clear();
+                    for (Object item : items)
+                    {
+                        Object[] metric = (Object[]) item;
+                        Object[] point = (Object[]) metric[1];
+                        metrics.add(metric[0] + " " + point[1] + " " + point[0]);
+                    }
+                    break;
+                case '.':
+                    Assert.assertEquals(1, stack.size());
+                    Assert.assertFalse(pickle.hasRemaining());
+                    return;
+                default:
+                    Assert.fail("Unexpected opcode: " + opcode);
+            }
+        }
+    }
+
+    private static enum Mark
+    {
+        MARK
+    }
+
+}
@@ -0,0 +1,224 @@
+package tv.ustream.yolo.client;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import static com.jayway.awaitility.Awaitility.await;
+
+public class InfluxDbClientTest
+{
+
+    private HttpServer server;
+
+    private final List<String> bodies = new CopyOnWriteArrayList<String>();
+
+    private final List<String> encodings = new CopyOnWriteArrayList<String>();
+
+    private final Queue<Integer> statuses = new ConcurrentLinkedQueue<Integer>();
+
+    private InfluxDbClient client;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/write", new HttpHandler()
+        {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException
+            {
+                String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+                InputStream input = exchange.getRequestBody();
+                if ("gzip".equals(encoding))
+                {
+                    input = new GZIPInputStream(input);
+                }
+                bodies.add(read(input));
+                encodings.add(String.valueOf(encoding));
+
+                Integer status = statuses.poll();
+                exchange.sendResponseHeaders(status != null ? status : 204, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown()
+    {
+        if (client != null)
+        {
+            client.stop();
+        }
+        server.stop(0);
+    }
+
+    @Test
+    public void fullBatchShouldBeSent() throws IOException
+    {
+        client = createClient(2, 60000, 1024, 0, true);
+
+        client.write("m v=1 1");
+        client.write("m v=2 2");
+
+        await().atMost(1000, TimeUnit.MILLISECONDS).until(sentLines(2));
+        Assert.assertEquals("m v=1 1\nm v=2 2\n", bodies.get(0));
+        Assert.assertEquals("gzip", encodings.get(0));
+    }
+
+    @Test
+    public void batchShouldBeSentAfterFlushTime() throws IOException
+    {
+        client = createClient(100, 50, 1024, 0, false);
+
+        client.write("m v=1 1");
+
+        await().atMost(1000, TimeUnit.MILLISECONDS).until(sentLines(1));
+        Assert.assertEquals("m v=1 1\n", bodies.get(0));
+        Assert.assertEquals("null", encodings.get(0));
+    }
+
+    @Test
+    public void serverErrorShouldBeRetried() throws IOException
+    {
+        statuses.add(500);
+        statuses.add(503);
+        client = createClient(1, 60000, 1024, 2, true);
+
+        client.write("m v=1 1");
+
+        await().atMost(2000, TimeUnit.MILLISECONDS).until(sentLines(1));
+        Assert.assertEquals(3, bodies.size());
+        Assert.assertEquals(0, client.getDroppedLines());
+    }
+
+    @Test
+    public void batchShouldBeDroppedAfterRetries() throws IOException
+    {
+        statuses.add(500);
+        statuses.add(500);
+        client = createClient(1, 60000, 1024, 1, true);
+
+        client.write("m v=1 1");
+        client.write("m v=2 2");
+
+        await().atMost(2000, TimeUnit.MILLISECONDS).until(sentLines(1));
+        Assert.assertEquals(1, client.getDroppedLines());
+        Assert.assertEquals("m v=2 2\n", bodies.get(2));
+    }
+
+    @Test
+    public void rejectedBatchShouldNotBeRetried() throws IOException
+    {
+        statuses.add(400);
+        client = createClient(1, 60000, 1024, 3, true);
+
+        client.write("m v=1 1");
+        client.write("m v=2 2");
+
+        await().atMost(1000, TimeUnit.MILLISECONDS).until(sentLines(1));
+        Assert.assertEquals(2, bodies.size());
+        Assert.assertEquals(1, client.getDroppedLines());
+    }
+
+    @Test
+    public void linesShouldBeDroppedIfBufferIsFull() throws IOException
+    {
+        client = createClient(1, 60000, 4, 0, true);
+
+        client.write("m v=1 1");
+
+        Assert.assertEquals(1, client.getDroppedLines());
+        Assert.assertEquals(0, client.getBufferedBytes());
+    }
+
+    @Test
+    public void stopShouldSendRemainingLines() throws IOException
+    {
+        client = createClient(100, 60000, 1024, 0, true);
+
+        client.write("m v=1 1");
+        client.stop();
+
+        Assert.assertEquals(1, client.getSentLines());
+        Assert.assertEquals("m v=1 1\n", bodies.get(0));
+        client = null;
+    }
+
+    @Test
+    public void unavailableServerShouldNotBlockWriting() throws IOException
+    {
+        server.stop(0);
+        client = createClient(1, 60000, 1024, 0, true);
+
+        for (int i = 0; i < 10; i++)
+        {
+            client.write("m v=1 1");
+        }
+
+        await().atMost(2000, TimeUnit.MILLISECONDS).until(droppedLines(10));
+    }
+
+    private InfluxDbClient createClient(final int batchSize, final long flushTimeMs, final long maxBufferBytes,
+                                        final int maxRetries, final boolean gzip) throws IOException
+    {
+        URL url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/write?db=test");
+        return new InfluxDbClient(url, batchSize, flushTimeMs, maxBufferBytes, maxRetries, gzip);
+    }
+
+    private Callable<Boolean> sentLines(final long lines)
+    {
+        return new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call() throws Exception
+            {
+                return client.getSentLines() == lines;
+            }
+        };
+    }
+
+    private Callable<Boolean> droppedLines(final long lines)
+    {
+        return new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call() throws Exception
+            {
+                return client.getDroppedLines() == lines;
+            }
+        };
+    }
+
+    private String read(final InputStream input) throws IOException
+    {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int length;
+        while ((length = input.read(buffer)) != -1)
+        {
+            result.write(buffer, 0, length);
+        }
+        return result.toString("UTF-8");
+    }
+
+}
@@ -0,0 +1,51 @@
+package tv.ustream.yolo.client;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class InfluxLineEncoderTest
+{
+
+    @Test
+    public void measurementShouldEscapeCommasAndSpaces()
+    {
+        StringBuilder target = new StringBuilder();
+        InfluxLineEncoder.appendMeasurement(target, "a b,c=d");
+        Assert.assertEquals("a\\ b\\,c=d", target.toString());
+    }
+
+    @Test
+    public void keyShouldEscapeEqualSigns()
+    {
+        StringBuilder target = new StringBuilder();
+        InfluxLineEncoder.appendKey(target, "a b,c=d");
+        Assert.assertEquals("a\\ b\\,c\\=d", target.toString());
+    }
+
+    @Test
+    public void stringShouldBeQuoted()
+    {
+        StringBuilder target = new StringBuilder();
+        InfluxLineEncoder.appendString(target, "a \"b\" \\c\nd");
+        Assert.assertEquals("\"a \\\"b\\\" \\\\c d\"", target.toString());
+    }
+
+    @Test
+    public void lineBreaksShouldBeReplaced()
+    {
+        StringBuilder target = new StringBuilder();
+        InfluxLineEncoder.appendKey(target, "a\nb");
+        Assert.assertEquals("a\\ b", target.toString());
+    }
+
+    @Test
+    public void numbersShouldBeWrittenShort()
+    {
+        StringBuilder target = new StringBuilder();
+        InfluxLineEncoder.appendNumber(target, 3);
+        target.append(' ');
+        InfluxLineEncoder.appendNumber(target, -1.25);
+        Assert.assertEquals("3 -1.25", target.toString());
+    }
+
+}
@@ -0,0 +1,244 @@
+package tv.ustream.yolo.client;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PrometheusRegistryTest
+{
+
+    private PrometheusRegistry registry;
+
+    @Before
+    public void setUp()
+    {
+        registry = new PrometheusRegistry(new double[]{1, 0.5}, 3);
+    }
+
+    @Test
+    public void counterShouldBeWritten()
+    {
+        PrometheusRegistry.Family family = registry.register(
+                "requests_total", PrometheusRegistry.Type.COUNTER, "Requests", new String[]{"status"}
+        );
+
+        family.getCell(createLabels("200")).add(1);
+        family.getCell(createLabels("200")).add(2.5);
+
+        Assert.assertEquals(
+                "# HELP requests_total Requests\n"
+                        + "# TYPE requests_total counter\n"
+                        + "requests_total{status=\"200\"} 3.5\n",
+                write()
+        );
+    }
+
+    @Test
+    public void gaugeShouldKeepLastValue()
+    {
+        PrometheusRegistry.Family family = registry.register(
+                "temperature", PrometheusRegistry.Type.GAUGE, null, new String[0]
+        );
+
+        family.getCell(createLabels()).set(5);
+        family.getCell(createLabels()).set(3);
+
+        Assert.assertEquals("# TYPE temperature gauge\ntemperature 3\n", write());
+    }
+
+    @Test
+    public void histogramShouldHaveCumulativeBuckets()
+    {
+        PrometheusRegistry.Family family = registry.register(
+                "latency", PrometheusRegistry.Type.HISTOGRAM, null, new String[0]
+        );
+
+        PrometheusRegistry.Cell cell = family.getCell(createLabels());
+        cell.observe(0.25);
+        cell.observe(0.5);
+        cell.observe(0.75);
+        cell.observe(2);
+
+        Assert.assertEquals(
+                "# TYPE latency histogram\n"
+                        + "latency_bucket{le=\"0.5\"} 2\n"
+                        + "latency_bucket{le=\"1\"} 3\n"
+                        + "latency_bucket{le=\"+Inf\"} 4\n"
+                        + "latency_sum 3.5\n"
+                        + "latency_count 4\n",
+                write()
+        );
+    }
+
+    @Test
+    public void labelValuesShouldBeEscaped()
+    {
+        PrometheusRegistry.Family family = registry.register(
+                "x", PrometheusRegistry.Type.COUNTER, "a\\b\nc", new String[]{"path"}
+        );
+
+        family.getCell(createLabels("\"a\"\\\n")).add(1);
+
+        Assert.assertEquals(
+                "# HELP x a\\\\b\\nc\n# TYPE x counter\nx{path=\"\\\"a\\\"\\\\\\n\"} 1\n",
+                write()
+        );
+    }
+
+    @Test
+    public void probeShouldBeReusable()
+    {
+        PrometheusRegistry.Family family = registry.register(
+                "x", PrometheusRegistry.Type.COUNTER, null, new String[]{"a"}
+        );
+
+        PrometheusRegistry.LabelSet probe = new PrometheusRegistry.LabelSet(1);
+        probe.set(0, "1");
+        probe.update();
+        PrometheusRegistry.Cell cell1 = family.getCell(probe);
+        probe.set(0, "2");
+        probe.update();
+        PrometheusRegistry.Cell cell2 = family.getCell(probe);
+        probe.set(0, "1");
+        probe.update();
+
+        Assert.assertNotSame(cell1, cell2);
+        Assert.assertSame(cell1, family.getCell(probe));
+    }
+
+    @Test
+    public void seriesAboveLimitShouldBeDropped()
+    {
+        PrometheusRegistry.Family family = registry.register(
+                "x", PrometheusRegistry.Type.COUNTER, null, new String[]{"a"}
+        );
+
+        for (int i = 0; i < 5; i++)
+        {
+            PrometheusRegistry.Cell cell = family.getCell(createLabels(String.valueOf(i)));
+            if (i < 3)
+            {
+                Assert.assertNotNull(cell);
+            }
+            else
+            {
+                Assert.assertNull(cell);
+            }
+        }
+
+        Assert.assertNotNull(family.getCell(createLabels("0")));
+        Assert.assertEquals(2, registry.getDroppedSeries());
+    }
+
+    @Test
+    public void registerShouldReturnExistingFamily()
+    {
+        PrometheusRegistry.Family family = registry.register(
+                "x", PrometheusRegistry.Type.COUNTER, null, new String[]{"a"}
+        );
+
+        Assert.assertSame(
+                family,
+                registry.register("x", PrometheusRegistry.Type.COUNTER, null, new String[]{"a"})
+        );
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void registerShouldFailOnDifferentType()
+    {
+        registry.register("x", PrometheusRegistry.Type.COUNTER, null, new String[0]);
+        registry.register("x", PrometheusRegistry.Type.GAUGE, null, new String[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void registerShouldFailOnInvalidName()
+    {
+        registry.register("a.b", PrometheusRegistry.Type.COUNTER, null, new String[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void registerShouldFailOnReservedLabel()
+    {
+        registry.register("x", PrometheusRegistry.Type.HISTOGRAM, null, new String[]{"le"});
+    }
+
+    @Test
+    public void concurrentAddsShouldNotBeLost() throws InterruptedException
+    {
+        final PrometheusRegistry.Cell cell = registry.register(
+                "x", PrometheusRegistry.Type.COUNTER, null, new String[0]
+        ).getCell(createLabels());
+
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++)
+        {
+            threads[i] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for (int j = 0; j < 10000; j++)
+                    {
+                        cell.add(1);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+
+        Assert.assertEquals(40000D, cell.getValue(), 0);
+    }
+
+    @Test
+    public void nextRegistryShouldTakeOverUnchangedFamilies()
+    {
+        registry.register("kept", PrometheusRegistry.Type.COUNTER, null, new String[0])
+                .getCell(createLabels()).add(1);
+        registry.register("changed", PrometheusRegistry.Type.COUNTER, null, new String[0])
+                .getCell(createLabels()).add(1);
+        registry.register("removed", PrometheusRegistry.Type.COUNTER, null, new String[0])
+                .getCell(createLabels()).add(1);
+
+        registry = registry.next();
+        registry.register("kept", PrometheusRegistry.Type.COUNTER, null, new String[0]);
+        PrometheusRegistry.Family changed = registry.register(
+                "changed", PrometheusRegistry.Type.GAUGE, null, new String[0]
+        );
+        registry.retirePrevious();
+
+        // the limit is 3 series, the series of the changed and removed families are released
+        changed.getCell(createLabels()).set(5);
+        registry.register("new", PrometheusRegistry.Type.COUNTER, null, new String[0])
+                .getCell(createLabels()).add(1);
+
+        String metrics = write();
+        Assert.assertTrue(metrics.contains("kept 1\n"));
+        Assert.assertTrue(metrics.contains("# TYPE changed gauge\nchanged 5\n"));
+        Assert.assertTrue(metrics.contains("new 1\n"));
+        Assert.assertFalse(metrics.contains("removed"));
+        Assert.assertEquals(0, registry.getDroppedSeries());
+    }
+
+    private PrometheusRegistry.LabelSet createLabels(final String... values)
+    {
+        PrometheusRegistry.LabelSet labels = new PrometheusRegistry.LabelSet(values.length);
+        for (int i = 0; i < values.length; i++)
+        {
+            labels.set(i, values[i]);
+        }
+        labels.update();
+        return labels;
+    }
+
+    private String write()
+    {
+        StringBuilder result = new StringBuilder();
+        registry.write(result);
+        return result.toString();
+    }
+
+}
@@ -0,0 +1,222 @@
+package tv.ustream.yolo.client;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import static com.jayway.awaitility.Awaitility.await;
+
+public class RollingFileWriterTest
+{
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String path;
+
+    @Before
+    public void setUp()
+    {
+        path = new File(folder.getRoot(), "out/events").getPath();
+    }
+
+    @Test
+    public void recordsShouldBeWrittenOnStop() throws Exception
+    {
+        RollingFileWriter writer = createWriter(null, 1024 * 1024, 0, false, 1024);
+
+        write(writer, "a\n", "b\n");
+        writer.stop();
+
+        File[] files = listFiles();
+        Assert.assertEquals(1, files.length);
+        Assert.assertTrue(files[0].getName().matches("events-\\d{8}-\\d{6}-0\\.txt"));
+        Assert.assertEquals("a\nb\n", read(files[0]));
+        Assert.assertEquals(2, writer.getWrittenRecords());
+        Assert.assertEquals(4, writer.getWrittenBytes());
+    }
+
+    @Test
+    public void filesShouldRollBySize() throws Exception
+    {
+        RollingFileWriter writer = createWriter("h\n", 10, 0, false, 6);
+
+        write(writer, "111\n", "222\n", "333\n", "444\n", "555\n");
+        writer.stop();
+
+        File[] files = listFiles();
+        Assert.assertEquals(3, files.length);
+        Assert.assertEquals("h\n111\n222\n", read(files[0]));
+        Assert.assertEquals("h\n333\n444\n", read(files[1]));
+        Assert.assertEquals("h\n555\n", read(files[2]));
+    }
+
+    @Test
+    public void largeRecordShouldGetOwnBlock() throws Exception
+    {
+        RollingFileWriter writer = createWriter(null, 1024, 0, false, 4);
+
+        write(writer, "a\n", "0123456789\n", "b\n");
+        writer.stop();
+
+        Assert.assertEquals("a\n0123456789\nb\n", read(listFiles()[0]));
+    }
+
+    @Test
+    public void partialBlockShouldBeWrittenAfterFlushTime() throws Exception
+    {
+        RollingFileWriter writer = createWriter(null, 1024 * 1024, 0, false, 1024);
+        try
+        {
+            write(writer, "a\n");
+
+            await().atMost(2000, TimeUnit.MILLISECONDS).until(new Callable<Boolean>()
+            {
+                @Override
+                public Boolean call() throws Exception
+                {
+                    File[] files = listFiles();
+                    return files.length == 1 && files[0].getName().endsWith(".part") && files[0].length() == 2;
+                }
+            });
+        }
+        finally
+        {
+            writer.stop();
+        }
+    }
+
+    @Test
+    public void filesShouldRollByTime() throws Exception
+    {
+        RollingFileWriter writer = createWriter(null, 1024 * 1024, 200, false, 1024);
+        try
+        {
+            write(writer, "a\n");
+
+            await().atMost(2000, TimeUnit.MILLISECONDS).until(new Callable<Boolean>()
+            {
+                @Override
+                public Boolean call() throws Exception
+                {
+                    File[] files = listFiles();
+                    return files.length == 1 && files[0].getName().endsWith(".txt");
+                }
+            });
+        }
+        finally
+        {
+            writer.stop();
+        }
+    }
+
+    @Test
+    public void closedFilesShouldBeCompressed() throws Exception
+    {
+        RollingFileWriter writer = createWriter(null, 4, 0, true, 4);
+
+        write(writer, "aaa\n", "bbb\n");
+        writer.stop();
+
+        File[] files = listFiles();
+        Assert.assertEquals(2, files.length);
+        Assert.assertTrue(files[0].getName().endsWith(".txt.gz"));
+        Assert.assertEquals("aaa\n", read(new GZIPInputStream(new FileInputStream(files[0]))));
+        Assert.assertEquals("bbb\n", read(new GZIPInputStream(new FileInputStream(files[1]))));
+    }
+
+    @Test
+    public void blocksFailedToWriteShouldBeCountedAsDropped() throws Exception
+    {
+        RollingFileWriter writer = createWriter(null, 1024, 0, false, 1024);
+        Assert.assertTrue(new File(folder.getRoot(), "out").delete());
+
+        write(writer, "a\n", "b\n");
+        writer.stop();
+
+        Assert.assertEquals(2, writer.getWrittenRecords());
+        Assert.assertEquals(0, writer.getWrittenBytes());
+        Assert.assertEquals(4, writer.getDroppedBytes());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void writeShouldFailAfterStop() throws Exception
+    {
+        RollingFileWriter writer = createWriter(null, 1024, 0, false, 1024);
+        writer.stop();
+
+        write(writer, "a\n");
+    }
+
+    private RollingFileWriter createWriter(final String header, final long maxFileSize, final long rollTimeMs,
+                                           final boolean compress, final int blockSize)
+    {
+        return new RollingFileWriter(
+                path,
+                ".txt",
+                header != null ? header.getBytes(UTF_8) : null,
+                maxFileSize,
+                rollTimeMs,
+                compress,
+                blockSize,
+                4,
+                50
+        );
+    }
+
+    private void write(final RollingFileWriter writer, final String... records) throws InterruptedException
+    {
+        for (String record : records)
+        {
+            writer.write(ByteBuffer.wrap(record.getBytes(UTF_8)));
+        }
+    }
+
+    private File[] listFiles()
+    {
+        File[] files = new File(folder.getRoot(), "out").listFiles();
+        Arrays.sort(files);
+        return files;
+    }
+
+    private String read(final File file) throws IOException
+    {
+        return read(new FileInputStream(file));
+    }
+
+    private String read(final InputStream input) throws IOException
+    {
+        try
+        {
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int length;
+            while ((length = input.read(buffer)) != -1)
+            {
+                result.write(buffer, 0, length);
+            }
+            return result.toString("UTF-8");
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+}
@@ -0,0 +1,115 @@
+package tv.ustream.yolo.client;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+public class SpillQueueTest
+{
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        directory = tmpFolder.newFolder();
+    }
+
+    @Test
+    public void batchesShouldBeReturnedInOrder()
+    {
+        SpillQueue queue = new SpillQueue(directory, 1024, 10000);
+
+        Assert.assertTrue(queue.offer(createBatch("a 1 1\n", 1)));
+        Assert.assertTrue(queue.offer(createBatch("b 2 2\nc 3 3\n", 2)));
+
+        assertBatch("a 1 1\n", 1, queue.poll());
+        assertBatch("b 2 2\nc 3 3\n", 2, queue.poll());
+        Assert.assertNull(queue.poll());
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void onlyTheRemainingDataShouldBeStored()
+    {
+        SpillQueue queue = new SpillQueue(directory, 1024, 10000);
+        MetricBatch batch = createBatch("a 1 1\nb 2 2\n", 2);
+        batch.getData().position(6);
+
+        queue.offer(batch);
+
+        assertBatch("b 2 2\n", 2, queue.poll());
+        Assert.assertEquals(6, batch.getData().position());
+    }
+
+    @Test
+    public void fullSegmentsShouldBeRolledAndDeleted()
+    {
+        SpillQueue queue = new SpillQueue(directory, 20, 10000);
+
+        for (int i = 0; i < 5; i++)
+        {
+            Assert.assertTrue(queue.offer(createBatch("k " + i + " 1\n", 1)));
+        }
+
+        Assert.assertEquals(5, directory.listFiles().length);
+        Assert.assertEquals(5 * 14, queue.getBytes());
+
+        for (int i = 0; i < 5; i++)
+        {
+            assertBatch("k " + i + " 1\n", 1, queue.poll());
+        }
+
+        Assert.assertEquals(0, directory.listFiles().length);
+        Assert.assertEquals(0, queue.getBytes());
+    }
+
+    @Test
+    public void queueShouldBeBounded()
+    {
+        SpillQueue queue = new SpillQueue(directory, 1024, 30);
+
+        Assert.assertTrue(queue.offer(createBatch("k 1 1\n", 1)));
+        Assert.assertTrue(queue.offer(createBatch("k 2 1\n", 1)));
+        Assert.assertFalse(queue.offer(createBatch("k 3 1\n", 1)));
+        Assert.assertFalse(queue.offer(createBatch(new String(new char[2000]), 1)));
+    }
+
+    @Test
+    public void closeShouldDeleteTheSegments()
+    {
+        SpillQueue queue = new SpillQueue(directory, 1024, 10000);
+        queue.offer(createBatch("k 1 1\n", 1));
+
+        queue.close();
+
+        Assert.assertEquals(0, directory.listFiles().length);
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+    private MetricBatch createBatch(final String data, final int metrics)
+    {
+        return new MetricBatch(ByteBuffer.wrap(data.getBytes(UTF_8)), metrics);
+    }
+
+    private void assertBatch(final String data, final int metrics, final MetricBatch batch)
+    {
+        Assert.assertNotNull(batch);
+        byte[] bytes = new byte[batch.getData().remaining()];
+        batch.getData().get(bytes);
+        Assert.assertEquals(data, new String(bytes, UTF_8));
+        Assert.assertEquals(metrics, batch.getMetrics());
+    }
+
+}
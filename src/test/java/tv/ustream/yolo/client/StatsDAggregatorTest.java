@@ -0,0 +1,177 @@
+package tv.ustream.yolo.client;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+public class StatsDAggregatorTest
+{
+
+    private StatsDClient client;
+
+    private StatsDAggregator aggregator;
+
+    @Before
+    public void setUp()
+    {
+        client = mock(StatsDClient.class);
+        aggregator = new StatsDAggregator(client, TimeUnit.HOURS.toMillis(1), 3);
+    }
+
+    @After
+    public void tearDown()
+    {
+        aggregator.stop();
+    }
+
+    @Test
+    public void countersShouldBeSummed()
+    {
+        aggregator.count("key1", 1);
+        aggregator.count("key1", 2);
+        aggregator.count("key2", 5);
+
+        aggregator.flush();
+
+        verify(client).count("key1", 3, 1);
+        verify(client).count("key2", 5, 1);
+        verify(client, atLeastOnce()).flush();
+        verifyNoMoreInteractions(client);
+    }
+
+    @Test
+    public void gaugesShouldSendTheLastValue()
+    {
+        aggregator.gauge("key1", 1);
+        aggregator.gauge("key1", 7);
+
+        aggregator.flush();
+
+        verify(client).gauge("key1", 7);
+        verify(client, atLeastOnce()).flush();
+        verifyNoMoreInteractions(client);
+    }
+
+    @Test
+    public void timerSamplesShouldBeSentAndLimited()
+    {
+        for (int i = 1; i <= 5; i++)
+        {
+            aggregator.time("key1", i);
+        }
+
+        aggregator.flush();
+
+        verify(client).time("key1", 1, 0.6);
+        verify(client).time("key1", 2, 0.6);
+        verify(client).time("key1", 3, 0.6);
+        verify(client, atLeastOnce()).flush();
+        verifyNoMoreInteractions(client);
+    }
+
+    @Test
+    public void flushShouldSendOnlyNewValues()
+    {
+        aggregator.count("key1", 1);
+        aggregator.gauge("key2", 2);
+        aggregator.time("key3", 3);
+        aggregator.flush();
+
+        aggregator.flush();
+        aggregator.flush();
+
+        aggregator.count("key1", 4);
+        aggregator.time("key3", 5);
+        aggregator.flush();
+
+        verify(client).count("key1", 1, 1);
+        verify(client).gauge("key2", 2);
+        verify(client).time("key3", 3, 1);
+        verify(client).count("key1", 4, 1);
+        verify(client).time("key3", 5, 1);
+        verify(client, atLeastOnce()).flush();
+        verifyNoMoreInteractions(client);
+    }
+
+    @Test
+    public void countersShouldKeepFractionsAndLargeValues()
+    {
+        aggregator.count("key1", Integer.MAX_VALUE);
+        aggregator.count("key1", 10.5);
+
+        aggregator.flush();
+
+        verify(client).count("key1", Integer.MAX_VALUE + 10.5, 1);
+    }
+
+    @Test
+    public void timerSamplesShouldKeepTheSourceSampleRate()
+    {
+        aggregator.time("key1", 1.5, 0.5);
+
+        aggregator.flush();
+
+        verify(client).time("key1", 1.5, 0.5);
+    }
+
+    @Test
+    public void concurrentCountsShouldNotBeLost() throws InterruptedException
+    {
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++)
+        {
+            threads[i] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for (int j = 0; j < 10000; j++)
+                    {
+                        aggregator.count("key1", 1);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+
+        aggregator.flush();
+
+        verify(client).count("key1", 40000, 1);
+    }
+
+    @Test
+    public void stopShouldFlushValues()
+    {
+        aggregator.count("key1", 1);
+
+        aggregator.stop();
+
+        verify(client).count("key1", 1, 1);
+    }
+
+    @Test
+    public void valuesShouldBeFlushedPeriodically()
+    {
+        aggregator.stop();
+        aggregator = new StatsDAggregator(client, 10, 3);
+
+        aggregator.count("key1", 2);
+
+        verify(client, timeout(500).times(1)).count("key1", 2, 1);
+        verify(client, times(1)).count("key1", 2, 1);
+    }
+
+}
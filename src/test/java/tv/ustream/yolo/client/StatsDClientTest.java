@@ -0,0 +1,172 @@
+package tv.ustream.yolo.client;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.charset.Charset;
+
+public class StatsDClientTest
+{
+
+    private static final long NO_FLUSH = 3600000;
+
+    private DatagramSocket receiver;
+
+    private StatsDClient client;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        receiver = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+        receiver.setSoTimeout(1000);
+    }
+
+    @After
+    public void tearDown()
+    {
+        if (client != null)
+        {
+            client.stop();
+        }
+        receiver.close();
+    }
+
+    @Test
+    public void metricsShouldBeSentOnFlush() throws IOException
+    {
+        client = createClient("prefix", StatsDClient.DEFAULT_MAX_PACKET_SIZE, NO_FLUSH);
+
+        client.count("key1", 5, 1);
+        client.flush();
+
+        Assert.assertEquals("prefix.key1:5|c", receive());
+    }
+
+    @Test
+    public void multipleMetricsShouldBePackedInOneDatagram() throws IOException
+    {
+        client = createClient("", StatsDClient.DEFAULT_MAX_PACKET_SIZE, NO_FLUSH);
+
+        client.count("key1", 1, 1);
+        client.time("key2", 2.5, 0.25);
+        client.gauge("key3", 1234567.125);
+        client.flush();
+
+        Assert.assertEquals("key1:1|c\nkey2:2.5|ms|@0.25\nkey3:1234567.125|g", receive());
+    }
+
+    @Test
+    public void negativeGaugeShouldBeSentAfterZero() throws IOException
+    {
+        client = createClient("", StatsDClient.DEFAULT_MAX_PACKET_SIZE, NO_FLUSH);
+
+        client.gauge("key1", -3);
+        client.flush();
+
+        Assert.assertEquals("key1:0|g\nkey1:-3|g", receive());
+    }
+
+    @Test
+    public void datagramsShouldNotExceedTheMaxPacketSize() throws IOException
+    {
+        client = createClient("", 20, NO_FLUSH);
+
+        client.count("key1", 1, 1);
+        client.count("key2", 2, 1);
+        client.count("key3", 3, 1);
+        client.flush();
+
+        Assert.assertEquals("key1:1|c\nkey2:2|c", receive());
+        Assert.assertEquals("key3:3|c", receive());
+    }
+
+    @Test
+    public void tooLongMetricShouldBeDropped() throws IOException
+    {
+        client = createClient("", 20, NO_FLUSH);
+
+        client.count("some.very.long.key.name", 1, 1);
+        client.count("key1", 1, 1);
+        client.flush();
+
+        Assert.assertEquals("key1:1|c", receive());
+    }
+
+    @Test
+    public void metricsShouldBeFlushedPeriodically() throws IOException
+    {
+        client = createClient("", StatsDClient.DEFAULT_MAX_PACKET_SIZE, 10);
+
+        client.time("key1", 0.001, 1);
+
+        Assert.assertEquals("key1:0.001|ms", receive());
+    }
+
+    @Test
+    public void emptyBufferShouldNotBeSent() throws IOException
+    {
+        client = createClient("", StatsDClient.DEFAULT_MAX_PACKET_SIZE, NO_FLUSH);
+        receiver.setSoTimeout(50);
+
+        client.flush();
+
+        try
+        {
+            receive();
+            Assert.fail("No datagram should be sent");
+        }
+        catch (SocketTimeoutException e)
+        {
+            Assert.assertEquals(0, client.getDroppedPackets());
+        }
+    }
+
+    @Test
+    public void packetsShouldBeDroppedIfTheHostCantBeResolved() throws IOException
+    {
+        int port = receiver.getLocalPort();
+        client = new StatsDClient("", "unknown", port, StatsDClient.DEFAULT_MAX_PACKET_SIZE, NO_FLUSH)
+        {
+            @Override
+            protected InetAddress resolve(final String host) throws UnknownHostException
+            {
+                throw new UnknownHostException(host);
+            }
+        };
+        receiver.setSoTimeout(50);
+
+        client.count("key", 1, 1);
+        client.flush();
+
+        try
+        {
+            receive();
+            Assert.fail("No datagram should be sent");
+        }
+        catch (SocketTimeoutException e)
+        {
+            Assert.assertEquals(1, client.getDroppedPackets());
+        }
+    }
+
+    private StatsDClient createClient(final String prefix, final int maxPacketSize, final long flushTimeMs)
+    {
+        return new StatsDClient(prefix, "127.0.0.1", receiver.getLocalPort(), maxPacketSize, flushTimeMs);
+    }
+
+    private String receive() throws IOException
+    {
+        DatagramPacket packet = new DatagramPacket(new byte[2048], 2048);
+        receiver.receive(packet);
+        return new String(packet.getData(), 0, packet.getLength(), Charset.forName("UTF-8"));
+    }
+
+}
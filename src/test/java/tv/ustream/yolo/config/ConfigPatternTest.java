@@ -122,4 +122,58 @@ public class ConfigPatternTest
 
         Assert.assertNull(actual);
     }
+
+    @Test
+    public void applyValuesShouldSubstituteGlobalParameters()
+    {
+        ConfigPattern.addGlobalParameter("GLOBAL_PARAM2", "g1");
+
+        ConfigPattern pattern = new ConfigPattern("#GLOBAL_PARAM2#.#p1#");
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("p1", "v1");
+
+        Assert.assertEquals("g1.v1", pattern.applyValues(params));
+    }
+
+    @Test
+    public void globalParameterChangeShouldBeApplied()
+    {
+        ConfigPattern pattern = new ConfigPattern("#GLOBAL_PARAM3#.#p1#");
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("p1", "v1");
+
+        Assert.assertNull(pattern.applyValues(params));
+
+        ConfigPattern.addGlobalParameter("GLOBAL_PARAM3", "g1");
+
+        Assert.assertEquals("g1.v1", pattern.applyValues(params));
+    }
+
+    @Test
+    public void applyValuesShouldConvertNonStringValues()
+    {
+        ConfigPattern pattern = new ConfigPattern("text #p1# #p2#");
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("p1", 5);
+        params.put("p2", new StringBuilder("v2"));
+
+        Assert.assertEquals("text 5 v2", pattern.applyValues(params));
+        Assert.assertEquals("5", new ConfigPattern("#p1#").applyValues(params));
+    }
+
+    @Test
+    public void appendValuesShouldAppendToTheBuilder()
+    {
+        ConfigPattern pattern = new ConfigPattern("a.#p1#.b");
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("p1", "v1");
+
+        StringBuilder builder = new StringBuilder("x:");
+
+        Assert.assertTrue(pattern.appendValues(params, builder));
+        Assert.assertEquals("x:a.v1.b", builder.toString());
+
+        Assert.assertFalse(pattern.appendValues(new HashMap<String, Object>(), builder));
+    }
+
 }
@@ -197,6 +197,24 @@ public class FileHandlerTest
         await().atMost(5000, TimeUnit.MILLISECONDS).until(equalsHandledLines("l1\nl2\nl3\n"));
     }
 
+    @Test
+    public void shouldPassGzipLinesInBuffersToCharSequenceLineHandler() throws Exception
+    {
+        String filename = "shouldTailNewFile.test";
+
+        testLineHandler = new TestCharSequenceLineHandler();
+
+        setupGzipFileHandler(filename, false);
+
+        Thread.sleep(100);
+
+        setUpGzipTestFile(filename, "l1\nl2\nl3\n", 0);
+
+        await().atMost(5000, TimeUnit.MILLISECONDS).until(equalsHandledLines("l1\nl2\nl3\n"));
+
+        Assert.assertEquals(0, ((TestCharSequenceLineHandler) testLineHandler).stringLines);
+    }
+
     @Test
     public void shouldWaitForWatchedDirectoryToBeCreated() throws Exception
     {
@@ -294,4 +312,26 @@ public class FileHandlerTest
         }
     }
 
+    private class TestCharSequenceLineHandler extends TestLineHandler implements ICharSequenceLineHandler
+    {
+        public int stringLines = 0;
+
+        @Override
+        public void handle(final String line)
+        {
+            stringLines++;
+            super.handle(line);
+        }
+
+        @Override
+        public void handle(final CharSequence line)
+        {
+            if (line instanceof String)
+            {
+                stringLines++;
+            }
+            handledLines += line + "\n";
+        }
+    }
+
 }
@@ -0,0 +1,95 @@
+package tv.ustream.yolo.module;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LineCacheTest
+{
+
+    @Test
+    public void getShouldReturnStoredValue()
+    {
+        LineCache<String> cache = new LineCache<String>(10, 10000);
+        cache.put("line1", "value1", 0);
+
+        Assert.assertEquals("value1", cache.get("line1"));
+        Assert.assertNull(cache.get("line2"));
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+        Assert.assertEquals(0.5, cache.getHitRatio(), 0.0001);
+    }
+
+    @Test
+    public void getShouldAcceptAnyCharSequence()
+    {
+        LineCache<String> cache = new LineCache<String>(10, 10000);
+        cache.put(new StringBuilder("line1"), "value1", 0);
+
+        Assert.assertEquals("value1", cache.get("line1"));
+        Assert.assertEquals("value1", cache.get(new StringBuilder("line1")));
+        Assert.assertNull(cache.get(new StringBuilder("line")));
+    }
+
+    @Test
+    public void leastRecentlyUsedEntryShouldBeEvicted()
+    {
+        LineCache<String> cache = new LineCache<String>(2, 10000);
+        cache.put("line1", "value1", 0);
+        cache.put("line2", "value2", 0);
+        cache.get("line1");
+        cache.put("line3", "value3", 0);
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals("value1", cache.get("line1"));
+        Assert.assertNull(cache.get("line2"));
+        Assert.assertEquals("value3", cache.get("line3"));
+    }
+
+    @Test
+    public void memoryLimitShouldBeKept()
+    {
+        LineCache<String> cache = new LineCache<String>(1000, 1000);
+        for (int i = 0; i < 100; i++)
+        {
+            cache.put("line" + i, "value" + i, 100);
+        }
+
+        Assert.assertTrue(cache.getMemoryBytes() <= 1000);
+        Assert.assertTrue(cache.size() > 0);
+        Assert.assertEquals("value99", cache.get("line99"));
+    }
+
+    @Test
+    public void tooLargeEntryShouldNotBeStored()
+    {
+        LineCache<String> cache = new LineCache<String>(10, 1000);
+        cache.put("line1", "value1", 2000);
+
+        Assert.assertNull(cache.get("line1"));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void putShouldReplaceExistingEntry()
+    {
+        LineCache<String> cache = new LineCache<String>(10, 10000);
+        cache.put("line1", "value1", 0);
+        cache.put("line1", "value2", 0);
+
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals("value2", cache.get("line1"));
+    }
+
+    @Test
+    public void clearShouldRemoveAllEntries()
+    {
+        LineCache<String> cache = new LineCache<String>(10, 10000);
+        cache.put("line1", "value1", 0);
+        cache.clear();
+
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(0, cache.getMemoryBytes());
+        Assert.assertNull(cache.get("line1"));
+    }
+
+}
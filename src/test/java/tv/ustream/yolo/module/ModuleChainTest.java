@@ -2,19 +2,30 @@ package tv.ustream.yolo.module;
 
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import tv.ustream.yolo.config.ConfigException;
+import tv.ustream.yolo.module.parser.ICharSequenceParser;
 import tv.ustream.yolo.module.parser.IParser;
 import tv.ustream.yolo.module.processor.CompositeProcessor;
+import tv.ustream.yolo.module.processor.ICompiledProcessor;
+import tv.ustream.yolo.module.processor.IPlanCompiledProcessor;
 import tv.ustream.yolo.module.processor.IProcessor;
 
 import static org.mockito.Mockito.anyMap;
 import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
@@ -39,12 +50,14 @@ public class ModuleChainTest
 
     private IProcessor processor2;
 
+    private ModuleFactory moduleFactory;
+
     private ModuleChain moduleChain;
 
     @Before
     public void setUp() throws Exception
     {
-        ModuleFactory moduleFactory = mock(ModuleFactory.class);
+        moduleFactory = mock(ModuleFactory.class);
         parser1 = mock(IParser.class);
         parser2 = mock(IParser.class);
         processor1 = mock(IProcessor.class);
@@ -74,7 +87,7 @@ public class ModuleChainTest
         addModule(config, "processors", "pr1", createProcessorConfig("processor1"));
         addModule(config, "parsers", "pa1", createParserConfig("parser1", "pr1", new HashMap<String, Object>()));
 
-        moduleChain.updateConfig(config, true);
+        moduleChain.updateConfig(config);
 
         when(parser1.parse(anyString())).thenReturn(new HashMap<String, Object>());
 
@@ -91,7 +104,7 @@ public class ModuleChainTest
         addModule(config, "processors", "pr1", createProcessorConfig("processor1"));
         addModule(config, "parsers", "pa3", createParserConfig("parser3", "pr3", new HashMap<String, Object>()));
 
-        moduleChain.updateConfig(config, true);
+        moduleChain.updateConfig(config);
 
         when(parser1.parse(anyString())).thenReturn(new HashMap<String, Object>());
 
@@ -110,7 +123,7 @@ public class ModuleChainTest
         addModule(config, "parsers", "pa1", createParserConfig("parser1", "pr1", new HashMap<String, Object>()));
         addModule(config, "parsers", "pa2", createParserConfig("parser2", "pr2", new HashMap<String, Object>()));
 
-        moduleChain.updateConfig(config, true);
+        moduleChain.updateConfig(config);
 
         when(parser1.parse(anyString())).thenReturn(null);
         when(parser2.parse(anyString())).thenReturn(new HashMap<String, Object>());
@@ -132,7 +145,7 @@ public class ModuleChainTest
         addModule(config, "parsers", "pa1", createParserConfig("parser1", "pr1", new HashMap<String, Object>()));
         addModule(config, "parsers", "pa2", createParserConfig("parser2", "pr2", new HashMap<String, Object>()));
 
-        moduleChain.updateConfig(config, true);
+        moduleChain.updateConfig(config);
 
         when(parser1.parse("t1")).thenReturn(null);
         when(parser2.parse("t1")).thenReturn(new HashMap<String, Object>());
@@ -147,6 +160,192 @@ public class ModuleChainTest
         verify(processor2, times(1)).process(anyMap(), anyMap());
     }
 
+    @Test
+    public void parsersShouldBeTriedInConfigOrder() throws Exception
+    {
+        Map<String, Object> config = new HashMap<String, Object>();
+
+        addModule(config, "processors", "pr1", createProcessorConfig("processor1"));
+        addModule(config, "processors", "pr2", createProcessorConfig("processor2"));
+        addModule(config, "parsers", "pa2", createParserConfig("parser2", "pr2", new HashMap<String, Object>()));
+        addModule(config, "parsers", "pa1", createParserConfig("parser1", "pr1", new HashMap<String, Object>()));
+
+        moduleChain.updateConfig(config);
+
+        when(parser1.parse(anyString())).thenReturn(new HashMap<String, Object>());
+        when(parser2.parse(anyString())).thenReturn(new HashMap<String, Object>());
+
+        moduleChain.handle("some text");
+
+        verify(processor1, never()).process(anyMap(), anyMap());
+        verify(processor2).process(anyMap(), anyMap());
+        Assert.assertEquals(1, moduleChain.getAverageAttemptsPerLine(), 0.0001);
+    }
+
+    @Test
+    public void parserWithHigherPriorityShouldBeTriedFirst() throws Exception
+    {
+        Map<String, Object> config = new HashMap<String, Object>();
+
+        Map<String, Object> parser1Config = createParserConfig("parser1", "pr1", new HashMap<String, Object>());
+        parser1Config.put("priority", 1);
+
+        addModule(config, "processors", "pr1", createProcessorConfig("processor1"));
+        addModule(config, "processors", "pr2", createProcessorConfig("processor2"));
+        addModule(config, "parsers", "pa2", createParserConfig("parser2", "pr2", new HashMap<String, Object>()));
+        addModule(config, "parsers", "pa1", parser1Config);
+
+        moduleChain.updateConfig(config);
+
+        when(parser1.parse(anyString())).thenReturn(new HashMap<String, Object>());
+        when(parser2.parse(anyString())).thenReturn(new HashMap<String, Object>());
+
+        moduleChain.handle("some text");
+
+        verify(processor1).process(anyMap(), anyMap());
+        verify(processor2, never()).process(anyMap(), anyMap());
+    }
+
+    @Test
+    public void runAlwaysParserShouldNotPreventMatching() throws Exception
+    {
+        when(parser1.runAlways()).thenReturn(true);
+
+        Map<String, Object> config = new HashMap<String, Object>();
+
+        addModule(config, "processors", "pr1", createProcessorConfig("processor1"));
+        addModule(config, "processors", "pr2", createProcessorConfig("processor2"));
+        addModule(config, "parsers", "pa1", createParserConfig("parser1", "pr1", new HashMap<String, Object>()));
+        addModule(config, "parsers", "pa2", createParserConfig("parser2", "pr2", new HashMap<String, Object>()));
+
+        moduleChain.updateConfig(config);
+
+        when(parser1.parse(anyString())).thenReturn(new HashMap<String, Object>());
+        when(parser2.parse(anyString())).thenReturn(new HashMap<String, Object>());
+
+        moduleChain.handle("some text");
+
+        verify(processor1).process(anyMap(), anyMap());
+        verify(processor2).process(anyMap(), anyMap());
+    }
+
+    @Test
+    public void lineCacheShouldMemoizeParserResults() throws Exception
+    {
+        Map<String, Object> config = new HashMap<String, Object>();
+        config.put("lineCacheSize", 10);
+
+        addModule(config, "processors", "pr1", createProcessorConfig("processor1"));
+        addModule(config, "processors", "pr2", createProcessorConfig("processor2"));
+        addModule(config, "parsers", "pa1", createParserConfig("parser1", "pr1", new HashMap<String, Object>()));
+        addModule(config, "parsers", "pa2", createParserConfig("parser2", "pr2", new HashMap<String, Object>()));
+
+        moduleChain.updateConfig(config);
+
+        Map<String, Object> parserOut = new HashMap<String, Object>();
+        parserOut.put("key2", "value2");
+
+        when(parser1.parse("t1")).thenReturn(null);
+        when(parser2.parse("t1")).thenReturn(parserOut);
+        when(parser1.parse("t2")).thenReturn(null);
+        when(parser2.parse("t2")).thenReturn(null);
+
+        moduleChain.handle("t1");
+        moduleChain.handle("t1");
+        moduleChain.handle("t2");
+        moduleChain.handle("t2");
+
+        verify(parser1, times(1)).parse("t1");
+        verify(parser2, times(1)).parse("t1");
+        verify(parser2, times(1)).parse("t2");
+        verify(processor2, times(2)).process(eq(parserOut), anyMap());
+        verify(processor1, never()).process(anyMap(), anyMap());
+
+        Assert.assertEquals(2, moduleChain.getLineCache().getHits());
+        Assert.assertEquals(2, moduleChain.getLineCache().getMisses());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void cachedParserOutputShouldBeReadOnly() throws Exception
+    {
+        Map<String, Object> config = createSimpleConfig("processor1");
+        config.put("lineCacheSize", 10);
+
+        moduleChain.updateConfig(config);
+
+        Map<String, Object> parserOut = new HashMap<String, Object>();
+        parserOut.put("key", "value");
+        when(parser1.parse("t1")).thenReturn(parserOut);
+
+        moduleChain.handle("t1");
+
+        ArgumentCaptor<Map> output = ArgumentCaptor.forClass(Map.class);
+        verify(processor1).process(output.capture(), anyMap());
+        Assert.assertEquals(parserOut, output.getValue());
+
+        output.getValue().put("key", "other");
+    }
+
+    @Test
+    public void lineCacheShouldBeInvalidatedOnConfigUpdate() throws Exception
+    {
+        Map<String, Object> config = new HashMap<String, Object>();
+        config.put("lineCacheSize", 10);
+
+        addModule(config, "processors", "pr1", createProcessorConfig("processor1"));
+        addModule(config, "parsers", "pa1", createParserConfig("parser1", "pr1", new HashMap<String, Object>()));
+
+        moduleChain.updateConfig(config);
+
+        when(parser1.parse("t1")).thenReturn(new HashMap<String, Object>());
+
+        moduleChain.handle("t1");
+
+        Map<String, Object> config2 = new HashMap<String, Object>();
+        config2.put("lineCacheSize", 10);
+
+        addModule(config2, "processors", "pr1", createProcessorConfig("processor1"));
+        addModule(config2, "parsers", "pa1", createParserConfig("parser1", "pr1", new HashMap<String, Object>()));
+
+        moduleChain.updateConfig(config2);
+
+        moduleChain.handle("t1");
+
+        verify(parser1, times(2)).parse("t1");
+    }
+
+    @Test
+    public void charSequenceShouldBeConvertedOnlyForStringParsers() throws Exception
+    {
+        ModuleFactory moduleFactory = mock(ModuleFactory.class);
+        ICharSequenceParser charSequenceParser = mock(ICharSequenceParser.class);
+        when(moduleFactory.createParser(eq("pa1"), anyMap())).thenReturn(charSequenceParser);
+        when(moduleFactory.createParser(eq("pa2"), anyMap())).thenReturn(parser2);
+        when(moduleFactory.createProcessor(eq("pr1"), anyMap())).thenReturn(processor1);
+        when(moduleFactory.createProcessor(eq("pr2"), anyMap())).thenReturn(processor2);
+        moduleChain = new ModuleChain(moduleFactory);
+
+        Map<String, Object> config = new HashMap<String, Object>();
+
+        addModule(config, "processors", "pr1", createProcessorConfig("processor1"));
+        addModule(config, "processors", "pr2", createProcessorConfig("processor2"));
+        addModule(config, "parsers", "pa1", createParserConfig("parser1", "pr1", new HashMap<String, Object>()));
+        addModule(config, "parsers", "pa2", createParserConfig("parser2", "pr2", new HashMap<String, Object>()));
+
+        moduleChain.updateConfig(config);
+
+        StringBuilder line = new StringBuilder("some text");
+
+        when(charSequenceParser.parse(line)).thenReturn(null);
+        when(parser2.parse("some text")).thenReturn(new HashMap<String, Object>());
+
+        moduleChain.handle(line);
+
+        verify(charSequenceParser).parse(line);
+        verify(charSequenceParser, never()).parse(anyString());
+        verify(processor2).process(anyMap(), anyMap());
+    }
+
     @Test
     public void runAlwaysParsersShouldRunAlways() throws Exception
     {
@@ -160,7 +359,7 @@ public class ModuleChainTest
         addModule(config, "parsers", "pa1", createParserConfig("parser1", "pr1", new HashMap<String, Object>()));
         addModule(config, "parsers", "pa2", createParserConfig("parser2", "pr2", new HashMap<String, Object>()));
 
-        moduleChain.updateConfig(config, true);
+        moduleChain.updateConfig(config);
 
         when(parser1.parse(anyString())).thenReturn(new HashMap<String, Object>());
         when(parser2.parse(anyString())).thenReturn(new HashMap<String, Object>());
@@ -183,7 +382,7 @@ public class ModuleChainTest
         addModule(config, "processors", "pr1", createProcessorConfig("processor1"));
         addModule(config, "parsers", "pa1", createParserConfig("parser1", "pr1", processParams));
 
-        moduleChain.updateConfig(config, true);
+        moduleChain.updateConfig(config);
 
         Map<String, Object> parserOut = new HashMap<String, Object>();
         parserOut.put("key2", "value2");
@@ -205,7 +404,7 @@ public class ModuleChainTest
         addModule(config, "processors", "pr1", createProcessorConfig("processor1"));
         addModule(config, "parsers", "pa1", createParserConfig("parser1", "prX", new HashMap<String, Object>()));
 
-        moduleChain.updateConfig(config, true);
+        moduleChain.updateConfig(config);
     }
 
     @Test
@@ -221,7 +420,7 @@ public class ModuleChainTest
         addModule(config, "processors", "pr3", pr3Config);
         addModule(config, "parsers", "pa1", createParserConfig("parser1", "pr3", new HashMap<String, Object>()));
 
-        moduleChain.updateConfig(config, true);
+        moduleChain.updateConfig(config);
 
         when(parser1.parse(anyString())).thenReturn(new HashMap<String, Object>());
 
@@ -252,7 +451,7 @@ public class ModuleChainTest
         addModule(config, "processors", "pr2", createProcessorConfig("processor2"));
         addModule(config, "parsers", "pa1", parserConfig);
 
-        moduleChain.updateConfig(config, true);
+        moduleChain.updateConfig(config);
 
         when(parser1.parse(anyString())).thenReturn(new HashMap<String, Object>());
 
@@ -263,6 +462,132 @@ public class ModuleChainTest
         verify(processor2).process(anyMap(), anyMap());
     }
 
+    @Test
+    public void processorShouldRunOnlyIfConditionsMatch() throws Exception
+    {
+        Map<String, Object> condition = new HashMap<String, Object>();
+        condition.put("field", "status");
+        condition.put("min", 500);
+
+        Map<String, Object> processParams = new HashMap<String, Object>();
+        processParams.put("conditions", Arrays.<Object>asList(condition));
+
+        Map<String, Object> config = new HashMap<String, Object>();
+
+        addModule(config, "processors", "pr1", createProcessorConfig("processor1"));
+        addModule(config, "parsers", "pa1", createParserConfig("parser1", "pr1", processParams));
+
+        when(parser1.getOutputKeys()).thenReturn(Arrays.asList("status"));
+
+        moduleChain.updateConfig(config);
+
+        Map<String, Object> output1 = new HashMap<String, Object>();
+        output1.put("status", "200");
+        Map<String, Object> output2 = new HashMap<String, Object>();
+        output2.put("status", "503");
+
+        when(parser1.parse("t1")).thenReturn(output1);
+        when(parser1.parse("t2")).thenReturn(output2);
+
+        moduleChain.handle("t1");
+        moduleChain.handle("t2");
+
+        verify(processor1, never()).process(eq(output1), anyMap());
+        verify(processor1).process(output2, new HashMap<String, Object>());
+    }
+
+    @Test
+    public void conditionsShouldBeKeptInTheConfig() throws Exception
+    {
+        Map<String, Object> condition = new HashMap<String, Object>();
+        condition.put("field", "status");
+        condition.put("min", 500);
+
+        Map<String, Object> processParams = new HashMap<String, Object>();
+        processParams.put("conditions", Arrays.<Object>asList(condition));
+
+        Map<String, Object> config = new HashMap<String, Object>();
+
+        addModule(config, "processors", "pr1", createProcessorConfig("processor1"));
+        addModule(config, "parsers", "pa1", createParserConfig("parser1", "pr1", processParams));
+
+        when(parser1.getOutputKeys()).thenReturn(Arrays.asList("status"));
+
+        moduleChain.updateConfig(config);
+        moduleChain.updateConfig(config);
+
+        Assert.assertTrue(processParams.containsKey("conditions"));
+
+        Map<String, Object> output = new HashMap<String, Object>();
+        output.put("status", "200");
+        when(parser1.parse("t1")).thenReturn(output);
+
+        moduleChain.handle("t1");
+
+        verify(processor1, never()).process(anyMap(), anyMap());
+    }
+
+    @Test
+    public void compiledProcessorShouldGetCompiledParams() throws Exception
+    {
+        ICompiledProcessor<Object> compiledProcessor = mock(ICompiledProcessor.class);
+        when(moduleFactory.createProcessor(eq("pr4"), anyMap())).thenReturn(compiledProcessor);
+
+        Object compiledParams = new Object();
+        when(compiledProcessor.compileProcessParams(anyMap())).thenReturn(compiledParams);
+
+        Map<String, Object> config = new HashMap<String, Object>();
+
+        addModule(config, "processors", "pr4", createProcessorConfig("processor4"));
+        addModule(config, "parsers", "pa1", createParserConfig("parser1", "pr4", new HashMap<String, Object>()));
+
+        moduleChain.updateConfig(config);
+
+        Map<String, Object> output = new HashMap<String, Object>();
+        when(parser1.parse("some text")).thenReturn(output);
+
+        moduleChain.handle("some text");
+        moduleChain.handle("some text");
+
+        verify(compiledProcessor, times(1)).compileProcessParams(anyMap());
+        verify(compiledProcessor, times(2)).processCompiled(output, compiledParams);
+        verify(compiledProcessor, never()).process(anyMap(), anyMap());
+    }
+
+    @Test
+    public void planCompiledProcessorShouldBeNotifiedAboutThePlan() throws Exception
+    {
+        IPlanCompiledProcessor<Object> planProcessor = mock(IPlanCompiledProcessor.class);
+        when(moduleFactory.createProcessor(eq("pr4"), anyMap())).thenReturn(planProcessor);
+
+        Map<String, Object> config = new HashMap<String, Object>();
+
+        addModule(config, "processors", "pr4", createProcessorConfig("processor4"));
+        addModule(config, "parsers", "pa1", createParserConfig("parser1", "pr4", new HashMap<String, Object>()));
+
+        moduleChain.updateConfig(config);
+
+        InOrder inOrder = inOrder(planProcessor);
+        inOrder.verify(planProcessor).beginPlan();
+        inOrder.verify(planProcessor).compileProcessParams(anyMap());
+        inOrder.verify(planProcessor).commitPlan();
+
+        addModule(config, "parsers", "pa2", createParserConfig("parser2", "pr5", new HashMap<String, Object>()));
+
+        try
+        {
+            moduleChain.updateConfig(config);
+            Assert.fail("ConfigException expected");
+        }
+        catch (ConfigException e)
+        {
+            verify(planProcessor, times(2)).beginPlan();
+            verify(planProcessor).abortPlan();
+            verify(planProcessor, times(1)).commitPlan();
+            verify(planProcessor, never()).stop();
+        }
+    }
+
     @Test
     public void configShouldBeUpdated() throws Exception
     {
@@ -271,7 +596,7 @@ public class ModuleChainTest
         addModule(config, "processors", "pr1", createProcessorConfig("processor1"));
         addModule(config, "parsers", "pa1", createParserConfig("parser1", "pr1", new HashMap<String, Object>()));
 
-        moduleChain.updateConfig(config, true);
+        moduleChain.updateConfig(config);
 
         when(parser1.parse("some text")).thenReturn(new HashMap<String, Object>());
 
@@ -284,17 +609,172 @@ public class ModuleChainTest
         addModule(config2, "processors", "pr2", createProcessorConfig("processor2"));
         addModule(config2, "parsers", "pa2", createParserConfig("parser2", "pr2", new HashMap<String, Object>()));
 
-        moduleChain.updateConfig(config2, true);
-
-        verify(processor1).stop();
+        moduleChain.updateConfig(config2);
 
         when(parser2.parse("some text")).thenReturn(new HashMap<String, Object>());
 
         moduleChain.handle("some text");
 
+        verify(processor1).stop();
+
         verify(processor2, times(1)).process(anyMap(), anyMap());
     }
 
+    @Test
+    public void unchangedModulesShouldBeKeptOnConfigUpdate() throws Exception
+    {
+        moduleChain.updateConfig(createSimpleConfig("processor1"));
+        moduleChain.updateConfig(createSimpleConfig("processor1"));
+
+        when(parser1.parse("some text")).thenReturn(new HashMap<String, Object>());
+
+        moduleChain.handle("some text");
+
+        verify(moduleFactory, times(1)).createProcessor(eq("pr1"), anyMap());
+        verify(moduleFactory, times(1)).createParser(eq("pa1"), anyMap());
+        verify(processor1, never()).stop();
+        verify(processor1).process(anyMap(), anyMap());
+    }
+
+    @Test
+    public void changedProcessorShouldBeReplacedAndStopped() throws Exception
+    {
+        IProcessor processor4 = mock(IProcessor.class);
+        when(moduleFactory.createProcessor(eq("pr1"), anyMap())).thenReturn(processor1, processor4);
+
+        moduleChain.updateConfig(createSimpleConfig("processor1"));
+        moduleChain.updateConfig(createSimpleConfig("processor4"));
+
+        verify(processor1).stop();
+
+        when(parser1.parse("some text")).thenReturn(new HashMap<String, Object>());
+
+        moduleChain.handle("some text");
+
+        verify(processor1, never()).process(anyMap(), anyMap());
+        verify(processor4).process(anyMap(), anyMap());
+        verify(moduleFactory, times(1)).createParser(eq("pa1"), anyMap());
+    }
+
+    @Test
+    public void processorInUseShouldBeStoppedAfterTheCurrentLine() throws Exception
+    {
+        moduleChain.updateConfig(createSimpleConfig("processor1"));
+
+        final Map<String, Object> config2 = new HashMap<String, Object>();
+        addModule(config2, "processors", "pr2", createProcessorConfig("processor2"));
+        addModule(config2, "parsers", "pa2", createParserConfig("parser2", "pr2", new HashMap<String, Object>()));
+
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(final InvocationOnMock invocation) throws Throwable
+            {
+                moduleChain.updateConfig(config2);
+                verify(processor1, never()).stop();
+                return null;
+            }
+        }).when(processor1).process(anyMap(), anyMap());
+
+        when(parser1.parse("some text")).thenReturn(new HashMap<String, Object>());
+
+        moduleChain.handle("some text");
+
+        verify(processor1).stop();
+        verify(processor2, never()).stop();
+    }
+
+    @Test
+    public void compositeProcessorShouldBeRecreatedIfSubProcessorChanges() throws Exception
+    {
+        Map<String, Object> config = createSimpleConfig("processor1");
+        addModule(config, "processors", "pr3", createCompositeProcessorConfig());
+
+        moduleChain.updateConfig(config);
+
+        Map<String, Object> config2 = createSimpleConfig("processor1");
+        addModule(config2, "processors", "pr3", createCompositeProcessorConfig());
+
+        moduleChain.updateConfig(config2);
+
+        verify(moduleFactory, times(1)).createProcessor(eq("pr3"), anyMap());
+
+        Map<String, Object> config3 = createSimpleConfig("processor4");
+        addModule(config3, "processors", "pr3", createCompositeProcessorConfig());
+
+        moduleChain.updateConfig(config3);
+
+        verify(moduleFactory, times(2)).createProcessor(eq("pr3"), anyMap());
+    }
+
+    @Test
+    public void stopShouldStopRetiredProcessors() throws Exception
+    {
+        moduleChain.updateConfig(createSimpleConfig("processor1"));
+
+        Map<String, Object> config2 = new HashMap<String, Object>();
+        addModule(config2, "processors", "pr2", createProcessorConfig("processor2"));
+        addModule(config2, "parsers", "pa2", createParserConfig("parser2", "pr2", new HashMap<String, Object>()));
+
+        moduleChain.updateConfig(config2);
+
+        moduleChain.stop();
+
+        verify(processor1).stop();
+        verify(processor2).stop();
+    }
+
+    @Test
+    public void invalidConfigShouldKeepThePreviousPlan() throws Exception
+    {
+        Map<String, Object> config = new HashMap<String, Object>();
+
+        addModule(config, "processors", "pr1", createProcessorConfig("processor1"));
+        addModule(config, "parsers", "pa1", createParserConfig("parser1", "pr1", new HashMap<String, Object>()));
+
+        moduleChain.updateConfig(config);
+
+        Map<String, Object> config2 = new HashMap<String, Object>();
+
+        addModule(config2, "processors", "pr2", createProcessorConfig("processor2"));
+        addModule(config2, "parsers", "pa2", createParserConfig("parser2", "pr1", new HashMap<String, Object>()));
+
+        try
+        {
+            moduleChain.updateConfig(config2);
+            Assert.fail("ConfigException expected");
+        }
+        catch (ConfigException e)
+        {
+            verify(processor2).stop();
+            verify(processor1, never()).stop();
+        }
+
+        when(parser1.parse("some text")).thenReturn(new HashMap<String, Object>());
+
+        moduleChain.handle("some text");
+
+        verify(processor1, times(1)).process(anyMap(), anyMap());
+    }
+
+    private Map<String, Object> createSimpleConfig(final String processorClass)
+    {
+        Map<String, Object> config = new HashMap<String, Object>();
+
+        addModule(config, "processors", "pr1", createProcessorConfig(processorClass));
+        addModule(config, "parsers", "pa1", createParserConfig("parser1", "pr1", new HashMap<String, Object>()));
+
+        return config;
+    }
+
+    private Map<String, Object> createCompositeProcessorConfig()
+    {
+        Map<String, Object> config = new HashMap<String, Object>();
+        config.put("class", CompositeProcessor.class.getCanonicalName());
+        config.put("processors", Arrays.asList("pr1"));
+        return config;
+    }
+
     private Map<String, Object> createProcessorConfig(final String clazz)
     {
         Map<String, Object> config = new HashMap<String, Object>();
@@ -319,7 +799,7 @@ public class ModuleChainTest
     {
         if (!config.containsKey(type))
         {
-            config.put(type, new HashMap<String, Object>());
+            config.put(type, new LinkedHashMap<String, Object>());
         }
 
         ((Map<String, Object>) config.get(type)).put(name, moduleConfig);
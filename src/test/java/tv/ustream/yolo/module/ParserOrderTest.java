@@ -0,0 +1,97 @@
+package tv.ustream.yolo.module;
+
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ParserOrderTest
+{
+
+    @Test
+    public void itemsShouldBeInDeclarationOrder()
+    {
+        ParserOrder<String> order = new ParserOrder<String>(false);
+        order.add("c", 0);
+        order.add("a", 0);
+        order.add("b", 0);
+
+        Assert.assertEquals(Arrays.asList("c", "a", "b"), order.getItems());
+    }
+
+    @Test
+    public void higherPriorityShouldComeFirst()
+    {
+        ParserOrder<String> order = new ParserOrder<String>(false);
+        order.add("low", -1);
+        order.add("normal", 0);
+        order.add("high", 10);
+        order.add("normal2", 0);
+
+        Assert.assertEquals(Arrays.asList("high", "normal", "normal2", "low"), order.getItems());
+    }
+
+    @Test
+    public void staticOrderShouldNotChange()
+    {
+        ParserOrder<String> order = new ParserOrder<String>(false, 2);
+        order.add("a", 0);
+        order.add("b", 0);
+
+        for (int i = 0; i < 10; i++)
+        {
+            order.record(2, 1);
+        }
+
+        Assert.assertEquals(Arrays.asList("a", "b"), order.getItems());
+    }
+
+    @Test
+    public void adaptiveOrderShouldMoveFrequentMatchesForward()
+    {
+        ParserOrder<String> order = new ParserOrder<String>(true, 10);
+        order.add("a", 0);
+        order.add("b", 0);
+        order.add("c", 0);
+
+        for (int i = 0; i < 10; i++)
+        {
+            order.record(3, 2);
+        }
+
+        Assert.assertEquals(Arrays.asList("c", "a", "b"), order.getItems());
+    }
+
+    @Test
+    public void adaptiveOrderShouldKeepPriorityBands()
+    {
+        ParserOrder<String> order = new ParserOrder<String>(true, 10);
+        order.add("high", 1);
+        order.add("a", 0);
+        order.add("b", 0);
+
+        for (int i = 0; i < 10; i++)
+        {
+            order.record(3, 2);
+        }
+
+        Assert.assertEquals(Arrays.asList("high", "b", "a"), order.getItems());
+    }
+
+    @Test
+    public void averageAttemptsPerLineShouldBeCalculated()
+    {
+        ParserOrder<String> order = new ParserOrder<String>(false);
+        order.add("a", 0);
+        order.add("b", 0);
+
+        Assert.assertEquals(0, order.getAverageAttemptsPerLine(), 0.0001);
+
+        order.record(1, 0);
+        order.record(2, 1);
+        order.record(2, -1);
+        order.record(1, 0);
+
+        Assert.assertEquals(1.5, order.getAverageAttemptsPerLine(), 0.0001);
+    }
+
+}
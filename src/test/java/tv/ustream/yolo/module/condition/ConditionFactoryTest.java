@@ -0,0 +1,179 @@
+package tv.ustream.yolo.module.condition;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import tv.ustream.yolo.config.ConfigException;
+
+public class ConditionFactoryTest
+{
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void equalsConditionShouldCompareValues() throws ConfigException
+    {
+        ICondition condition = create(createCondition("method", "equals", "GET"));
+
+        Assert.assertTrue(condition.matches(createValues("method", "GET")));
+        Assert.assertTrue(condition.matches(createValues("method", new StringBuilder("GET"))));
+        Assert.assertFalse(condition.matches(createValues("method", "POST")));
+        Assert.assertFalse(condition.matches(createValues("other", "GET")));
+    }
+
+    @Test
+    public void equalsConditionShouldCompareIntegralNumbersWithoutFraction() throws ConfigException
+    {
+        ICondition condition = create(createCondition("status", "equals", 500.0));
+
+        Assert.assertTrue(condition.matches(createValues("status", "500")));
+        Assert.assertTrue(condition.matches(createValues("status", 500)));
+        Assert.assertFalse(condition.matches(createValues("status", "501")));
+    }
+
+    @Test
+    public void rangeConditionShouldCheckBounds() throws ConfigException
+    {
+        Map<String, Object> config = createCondition("status", "min", 500);
+        config.put("max", 599);
+        ICondition condition = create(config);
+
+        Assert.assertTrue(condition.matches(createValues("status", "500")));
+        Assert.assertTrue(condition.matches(createValues("status", new StringBuilder("599"))));
+        Assert.assertTrue(condition.matches(createValues("status", 550.5)));
+        Assert.assertFalse(condition.matches(createValues("status", "499")));
+        Assert.assertFalse(condition.matches(createValues("status", "600")));
+        Assert.assertFalse(condition.matches(createValues("status", "abc")));
+        Assert.assertFalse(condition.matches(createValues("status", "")));
+        Assert.assertFalse(condition.matches(createValues("other", "500")));
+    }
+
+    @Test
+    public void rangeConditionShouldParseDecimalAndExponentValues() throws ConfigException
+    {
+        ICondition condition = create(createCondition("time", "min", 0.5));
+
+        Assert.assertTrue(condition.matches(createValues("time", "0.5")));
+        Assert.assertTrue(condition.matches(createValues("time", "1e3")));
+        Assert.assertFalse(condition.matches(createValues("time", "0.25")));
+        Assert.assertFalse(condition.matches(createValues("time", "-1")));
+    }
+
+    @Test
+    public void regexConditionShouldFindPattern() throws ConfigException
+    {
+        ICondition condition = create(createCondition("path", "regex", "^/api/"));
+
+        Assert.assertTrue(condition.matches(createValues("path", "/api/users")));
+        Assert.assertTrue(condition.matches(createValues("path", new StringBuilder("/api/"))));
+        Assert.assertFalse(condition.matches(createValues("path", "/static/api/")));
+    }
+
+    @Test
+    public void inConditionShouldCheckMembership() throws ConfigException
+    {
+        ICondition condition = create(
+                createCondition("level", "in", new ArrayList<Object>(Arrays.<Object>asList("ERROR", "FATAL", 5.0)))
+        );
+
+        Assert.assertTrue(condition.matches(createValues("level", "ERROR")));
+        Assert.assertTrue(condition.matches(createValues("level", "FATAL")));
+        Assert.assertTrue(condition.matches(createValues("level", "5")));
+        Assert.assertFalse(condition.matches(createValues("level", "INFO")));
+    }
+
+    @Test
+    public void allConditionsShouldMatch() throws ConfigException
+    {
+        ICondition condition = ConditionFactory.create(
+                "x",
+                Arrays.<Object>asList(createCondition("method", "equals", "GET"), createCondition("status", "min", 500)),
+                null
+        );
+
+        Map<String, Object> values = createValues("method", "GET");
+        values.put("status", "503");
+        Assert.assertTrue(condition.matches(values));
+
+        values.put("status", "200");
+        Assert.assertFalse(condition.matches(values));
+    }
+
+    @Test
+    public void emptyListShouldReturnNull() throws ConfigException
+    {
+        Assert.assertNull(ConditionFactory.create("x", new ArrayList<Object>(), null));
+    }
+
+    @Test
+    public void conditionWithoutCheckShouldThrowException() throws ConfigException
+    {
+        thrown.expect(ConfigException.class);
+
+        Map<String, Object> config = new HashMap<String, Object>();
+        config.put("field", "status");
+
+        create(config);
+    }
+
+    @Test
+    public void conditionWithMultipleChecksShouldThrowException() throws ConfigException
+    {
+        thrown.expect(ConfigException.class);
+
+        Map<String, Object> config = createCondition("status", "equals", "500");
+        config.put("regex", "5..");
+
+        create(config);
+    }
+
+    @Test
+    public void invalidRegexShouldThrowException() throws ConfigException
+    {
+        thrown.expect(ConfigException.class);
+
+        create(createCondition("status", "regex", "5(.."));
+    }
+
+    @Test
+    public void unknownFieldShouldThrowException() throws ConfigException
+    {
+        thrown.expect(ConfigException.class);
+
+        ConditionFactory.create(
+                "x",
+                Arrays.<Object>asList(createCondition("status", "equals", "500")),
+                Arrays.asList("method")
+        );
+    }
+
+    private ICondition create(final Map<String, Object> config) throws ConfigException
+    {
+        List<Object> conditions = new ArrayList<Object>();
+        conditions.add(config);
+        return ConditionFactory.create("x", conditions, null);
+    }
+
+    private Map<String, Object> createCondition(final String field, final String type, final Object value)
+    {
+        Map<String, Object> config = new HashMap<String, Object>();
+        config.put("field", field);
+        config.put(type, value);
+        return config;
+    }
+
+    private Map<String, Object> createValues(final String key, final Object value)
+    {
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put(key, value);
+        return values;
+    }
+
+}
@@ -0,0 +1,175 @@
+package tv.ustream.yolo.module.parser;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import tv.ustream.yolo.config.ConfigException;
+import tv.ustream.yolo.module.ModuleFactory;
+import tv.ustream.yolo.module.parser.javacompiler.JavaSourceCompiler;
+
+public class JavaCompilerParserTest
+{
+
+    private static final String CLASS_SOURCE =
+        "package test;\n" +
+        "import java.util.*;\n" +
+        "public class UpperParser implements tv.ustream.yolo.module.parser.scriptengine.IScriptParser {\n" +
+        "    public Map<String, Object> parse(String line) {\n" +
+        "        Map<String, Object> result = new HashMap<String, Object>();\n" +
+        "        result.put(\"line\", line.toUpperCase());\n" +
+        "        return result;\n" +
+        "    }\n" +
+        "}\n";
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    @Test
+    public void shouldParseLineWithSnippet() throws Exception
+    {
+        IParser parser = createParser(null,
+            "if (!line.startsWith(\"GET\")) { return null; }\n" +
+            "Map<String, Object> result = new HashMap<String, Object>();\n" +
+            "result.put(\"path\", line.substring(4));\n" +
+            "return result;"
+        );
+
+        Map<String, Object> actual = parser.parse("GET /index.html");
+
+        Assert.assertEquals("/index.html", actual.get("path"));
+        Assert.assertEquals(1, actual.size());
+        Assert.assertNull(parser.parse("POST /index.html"));
+    }
+
+    @Test
+    public void shouldParseLineWithClassSource() throws Exception
+    {
+        IParser parser = createParser(null, CLASS_SOURCE);
+
+        Assert.assertEquals("LINE1", parser.parse("line1").get("line"));
+    }
+
+    @Test
+    public void snippetMentioningAClassShouldBeWrapped() throws Exception
+    {
+        IParser parser = createParser(null,
+            "// the class name is the first word\n" +
+            "class Word { String value(String s) { return s.split(\" \")[0]; } }\n" +
+            "return Collections.singletonMap(\"class\", (Object) (new Word().value(line) + \" class x\"));"
+        );
+
+        Assert.assertEquals("GET class x", parser.parse("GET /index.html").get("class"));
+    }
+
+    @Test
+    public void classSourceWithHeaderCommentShouldNotBeWrapped() throws Exception
+    {
+        IParser parser = createParser(null, "/* return null; */\n" + CLASS_SOURCE);
+
+        Assert.assertEquals("LINE1", parser.parse("line1").get("line"));
+    }
+
+    @Test
+    public void fullSourceShouldBeDetectedByTheTopLevelDeclaration()
+    {
+        Assert.assertTrue(JavaCompilerParser.isFullSource("import java.util.*; public class A {}"));
+        Assert.assertTrue(JavaCompilerParser.isFullSource("// header\n@Deprecated public final class A {}"));
+        Assert.assertFalse(JavaCompilerParser.isFullSource("return null; // public class A"));
+        Assert.assertFalse(JavaCompilerParser.isFullSource("String s = \"public class A\"; return null;"));
+        Assert.assertFalse(JavaCompilerParser.isFullSource("final class A {} return null;"));
+    }
+
+    @Test
+    public void shouldParseLineWithSourceFile() throws Exception
+    {
+        File sourceFile = tmpFolder.newFile();
+        FileWriter out = new FileWriter(sourceFile);
+        out.write(CLASS_SOURCE);
+        out.close();
+
+        IParser parser = createParser(sourceFile.getAbsolutePath(), null);
+
+        Assert.assertEquals("LINE1", parser.parse("line1").get("line"));
+    }
+
+    @Test
+    public void shouldReturnNullWhenParserThrowsException() throws Exception
+    {
+        IParser parser = createParser(null, "return Collections.singletonMap(\"c\", (Object) line.charAt(10));");
+
+        Assert.assertNull(parser.parse("short"));
+    }
+
+    @Test
+    public void sameSourceShouldBeCompiledOnlyOnce() throws Exception
+    {
+        Class<?> class1 = JavaSourceCompiler.compile(CLASS_SOURCE, getClass().getClassLoader());
+        Class<?> class2 = JavaSourceCompiler.compile(CLASS_SOURCE, getClass().getClassLoader());
+
+        Assert.assertSame(class1, class2);
+    }
+
+    @Test
+    public void differentSourcesShouldBeLoadedInSeparateClassLoaders() throws Exception
+    {
+        Class<?> class1 = JavaSourceCompiler.compile(CLASS_SOURCE, getClass().getClassLoader());
+        Class<?> class2 = JavaSourceCompiler.compile(CLASS_SOURCE + "\n", getClass().getClassLoader());
+
+        Assert.assertEquals(class1.getName(), class2.getName());
+        Assert.assertNotSame(class1.getClassLoader(), class2.getClassLoader());
+    }
+
+    @Test
+    public void shouldThrowRuntimeExceptionWhenSourceIsInvalid() throws Exception
+    {
+        thrown.expect(RuntimeException.class);
+
+        createParser(null, "return 1 +;");
+    }
+
+    @Test
+    public void shouldThrowRuntimeExceptionWhenClassIsNotImplementingInterface() throws Exception
+    {
+        thrown.expect(RuntimeException.class);
+
+        createParser(null, "public class NotAParser { }");
+    }
+
+    @Test
+    public void shouldThrowRuntimeExceptionWhenFileDoesNotExist() throws Exception
+    {
+        thrown.expect(RuntimeException.class);
+
+        createParser(tmpFolder.getRoot().getAbsolutePath() + "/nonexisting.java", null);
+    }
+
+    @Test
+    public void shouldThrowRuntimeExceptionWhenSourceIsMissing() throws Exception
+    {
+        thrown.expect(RuntimeException.class);
+
+        createParser(null, null);
+    }
+
+    private IParser createParser(final String file, final String source) throws ConfigException
+    {
+        Map<String, Object> processors = new HashMap<String, Object>();
+        processors.put("processor1", new HashMap<String, Object>());
+
+        Map<String, Object> config = new HashMap<String, Object>();
+        config.put("class", JavaCompilerParser.class.getCanonicalName());
+        config.put("file", file);
+        config.put("source", source);
+        config.put("processors", processors);
+        return new ModuleFactory().createParser("x", config);
+    }
+}
@@ -92,6 +92,25 @@ public class RegexpParserTest
         Assert.assertNull(actual2);
     }
 
+    @Test
+    public void namedMatchShouldWorkWithCharSequence() throws ConfigException
+    {
+        ICharSequenceParser parser = (ICharSequenceParser) createParser("(?<first>[a-z]+)(?<second>[0-9]+)");
+
+        StringBuilder line = new StringBuilder("___abcd0123___");
+        Map<String, Object> actual = parser.parse(line);
+
+        line.setLength(0);
+        line.append("___efgh4567___");
+
+        Map<String, Object> expected = new HashMap<String, Object>();
+        expected.put("first", "abcd");
+        expected.put("second", "0123");
+
+        Assert.assertEquals(expected, actual);
+        Assert.assertNull(parser.parse(new StringBuilder("___xxxx___")));
+    }
+
     @Test
     public void noMatchShouldReturnNull() throws ConfigException
     {
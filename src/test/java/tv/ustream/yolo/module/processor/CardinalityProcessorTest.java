@@ -0,0 +1,167 @@
+package tv.ustream.yolo.module.processor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import tv.ustream.yolo.config.ConfigException;
+import tv.ustream.yolo.config.ConfigPattern;
+import tv.ustream.yolo.module.ModuleFactory;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Matchers.anyDouble;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class CardinalityProcessorTest
+{
+
+    private static final long FLUSH_TIME_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final long ROLLUP_TIME_MS = TimeUnit.HOURS.toMillis(1);
+
+    private static final long HOUR_MS = 1400000400000L;
+
+    private MetricOutput output;
+
+    private CardinalityProcessor processor;
+
+    private long now;
+
+    @Before
+    public void setUp() throws ConfigException
+    {
+        output = mock(MetricOutput.class);
+        now = HOUR_MS + 1000;
+
+        processor = new CardinalityProcessor()
+        {
+            @Override
+            protected MetricOutput createOutput(Map<String, Object> parameters, long flushTimeMs)
+            {
+                return output;
+            }
+
+            @Override
+            protected long currentTimeMillis()
+            {
+                return now;
+            }
+        };
+
+        Map<String, Object> config = new HashMap<String, Object>();
+        config.put("class", CardinalityProcessor.class.getCanonicalName());
+        config.put("flushTimeMs", FLUSH_TIME_MS);
+        config.put("rollupTimeMs", ROLLUP_TIME_MS);
+
+        processor.getModuleConfig().parse("x", config);
+        processor.setUpModule(config);
+    }
+
+    @After
+    public void tearDown()
+    {
+        processor.stop();
+    }
+
+    @Test
+    public void flushShouldSendDistinctCountPerKey()
+    {
+        Map<String, Object> parserOutput = new HashMap<String, Object>();
+        parserOutput.put("endpoint", "api");
+
+        for (int i = 0; i < 10; i++)
+        {
+            parserOutput.put("ip", "10.0.0." + (i % 4));
+            processor.process(parserOutput, createProcessParams(new ConfigPattern("ips.#endpoint#"), "#ip#"));
+        }
+
+        processor.flush();
+
+        verify(output).send("ips.api", 4D, TimeUnit.MILLISECONDS.toSeconds(HOUR_MS));
+        verify(output).flush();
+    }
+
+    @Test
+    public void rollupShouldMergeIntervals()
+    {
+        now = HOUR_MS + FLUSH_TIME_MS;
+        processor.add("key", "a");
+        processor.add("key", "b");
+        processor.flush();
+
+        now = HOUR_MS + 2 * FLUSH_TIME_MS;
+        processor.add("key", "b");
+        processor.add("key", "c");
+        processor.flush();
+
+        now = HOUR_MS + ROLLUP_TIME_MS;
+        processor.add("key", "d");
+        processor.flush();
+
+        long timestamp = TimeUnit.MILLISECONDS.toSeconds(now);
+        verify(output).send("key", 1D, timestamp);
+        verify(output).send("key.rollup", 4D, timestamp);
+    }
+
+    @Test
+    public void rollupShouldNotBeSentBeforeTheEndOfTheRollupInterval()
+    {
+        now = HOUR_MS + FLUSH_TIME_MS;
+        processor.add("key", "a");
+        processor.flush();
+
+        verify(output).send("key", 1D, TimeUnit.MILLISECONDS.toSeconds(now));
+        verify(output, never()).send("key.rollup", 1D, TimeUnit.MILLISECONDS.toSeconds(now));
+    }
+
+    @Test
+    public void emptyFlushShouldNotSend()
+    {
+        processor.flush();
+
+        verify(output, never()).send(anyString(), anyDouble(), anyLong());
+    }
+
+    @Test
+    public void stopShouldSendUnfinishedRollupAndStopOutput()
+    {
+        now = HOUR_MS + FLUSH_TIME_MS;
+        processor.add("key", "a");
+        processor.flush();
+
+        processor.stop();
+
+        verify(output).send("key.rollup", 1D, TimeUnit.MILLISECONDS.toSeconds(now));
+        verify(output).stop();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rollupShouldBeMultipleOfFlushTime() throws ConfigException
+    {
+        Map<String, Object> config = new HashMap<String, Object>();
+        config.put("class", CardinalityProcessor.class.getCanonicalName());
+        config.put("output", MetricOutput.LOG_OUTPUT);
+        config.put("flushTimeMs", 60000);
+        config.put("rollupTimeMs", 90000);
+
+        new ModuleFactory().createProcessor("x", config);
+    }
+
+    private Map<String, Object> createProcessParams(Object key, String value)
+    {
+        Map<String, Object> params = new HashMap<String, Object>();
+        Map<String, Object> key1 = new HashMap<String, Object>();
+        key1.put("key", key);
+        key1.put("value", new ConfigPattern(value));
+        params.put("keys", Arrays.<Map>asList(key1));
+        return params;
+    }
+
+}
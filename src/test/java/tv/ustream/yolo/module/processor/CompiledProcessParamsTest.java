@@ -0,0 +1,139 @@
+package tv.ustream.yolo.module.processor;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import tv.ustream.yolo.client.GraphiteClient;
+import tv.ustream.yolo.config.ConfigException;
+import tv.ustream.yolo.config.ConfigPattern;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class CompiledProcessParamsTest
+{
+
+    private GraphiteProcessor processor;
+
+    private Map<String, Object> processParams;
+
+    private List<Map<String, Object>> parserOutputs;
+
+    private final List<String> metrics = new ArrayList<String>();
+
+    @Before
+    public void setUp() throws ConfigException
+    {
+        processor = new GraphiteProcessor()
+        {
+            @Override
+            protected GraphiteClient createClient(String host, int port, long flushTimeMs, String prefix,
+                                                  GraphiteClient.Protocol protocol, long maxBufferSize,
+                                                  File spillDirectory, long maxSpillSize)
+            {
+                return new GraphiteClient(host, port, flushTimeMs, prefix)
+                {
+                    @Override
+                    public void sendMetrics(final String key, final Double value)
+                    {
+                        metrics.add(key + " " + value);
+                    }
+
+                    @Override
+                    public void sendMetrics(final String key, final Double value, final long timestamp)
+                    {
+                        metrics.add(key + " " + value + " " + timestamp);
+                    }
+                };
+            }
+        };
+
+        Map<String, Object> config = new HashMap<String, Object>();
+        config.put("host", "localhost");
+        config.put("port", 2003);
+        config.put("flushTimeMs", 1000000);
+        processor.setUpModule(config);
+
+        Map<String, Object> key1 = new HashMap<String, Object>();
+        key1.put("key", "some.#name#.count");
+        key1.put("value", 1);
+
+        Map<String, Object> key2 = new HashMap<String, Object>();
+        key2.put("key", "some.#name#.time");
+        key2.put("value", "#time#");
+        key2.put("multiplier", 1000);
+
+        Map<String, Object> key3 = new HashMap<String, Object>();
+        key3.put("key", "some.#name#.size");
+        key3.put("value", "#size#");
+        key3.put("timestamp", "#date#");
+        key3.put("timestampFormat", "iso8601");
+
+        List<Object> keys = new ArrayList<Object>();
+        keys.add(key1);
+        keys.add(key2);
+        keys.add(key3);
+
+        processParams = new HashMap<String, Object>();
+        processParams.put("keys", keys);
+
+        processor.getProcessParamsConfig().parse("x", processParams);
+        ConfigPattern.replacePatterns(processParams, null);
+
+        parserOutputs = new ArrayList<Map<String, Object>>();
+        for (int i = 0; i < 20; i++)
+        {
+            Map<String, Object> parserOutput = new HashMap<String, Object>();
+            parserOutput.put("name", "name" + i);
+            parserOutput.put("time", String.valueOf(i * 0.25));
+            parserOutput.put("size", i % 3 == 0 ? "12k" : String.valueOf(i));
+            if (i % 5 != 0)
+            {
+                parserOutput.put("date", "2014-05-13T16:53:" + (10 + i) + ".500Z");
+            }
+            parserOutputs.add(parserOutput);
+        }
+    }
+
+    @After
+    public void tearDown()
+    {
+        processor.stop();
+    }
+
+    @Test
+    public void compiledParamsShouldSendTheSameMetricsAsMapParams() throws ConfigException
+    {
+        GraphiteProcessor.CompiledKey[] compiledParams = processor.compileProcessParams(processParams);
+
+        runWithMapParams(parserOutputs.size());
+        List<String> mapMetrics = new ArrayList<String>(metrics);
+
+        metrics.clear();
+        runWithCompiledParams(compiledParams, parserOutputs.size());
+
+        Assert.assertEquals(56, mapMetrics.size());
+        Assert.assertEquals(mapMetrics, metrics);
+    }
+
+    private void runWithMapParams(final int iterations)
+    {
+        for (int i = 0; i < iterations; i++)
+        {
+            processor.process(parserOutputs.get(i % parserOutputs.size()), processParams);
+        }
+    }
+
+    private void runWithCompiledParams(final GraphiteProcessor.CompiledKey[] compiledParams, final int iterations)
+    {
+        for (int i = 0; i < iterations; i++)
+        {
+            processor.processCompiled(parserOutputs.get(i % parserOutputs.size()), compiledParams);
+        }
+    }
+
+}
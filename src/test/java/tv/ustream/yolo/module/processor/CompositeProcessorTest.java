@@ -10,6 +10,7 @@ import java.util.Map;
 
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 /**
  * @author bandesz
@@ -47,6 +48,31 @@ public class CompositeProcessorTest
         verify(p2).process(parserOutput, processParams);
     }
 
+    @SuppressWarnings("unchecked")
+    @Test
+    public void processCompiledShouldPassCompiledParamsToCompiledSubProcessors() throws Exception
+    {
+        ICompiledProcessor<Object> p3 = mock(ICompiledProcessor.class);
+
+        Map<String, Object> parserOutput = new HashMap<String, Object>();
+        parserOutput.put("key1", "value1");
+
+        Map<String, Object> processParams = new HashMap<String, Object>();
+        processParams.put("key2", "value2");
+
+        Object compiledP3Params = new Object();
+        when(p3.compileProcessParams(processParams)).thenReturn(compiledP3Params);
+
+        CompositeProcessor processor = createProcessor();
+        processor.addProcessor(p1);
+        processor.addProcessor(p3);
+
+        processor.processCompiled(parserOutput, processor.compileProcessParams(processParams));
+
+        verify(p1).process(parserOutput, processParams);
+        verify(p3).processCompiled(parserOutput, compiledP3Params);
+    }
+
     private CompositeProcessor createProcessor() throws Exception
     {
         Map<String, Object> config = new HashMap<String, Object>();
@@ -0,0 +1,170 @@
+package tv.ustream.yolo.module.processor;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import tv.ustream.yolo.client.RollingFileWriter;
+import tv.ustream.yolo.config.ConfigException;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class FileOutputProcessorTest
+{
+
+    private RollingFileWriter writer;
+
+    private final List<String> records = new ArrayList<String>();
+
+    private String extension;
+
+    private byte[] header;
+
+    @Before
+    public void setUp() throws InterruptedException
+    {
+        writer = mock(RollingFileWriter.class);
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(final InvocationOnMock invocation) throws Throwable
+            {
+                ByteBuffer record = (ByteBuffer) invocation.getArguments()[0];
+                byte[] bytes = new byte[record.remaining()];
+                record.get(bytes);
+                records.add(new String(bytes, Charset.forName("UTF-8")));
+                return null;
+            }
+        }).when(writer).write(any(ByteBuffer.class));
+    }
+
+    @Test
+    public void allFieldsShouldBeWrittenAsJson() throws ConfigException
+    {
+        FileOutputProcessor processor = createProcessor("ndjson", null);
+
+        Map<String, Object> parserOutput = new LinkedHashMap<String, Object>();
+        parserOutput.put("line", "say \"hi\"\n");
+        parserOutput.put("size", 12);
+        parserOutput.put("ok", true);
+        processor.process(parserOutput, null);
+
+        Assert.assertEquals(
+                Arrays.asList("{\"line\":\"say \\\"hi\\\"\\n\",\"size\":12,\"ok\":true}\n"),
+                records
+        );
+        Assert.assertEquals(".ndjson", extension);
+        Assert.assertNull(header);
+    }
+
+    @Test
+    public void selectedFieldsShouldBeWrittenAsJson() throws ConfigException
+    {
+        FileOutputProcessor processor = createProcessor("ndjson", Arrays.<Object>asList("size", "user"));
+
+        processor.process(createParserOutput(), null);
+
+        Assert.assertEquals(Arrays.asList("{\"size\":\"12\",\"user\":null}\n"), records);
+    }
+
+    @Test
+    public void controlCharactersShouldBeEscapedInJson()
+    {
+        StringBuilder result = new StringBuilder();
+        FileOutputProcessor.appendJsonString(result, "a\u0001\u00e9");
+
+        Assert.assertEquals("\"a\\u0001\u00e9\"", result.toString());
+    }
+
+    @Test
+    public void fieldsShouldBeWrittenAsTsv() throws ConfigException
+    {
+        FileOutputProcessor processor = createProcessor("tsv", Arrays.<Object>asList("path", "user", "size"));
+
+        processor.process(createParserOutput(), null);
+
+        Assert.assertEquals(Arrays.asList("/a\\tb\\\\c\t\t12\n"), records);
+        Assert.assertEquals(".tsv", extension);
+        Assert.assertEquals("path\tuser\tsize\n", new String(header, Charset.forName("UTF-8")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tsvWithoutFieldsShouldFail() throws ConfigException
+    {
+        createProcessor("tsv", null);
+    }
+
+    @Test
+    public void interruptedRecordShouldBeCountedAsDropped() throws Exception
+    {
+        FileOutputProcessor processor = createProcessor("ndjson", null);
+        doThrow(new InterruptedException()).when(writer).write(any(ByteBuffer.class));
+
+        processor.process(createParserOutput(), null);
+
+        Assert.assertTrue(Thread.interrupted());
+        Assert.assertEquals(1, processor.getDroppedRecords());
+    }
+
+    @Test
+    public void stopShouldStopWriter() throws ConfigException
+    {
+        FileOutputProcessor processor = createProcessor("ndjson", null);
+
+        processor.stop();
+
+        verify(writer).stop();
+    }
+
+    private Map<String, Object> createParserOutput()
+    {
+        Map<String, Object> parserOutput = new HashMap<String, Object>();
+        parserOutput.put("path", "/a\tb\\c");
+        parserOutput.put("size", "12");
+        return parserOutput;
+    }
+
+    private FileOutputProcessor createProcessor(final String format, final List<Object> fields)
+            throws ConfigException
+    {
+        FileOutputProcessor processor = new FileOutputProcessor()
+        {
+            @Override
+            protected RollingFileWriter createWriter(final String path, final String fileExtension,
+                                                     final byte[] fileHeader, final long maxFileSize,
+                                                     final long rollTimeMs, final boolean compress,
+                                                     final int blockSize, final int maxPendingBlocks,
+                                                     final long flushTimeMs)
+            {
+                extension = fileExtension;
+                header = fileHeader;
+                return writer;
+            }
+        };
+
+        Map<String, Object> config = new HashMap<String, Object>();
+        config.put("class", FileOutputProcessor.class.getCanonicalName());
+        config.put("path", "/tmp/events");
+        config.put("format", format);
+        config.put("fields", fields);
+
+        processor.getModuleConfig().parse("x", config);
+        processor.setUpModule(config);
+        return processor;
+    }
+
+}
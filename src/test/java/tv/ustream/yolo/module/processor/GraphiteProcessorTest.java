@@ -5,13 +5,16 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import tv.ustream.yolo.client.GraphiteAggregator;
 import tv.ustream.yolo.client.GraphiteClient;
 import tv.ustream.yolo.config.ConfigException;
 import tv.ustream.yolo.config.ConfigPattern;
 import tv.ustream.yolo.module.ModuleFactory;
 
+import java.io.File;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static org.mockito.Mockito.mock;
@@ -21,6 +24,7 @@ import static org.mockito.Mockito.verifyNoMoreInteractions;
 /**
  * @author bandesz
  */
+@SuppressWarnings("unchecked")
 public class GraphiteProcessorTest
 {
 
@@ -29,12 +33,15 @@ public class GraphiteProcessorTest
 
     private GraphiteClient graphiteClient;
 
+    private GraphiteAggregator graphiteAggregator;
+
     private GraphiteProcessor processor;
 
     @Before
     public void setUp() throws ConfigException
     {
         graphiteClient = mock(GraphiteClient.class);
+        graphiteAggregator = mock(GraphiteAggregator.class);
 
         processor = createProcessorMock("host1", 1234, "");
     }
@@ -152,6 +159,56 @@ public class GraphiteProcessorTest
         verify(graphiteClient).sendMetrics("key", 5D, 1234567890);
     }
 
+    @Test
+    public void processShouldParseTimestampWithFormat()
+    {
+        Map<String, Object> parserOutput = new HashMap<String, Object>();
+        parserOutput.put("ts", "10/Oct/2000:13:55:36 -0700");
+
+        Map<String, Object> params = createProcessParams("key", 5D, 1D, new ConfigPattern("#ts#"));
+        ((Map<String, Object>) ((List) params.get("keys")).get(0)).put("timestampFormat", "apache");
+
+        processor.process(parserOutput, params);
+
+        verify(graphiteClient).sendMetrics("key", 5D, 971211336L);
+    }
+
+    @Test
+    public void processShouldUseNumericTimestampValue()
+    {
+        Map<String, Object> parserOutput = new HashMap<String, Object>();
+        parserOutput.put("ts", 1234567890L);
+
+        processor.process(parserOutput, createProcessParams("key", 5D, 1D, new ConfigPattern("#ts#")));
+
+        verify(graphiteClient).sendMetrics("key", 5D, 1234567890L);
+    }
+
+    @Test
+    public void processShouldConvertNumericMillisecondTimestamp()
+    {
+        Map<String, Object> parserOutput = new HashMap<String, Object>();
+        parserOutput.put("ts", 1234567890123L);
+
+        Map<String, Object> params = createProcessParams("key", 5D, 1D, new ConfigPattern("#ts#"));
+        ((Map<String, Object>) ((List) params.get("keys")).get(0)).put("timestampFormat", "epoch_ms");
+
+        processor.process(parserOutput, params);
+
+        verify(graphiteClient).sendMetrics("key", 5D, 1234567890L);
+    }
+
+    @Test
+    public void processShouldNotSendWhenTimestampIsInvalid()
+    {
+        Map<String, Object> parserOutput = new HashMap<String, Object>();
+        parserOutput.put("ts", "invalid");
+
+        processor.process(parserOutput, createProcessParams("key", 5D, 1D, new ConfigPattern("#ts#")));
+
+        verifyNoMoreInteractions(graphiteClient);
+    }
+
     @Test
     public void processShouldHandleByteValues()
     {
@@ -191,6 +248,31 @@ public class GraphiteProcessorTest
         verifyNoMoreInteractions(graphiteClient);
     }
 
+    @Test
+    public void processShouldAddAggregatedKeysToAggregator()
+    {
+        Map<String, Object> parserOutput = new HashMap<String, Object>();
+
+        Map<String, Object> params = createProcessParams("key", 5D);
+        ((Map<String, Object>) ((List) params.get("keys")).get(0)).put("aggregate", "max");
+
+        processor.process(parserOutput, params);
+
+        verify(graphiteAggregator).add("key", GraphiteAggregator.Consolidation.MAX, 5D);
+        verifyNoMoreInteractions(graphiteClient);
+    }
+
+    @Test
+    public void aggregateWithTimestampShouldThrowException() throws ConfigException
+    {
+        thrown.expect(ConfigException.class);
+
+        Map<String, Object> params = createProcessParams("key", 5D, 1D, new ConfigPattern("#ts#"));
+        ((Map<String, Object>) ((List) params.get("keys")).get(0)).put("aggregate", "sum");
+
+        processor.compileProcessParams(params);
+    }
+
     @Test
     public void stopShouldStopClient()
     {
@@ -199,6 +281,19 @@ public class GraphiteProcessorTest
         verify(graphiteClient).stop();
     }
 
+    @Test
+    public void stopShouldStopAggregator()
+    {
+        Map<String, Object> params = createProcessParams("key", 5D);
+        ((Map<String, Object>) ((List) params.get("keys")).get(0)).put("aggregate", "sum");
+        processor.process(new HashMap<String, Object>(), params);
+
+        processor.stop();
+
+        verify(graphiteAggregator).stop();
+        verify(graphiteClient).stop();
+    }
+
     private Map<String, Object> createProcessParams(Object key, Object value)
     {
         return createProcessParams(key, value, 1D, null);
@@ -232,10 +327,18 @@ public class GraphiteProcessorTest
         GraphiteProcessor processor = new GraphiteProcessor()
         {
             @Override
-            protected GraphiteClient createClient(String host, int port, long flushTimeMs, String prefix)
+            protected GraphiteClient createClient(String host, int port, long flushTimeMs, String prefix,
+                                                  GraphiteClient.Protocol protocol, long maxBufferSize,
+                                                  File spillDirectory, long maxSpillSize)
             {
                 return graphiteClient;
             }
+
+            @Override
+            protected GraphiteAggregator createAggregator(GraphiteClient client, long intervalMs)
+            {
+                return graphiteAggregator;
+            }
         };
 
         Map<String, Object> config = new HashMap<String, Object>();
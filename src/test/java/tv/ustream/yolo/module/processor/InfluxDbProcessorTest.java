@@ -0,0 +1,234 @@
+package tv.ustream.yolo.module.processor;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import tv.ustream.yolo.client.InfluxDbClient;
+import tv.ustream.yolo.config.ConfigException;
+import tv.ustream.yolo.config.ConfigPattern;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class InfluxDbProcessorTest
+{
+
+    private static final long NOW_MS = 1400000000123L;
+
+    private InfluxDbClient client;
+
+    private InfluxDbProcessor processor;
+
+    private final List<String> lines = new ArrayList<String>();
+
+    @Before
+    public void setUp() throws ConfigException
+    {
+        client = mock(InfluxDbClient.class);
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(final InvocationOnMock invocation) throws Throwable
+            {
+                lines.add(invocation.getArguments()[0].toString());
+                return null;
+            }
+        }).when(client).write(any(CharSequence.class));
+
+        processor = new InfluxDbProcessor()
+        {
+            @Override
+            protected InfluxDbClient createClient(final URL url, final int batchSize, final long flushTimeMs,
+                                                  final long maxBufferSize, final int maxRetries, final boolean gzip)
+            {
+                return client;
+            }
+
+            @Override
+            protected long currentTimeMillis()
+            {
+                return NOW_MS;
+            }
+        };
+
+        Map<String, Object> config = new HashMap<String, Object>();
+        config.put("class", InfluxDbProcessor.class.getCanonicalName());
+        config.put("database", "logs");
+
+        processor.getModuleConfig().parse("x", config);
+        processor.setUpModule(config);
+    }
+
+    @After
+    public void tearDown()
+    {
+        processor.stop();
+    }
+
+    @Test
+    public void pointShouldBeWritten()
+    {
+        Map<String, Object> tags = new HashMap<String, Object>();
+        tags.put("status", new ConfigPattern("#status#"));
+        tags.put("host", "web1");
+        Map<String, Object> fields = new HashMap<String, Object>();
+        fields.put("size", new ConfigPattern("#size#"));
+        fields.put("count", 1);
+
+        processor.process(createParserOutput(), createProcessParams("requests", tags, fields, null));
+
+        Assert.assertEquals(Arrays.asList("requests,host=web1,status=200 count=1,size=1.5 1400000000123"), lines);
+    }
+
+    @Test
+    public void stringFieldsShouldBeQuoted()
+    {
+        Map<String, Object> stringFields = new HashMap<String, Object>();
+        stringFields.put("message", new ConfigPattern("#message#"));
+
+        processor.process(createParserOutput(), createProcessParams("log", null, null, stringFields));
+
+        Assert.assertEquals(Arrays.asList("log message=\"say \\\"hi\\\"\" 1400000000123"), lines);
+    }
+
+    @Test
+    public void keysAndTagValuesShouldBeEscaped()
+    {
+        Map<String, Object> tags = new HashMap<String, Object>();
+        tags.put("p a=th", new ConfigPattern("#path#"));
+        Map<String, Object> fields = new HashMap<String, Object>();
+        fields.put("v", 1);
+
+        processor.process(createParserOutput(), createProcessParams("my measurement,x", tags, fields, null));
+
+        Assert.assertEquals(Arrays.asList("my\\ measurement\\,x,p\\ a\\=th=/a\\,b\\ c v=1 1400000000123"), lines);
+    }
+
+    @Test
+    public void missingTagShouldBeLeftOut()
+    {
+        Map<String, Object> tags = new HashMap<String, Object>();
+        tags.put("user", new ConfigPattern("#user#"));
+        Map<String, Object> fields = new HashMap<String, Object>();
+        fields.put("v", 1);
+
+        processor.process(createParserOutput(), createProcessParams("m", tags, fields, null));
+
+        Assert.assertEquals(Arrays.asList("m v=1 1400000000123"), lines);
+    }
+
+    @Test
+    public void pointWithoutValidFieldsShouldBeSkipped()
+    {
+        Map<String, Object> fields = new HashMap<String, Object>();
+        fields.put("v", new ConfigPattern("#message#"));
+
+        processor.process(createParserOutput(), createProcessParams("m", null, fields, null));
+
+        Assert.assertTrue(lines.isEmpty());
+    }
+
+    @Test
+    public void eventTimestampShouldBeUsed()
+    {
+        Map<String, Object> fields = new HashMap<String, Object>();
+        fields.put("v", 1);
+        Map<String, Object> params = createProcessParams("m", null, fields, null);
+        Map<String, Object> point = getPoint(params);
+        point.put("timestamp", new ConfigPattern("#time#"));
+        point.put("timestampFormat", "iso8601");
+
+        Map<String, Object> parserOutput = createParserOutput();
+        parserOutput.put("time", "2014-05-13T16:53:20.000Z");
+        processor.process(parserOutput, params);
+        parserOutput.put("time", "2014-05-13T16:53:20.250Z");
+        processor.process(parserOutput, params);
+        parserOutput.put("time", "invalid");
+        processor.process(parserOutput, params);
+
+        Assert.assertEquals(Arrays.asList("m v=1 1400000000000", "m v=1 1400000000250"), lines);
+    }
+
+    @Test
+    public void numericTimestampShouldBeConvertedByFormat()
+    {
+        Map<String, Object> fields = new HashMap<String, Object>();
+        fields.put("v", 1);
+        Map<String, Object> params = createProcessParams("m", null, fields, null);
+        Map<String, Object> point = getPoint(params);
+        point.put("timestamp", new ConfigPattern("#time#"));
+        point.put("timestampFormat", "epoch");
+
+        Map<String, Object> parserOutput = createParserOutput();
+        parserOutput.put("time", 1400000000.5D);
+        processor.process(parserOutput, params);
+
+        Assert.assertEquals(Arrays.asList("m v=1 1400000000500"), lines);
+    }
+
+    @Test(expected = ConfigException.class)
+    public void pointWithoutFieldsShouldFail() throws ConfigException
+    {
+        processor.compileProcessParams(createProcessParams("m", null, null, null));
+    }
+
+    @Test
+    public void writeUrlShouldContainDatabase()
+    {
+        Assert.assertEquals(
+                "http://influx:8086/write?db=my+db&precision=ms&rp=week",
+                InfluxDbProcessor.getWriteUrl("http://influx:8086/", "my db", "week").toString()
+        );
+    }
+
+    @Test
+    public void stopShouldStopClient()
+    {
+        processor.stop();
+
+        verify(client).stop();
+    }
+
+    private Map<String, Object> createParserOutput()
+    {
+        Map<String, Object> parserOutput = new HashMap<String, Object>();
+        parserOutput.put("status", "200");
+        parserOutput.put("size", "1.5");
+        parserOutput.put("path", "/a,b c");
+        parserOutput.put("message", "say \"hi\"");
+        return parserOutput;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> getPoint(final Map<String, Object> params)
+    {
+        return ((List<Map<String, Object>>) params.get("points")).get(0);
+    }
+
+    private Map<String, Object> createProcessParams(final String measurement, final Map<String, Object> tags,
+                                                    final Map<String, Object> fields,
+                                                    final Map<String, Object> stringFields)
+    {
+        Map<String, Object> params = new HashMap<String, Object>();
+        Map<String, Object> point = new HashMap<String, Object>();
+        point.put("measurement", measurement);
+        point.put("tags", tags);
+        point.put("fields", fields);
+        point.put("stringFields", stringFields);
+        params.put("points", Arrays.<Map>asList(point));
+        return params;
+    }
+
+}
@@ -0,0 +1,142 @@
+package tv.ustream.yolo.module.processor;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+import tv.ustream.yolo.config.ConfigPattern;
+
+public class MetricKeyCacheTest
+{
+
+    @Test
+    public void sameValuesShouldReturnTheCachedKey()
+    {
+        MetricKeyCache cache = new MetricKeyCache(10);
+        ConfigPattern pattern = new ConfigPattern("some.#p1#.key");
+
+        String key1 = cache.get(pattern, createValues("v1"));
+        String key2 = cache.get(pattern, createValues("v1"));
+
+        Assert.assertEquals("some.v1.key", key1);
+        Assert.assertSame(key1, key2);
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(0.5, cache.getHitRatio(), 0.0001);
+    }
+
+    @Test
+    public void differentValuesShouldBeRenderedSeparately()
+    {
+        MetricKeyCache cache = new MetricKeyCache(10);
+        ConfigPattern pattern = new ConfigPattern("some.#p1#.key");
+
+        Assert.assertEquals("some.v1.key", cache.get(pattern, createValues("v1")));
+        Assert.assertEquals("some.v2.key", cache.get(pattern, createValues("v2")));
+        Assert.assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void differentPatternsShouldNotShareKeys()
+    {
+        MetricKeyCache cache = new MetricKeyCache(10);
+
+        Assert.assertEquals("a.v1", cache.get(new ConfigPattern("a.#p1#"), createValues("v1")));
+        Assert.assertEquals("b.v1", cache.get(new ConfigPattern("b.#p1#"), createValues("v1")));
+    }
+
+    @Test
+    public void reusedCharSequenceValueShouldNotChangeTheCachedKey()
+    {
+        MetricKeyCache cache = new MetricKeyCache(10);
+        ConfigPattern pattern = new ConfigPattern("some.#p1#.key");
+
+        StringBuilder value = new StringBuilder("v1");
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("p1", value);
+
+        Assert.assertEquals("some.v1.key", cache.get(pattern, values));
+
+        value.setLength(0);
+        value.append("v2");
+
+        Assert.assertEquals("some.v2.key", cache.get(pattern, values));
+        Assert.assertEquals("some.v1.key", cache.get(pattern, createValues("v1")));
+        Assert.assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void missingValueShouldReturnNull()
+    {
+        MetricKeyCache cache = new MetricKeyCache(10);
+
+        Assert.assertNull(cache.get(new ConfigPattern("some.#p2#.key"), createValues("v1")));
+    }
+
+    @Test
+    public void whitespaceShouldBeReplacedIfSanitizingIsEnabled()
+    {
+        MetricKeyCache cache = new MetricKeyCache(10, true);
+
+        Assert.assertEquals("some.v_1.key", cache.get(new ConfigPattern("some.#p1#.key"), createValues("v 1")));
+    }
+
+    @Test
+    public void whitespaceShouldBeKeptByDefault()
+    {
+        MetricKeyCache cache = new MetricKeyCache(10);
+
+        Assert.assertEquals("some.v 1.key", cache.get(new ConfigPattern("some.#p1#.key"), createValues("v 1")));
+    }
+
+    @Test
+    public void sizeShouldBeLimited()
+    {
+        MetricKeyCache cache = new MetricKeyCache(4);
+        ConfigPattern pattern = new ConfigPattern("some.#p1#.key");
+
+        for (int i = 0; i < 100; i++)
+        {
+            Assert.assertEquals("some.v" + i + ".key", cache.get(pattern, createValues("v" + i)));
+        }
+
+        Assert.assertTrue(cache.size() <= 4);
+        Assert.assertTrue(cache.getEvictions() > 0);
+        Assert.assertEquals("some.v99.key", cache.get(pattern, createValues("v99")));
+    }
+
+    @Test
+    public void zeroSizeShouldDisableCaching()
+    {
+        MetricKeyCache cache = new MetricKeyCache(0);
+        ConfigPattern pattern = new ConfigPattern("some.#p1#.key");
+
+        Assert.assertEquals("some.v1.key", cache.get(pattern, createValues("v1")));
+        Assert.assertEquals("some.v1.key", cache.get(pattern, createValues("v1")));
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void clearShouldRemoveAllKeys()
+    {
+        MetricKeyCache cache = new MetricKeyCache(10);
+        ConfigPattern pattern = new ConfigPattern("some.#p1#.key");
+        cache.get(pattern, createValues("v1"));
+
+        cache.clear();
+
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals("some.v1.key", cache.get(pattern, createValues("v1")));
+        Assert.assertEquals(2, cache.getMisses());
+    }
+
+    private Map<String, Object> createValues(final String p1)
+    {
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("p1", p1);
+        return values;
+    }
+
+}
@@ -0,0 +1,298 @@
+package tv.ustream.yolo.module.processor;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import tv.ustream.yolo.client.PrometheusServer;
+import tv.ustream.yolo.config.ConfigException;
+import tv.ustream.yolo.config.ConfigPattern;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class PrometheusProcessorTest
+{
+
+    private PrometheusProcessor processor;
+
+    @Before
+    public void setUp() throws ConfigException
+    {
+        processor = createProcessor();
+    }
+
+    @After
+    public void tearDown()
+    {
+        processor.stop();
+    }
+
+    @Test
+    public void counterShouldBeIncrementedByLabels() throws ConfigException
+    {
+        Map<String, Object> params = createProcessParams(
+                "requests_total", "counter", null, createLabels("status", new ConfigPattern("#status#"))
+        );
+        PrometheusProcessor.CompiledMetric[] compiled = processor.compileProcessParams(params);
+
+        processor.processCompiled(createParserOutput("200", null), compiled);
+        processor.processCompiled(createParserOutput("200", null), compiled);
+        processor.processCompiled(createParserOutput("500", null), compiled);
+
+        String metrics = processor.getMetrics();
+        Assert.assertTrue(metrics.contains("# TYPE requests_total counter\n"));
+        Assert.assertTrue(metrics.contains("requests_total{status=\"200\"} 2\n"));
+        Assert.assertTrue(metrics.contains("requests_total{status=\"500\"} 1\n"));
+    }
+
+    @Test
+    public void gaugeShouldBeSetFromPattern()
+    {
+        Map<String, Object> params = createProcessParams("size", "gauge", new ConfigPattern("#size#"), null);
+
+        processor.process(createParserOutput("200", "10"), params);
+        processor.process(createParserOutput("200", "4"), params);
+
+        Assert.assertTrue(processor.getMetrics().contains("size 4\n"));
+    }
+
+    @Test
+    public void histogramShouldObserveValues()
+    {
+        Map<String, Object> params = createProcessParams("latency", "histogram", new ConfigPattern("#size#"), null);
+
+        processor.process(createParserOutput("200", "0.3"), params);
+
+        String metrics = processor.getMetrics();
+        Assert.assertTrue(metrics.contains("latency_bucket{le=\"0.25\"} 0\n"));
+        Assert.assertTrue(metrics.contains("latency_bucket{le=\"0.5\"} 1\n"));
+        Assert.assertTrue(metrics.contains("latency_bucket{le=\"+Inf\"} 1\n"));
+        Assert.assertTrue(metrics.contains("latency_count 1\n"));
+    }
+
+    @Test
+    public void missingLabelValueShouldSkipLine()
+    {
+        Map<String, Object> params = createProcessParams(
+                "requests_total", "counter", null, createLabels("path", new ConfigPattern("#path#"))
+        );
+
+        processor.process(createParserOutput("200", null), params);
+
+        Assert.assertEquals("", processor.getMetrics());
+    }
+
+    @Test
+    public void invalidValueShouldSkipLine()
+    {
+        Map<String, Object> params = createProcessParams("size", "gauge", new ConfigPattern("#size#"), null);
+
+        processor.process(createParserOutput("200", "abc"), params);
+
+        Assert.assertEquals("", processor.getMetrics());
+    }
+
+    @Test(expected = ConfigException.class)
+    public void conflictingDefinitionShouldFail() throws ConfigException
+    {
+        processor.compileProcessParams(createProcessParams("x", "counter", null, null));
+        processor.compileProcessParams(createProcessParams("x", "gauge", null, null));
+    }
+
+    @Test
+    public void newPlanShouldRegisterChangedMetric() throws ConfigException
+    {
+        processor.processCompiled(
+                createParserOutput("200", null),
+                processor.compileProcessParams(createProcessParams("x", "counter", null, null))
+        );
+
+        processor.beginPlan();
+        PrometheusProcessor.CompiledMetric[] compiled = processor.compileProcessParams(
+                createProcessParams("x", "gauge", 5, null)
+        );
+        processor.commitPlan();
+        processor.processCompiled(createParserOutput("200", null), compiled);
+
+        String metrics = processor.getMetrics();
+        Assert.assertTrue(metrics.contains("# TYPE x gauge\n"));
+        Assert.assertTrue(metrics.contains("x 5\n"));
+        Assert.assertFalse(metrics.contains("counter"));
+    }
+
+    @Test
+    public void newPlanShouldKeepUnchangedAndDropRemovedMetrics() throws ConfigException
+    {
+        processor.processCompiled(
+                createParserOutput("200", null),
+                processor.compileProcessParams(createProcessParams("kept", "counter", null, null))
+        );
+        processor.processCompiled(
+                createParserOutput("200", null),
+                processor.compileProcessParams(createProcessParams("removed", "counter", null, null))
+        );
+
+        processor.beginPlan();
+        PrometheusProcessor.CompiledMetric[] compiled = processor.compileProcessParams(
+                createProcessParams("kept", "counter", null, null)
+        );
+        processor.commitPlan();
+        processor.processCompiled(createParserOutput("200", null), compiled);
+
+        String metrics = processor.getMetrics();
+        Assert.assertTrue(metrics.contains("kept 2\n"));
+        Assert.assertFalse(metrics.contains("removed"));
+    }
+
+    @Test
+    public void abortedPlanShouldKeepTheCurrentMetrics() throws ConfigException
+    {
+        processor.processCompiled(
+                createParserOutput("200", null),
+                processor.compileProcessParams(createProcessParams("x", "counter", null, null))
+        );
+
+        processor.beginPlan();
+        processor.compileProcessParams(createProcessParams("x", "gauge", null, null));
+        processor.abortPlan();
+
+        String metrics = processor.getMetrics();
+        Assert.assertTrue(metrics.contains("# TYPE x counter\n"));
+        Assert.assertTrue(metrics.contains("x 1\n"));
+    }
+
+    @Test
+    public void metricsShouldBeServedOverHttp() throws IOException
+    {
+        processor.process(
+                createParserOutput("200", null),
+                createProcessParams("requests_total", "counter", null, createLabels("status", "ok"))
+        );
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(
+                "http://127.0.0.1:" + processor.getPort() + "/metrics"
+        ).openConnection();
+
+        Assert.assertEquals(200, connection.getResponseCode());
+        Assert.assertEquals(PrometheusServer.CONTENT_TYPE, connection.getContentType());
+        Assert.assertTrue(read(connection.getInputStream()).contains("requests_total{status=\"ok\"} 1\n"));
+    }
+
+    @Test
+    public void newProcessorShouldTakeOverPort() throws IOException, ConfigException
+    {
+        processor.process(createParserOutput("200", null), createProcessParams("old", "counter", null, null));
+
+        PrometheusProcessor oldProcessor = processor;
+        processor = createProcessor(oldProcessor.getPort());
+        processor.process(createParserOutput("200", null), createProcessParams("new", "counter", null, null));
+
+        Assert.assertEquals(oldProcessor.getPort(), processor.getPort());
+
+        oldProcessor.stop();
+
+        String metrics = scrape(processor.getPort());
+        Assert.assertTrue(metrics.contains("new 1\n"));
+        Assert.assertFalse(metrics.contains("old"));
+    }
+
+    @Test
+    public void previousRegistryShouldBeServedIfTheNewProcessorIsStopped() throws IOException, ConfigException
+    {
+        processor.process(createParserOutput("200", null), createProcessParams("old", "counter", null, null));
+
+        // a reload creates the new processor on the same port and stops it when the new config fails to compile
+        PrometheusProcessor newProcessor = createProcessor(processor.getPort());
+        newProcessor.process(createParserOutput("200", null), createProcessParams("new", "counter", null, null));
+        newProcessor.stop();
+
+        String metrics = scrape(processor.getPort());
+        Assert.assertTrue(metrics.contains("old 1\n"));
+        Assert.assertFalse(metrics.contains("new"));
+    }
+
+    private String scrape(final int port) throws IOException
+    {
+        HttpURLConnection connection = (HttpURLConnection) new URL(
+                "http://127.0.0.1:" + port + "/metrics"
+        ).openConnection();
+        return read(connection.getInputStream());
+    }
+
+    private PrometheusProcessor createProcessor() throws ConfigException
+    {
+        return createProcessor(0);
+    }
+
+    private PrometheusProcessor createProcessor(final int port) throws ConfigException
+    {
+        PrometheusProcessor result = new PrometheusProcessor();
+
+        Map<String, Object> config = new HashMap<String, Object>();
+        config.put("class", PrometheusProcessor.class.getCanonicalName());
+        config.put("host", "127.0.0.1");
+        config.put("port", port);
+
+        result.getModuleConfig().parse("x", config);
+        result.setUpModule(config);
+        return result;
+    }
+
+    private Map<String, Object> createParserOutput(final String status, final String size)
+    {
+        Map<String, Object> parserOutput = new HashMap<String, Object>();
+        parserOutput.put("status", status);
+        if (size != null)
+        {
+            parserOutput.put("size", size);
+        }
+        return parserOutput;
+    }
+
+    private Map<String, Object> createLabels(final String name, final Object value)
+    {
+        Map<String, Object> labels = new HashMap<String, Object>();
+        labels.put(name, value);
+        return labels;
+    }
+
+    private Map<String, Object> createProcessParams(final String name, final String type, final Object value,
+                                                    final Map<String, Object> labels)
+    {
+        Map<String, Object> params = new HashMap<String, Object>();
+        Map<String, Object> metric = new HashMap<String, Object>();
+        metric.put("name", name);
+        metric.put("type", type);
+        metric.put("value", value);
+        metric.put("labels", labels);
+        params.put("metrics", Arrays.<Map>asList(metric));
+        return params;
+    }
+
+    private String read(final InputStream input) throws IOException
+    {
+        try
+        {
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int length;
+            while ((length = input.read(buffer)) != -1)
+            {
+                result.write(buffer, 0, length);
+            }
+            return result.toString("UTF-8");
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+}
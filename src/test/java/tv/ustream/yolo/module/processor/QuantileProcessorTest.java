@@ -0,0 +1,179 @@
+package tv.ustream.yolo.module.processor;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentMatcher;
+import tv.ustream.yolo.config.ConfigException;
+import tv.ustream.yolo.config.ConfigPattern;
+import tv.ustream.yolo.module.ModuleFactory;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Matchers.anyDouble;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.doubleThat;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@SuppressWarnings("unchecked")
+public class QuantileProcessorTest
+{
+
+    private static final long FLUSH_TIME_MS = TimeUnit.HOURS.toMillis(1);
+
+    private static final long BOUNDARY_MS = 1400000400000L;
+
+    private MetricOutput output;
+
+    private QuantileProcessor processor;
+
+    @Before
+    public void setUp() throws ConfigException
+    {
+        output = mock(MetricOutput.class);
+
+        processor = new QuantileProcessor()
+        {
+            @Override
+            protected MetricOutput createOutput(Map<String, Object> parameters, long flushTimeMs)
+            {
+                return output;
+            }
+
+            @Override
+            protected long currentTimeMillis()
+            {
+                return BOUNDARY_MS + 1000;
+            }
+        };
+
+        Map<String, Object> config = new HashMap<String, Object>();
+        config.put("class", QuantileProcessor.class.getCanonicalName());
+        config.put("flushTimeMs", FLUSH_TIME_MS);
+        config.put("quantiles", Arrays.asList(0.5, 0.999));
+
+        processor.getModuleConfig().parse("x", config);
+        processor.setUpModule(config);
+    }
+
+    @After
+    public void tearDown()
+    {
+        processor.stop();
+    }
+
+    @Test
+    public void flushShouldSendStatisticsPerKey()
+    {
+        Map<String, Object> parserOutput = new HashMap<String, Object>();
+        parserOutput.put("endpoint", "api");
+
+        for (int i = 1; i <= 1000; i++)
+        {
+            parserOutput.put("time", String.valueOf(i));
+            processor.process(parserOutput, createProcessParams(new ConfigPattern("time.#endpoint#"), "#time#"));
+        }
+
+        processor.flush();
+
+        long timestamp = TimeUnit.MILLISECONDS.toSeconds(BOUNDARY_MS);
+        verify(output).send("time.api.count", 1000D, timestamp);
+        verify(output).send("time.api.min", 1D, timestamp);
+        verify(output).send("time.api.max", 1000D, timestamp);
+        verify(output).send(eq("time.api.p50"), doubleThat(isAbout(500)), eq(timestamp));
+        verify(output).send(eq("time.api.p99_9"), doubleThat(isAbout(999)), eq(timestamp));
+        verify(output).flush();
+    }
+
+    @Test
+    public void idleKeysShouldNotBeSent()
+    {
+        processor.add("key", 1);
+        processor.flush();
+        processor.flush();
+
+        verify(output).send(eq("key.count"), anyDouble(), anyLong());
+    }
+
+    @Test
+    public void emptyFlushShouldNotSend()
+    {
+        processor.flush();
+
+        verify(output, never()).send(anyString(), anyDouble(), anyLong());
+        verify(output, never()).flush();
+    }
+
+    @Test
+    public void stopShouldFlushAndStopOutput()
+    {
+        processor.add("key", 1);
+
+        processor.stop();
+
+        verify(output).send(eq("key.count"), anyDouble(), anyLong());
+        verify(output).stop();
+    }
+
+    @Test
+    public void quantileNamesShouldBeReadable()
+    {
+        Assert.assertEquals("p50", QuantileProcessor.getQuantileName(0.5));
+        Assert.assertEquals("p99", QuantileProcessor.getQuantileName(0.99));
+        Assert.assertEquals("p99_9", QuantileProcessor.getQuantileName(0.999));
+        Assert.assertEquals("p100", QuantileProcessor.getQuantileName(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidQuantileShouldThrowException() throws ConfigException
+    {
+        Map<String, Object> config = new HashMap<String, Object>();
+        config.put("class", QuantileProcessor.class.getCanonicalName());
+        config.put("output", MetricOutput.LOG_OUTPUT);
+        config.put("quantiles", Arrays.asList(1.5));
+
+        new ModuleFactory().createProcessor("x", config);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void missingHostShouldThrowException() throws ConfigException
+    {
+        Map<String, Object> config = new HashMap<String, Object>();
+        config.put("class", QuantileProcessor.class.getCanonicalName());
+        config.put("output", MetricOutput.GRAPHITE);
+
+        new ModuleFactory().createProcessor("x", config);
+    }
+
+    private static ArgumentMatcher<Double> isAbout(final double expected)
+    {
+        return new ArgumentMatcher<Double>()
+        {
+            @Override
+            public boolean matches(final Object argument)
+            {
+                return Math.abs((Double) argument - expected) <= expected * 0.01;
+            }
+        };
+    }
+
+    private Map<String, Object> createProcessParams(Object key, Object value)
+    {
+        Map<String, Object> params = new HashMap<String, Object>();
+        Map<String, Object> key1 = new HashMap<String, Object>();
+        key1.put("key", key);
+        key1.put("value", value instanceof String ? new ConfigPattern((String) value) : value);
+        key1.put("multiplier", 1D);
+        params.put("keys", Arrays.<Map>asList(key1));
+        return params;
+    }
+
+}
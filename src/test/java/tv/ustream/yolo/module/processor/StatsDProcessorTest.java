@@ -1,11 +1,11 @@
 package tv.ustream.yolo.module.processor;
 
-import com.timgroup.statsd.StatsDClient;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import tv.ustream.yolo.client.StatsDClient;
 import tv.ustream.yolo.config.ConfigException;
 import tv.ustream.yolo.config.ConfigPattern;
 import tv.ustream.yolo.module.ModuleFactory;
@@ -59,7 +59,7 @@ public class StatsDProcessorTest
 
         processor.process(parserOutput, createprocessParams(StatsDProcessor.Types.COUNTER.getValue(), "key", 5D));
 
-        verify(statsDClient).count("key", 5);
+        verify(statsDClient).count("key", 5, 1);
     }
 
     @Test
@@ -79,7 +79,7 @@ public class StatsDProcessorTest
 
         processor.process(parserOutput, createprocessParams(StatsDProcessor.Types.TIMER.getValue(), "key", 5D));
 
-        verify(statsDClient).time("key", 5);
+        verify(statsDClient).time("key", 5, 1);
     }
 
     @Test
@@ -92,7 +92,7 @@ public class StatsDProcessorTest
 
         processor.process(parserOutput, createprocessParams(StatsDProcessor.Types.COUNTER.getValue(), key, 5D));
 
-        verify(statsDClient).count("some.v1.key", 5);
+        verify(statsDClient).count("some.v1.key", 5, 1);
     }
 
     @Test
@@ -105,7 +105,7 @@ public class StatsDProcessorTest
 
         processor.process(parserOutput, createprocessParams(StatsDProcessor.Types.COUNTER.getValue(), "key", value));
 
-        verify(statsDClient).count("key", 5);
+        verify(statsDClient).count("key", 5, 1);
     }
 
     @Test
@@ -120,7 +120,7 @@ public class StatsDProcessorTest
 
         processor.process(parserOutput, createprocessParams(StatsDProcessor.Types.COUNTER.getValue(), key, value));
 
-        verify(statsDClient).count("some.v1.key", 5);
+        verify(statsDClient).count("some.v1.key", 5, 1);
     }
 
     @Test
@@ -148,7 +148,7 @@ public class StatsDProcessorTest
         processor.process(parserOutput, params);
 
         verify(statsDClient).gauge("some.v1.key", 1);
-        verify(statsDClient).time("someother.v1.key", 2);
+        verify(statsDClient).time("someother.v1.key", 2, 1);
     }
 
     @Test
@@ -158,7 +158,7 @@ public class StatsDProcessorTest
 
         processor.process(parserOutput, createprocessParams(StatsDProcessor.Types.COUNTER.getValue(), "key", 5D, 10D));
 
-        verify(statsDClient).count("key", 50);
+        verify(statsDClient).count("key", 50, 1);
     }
 
     @Test
@@ -171,7 +171,7 @@ public class StatsDProcessorTest
 
         processor.process(parserOutput, createprocessParams(StatsDProcessor.Types.COUNTER.getValue(), "key", value));
 
-        verify(statsDClient).count("key", 5 * 1024 * 1024);
+        verify(statsDClient).count("key", 5 * 1024 * 1024, 1);
     }
 
     @Test
@@ -200,6 +200,51 @@ public class StatsDProcessorTest
         verifyNoMoreInteractions(statsDClient);
     }
 
+    @Test
+    public void processShouldSendFractionalValues()
+    {
+        Map<String, Object> parserOutput = new HashMap<String, Object>();
+
+        processor.process(parserOutput, createprocessParams(StatsDProcessor.Types.TIMER.getValue(), "key", 2.5D));
+
+        verify(statsDClient).time("key", 2.5, 1);
+    }
+
+    @Test
+    public void invalidSampleRateShouldThrowException()
+    {
+        thrown.expect(IllegalArgumentException.class);
+
+        Map<String, Object> key1 = new HashMap<String, Object>();
+        key1.put("type", StatsDProcessor.Types.COUNTER.getValue());
+        key1.put("key", "key");
+        key1.put("value", 1D);
+        key1.put("sampleRate", 1.5D);
+
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("keys", Arrays.<Map>asList(key1));
+
+        processor.process(new HashMap<String, Object>(), params);
+    }
+
+    @Test
+    public void processShouldAggregateWhenFlushTimeIsSet() throws ConfigException
+    {
+        processor = createProcessorMock("prefix", "host", 1234, 3600000);
+
+        Map<String, Object> parserOutput = new HashMap<String, Object>();
+
+        processor.process(parserOutput, createprocessParams(StatsDProcessor.Types.COUNTER.getValue(), "key", 5D));
+        processor.process(parserOutput, createprocessParams(StatsDProcessor.Types.COUNTER.getValue(), "key", 3D));
+
+        verifyNoMoreInteractions(statsDClient);
+
+        processor.stop();
+
+        verify(statsDClient).count("key", 8, 1);
+        verify(statsDClient).stop();
+    }
+
     private Map<String, Object> createprocessParams(String type, Object key, Object value)
     {
         return createprocessParams(type, key, value, 1D);
@@ -229,10 +274,16 @@ public class StatsDProcessorTest
     }
 
     private StatsDProcessor createProcessorMock(String prefix, String host, Integer port) throws ConfigException
+    {
+        return createProcessorMock(prefix, host, port, 0);
+    }
+
+    private StatsDProcessor createProcessorMock(String prefix, String host, Integer port, long flushTimeMs)
+        throws ConfigException
     {
         StatsDProcessor processor = new StatsDProcessor()
         {
-            protected StatsDClient createClient(String prefix, String host, int port)
+            protected StatsDClient createClient(String prefix, String host, int port, int maxPacketSize)
             {
                 return statsDClient;
             }
@@ -243,6 +294,7 @@ public class StatsDProcessorTest
         config.put("prefix", prefix);
         config.put("host", host);
         config.put("port", port.doubleValue());
+        config.put("flushTimeMs", flushTimeMs);
 
         processor.setUpModule(config);
 
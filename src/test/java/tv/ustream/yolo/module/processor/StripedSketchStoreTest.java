@@ -0,0 +1,129 @@
+package tv.ustream.yolo.module.processor;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class StripedSketchStoreTest
+{
+
+    private final Set<String> keptKeys = new HashSet<String>();
+
+    private StripedSketchStore<List<String>, String> store;
+
+    private Map<String, List<String>> flushed;
+
+    @Before
+    public void setUp()
+    {
+        store = new StripedSketchStore<List<String>, String>()
+        {
+            @Override
+            protected List<String> createSketch()
+            {
+                return new ArrayList<String>();
+            }
+
+            @Override
+            protected void addValue(final List<String> sketch, final String value)
+            {
+                sketch.add(value);
+            }
+
+            @Override
+            protected boolean isEmpty(final List<String> sketch)
+            {
+                return sketch.isEmpty();
+            }
+
+            @Override
+            protected void clear(final List<String> sketch)
+            {
+                sketch.clear();
+            }
+
+            @Override
+            protected boolean keepEmpty(final String key)
+            {
+                return keptKeys.contains(key);
+            }
+        };
+    }
+
+    @Test
+    public void flushShouldHandleTheValuesOfTheIntervalPerKey()
+    {
+        store.add("k1", "a");
+        store.add("k1", "b");
+        store.add("k2", "c");
+
+        Assert.assertEquals(2, flush());
+        Assert.assertEquals(list("a", "b"), flushed.get("k1"));
+        Assert.assertEquals(list("c"), flushed.get("k2"));
+
+        store.add("k1", "d");
+
+        Assert.assertEquals(1, flush());
+        Assert.assertEquals(list("d"), flushed.get("k1"));
+    }
+
+    @Test
+    public void idleKeyShouldBeRemovedAndAddedAgain()
+    {
+        store.add("k1", "a");
+        flush();
+
+        Assert.assertEquals(0, flush());
+
+        store.add("k1", "b");
+
+        Assert.assertEquals(1, flush());
+        Assert.assertEquals(list("b"), flushed.get("k1"));
+    }
+
+    @Test
+    public void keptKeyShouldBeHandledWithEmptySketch()
+    {
+        keptKeys.add("k1");
+        store.add("k1", "a");
+        flush();
+
+        Assert.assertEquals(1, flush());
+        Assert.assertEquals(list(), flushed.get("k1"));
+
+        keptKeys.clear();
+
+        Assert.assertEquals(0, flush());
+    }
+
+    private int flush()
+    {
+        flushed = new LinkedHashMap<String, List<String>>();
+        return store.flush(new StripedSketchStore.Handler<List<String>>()
+        {
+            @Override
+            public void handle(final String key, final List<String> sketch)
+            {
+                flushed.put(key, new ArrayList<String>(sketch));
+            }
+        });
+    }
+
+    private static List<String> list(final String... values)
+    {
+        List<String> result = new ArrayList<String>();
+        for (String value : values)
+        {
+            result.add(value);
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,166 @@
+package tv.ustream.yolo.module.processor;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import tv.ustream.yolo.config.ConfigException;
+import tv.ustream.yolo.config.ConfigPattern;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Matchers.anyDouble;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class ThresholdProcessorTest
+{
+
+    private static final long START_MS = 1400000400000L;
+
+    private MetricOutput output;
+
+    private ThresholdProcessor processor;
+
+    private long now;
+
+    @Before
+    public void setUp() throws ConfigException
+    {
+        output = mock(MetricOutput.class);
+        now = START_MS;
+
+        processor = new ThresholdProcessor()
+        {
+            @Override
+            protected MetricOutput createOutput(Map<String, Object> parameters, long flushTimeMs)
+            {
+                return output;
+            }
+
+            @Override
+            protected long currentTimeMillis()
+            {
+                return now;
+            }
+        };
+
+        Map<String, Object> config = new HashMap<String, Object>();
+        config.put("class", ThresholdProcessor.class.getCanonicalName());
+        config.put("windowMs", 60000);
+        config.put("checkTimeMs", TimeUnit.HOURS.toMillis(1));
+
+        processor.getModuleConfig().parse("x", config);
+        processor.setUpModule(config);
+    }
+
+    @After
+    public void tearDown()
+    {
+        processor.stop();
+    }
+
+    @Test
+    public void crossingThresholdShouldSendEventAtOnce()
+    {
+        Map<String, Object> parserOutput = new HashMap<String, Object>();
+        parserOutput.put("type", "oom");
+
+        for (int i = 0; i < 4; i++)
+        {
+            processor.process(parserOutput, createProcessParams(new ConfigPattern("errors.#type#"), 3, null));
+        }
+
+        Assert.assertTrue(processor.isFiring("errors.oom"));
+        long timestamp = TimeUnit.MILLISECONDS.toSeconds(now);
+        verify(output).send("errors.oom.alert", 1D, timestamp);
+        verify(output).send("errors.oom.window", 4D, timestamp);
+        verify(output, never()).flush();
+
+        processor.check();
+
+        verify(output).flush();
+    }
+
+    @Test
+    public void eventShouldBeSentOnlyOnce()
+    {
+        for (int i = 0; i < 10; i++)
+        {
+            processor.add("key", 1, 3, 3);
+        }
+
+        verify(output, times(1)).send("key.alert", 1D, TimeUnit.MILLISECONDS.toSeconds(now));
+    }
+
+    @Test
+    public void clearShouldUseHysteresis()
+    {
+        for (int i = 0; i < 10; i++)
+        {
+            processor.add("key", 1, 5, 2);
+        }
+
+        now += 30000;
+        processor.add("key", 1, 5, 2);
+        processor.add("key", 1, 5, 2);
+        processor.add("key", 1, 5, 2);
+
+        now += 31000;
+        processor.check();
+        Assert.assertTrue(processor.isFiring("key"));
+
+        now += 30000;
+        processor.check();
+        Assert.assertFalse(processor.isFiring("key"));
+        verify(output).send("key.alert", 0D, TimeUnit.MILLISECONDS.toSeconds(now));
+        verify(output).send("key.window", 0D, TimeUnit.MILLISECONDS.toSeconds(now));
+    }
+
+    @Test
+    public void valuesBelowThresholdShouldNotSend()
+    {
+        processor.add("key", 2, 5, 5);
+        processor.add("key", 3, 5, 5);
+        processor.check();
+
+        verify(output, never()).send(anyString(), anyDouble(), anyLong());
+    }
+
+    @Test
+    public void idleKeysShouldBeRemoved()
+    {
+        processor.add("key", 1, 5, 5);
+
+        now += 120000;
+        processor.check();
+
+        processor.add("key", 6, 5, 5);
+        Assert.assertTrue(processor.isFiring("key"));
+    }
+
+    @Test(expected = ConfigException.class)
+    public void clearThresholdAboveThresholdShouldThrowException() throws ConfigException
+    {
+        processor.compileProcessParams(createProcessParams("key", 5, 10D));
+    }
+
+    private Map<String, Object> createProcessParams(Object key, Number threshold, Double clearThreshold)
+    {
+        Map<String, Object> params = new HashMap<String, Object>();
+        Map<String, Object> key1 = new HashMap<String, Object>();
+        key1.put("key", key);
+        key1.put("threshold", threshold);
+        key1.put("clearThreshold", clearThreshold);
+        params.put("keys", Arrays.<Map>asList(key1));
+        return params;
+    }
+
+}
@@ -0,0 +1,154 @@
+package tv.ustream.yolo.module.processor;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import tv.ustream.yolo.config.ConfigException;
+import tv.ustream.yolo.config.ConfigPattern;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Matchers.anyDouble;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class TopKProcessorTest
+{
+
+    private static final long FLUSH_TIME_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final long BOUNDARY_MS = 1400000400000L;
+
+    private MetricOutput output;
+
+    private TopKProcessor processor;
+
+    @Before
+    public void setUp() throws ConfigException
+    {
+        output = mock(MetricOutput.class);
+
+        processor = new TopKProcessor()
+        {
+            @Override
+            protected MetricOutput createOutput(Map<String, Object> parameters, long flushTimeMs)
+            {
+                return output;
+            }
+
+            @Override
+            protected long currentTimeMillis()
+            {
+                return BOUNDARY_MS;
+            }
+        };
+
+        Map<String, Object> config = new HashMap<String, Object>();
+        config.put("class", TopKProcessor.class.getCanonicalName());
+        config.put("flushTimeMs", FLUSH_TIME_MS);
+        config.put("topK", 2);
+
+        processor.getModuleConfig().parse("x", config);
+        processor.setUpModule(config);
+    }
+
+    @After
+    public void tearDown()
+    {
+        processor.stop();
+    }
+
+    @Test
+    public void flushShouldSendTopValues()
+    {
+        Map<String, Object> parserOutput = new HashMap<String, Object>();
+        parserOutput.put("status", "500");
+
+        String[] paths = {"/a", "/b", "/a", "/c", "/a", "/b"};
+        for (String path : paths)
+        {
+            parserOutput.put("path", path);
+            processor.process(parserOutput, createProcessParams(new ConfigPattern("errors.#status#"), "#path#"));
+        }
+
+        processor.flush();
+
+        long timestamp = TimeUnit.MILLISECONDS.toSeconds(BOUNDARY_MS);
+        verify(output).send("errors.500._a", 3D, timestamp);
+        verify(output).send("errors.500._b", 2D, timestamp);
+        verify(output, times(2)).send(anyString(), anyDouble(), anyLong());
+        verify(output).flush();
+    }
+
+    @Test
+    public void windowsShouldBeCountedSeparately()
+    {
+        processor.add("key", "a");
+        processor.flush();
+        processor.add("key", "a");
+        processor.flush();
+
+        verify(output, times(2)).send(eq("key.a"), eq(1D), anyLong());
+    }
+
+    @Test
+    public void emptyFlushShouldNotSend()
+    {
+        processor.flush();
+
+        verify(output, never()).send(anyString(), anyDouble(), anyLong());
+    }
+
+    @Test
+    public void stopShouldFlushAndStopOutput()
+    {
+        processor.add("key", "a");
+
+        processor.stop();
+
+        verify(output).send(eq("key.a"), eq(1D), anyLong());
+        verify(output).stop();
+    }
+
+    @Test
+    public void valuesWithTheSameMetricNameShouldBeMerged()
+    {
+        processor.add("key", "/a.b");
+        processor.add("key", "/a.b");
+        processor.add("key", "/a/b");
+
+        processor.flush();
+
+        verify(output).send(eq("key._a_b"), eq(3D), anyLong());
+        verify(output, times(1)).send(anyString(), anyDouble(), anyLong());
+    }
+
+    @Test
+    public void metricNamesShouldBeSanitized()
+    {
+        Assert.assertEquals("_api_v1_users", TopKProcessor.getMetricName("/api/v1/users"));
+        Assert.assertEquals("10_0_0_1", TopKProcessor.getMetricName("10.0.0.1"));
+        Assert.assertEquals("customer-42", TopKProcessor.getMetricName("customer-42"));
+        Assert.assertEquals("_", TopKProcessor.getMetricName(""));
+    }
+
+    private Map<String, Object> createProcessParams(Object key, String value)
+    {
+        Map<String, Object> params = new HashMap<String, Object>();
+        Map<String, Object> key1 = new HashMap<String, Object>();
+        key1.put("key", key);
+        key1.put("value", new ConfigPattern(value));
+        params.put("keys", Arrays.<Map>asList(key1));
+        return params;
+    }
+
+}
@@ -0,0 +1,83 @@
+package tv.ustream.yolo.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HyperLogLogTest
+{
+
+    @Test
+    public void emptySketchShouldEstimateZero()
+    {
+        HyperLogLog sketch = new HyperLogLog(12);
+
+        Assert.assertTrue(sketch.isEmpty());
+        Assert.assertEquals(0, sketch.estimate());
+    }
+
+    @Test
+    public void smallCardinalitiesShouldBeExactEnough()
+    {
+        HyperLogLog sketch = new HyperLogLog(12);
+        for (int i = 0; i < 3; i++)
+        {
+            sketch.add("10.0.0.1");
+            sketch.add("10.0.0.2");
+            sketch.add("10.0.0.3");
+        }
+
+        Assert.assertEquals(3, sketch.estimate());
+    }
+
+    @Test
+    public void largeCardinalitiesShouldBeWithinError()
+    {
+        HyperLogLog sketch = new HyperLogLog(12);
+        for (int i = 0; i < 100000; i++)
+        {
+            sketch.add("user" + i);
+        }
+
+        Assert.assertEquals(100000, sketch.estimate(), 100000 * 0.05);
+    }
+
+    @Test
+    public void mergedSketchShouldEstimateTheUnion()
+    {
+        HyperLogLog first = new HyperLogLog(12);
+        HyperLogLog second = new HyperLogLog(12);
+        for (int i = 0; i < 20000; i++)
+        {
+            first.add("user" + i);
+            second.add("user" + (i + 10000));
+        }
+
+        first.merge(second);
+
+        Assert.assertEquals(30000, first.estimate(), 30000 * 0.05);
+    }
+
+    @Test
+    public void clearShouldRemoveValues()
+    {
+        HyperLogLog sketch = new HyperLogLog(8);
+        sketch.add("a");
+        sketch.clear();
+
+        Assert.assertTrue(sketch.isEmpty());
+        Assert.assertEquals(0, sketch.estimate());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidPrecisionShouldThrowException()
+    {
+        new HyperLogLog(20);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sketchesWithDifferentPrecisionShouldNotBeMerged()
+    {
+        new HyperLogLog(12).merge(new HyperLogLog(10));
+    }
+
+}
@@ -0,0 +1,121 @@
+package tv.ustream.yolo.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class QuantileSketchTest
+{
+
+    @Test
+    public void emptySketchShouldReturnNaN()
+    {
+        QuantileSketch sketch = new QuantileSketch(0.01, 2048);
+
+        Assert.assertTrue(sketch.isEmpty());
+        Assert.assertTrue(Double.isNaN(sketch.getQuantile(0.5)));
+        Assert.assertTrue(Double.isNaN(sketch.getMin()));
+    }
+
+    @Test
+    public void quantilesShouldBeWithinRelativeAccuracy()
+    {
+        QuantileSketch sketch = new QuantileSketch(0.01, 2048);
+        for (int i = 1; i <= 10000; i++)
+        {
+            sketch.add(i);
+        }
+
+        Assert.assertEquals(10000, sketch.getCount());
+        Assert.assertEquals(1, sketch.getMin(), 0);
+        Assert.assertEquals(10000, sketch.getMax(), 0);
+        assertRelative(5000, sketch.getQuantile(0.5), 0.01);
+        assertRelative(9500, sketch.getQuantile(0.95), 0.01);
+        assertRelative(9900, sketch.getQuantile(0.99), 0.01);
+        Assert.assertEquals(1, sketch.getQuantile(0), 0);
+        Assert.assertEquals(10000, sketch.getQuantile(1), 0);
+    }
+
+    @Test
+    public void negativeAndZeroValuesShouldBeHandled()
+    {
+        QuantileSketch sketch = new QuantileSketch(0.01, 2048);
+        sketch.add(-100);
+        sketch.add(-10);
+        sketch.add(0);
+        sketch.add(10);
+        sketch.add(100);
+
+        assertRelative(-100, sketch.getQuantile(0), 0.01);
+        assertRelative(-10, sketch.getQuantile(0.25), 0.01);
+        Assert.assertEquals(0, sketch.getQuantile(0.5), 0);
+        assertRelative(10, sketch.getQuantile(0.75), 0.01);
+        assertRelative(100, sketch.getQuantile(1), 0.01);
+    }
+
+    @Test
+    public void mergedSketchShouldEqualSketchOfAllValues()
+    {
+        QuantileSketch all = new QuantileSketch(0.01, 2048);
+        QuantileSketch first = new QuantileSketch(0.01, 2048);
+        QuantileSketch second = new QuantileSketch(0.01, 2048);
+
+        Random random = new Random(1);
+        for (int i = 0; i < 10000; i++)
+        {
+            double value = Math.exp(random.nextGaussian() * 3);
+            all.add(value);
+            (i % 2 == 0 ? first : second).add(value);
+        }
+
+        first.merge(second);
+
+        Assert.assertEquals(all.getCount(), first.getCount());
+        Assert.assertEquals(all.getMin(), first.getMin(), 0);
+        Assert.assertEquals(all.getMax(), first.getMax(), 0);
+        for (double quantile : new double[] {0.1, 0.5, 0.9, 0.99})
+        {
+            Assert.assertEquals(all.getQuantile(quantile), first.getQuantile(quantile), 0);
+        }
+    }
+
+    @Test
+    public void bucketsShouldBeBoundedAndKeepUpperQuantiles()
+    {
+        QuantileSketch sketch = new QuantileSketch(0.01, 100);
+        for (int i = 1; i <= 100000; i++)
+        {
+            sketch.add(i);
+        }
+
+        assertRelative(99000, sketch.getQuantile(0.99), 0.01);
+        Assert.assertEquals(1, sketch.getMin(), 0);
+        Assert.assertTrue(sketch.getQuantile(0.001) < 100000 * Math.pow(1.0202, -99));
+    }
+
+    @Test
+    public void clearShouldRemoveValues()
+    {
+        QuantileSketch sketch = new QuantileSketch(0.01, 2048);
+        sketch.add(5);
+        sketch.clear();
+
+        Assert.assertTrue(sketch.isEmpty());
+
+        sketch.add(1000);
+        assertRelative(1000, sketch.getQuantile(0.5), 0.01);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sketchesWithDifferentAccuracyShouldNotBeMerged()
+    {
+        new QuantileSketch(0.01, 2048).merge(new QuantileSketch(0.02, 2048));
+    }
+
+    private void assertRelative(final double expected, final double actual, final double accuracy)
+    {
+        Assert.assertEquals(expected, actual, Math.abs(expected) * accuracy);
+    }
+
+}
@@ -0,0 +1,61 @@
+package tv.ustream.yolo.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SlidingWindowCounterTest
+{
+
+    @Test
+    public void valuesInWindowShouldBeSummed()
+    {
+        SlidingWindowCounter counter = new SlidingWindowCounter(10000, 10);
+        counter.add(100000, 1);
+        counter.add(101500, 2);
+        counter.add(109999, 3);
+
+        Assert.assertEquals(6, counter.getSum(109999), 0);
+        Assert.assertEquals(3, counter.getCount(109999));
+    }
+
+    @Test
+    public void expiredBucketsShouldBeRemoved()
+    {
+        SlidingWindowCounter counter = new SlidingWindowCounter(10000, 10);
+        counter.add(100000, 1);
+        counter.add(101500, 2);
+        counter.add(105000, 3);
+
+        Assert.assertEquals(5, counter.getSum(110000), 0);
+        Assert.assertEquals(3, counter.getSum(111000), 0);
+        Assert.assertEquals(0, counter.getSum(115000), 0);
+        Assert.assertEquals(0, counter.getCount(115000));
+    }
+
+    @Test
+    public void longGapShouldClearTheWindow()
+    {
+        SlidingWindowCounter counter = new SlidingWindowCounter(10000, 10);
+        counter.add(100000, 5);
+        counter.add(500000, 1);
+
+        Assert.assertEquals(1, counter.getSum(500000), 0);
+    }
+
+    @Test
+    public void olderTimeShouldBeAddedToCurrentBucket()
+    {
+        SlidingWindowCounter counter = new SlidingWindowCounter(10000, 10);
+        counter.add(105000, 1);
+        counter.add(104000, 1);
+
+        Assert.assertEquals(2, counter.getSum(105000), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooSmallWindowShouldThrowException()
+    {
+        new SlidingWindowCounter(5, 10);
+    }
+
+}
@@ -0,0 +1,159 @@
+package tv.ustream.yolo.util;
+
+import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TimestampParserTest
+{
+
+    @Test
+    public void shouldParseEpochSeconds()
+    {
+        TimestampParser parser = new TimestampParser(TimestampParser.EPOCH);
+
+        Assert.assertEquals(1234567890L, parser.parse("1234567890"));
+        Assert.assertEquals(1234567890L, parser.parse("1234567890.123"));
+    }
+
+    @Test
+    public void shouldParseEpochMilliseconds()
+    {
+        TimestampParser parser = new TimestampParser(TimestampParser.EPOCH_MS);
+
+        Assert.assertEquals(1234567890L, parser.parse("1234567890123"));
+    }
+
+    @Test
+    public void shouldReturnInvalidForInvalidValues()
+    {
+        Assert.assertEquals(TimestampParser.INVALID, new TimestampParser(TimestampParser.EPOCH).parse("abc"));
+        Assert.assertEquals(TimestampParser.INVALID, new TimestampParser(TimestampParser.EPOCH).parse(""));
+        Assert.assertEquals(TimestampParser.INVALID, new TimestampParser(TimestampParser.EPOCH).parse(null));
+        Assert.assertEquals(TimestampParser.INVALID, new TimestampParser("apache").parse("not a date"));
+    }
+
+    @Test
+    public void shouldRejectTrailingCharacters()
+    {
+        Assert.assertEquals(
+                TimestampParser.INVALID,
+                new TimestampParser("apache").parse("10/Oct/2000:13:55:36 -0700x")
+        );
+        Assert.assertEquals(TimestampParser.INVALID, new TimestampParser("iso8601").parse("2000-10-10T20:55:36Z abc"));
+        Assert.assertEquals(
+                TimestampParser.INVALID,
+                new TimestampParser("yyyy.MM.dd HH:mm:ss").parse("2000.10.10 20:55:36 garbage")
+        );
+    }
+
+    @Test
+    public void shouldConvertNumericValues()
+    {
+        Assert.assertEquals(1234567890L, new TimestampParser(TimestampParser.EPOCH).parseNumber(1234567890L));
+        Assert.assertEquals(1234567890L, new TimestampParser(TimestampParser.EPOCH).parseNumber(1234567890.5D));
+        Assert.assertEquals(1234567890L, new TimestampParser(TimestampParser.EPOCH_MS).parseNumber(1234567890123L));
+        Assert.assertEquals(TimestampParser.INVALID, new TimestampParser("iso8601").parseNumber(1234567890L));
+    }
+
+    @Test
+    public void shouldParseApacheFormat()
+    {
+        TimestampParser parser = new TimestampParser("apache");
+
+        Assert.assertEquals(971211336L, parser.parse("10/Oct/2000:13:55:36 -0700"));
+    }
+
+    @Test
+    public void shouldParseIso8601Format()
+    {
+        TimestampParser parser = new TimestampParser("iso8601");
+
+        Assert.assertEquals(971211336L, parser.parse("2000-10-10T20:55:36.123Z"));
+        Assert.assertEquals(971211336L, parser.parse("2000-10-10T22:55:36+02:00"));
+    }
+
+    @Test
+    public void shouldParseCustomFormat()
+    {
+        TimestampParser parser = new TimestampParser("yyyy.MM.dd HH:mm:ss Z");
+
+        Assert.assertEquals(971211336L, parser.parse("2000.10.10 20:55:36 +0000"));
+    }
+
+    @Test
+    public void sameSecondWithDifferentFractionShouldReturnTheSameResult()
+    {
+        TimestampParser parser = new TimestampParser("log4j");
+
+        long expected = getLocalTimestamp(2000, 10, 10, 20, 55, 36);
+
+        Assert.assertEquals(expected, parser.parse("2000-10-10 20:55:36,001"));
+        Assert.assertEquals(expected, parser.parse(new StringBuilder("2000-10-10 20:55:36,999")));
+        Assert.assertEquals(expected + 1, parser.parse("2000-10-10 20:55:37,000"));
+    }
+
+    @Test
+    public void sameSecondWithMalformedFractionShouldBeInvalid()
+    {
+        TimestampParser parser = new TimestampParser("log4j");
+
+        long expected = getLocalTimestamp(2000, 10, 10, 20, 55, 36);
+
+        Assert.assertEquals(expected, parser.parse("2000-10-10 20:55:36,001"));
+        Assert.assertEquals(TimestampParser.INVALID, parser.parse("2000-10-10 20:55:36,00x"));
+        Assert.assertEquals(TimestampParser.INVALID, parser.parse("2000-10-10 20:55:36,001 trailing"));
+        Assert.assertEquals(TimestampParser.INVALID, parser.parse("2000-10-10 20:55:36.001"));
+        Assert.assertEquals(TimestampParser.INVALID, parser.parse("2000-10-10 20:55:36"));
+        Assert.assertEquals(expected, parser.parse("2000-10-10 20:55:36,002"));
+    }
+
+    @Test
+    public void shouldParseMilliseconds()
+    {
+        TimestampParser parser = new TimestampParser("iso8601");
+
+        Assert.assertEquals(971211336123L, parser.parseMillis("2000-10-10T20:55:36.123Z"));
+        Assert.assertEquals(971211336500L, parser.parseMillis("2000-10-10T20:55:36.5Z"));
+        Assert.assertEquals(971211337000L, parser.parseMillis("2000-10-10T20:55:37Z"));
+        Assert.assertEquals(971211337250L, new TimestampParser("iso8601").parseMillis("2000-10-10T20:55:37.25Z"));
+        Assert.assertEquals(971211337123L, parser.parseMillis("2000-10-10T20:55:37.123456Z"));
+
+        TimestampParser epochParser = new TimestampParser(TimestampParser.EPOCH);
+        Assert.assertEquals(1234567890500L, epochParser.parseMillis("1234567890.5"));
+        Assert.assertEquals(1234567890500L, epochParser.parseNumberMillis(1234567890.5D));
+
+        TimestampParser epochMsParser = new TimestampParser(TimestampParser.EPOCH_MS);
+        Assert.assertEquals(1234567890123L, epochMsParser.parseMillis("1234567890123"));
+    }
+
+    @Test
+    public void sameSecondWithDifferentZoneShouldBeParsedAgain()
+    {
+        TimestampParser parser = new TimestampParser("iso8601");
+
+        Assert.assertEquals(971211336L, parser.parse("2000-10-10T20:55:36.123Z"));
+        Assert.assertEquals(971211336L - 3600, parser.parse("2000-10-10T20:55:36.456+01:00"));
+    }
+
+    @Test
+    public void shouldUseCurrentYearWhenFormatHasNoYear()
+    {
+        TimestampParser parser = new TimestampParser("syslog");
+
+        Calendar now = Calendar.getInstance();
+        long actual = parser.parse("Jan  1 00:00:00");
+
+        Assert.assertEquals(getLocalTimestamp(now.get(Calendar.YEAR), 1, 1, 0, 0, 0), actual);
+    }
+
+    private long getLocalTimestamp(int year, int month, int day, int hour, int minute, int second)
+    {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month - 1, day, hour, minute, second);
+        return TimeUnit.MILLISECONDS.toSeconds(calendar.getTimeInMillis());
+    }
+
+}
@@ -0,0 +1,96 @@
+package tv.ustream.yolo.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class TopKSketchTest
+{
+
+    @Test
+    public void topValuesShouldBeExactWithinCapacity()
+    {
+        TopKSketch sketch = new TopKSketch(10, 4, 1024);
+        add(sketch, "/a", 5);
+        add(sketch, "/b", 3);
+        add(sketch, "/c", 7);
+
+        List<TopKSketch.Entry> top = sketch.getTop(2);
+
+        Assert.assertEquals(2, top.size());
+        Assert.assertEquals("/c", top.get(0).getValue());
+        Assert.assertEquals(7, top.get(0).getCount());
+        Assert.assertEquals(0, top.get(0).getError());
+        Assert.assertEquals("/a", top.get(1).getValue());
+        Assert.assertEquals(5, top.get(1).getCount());
+        Assert.assertEquals(15, sketch.getTotal());
+    }
+
+    @Test
+    public void rareValuesShouldNotEvictFrequentOnes()
+    {
+        TopKSketch sketch = new TopKSketch(5, 4, 1024);
+        for (int i = 0; i < 100; i++)
+        {
+            sketch.add("/hot1");
+            sketch.add("/hot2");
+            sketch.add("/hot3");
+            sketch.add("/rare" + i);
+            sketch.add("/rare" + (i + 1000));
+        }
+
+        List<TopKSketch.Entry> top = sketch.getTop(3);
+
+        Assert.assertEquals(3, top.size());
+        for (TopKSketch.Entry entry : top)
+        {
+            Assert.assertTrue(entry.getValue().startsWith("/hot"));
+            Assert.assertEquals(100, entry.getCount());
+        }
+    }
+
+    @Test
+    public void heavyHitterShouldBeFoundInLongTail()
+    {
+        TopKSketch sketch = new TopKSketch(20, 4, 256);
+        for (int i = 0; i < 10000; i++)
+        {
+            sketch.add("/tail" + i);
+            if (i % 10 == 0)
+            {
+                sketch.add("/hot");
+            }
+        }
+
+        TopKSketch.Entry top = sketch.getTop(1).get(0);
+
+        Assert.assertEquals("/hot", top.getValue());
+        Assert.assertTrue(top.getCount() >= 1000);
+        Assert.assertTrue(top.getCount() - top.getError() <= 1000);
+    }
+
+    @Test
+    public void clearShouldRemoveValues()
+    {
+        TopKSketch sketch = new TopKSketch(10, 4, 1024);
+        add(sketch, "/a", 5);
+
+        sketch.clear();
+
+        Assert.assertTrue(sketch.isEmpty());
+        Assert.assertTrue(sketch.getTop(10).isEmpty());
+
+        sketch.add("/b");
+        Assert.assertEquals(1, sketch.getTop(10).get(0).getCount());
+    }
+
+    private void add(final TopKSketch sketch, final String value, final int count)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            sketch.add(value);
+        }
+    }
+
+}